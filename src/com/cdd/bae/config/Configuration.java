@@ -24,6 +24,10 @@ import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
 
 import org.slf4j.*;
 
@@ -48,7 +52,7 @@ public class Configuration
 	private InitParams params;
 	private Authentication authentication = null;
 	private Identifier identifier = null;
-	private NLPModels nlpModels = null;
+	private volatile NLPModels nlpModels = null; // may be loaded in the background
 	private SchemaVocabFile schemaVocabFile = null; // schema-vocab parsed
 	private Templates templates = null;
 	private Transliteration transliteration = null;
@@ -56,6 +60,7 @@ public class Configuration
 	private AxiomFiles axioms = null;
 	
 	private String configFN = null;
+	private long contentStamp = 0;
 
 	// ------------ public methods ------------
 
@@ -100,7 +105,8 @@ public class Configuration
 			timer.report("InitParams information loaded (if available), time required: {}");
 
 			// skip loading models, if we can reuse old NLP models (models are loaded in background
-			reuseOld = oldConfiguration != null && oldConfiguration.params.nlpDir.equals(params.nlpDir) && !oldConfiguration.nlpModels.hasChanged();
+			reuseOld = oldConfiguration != null && oldConfiguration.params.nlpDir.equals(params.nlpDir) &&
+					   oldConfiguration.nlpModels != null && !oldConfiguration.nlpModels.hasChanged();
 			Thread loadNLPthread = null;
 			if (loadNLPModels && !reuseOld)
 			{
@@ -121,6 +127,7 @@ public class Configuration
 
 			LogTimer block = new LogTimer(logger);
 			authentication = new Authentication(params.authenticationFile);
+			Authentication.currentSessions.configure(params.sessions);
 			block.report("Authentication information loaded (if available), time required: {}");
 
 			block.reset();
@@ -170,6 +177,10 @@ public class Configuration
 				loadNLPthread.join();
 				block.report("Waiting for NLP models to finish loading (if required), time required: {}");
 			}
+
+			block.reset();
+			contentStamp = hashContent();
+			block.report("Configuration content hashed, time required: {}");
 			timer.report("Configuration loaded successfully, time required: {}");
 		}
 		catch (JSONSchemaValidatorException | ConfigurationException ex)
@@ -196,6 +207,14 @@ public class Configuration
 		return false;
 	}
 
+	// a hash of the files that the configuration, templates & vocabulary were loaded from: the same content always gives the
+	// same value, even across restarts, so it can be used like a watermark for anything derived from them; 0 if the files
+	// could not be read
+	public long getContentStamp()
+	{
+		return contentStamp;
+	}
+
 	// ------------ access to commons ------------
 
 	// returns the filename that is known to contain the configuration, or null if not defined
@@ -388,20 +407,33 @@ public class Configuration
 		return params.buildData;
 	}
 
-	// ------------ schema trees: quick fetching from cache ------------
+	// ------------ private methods ------------
 
-	// convenience method for grabbing a schema tree, by supplying only the property URI
-	public SchemaTree obtainTree(Schema schema, Schema.Assignment assn)
+	private long hashContent()
 	{
-		return schemaVocabFile.obtainTree(schema, assn.propURI, assn.groupNest());
-	}
+		List<File> files = new ArrayList<>();
+		if (configFN != null) files.add(new File(configFN));
+		try
+		{
+			files.addAll(templates.getFilesOrdered());
+			files.add(schemaVocabFile.getFile());
 
-	// convenience method for grabbing a schema tree, by supplying only the property URI
-	public SchemaTree obtainTree(Schema schema, String propURI, String[] groupNest)
-	{
-		return schemaVocabFile.obtainTree(schema, propURI, groupNest);
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (File file : files)
+			{
+				md.update(file.getName().getBytes());
+				if (file.exists()) md.update(Files.readAllBytes(file.toPath()));
+			}
+			return ByteBuffer.wrap(md.digest()).getLong() & Long.MAX_VALUE;
+		}
+		catch (IOException | ConfigurationException ex)
+		{
+			logger.warn("Unable to hash configuration content", ex);
+			return 0;
+		}
+		catch (NoSuchAlgorithmException ex) {throw new IllegalStateException(ex);} // SHA-256 is always available
 	}
-	
+
 	// required for testing
 	
 	protected void setSchemaVocab(SchemaVocab schemaVocab)
@@ -18,7 +18,6 @@
 
 package com.cdd.bae.config;
 
-import com.cdd.bae.data.*;
 import com.cdd.bao.template.*;
 
 import java.io.*;
@@ -43,6 +42,7 @@ public class ExtraOntologies
 	private static final Logger logger = LoggerFactory.getLogger(ExtraOntologies.class);
 
 	private String directory;
+	private List<Pair<String, SchemaTree.Node>> nodes = new ArrayList<>(); // parentURI-to-node
 
 	// ------------ public methods ------------
 
@@ -68,6 +68,12 @@ public class ExtraOntologies
 		}
 	}
 
+	// the terms that were found, each with the URI of its parent: it's up to the caller to add them to the trees & vocabulary
+	public List<Pair<String, SchemaTree.Node>> getNodes()
+	{
+		return nodes;
+	}
+
 	// ------------ private methods ------------
 	
 	protected void processFile(File file)
@@ -94,8 +100,6 @@ public class ExtraOntologies
 		
 		// obtain all the "<x> subClassOf <y>" cases, and add them the roster
 		
-		List<Pair<String, SchemaTree.Node>> nodes = new ArrayList<>();
-		
 		for (StmtIterator iter = model.listStatements(null, subClassOf, (RDFNode)null); iter.hasNext();)
 		{
 			Statement stmt = iter.next();
@@ -124,23 +128,5 @@ public class ExtraOntologies
 
 			nodes.add(Pair.of(parentURI, node));
 		}
-		
-		// add the new terms to the general vocab lookup (this handles ordering/redundancy)
-		SchemaVocab schvoc = Common.getSchemaVocab();
-		List<SchemaVocab.StoredTerm> storedTerms = new ArrayList<>();
-		Set<String> addedURIs = new HashSet<>();
-		for (SchemaVocab.StoredTree stored : schvoc.getTrees())
-		{
-			List<SchemaTree.Node> added = stored.tree.addNodes(nodes);
-			for (SchemaTree.Node node : added) if (addedURIs.add(node.uri))
-			{
-				SchemaVocab.StoredTerm term = new SchemaVocab.StoredTerm();
-				term.uri = node.uri;
-				term.label = node.label;
-				term.descr = node.descr;
-				storedTerms.add(term);
-			}
-		}
-		schvoc.addTerms(storedTerms, new HashMap<>());
 	}
 }
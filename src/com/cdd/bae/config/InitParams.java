@@ -86,6 +86,11 @@ public class InitParams
 		public String name = null;
 		public String user = null;
 		public String password = null;
+		public int notifyDelay = 1000; // milliseconds over which change notifications are merged together
+		public String changeFeed = "auto"; // how changes made by other servers are noticed: stream, poll, auto or none
+		public int changePoll = 5; // seconds between checks, when polling
+		public int assayCache = 64; // megabytes of recently fetched assays to keep in memory (0 = none; ignored without a change feed)
+		public int modelCache = 256; // megabytes of models to keep in memory, for each of NLP & correlation (0 = none)
 		
 		static Database fromJSON(JSONObject json)
 		{
@@ -105,6 +110,11 @@ public class InitParams
 			database.name = env.getOrDefault("MONGO_NAME", json.optString("name", "bae"));
 			database.user = env.getOrDefault("MONGO_USER", json.optString("user", null));
 			database.password = env.getOrDefault("MONGO_PASSWORD", json.optString("password", null));
+			database.notifyDelay = json.optInt("notifyDelay", database.notifyDelay);
+			database.changeFeed = json.optString("changeFeed", database.changeFeed);
+			database.changePoll = json.optInt("changePoll", database.changePoll);
+			database.assayCache = json.optInt("assayCache", database.assayCache);
+			database.modelCache = json.optInt("modelCache", database.modelCache);
 			
 			return database;
 		}
@@ -115,13 +125,15 @@ public class InitParams
 			if (o == null || getClass() != o.getClass()) return false;
 			Database other = (Database)o;
 			return saveEquals(host, other.host) && port == other.port && saveEquals(name, other.name) &&
-					saveEquals(user, other.user) && saveEquals(password, other.password);
+					saveEquals(user, other.user) && saveEquals(password, other.password) && notifyDelay == other.notifyDelay &&
+					saveEquals(changeFeed, other.changeFeed) && changePoll == other.changePoll && assayCache == other.assayCache &&
+					modelCache == other.modelCache;
 		}
 		
 		@Override
 		public int hashCode()
 		{
-			return Objects.hash(host, port, name, user, password);
+			return Objects.hash(host, port, name, user, password, notifyDelay, changeFeed, changePoll, assayCache, modelCache);
 		}
 		
 		public void addDescription(List<String> lines)
@@ -131,6 +143,10 @@ public class InitParams
 			lines.add(indent + "port: " + port);
 			lines.add(indent + "name: " + name);
 			lines.add(indent + "user: " + user);
+			lines.add(indent + "notifyDelay: " + notifyDelay + " ms");
+			lines.add(indent + "changeFeed: " + changeFeed + ("none".equals(changeFeed) || "stream".equals(changeFeed) ? "" : " (" + changePoll + " s)"));
+			lines.add(indent + "assayCache: " + assayCache + " MB");
+			lines.add(indent + "modelCache: " + modelCache + " MB");
 		}
 	}
 
@@ -140,6 +156,7 @@ public class InitParams
 		public boolean compounds;
 		public String directory;
 		public boolean userRequests;
+		public int scanThreads; // threads used to scan the assay files: 0 means one per processor
 
 		static ModulePubChem fromJSON(JSONObject json, String baseDir)
 		{
@@ -153,6 +170,7 @@ public class InitParams
 			else
 				module.directory = cacheDirectory.getAbsolutePath();
 			module.userRequests = json.optBoolean("userRequests", false);
+			module.scanThreads = json.optInt("scanThreads", 0);
 			return module;
 		}
 
@@ -163,13 +181,13 @@ public class InitParams
 
 			ModulePubChem other = (ModulePubChem)o;
 			return assays == other.assays && compounds == other.compounds && 
-				saveEquals(directory, other.directory) && userRequests == other.userRequests;
+				saveEquals(directory, other.directory) && userRequests == other.userRequests && scanThreads == other.scanThreads;
 		}
 		
 		@Override
 		public int hashCode()
 		{
-			return Objects.hash(assays, compounds, directory, userRequests);
+			return Objects.hash(assays, compounds, directory, userRequests, scanThreads);
 		}
 	}
 
@@ -552,6 +570,237 @@ public class InitParams
 		}
 	}
 
+	public static final class ExportCache
+	{
+		public String directory = null;
+		public int maxSize = 1024; // in megabytes
+		public int warmCount = 5; // number of most requested exports to regenerate when the data changes
+
+		static ExportCache fromJSON(JSONObject json, String baseDir)
+		{
+			if (json == null) return null;
+
+			ExportCache cache = new ExportCache();
+			cache.directory = getPath(json, "directory", baseDir);
+			cache.maxSize = json.optInt("maxSize", cache.maxSize);
+			cache.warmCount = json.optInt("warmCount", cache.warmCount);
+			return cache;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == null || getClass() != o.getClass()) return false;
+			ExportCache other = (ExportCache)o;
+			return saveEquals(directory, other.directory) && maxSize == other.maxSize && warmCount == other.warmCount;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(directory, maxSize, warmCount);
+		}
+
+		public void addDescription(List<String> lines)
+		{
+			lines.add("Export cache:");
+			lines.add(indent + "directory: " + directory);
+			lines.add(indent + "maxSize: " + maxSize + " MB");
+			lines.add(indent + "warmCount: " + warmCount);
+		}
+	}
+
+	public static final class ModelStore
+	{
+		public String directory = null; // local (per server) copies of the models, memory-mapped for predictions
+
+		static ModelStore fromJSON(JSONObject json, String baseDir)
+		{
+			if (json == null) return null;
+
+			ModelStore store = new ModelStore();
+			store.directory = getPath(json, "directory", baseDir);
+			return store;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == null || getClass() != o.getClass()) return false;
+			ModelStore other = (ModelStore)o;
+			return saveEquals(directory, other.directory);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hashCode(directory);
+		}
+
+		public void addDescription(List<String> lines)
+		{
+			lines.add("Model store:");
+			lines.add(indent + "directory: " + directory);
+		}
+	}
+
+	public static final class Sessions
+	{
+		public int idleTimeout = 720; // minutes without activity before a login expires (0 = never)
+		public int maxAge = 168; // hours after authentication before a login expires regardless (0 = never)
+		public int maxCount = 10000; // maximum number of sessions held in memory
+		public boolean persist = false; // if true, sessions are kept in the database as well
+
+		static Sessions fromJSON(JSONObject json)
+		{
+			Sessions sessions = new Sessions();
+			sessions.idleTimeout = json.optInt("idleTimeout", sessions.idleTimeout);
+			sessions.maxAge = json.optInt("maxAge", sessions.maxAge);
+			sessions.maxCount = json.optInt("maxCount", sessions.maxCount);
+			sessions.persist = json.optBoolean("persist", sessions.persist);
+			return sessions;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == null || getClass() != o.getClass()) return false;
+			Sessions other = (Sessions)o;
+			return idleTimeout == other.idleTimeout && maxAge == other.maxAge && maxCount == other.maxCount && persist == other.persist;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(idleTimeout, maxAge, maxCount, persist);
+		}
+
+		public void addDescription(List<String> lines)
+		{
+			lines.add("Sessions:");
+			lines.add(indent + "idleTimeout: " + idleTimeout + " min");
+			lines.add(indent + "maxAge: " + maxAge + " h");
+			lines.add(indent + "maxCount: " + maxCount);
+			lines.add(indent + "persist: " + persist);
+		}
+	}
+
+	public static final class ResponseCache
+	{
+		public int maxSize = 64; // in megabytes
+		public int resultTTL = 5; // seconds that the results of coalesced requests are shared for after they are computed
+
+		static ResponseCache fromJSON(JSONObject json)
+		{
+			if (json == null) return null;
+
+			ResponseCache cache = new ResponseCache();
+			cache.maxSize = json.optInt("maxSize", cache.maxSize);
+			cache.resultTTL = json.optInt("resultTTL", cache.resultTTL);
+			return cache;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == null || getClass() != o.getClass()) return false;
+			ResponseCache other = (ResponseCache)o;
+			return maxSize == other.maxSize && resultTTL == other.resultTTL;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(maxSize, resultTTL);
+		}
+
+		public void addDescription(List<String> lines)
+		{
+			lines.add("Response cache:");
+			lines.add(indent + "maxSize: " + maxSize + " MB");
+			lines.add(indent + "resultTTL: " + resultTTL + " s");
+		}
+	}
+
+	public static final class WorkerPools
+	{
+		public int threads = 0; // worker threads for each slow endpoint (0 = half the processors, but at least 2)
+		public int queue = 20; // requests that can wait for a thread; any more than this are turned away
+		public int timeout = 120; // seconds before a request that hasn't started responding is abandoned (0 = never)
+		public int retryAfter = 10; // seconds that turned away clients are asked to wait
+
+		static WorkerPools fromJSON(JSONObject json)
+		{
+			WorkerPools pools = new WorkerPools();
+			pools.threads = json.optInt("threads", pools.threads);
+			pools.queue = json.optInt("queue", pools.queue);
+			pools.timeout = json.optInt("timeout", pools.timeout);
+			pools.retryAfter = json.optInt("retryAfter", pools.retryAfter);
+			return pools;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == null || getClass() != o.getClass()) return false;
+			WorkerPools other = (WorkerPools)o;
+			return threads == other.threads && queue == other.queue && timeout == other.timeout && retryAfter == other.retryAfter;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(threads, queue, timeout, retryAfter);
+		}
+
+		public void addDescription(List<String> lines)
+		{
+			lines.add("Worker pools:");
+			lines.add(indent + "threads: " + (threads > 0 ? String.valueOf(threads) : "auto"));
+			lines.add(indent + "queue: " + queue);
+			lines.add(indent + "timeout: " + timeout + " s");
+			lines.add(indent + "retryAfter: " + retryAfter + " s");
+		}
+	}
+
+	public static final class BackgroundTasks
+	{
+		public int maxConcurrent = 0; // background tasks allowed to do work at the same time (0 = half the processors, but at least 2)
+		public int latencyThreshold = 2000; // milliseconds: when requests are slower than this on average, tasks back off (0 = never)
+		public int maxBackoff = 300; // seconds: the longest that a task is held back for in one go
+
+		static BackgroundTasks fromJSON(JSONObject json)
+		{
+			BackgroundTasks tasks = new BackgroundTasks();
+			tasks.maxConcurrent = json.optInt("maxConcurrent", tasks.maxConcurrent);
+			tasks.latencyThreshold = json.optInt("latencyThreshold", tasks.latencyThreshold);
+			tasks.maxBackoff = json.optInt("maxBackoff", tasks.maxBackoff);
+			return tasks;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o == null || getClass() != o.getClass()) return false;
+			BackgroundTasks other = (BackgroundTasks)o;
+			return maxConcurrent == other.maxConcurrent && latencyThreshold == other.latencyThreshold && maxBackoff == other.maxBackoff;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(maxConcurrent, latencyThreshold, maxBackoff);
+		}
+
+		public void addDescription(List<String> lines)
+		{
+			lines.add("Background tasks:");
+			lines.add(indent + "maxConcurrent: " + (maxConcurrent > 0 ? String.valueOf(maxConcurrent) : "auto"));
+			lines.add(indent + "latencyThreshold: " + (latencyThreshold > 0 ? latencyThreshold + " ms" : "none"));
+			lines.add(indent + "maxBackoff: " + maxBackoff + " s");
+		}
+	}
+
 	private String schemaDefinition = "/com/cdd/bae/config/ConfigurationSchema.json";
 
 	protected FileLoaderJSONObject loader;
@@ -583,6 +832,12 @@ public class InitParams
 	public Provisional provisional = new Provisional();
 	public OntoloBridge[] bridges = null;
 	public CustomPrefix[] prefixes = null;
+	public ExportCache exportCache = null;
+	public ModelStore modelStore = null;
+	public Sessions sessions = new Sessions();
+	public ResponseCache responseCache = null;
+	public WorkerPools workerPools = new WorkerPools();
+	public BackgroundTasks backgroundTasks = new BackgroundTasks();
 	
 	protected InitParams()
 	{
@@ -658,7 +913,13 @@ public class InitParams
 			   saveEquals(googleAnalytics, other.googleAnalytics) &&
 			   verboseDebug == other.verboseDebug &&
 			   saveEqualsArray(prefixes, other.prefixes) &&
-			   saveEqualsArray(uriPatternMaps, other.uriPatternMaps);
+			   saveEqualsArray(uriPatternMaps, other.uriPatternMaps) &&
+			   saveEquals(exportCache, other.exportCache) &&
+			   saveEquals(modelStore, other.modelStore) &&
+			   saveEquals(sessions, other.sessions) &&
+			   saveEquals(responseCache, other.responseCache) &&
+			   saveEquals(workerPools, other.workerPools) &&
+			   saveEquals(backgroundTasks, other.backgroundTasks);
 	}
 
 	@Override
@@ -669,7 +930,8 @@ public class InitParams
 							template, translit, forms, moduleVault, modulePubChem, buildData,
 							pageToggle, baseURL, production, uiMessage, provisional,
 							Arrays.hashCode(bridges), googleAnalytics, verboseDebug, 
-							Arrays.hashCode(prefixes), Arrays.hashCode(uriPatternMaps));
+							Arrays.hashCode(prefixes), Arrays.hashCode(uriPatternMaps), exportCache, modelStore, sessions, responseCache,
+							workerPools, backgroundTasks);
 	}
 
 	// human-readable encapsulation of the content
@@ -701,6 +963,7 @@ public class InitParams
 			lines.add("    assays: " + modulePubChem.assays);
 			lines.add("    compounds: " + modulePubChem.compounds);
 			lines.add("    directory: " + modulePubChem.directory);
+			if (modulePubChem.scanThreads > 0) lines.add("    scanThreads: " + modulePubChem.scanThreads);
 		}
 		else lines.add(noInformation);
 
@@ -732,6 +995,12 @@ public class InitParams
 		provisional.addDescription(lines);
 		CustomPrefix.addDescription(prefixes, lines);
 		OntoloBridge.addDescription(bridges, lines);
+		if (exportCache != null) exportCache.addDescription(lines);
+		if (modelStore != null) modelStore.addDescription(lines);
+		sessions.addDescription(lines);
+		if (responseCache != null) responseCache.addDescription(lines);
+		workerPools.addDescription(lines);
+		backgroundTasks.addDescription(lines);
 
 		return String.join("\n", lines);
 	}
@@ -787,6 +1056,13 @@ public class InitParams
 		prefixes = CustomPrefix.fromJSON(json.optJSONArrayEmpty("prefixes"));
 		
 		bridges = OntoloBridge.fromJSON(json.optJSONArrayEmpty("ontolobridge"));
+		
+		exportCache = ExportCache.fromJSON(json.optJSONObject("exportCache"), baseDir);
+		modelStore = ModelStore.fromJSON(json.optJSONObject("modelStore"), baseDir);
+		sessions = Sessions.fromJSON(json.optJSONObjectEmpty("sessions"));
+		responseCache = ResponseCache.fromJSON(json.optJSONObject("responseCache"));
+		workerPools = WorkerPools.fromJSON(json.optJSONObjectEmpty("workerPools"));
+		backgroundTasks = BackgroundTasks.fromJSON(json.optJSONObjectEmpty("backgroundTasks"));
 
 		// now that the data are all read in, we can check that the files and directories all exist
 		List<String> errors = validateFilenames();
@@ -35,6 +35,11 @@ import org.slf4j.*;
 /*
 	Container class for the schema vocabulary file, which holds the terms & hierarchy information that have been distilled from
 	the underlying ontologies.
+	
+	The file can be in the regular format, in which case everything is unpacked when it is loaded, or the indexed format (see
+	SchemaVocabIndex), in which case only the vocabulary itself is: the trees are made from the ontology as they're needed
+	(see Common.obtainTree), so there's no point unpacking the ones in the file. The extra ontology terms & provisional terms
+	are added to the vocabulary.
 */
 
 public class SchemaVocabFile
@@ -46,7 +51,6 @@ public class SchemaVocabFile
 	private InitParams.Provisional prov;
 	private Schema[] schemaList;
 	private SchemaVocab schemaVocab = null;
-	protected static Map<String, SchemaTree> treeCache = new HashMap<>();
 	protected static Map<String, Provisional> provisionalURIs = new HashMap<>(); // uri-to-term
 
 	protected FileWatcher watcher;
@@ -81,11 +85,19 @@ public class SchemaVocabFile
 
 	public void load() throws ConfigurationException
 	{
-		try (InputStream inpstr = new FileInputStream(watcher.getFile()))
+		try
 		{
-			boolean isGzip = watcher.getFile().getName().endsWith(".gz");
-			InputStream istr = isGzip ? new GZIPInputStream(inpstr) : inpstr;
-			setSchemaVocab(SchemaVocab.deserialise(istr, schemaList));
+			if (SchemaVocabIndex.isIndex(watcher.getFile()))
+			{
+				var newIndex = SchemaVocabIndex.read(watcher.getFile(), schemaList);
+				install(newIndex.getSchemaVocab(), newIndex);
+			}
+			else try (InputStream inpstr = new FileInputStream(watcher.getFile()))
+			{
+				boolean isGzip = watcher.getFile().getName().endsWith(".gz");
+				InputStream istr = isGzip ? new GZIPInputStream(inpstr) : inpstr;
+				setSchemaVocab(SchemaVocab.deserialise(istr, schemaList));
+			}
 		}
 		catch (IOException ex)
 		{
@@ -102,15 +114,20 @@ public class SchemaVocabFile
 	}
 
 	// reload all provisional terms
-	public void loadProvisionals()
+	public synchronized void loadProvisionals()
 	{
 		DataStore store = Common.getDataStore();
 		if (store == null) return;
 
 		// scan the indicated directory for terms that are post-compilation/pre-provisional
-		if (prov.directory != null) new ExtraOntologies(prov.directory).scan();
+		if (prov.directory != null)
+		{
+			var extra = new ExtraOntologies(prov.directory);
+			extra.scan();
+			incorporateExtraNodes(extra.getNodes());
+		}
 
-		// load provisionals into the tree
+		// load provisionals into the vocabulary
 		provisionalURIs.clear();
 		incorporateProvisionals(store.provisional().fetchAllTerms());
 	}
@@ -188,14 +205,7 @@ public class SchemaVocabFile
 	{
 		//schemaVocab.debugSummary();
 
-		synchronized (this)
-		{
-			this.schemaVocab = schemaVocab;
-			resetTreeCache();
-
-			// reload provisionals each time schemavocab is reset
-			loadProvisionals();
-		}
+		install(schemaVocab, null);
 	}
 
 	public String getUpdateURL()
@@ -211,7 +221,7 @@ public class SchemaVocabFile
 		synchronized (this)
 		{
 			this.schemaList = schemaList;
-			resetTreeCache();
+			checkAssignments(null);
 
 			// reload provisionals if schema list changes
 			loadProvisionals();
@@ -228,51 +238,113 @@ public class SchemaVocabFile
 		return Collections.unmodifiableMap(provisionalURIs);
 	}
 
-	// ------------ schema trees: quick fetching from cache ------------
+	// ------------ private methods ------------
 
-	// obtain a tree instance for the given assignment
-	public SchemaTree obtainTree(Schema schema, String propURI, String[] groupNest)
+	// the vocabulary has been replaced; the index (if any) is only needed to check it against the schemata
+	private void install(SchemaVocab schemaVocab, SchemaVocabIndex index)
 	{
-		Schema.Assignment[] match = schema.findAssignmentByProperty(propURI, groupNest);
-		return match.length == 0 ? null : treeCache.get(assignmentKey(schema, match[0]));
-	}
+		synchronized (this)
+		{
+			this.schemaVocab = schemaVocab;
+			checkAssignments(index);
 
-	// ------------ private methods ------------
+			// reload provisionals each time schemavocab is reset
+			loadProvisionals();
+		}
+	}
 
-	private void resetTreeCache()
+	// warns about any trees in the vocabulary file that don't correspond to an assignment in the current schemata
+	private void checkAssignments(SchemaVocabIndex index)
 	{
-		treeCache.clear();
-		for (SchemaVocab.StoredTree stored : schemaVocab.getTrees())
+		if (index == null)
 		{
-			if (stored.assignment == null)
+			for (SchemaVocab.StoredTree stored : schemaVocab.getTrees())
 			{
-				if (templates.getSchema(stored.schemaPrefix) != null)
-					Util.writeln("WARNING: unmatched assignment, schema=" + stored.schemaPrefix +
-								", propURI=" + stored.propURI + ", groupNest=" + Util.arrayStr(stored.groupNest));
-				else
-					Util.writeln("WARNING: check schema=" + stored.schemaPrefix + ", propURI=" + stored.propURI);
-				continue;
+				if (stored.assignment == null) warnUnmatched(stored.schemaPrefix, stored.propURI, stored.groupNest);
 			}
-			treeCache.put(assignmentKey(stored.schemaPrefix, stored.assignment), stored.tree);
+			return;
+		}
+		for (SchemaVocabIndex.Entry entry : index.getEntries())
+		{
+			if (findAssignment(entry) == null) warnUnmatched(entry.schemaPrefix, entry.propURI, entry.groupNest);
 		}
 	}
 
-	// incorporate the specified provisional terms into the tree
-	private void incorporateProvisionals(Provisional[] provisionals)
+	private void warnUnmatched(String schemaPrefix, String propURI, String[] groupNest)
 	{
-		List<SchemaVocab.StoredTerm> provTerms = new ArrayList<>();
-		Map<String, SchemaVocab.StoredRemapTo> provRemappings = new HashMap<>();
+		if (templates.getSchema(schemaPrefix) != null)
+			Util.writeln("WARNING: unmatched assignment, schema=" + schemaPrefix +
+						", propURI=" + propURI + ", groupNest=" + Util.arrayStr(groupNest));
+		else
+			Util.writeln("WARNING: check schema=" + schemaPrefix + ", propURI=" + propURI);
+	}
+
+	// resolves a table of contents entry against the current list of schemata
+	private Schema.Assignment findAssignment(SchemaVocabIndex.Entry entry)
+	{
+		for (Schema schema : schemaList) if (schema.getSchemaPrefix().equals(entry.schemaPrefix))
+		{
+			Schema.Assignment[] match = schema.findAssignmentByProperty(entry.propURI, entry.groupNest);
+			if (match.length > 0) return match[0];
+		}
+		return null;
+	}
+
+	// works out which of the new nodes have somewhere to go (their parent is a known term, or one of the other new nodes)
+	// and makes terms for them
+	private List<SchemaVocab.StoredTerm> termsForNodes(List<Pair<String, SchemaTree.Node>> nodes)
+	{
+		List<SchemaVocab.StoredTerm> terms = new ArrayList<>();
+		Set<String> placed = new HashSet<>();
+		for (boolean anything = true; anything;)
+		{
+			anything = false;
+			for (Pair<String, SchemaTree.Node> pair : nodes)
+			{
+				SchemaTree.Node node = pair.getRight();
+				if (placed.contains(node.uri)) continue;
+				if (!placed.contains(pair.getLeft()) && schemaVocab.getLabel(pair.getLeft()) == null) continue;
+				placed.add(node.uri);
+				anything = true;
 
+				SchemaVocab.StoredTerm term = new SchemaVocab.StoredTerm();
+				term.uri = node.uri;
+				term.label = node.label;
+				term.descr = node.descr;
+				terms.add(term);
+			}
+		}
+		return terms;
+	}
+
+	private static List<Pair<String, SchemaTree.Node>> provisionalNodes(Collection<Provisional> provisionals)
+	{
 		List<Pair<String, SchemaTree.Node>> nodes = new ArrayList<>();
 		for (Provisional prov : provisionals)
 		{
-			provisionalURIs.put(prov.uri, prov);
-
 			SchemaTree.Node node = new SchemaTree.Node();
 			node.uri = prov.uri;
 			node.label = prov.label;
 			node.descr = prov.description;
 			nodes.add(Pair.of(prov.parentURI, node));
+		}
+		return nodes;
+	}
+
+	// terms from the extra ontology directory get added to the vocabulary, if they have a place in it
+	private void incorporateExtraNodes(List<Pair<String, SchemaTree.Node>> nodes)
+	{
+		schemaVocab.addTerms(termsForNodes(nodes), new HashMap<>());
+	}
+
+	// incorporate the specified provisional terms into the vocabulary
+	private void incorporateProvisionals(Provisional[] provisionals)
+	{
+		Map<String, SchemaVocab.StoredRemapTo> provRemappings = new HashMap<>();
+
+		for (Provisional prov : provisionals)
+		{
+			provisionalURIs.put(prov.uri, prov);
 			if (prov.remappedTo != null)
 			{
 				SchemaVocab.StoredRemapTo srt = new SchemaVocab.StoredRemapTo();
@@ -282,22 +354,10 @@ public class SchemaVocabFile
 			}
 		}
 
-		Set<String> addedURIs = new HashSet<>();
-		for (SchemaVocab.StoredTree stored : schemaVocab.getTrees())
-		{
-			List<SchemaTree.Node> added = stored.tree.addNodes(nodes);
-			for (SchemaTree.Node node : added) if (addedURIs.add(node.uri))
-			{
-				SchemaVocab.StoredTerm term = new SchemaVocab.StoredTerm();
-				term.uri = node.uri;
-				term.label = node.label;
-				term.descr = node.descr;
-				provTerms.add(term);
-			}
-		}
+		List<Pair<String, SchemaTree.Node>> nodes = provisionalNodes(Arrays.asList(provisionals));
 
 		// finally, update data structures in SchemaVocab
-		schemaVocab.addTerms(provTerms, provRemappings);
+		schemaVocab.addTerms(termsForNodes(nodes), provRemappings);
 	}
 	
 	// scans through all of the existing trees looking for places where a term is mapped from this term's URI, and
@@ -312,16 +372,6 @@ public class SchemaVocabFile
 		}
 		
 		provisionalURIs.put(prov.uri, prov);
-		
-		for (SchemaVocab.StoredTree stored : schemaVocab.getTrees())
-		{
-			SchemaTree.Node node = stored.tree.getNode(prov.uri);
-			if (node != null)
-			{
-				node.label = prov.label;
-				node.descr = prov.description;
-			}
-		}
 	}
 	
 	// scans through trees looking for instances of this provisional term, and removes them
@@ -332,8 +382,6 @@ public class SchemaVocabFile
 			if (schemaVocab.getTerm(n).uri.equals(prov.uri)) schemaVocab.removeTerm(n);
 		
 		provisionalURIs.remove(prov.uri);
-
-		for (SchemaVocab.StoredTree stored : schemaVocab.getTrees()) stored.tree.removeNode(prov.uri);
 	}
 
 	protected static String assignmentKey(String schemaPrefix, Schema.Assignment assn)
@@ -0,0 +1,310 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.config;
+
+import com.cdd.bao.template.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.zip.*;
+
+/*
+	Indexed form of the schema vocabulary file. The regular form has to be unpacked in its entirety, including a tree for
+	every assignment of every schema, whether or not they are ever looked at. The indexed form splits it into:
+
+		core: the vocabulary itself (terms, remappings, etc.) with all of the trees left empty, in the regular format
+		table of contents: one entry per tree, giving its schema prefix, property URI & group nest, a hash of its content,
+			and where it is to be found
+		trees: each one separately compressed, so that any of them can be decoded without touching the others
+
+	Loading the vocabulary only needs the core and the table of contents; the trees are kept in their compressed form, which
+	is a small fraction of the size of the decoded trees, for whenever one of them is wanted. The hash of each tree shows
+	whether it's different from the same tree in another file.
+*/
+
+public class SchemaVocabIndex
+{
+	private static final int MAGIC_NUMBER = 0xBAE5C0DE;
+	private static final int CURRENT_VERSION = 1;
+
+	private static final int FLAG_INSCHEMA = 1, FLAG_EXPLICIT = 2, FLAG_PUBCHEMIMPORT = 4;
+
+	private SchemaVocab schemaVocab;
+	private List<Entry> entries = new ArrayList<>();
+	private byte[] data; // the compressed trees, all in a row
+
+	// table of contents: identifies a tree, and where to get it from
+	public static final class Entry
+	{
+		public final String schemaPrefix, propURI;
+		public final String[] groupNest;
+		public final long hash; // summary of the tree's content: if it's the same, so is the tree
+		private final int offset, length;
+
+		private Entry(String schemaPrefix, String propURI, String[] groupNest, long hash, int offset, int length)
+		{
+			this.schemaPrefix = schemaPrefix;
+			this.propURI = propURI;
+			this.groupNest = groupNest;
+			this.hash = hash;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	// ------------ public methods ------------
+
+	// true if the file is in the indexed format (as opposed to the regular format, gzipped or otherwise)
+	public static boolean isIndex(File file) throws IOException
+	{
+		try (var data = new DataInputStream(new FileInputStream(file)))
+		{
+			return file.length() >= 4 && data.readInt() == MAGIC_NUMBER;
+		}
+	}
+
+	// reads the core vocabulary & table of contents, but leaves the trees alone until they're asked for
+	public static SchemaVocabIndex read(File file, Schema[] schemaList) throws IOException
+	{
+		var index = new SchemaVocabIndex();
+		var data = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+
+		if (data.readInt() != MAGIC_NUMBER) throw new IOException("Not an indexed vocabulary file.");
+		if (data.readInt() != CURRENT_VERSION) throw new IOException("Indexed vocabulary file is the wrong version.");
+
+		byte[] core = new byte[data.readInt()];
+		data.readFully(core);
+		try (var istr = new GZIPInputStream(new ByteArrayInputStream(core)))
+		{
+			index.schemaVocab = SchemaVocab.deserialise(istr, schemaList);
+		}
+
+		int count = data.readInt();
+		for (int n = 0; n < count; n++)
+		{
+			String schemaPrefix = readString(data), propURI = readString(data);
+			var groupNest = new String[data.readInt()];
+			for (int i = 0; i < groupNest.length; i++) groupNest[i] = readString(data);
+			long hash = data.readLong();
+			int offset = data.readInt(), length = data.readInt();
+			index.entries.add(new Entry(schemaPrefix, propURI, groupNest, hash, offset, length));
+		}
+
+		index.data = new byte[data.readInt()];
+		data.readFully(index.data);
+		for (var entry : index.entries)
+		{
+			if (entry.offset < 0 || entry.offset + entry.length > index.data.length) throw new IOException("Indexed vocabulary file is truncated.");
+		}
+		return index;
+	}
+
+	// writes the vocabulary in indexed form; note that the trees are taken out of the vocabulary object in the process, so
+	// it should not be used for anything else afterward
+	public static void write(SchemaVocab schemaVocab, OutputStream ostr) throws IOException
+	{
+		List<Entry> entries = new ArrayList<>();
+		var trees = new ByteArrayOutputStream();
+		for (SchemaVocab.StoredTree stored : schemaVocab.getTrees())
+		{
+			if (stored.tree == null) continue;
+			byte[] raw = encodeTree(stored.tree);
+			byte[] packed = deflate(raw);
+			String[] groupNest = stored.groupNest == null ? new String[0] : stored.groupNest;
+			entries.add(new Entry(stored.schemaPrefix, stored.propURI, groupNest, hashOf(raw), trees.size(), packed.length));
+			trees.write(packed);
+
+			stored.tree = new SchemaTree(new SchemaTree.Node[0], stored.assignment);
+		}
+
+		var core = new ByteArrayOutputStream();
+		try (var gzip = new GZIPOutputStream(core))
+		{
+			schemaVocab.serialise(gzip);
+		}
+
+		var data = new DataOutputStream(new BufferedOutputStream(ostr));
+		data.writeInt(MAGIC_NUMBER);
+		data.writeInt(CURRENT_VERSION);
+		data.writeInt(core.size());
+		core.writeTo(data);
+		data.writeInt(entries.size());
+		for (var entry : entries)
+		{
+			writeString(data, entry.schemaPrefix);
+			writeString(data, entry.propURI);
+			data.writeInt(entry.groupNest.length);
+			for (String group : entry.groupNest) writeString(data, group);
+			data.writeLong(entry.hash);
+			data.writeInt(entry.offset);
+			data.writeInt(entry.length);
+		}
+		data.writeInt(trees.size());
+		trees.writeTo(data);
+		data.flush();
+	}
+
+	// access to content
+	public SchemaVocab getSchemaVocab() {return schemaVocab;}
+	public List<Entry> getEntries() {return Collections.unmodifiableList(entries);}
+
+	// unpacks one of the trees: each call makes a new instance
+	public SchemaTree decode(Entry entry, Schema.Assignment assn) throws IOException
+	{
+		var raw = new ByteArrayOutputStream();
+		try (var istr = new InflaterInputStream(new ByteArrayInputStream(data, entry.offset, entry.length)))
+		{
+			istr.transferTo(raw);
+		}
+		var input = new DataInputStream(new ByteArrayInputStream(raw.toByteArray()));
+
+		var flat = new SchemaTree.Node[input.readInt()];
+		var parentIndex = new int[flat.length];
+		for (int n = 0; n < flat.length; n++)
+		{
+			var node = new SchemaTree.Node();
+			parentIndex[n] = input.readInt();
+			int flags = input.readByte();
+			node.inSchema = (flags & FLAG_INSCHEMA) != 0;
+			node.isExplicit = (flags & FLAG_EXPLICIT) != 0;
+			node.pubchemImport = (flags & FLAG_PUBCHEMIMPORT) != 0;
+			node.uri = readString(input);
+			node.label = readString(input);
+			node.descr = readString(input);
+			node.pubchemSource = readString(input);
+			node.altLabels = readStrings(input);
+			node.externalURLs = readStrings(input);
+			flat[n] = node;
+		}
+
+		// link up the hierarchy, and fill in the derived counts the same way as for other constructed trees
+		for (int n = 0; n < flat.length; n++)
+		{
+			var node = flat[n];
+			node.parentIndex = parentIndex[n];
+			if (parentIndex[n] < 0) continue;
+			node.parent = flat[parentIndex[n]];
+			node.parent.children.add(node);
+		}
+		for (var node : flat)
+		{
+			node.depth = 0;
+			for (var look = node.parent; look != null; look = look.parent)
+			{
+				node.depth++;
+				look.childCount++;
+				if (node.inSchema) look.schemaCount++;
+			}
+		}
+		return new SchemaTree(flat, assn);
+	}
+
+	// ------------ private methods ------------
+
+	private SchemaVocabIndex()
+	{
+	}
+
+	private static byte[] encodeTree(SchemaTree tree) throws IOException
+	{
+		SchemaTree.Node[] flat = tree.getFlat();
+		Map<SchemaTree.Node, Integer> position = new IdentityHashMap<>();
+		for (int n = 0; n < flat.length; n++) position.put(flat[n], n);
+
+		var raw = new ByteArrayOutputStream();
+		var data = new DataOutputStream(raw);
+		data.writeInt(flat.length);
+		for (var node : flat)
+		{
+			Integer pidx = node.parent == null ? null : position.get(node.parent);
+			data.writeInt(pidx == null ? -1 : pidx);
+			data.writeByte((node.inSchema ? FLAG_INSCHEMA : 0) | (node.isExplicit ? FLAG_EXPLICIT : 0) | (node.pubchemImport ? FLAG_PUBCHEMIMPORT : 0));
+			writeString(data, node.uri);
+			writeString(data, node.label);
+			writeString(data, node.descr);
+			writeString(data, node.pubchemSource);
+			writeStrings(data, node.altLabels);
+			writeStrings(data, node.externalURLs);
+		}
+		data.flush();
+		return raw.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] raw) throws IOException
+	{
+		var packed = new ByteArrayOutputStream();
+		try (var ostr = new DeflaterOutputStream(packed))
+		{
+			ostr.write(raw);
+		}
+		return packed.toByteArray();
+	}
+
+	// first 64 bits of the SHA-256 digest, which is plenty to tell trees apart
+	private static long hashOf(byte[] raw)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(raw);
+			long hash = 0;
+			for (int n = 0; n < 8; n++) hash = (hash << 8) | (digest[n] & 0xFF);
+			return hash;
+		}
+		catch (NoSuchAlgorithmException ex)
+		{
+			throw new IllegalStateException(ex); // every JVM is required to have it
+		}
+	}
+
+	// strings are written as length-prefixed UTF-8 (rather than writeUTF) since descriptions can be long; null is -1
+	private static void writeString(DataOutputStream data, String str) throws IOException
+	{
+		if (str == null) {data.writeInt(-1); return;}
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static String readString(DataInputStream data) throws IOException
+	{
+		int len = data.readInt();
+		if (len < 0) return null;
+		var bytes = new byte[len];
+		data.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeStrings(DataOutputStream data, String[] list) throws IOException
+	{
+		data.writeInt(list == null ? -1 : list.length);
+		if (list != null) for (String str : list) writeString(data, str);
+	}
+
+	private static String[] readStrings(DataInputStream data) throws IOException
+	{
+		int count = data.readInt();
+		if (count < 0) return null;
+		var list = new String[count];
+		for (int n = 0; n < count; n++) list[n] = readString(data);
+		return list;
+	}
+}
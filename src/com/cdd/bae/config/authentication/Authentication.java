@@ -42,7 +42,7 @@ public class Authentication
 	private File file = null;
 	protected FileLoaderJSONArray loader;
 	public List<Access> listAccess = new ArrayList<>();
-	public static Map<String, Session> currentSessions = new HashMap<>();
+	public static final SessionStore currentSessions = new SessionStore();
 
 	public static class Session
 	{
@@ -53,7 +53,8 @@ public class Authentication
 		public String userID; // user ID from the service proper
 		public String userName; // name of the user
 		public String email; // if available
-		// (should add an expiry date...)
+		public long timeCreated = 0; // when authenticated (filled in by the session store if left blank)
+		public volatile long timeAccessed = 0; // most recent use, for idle expiry
 
 		public String status = DataUser.STATUS_DEFAULT; // from existing records, if applicable
 
@@ -184,20 +185,15 @@ public class Authentication
 		return null;
 	}
 
-	public Session getSession(String curatorID)
+	// returns the session for the curator, or null if there isn't one, it has expired, or the access token doesn't match
+	public Session getSession(String curatorID, String accessToken)
 	{
-		synchronized (currentSessions)
-		{
-			return currentSessions.get(curatorID);
-		}
+		return currentSessions.get(curatorID, accessToken);
 	}
 
 	public void putSession(Session session)
 	{
-		synchronized (currentSessions)
-		{
-			currentSessions.put(session.curatorID, session);
-		}
+		currentSessions.put(session.curatorID, session);
 	}
 
 	// ------------ private methods ------------
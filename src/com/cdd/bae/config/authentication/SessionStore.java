@@ -0,0 +1,301 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.config.authentication;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.config.authentication.Authentication.*;
+import com.cdd.bae.data.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.slf4j.*;
+
+/*
+	Holds the currently logged in sessions, keyed by curatorID. Lookups go straight to a concurrent map, so the REST calls
+	that check the session on every request don't queue up behind each other.
+
+	Sessions expire once they have been idle for too long, or are simply too old, whichever comes first; either limit can
+	be turned off by setting it to zero. The number of sessions held in memory is also capped: when it goes over, expired
+	sessions are swept out first, then the least recently used.
+
+	Optionally the sessions can be written through to the database, so that they survive a restart, and so that several
+	webapp instances can share the same logins: a session that isn't found in memory is looked for there (by access token),
+	and access times are written back at most once per minute per session. Writing back the access time also confirms that
+	the session is still there, so a logout (or newer login) on another instance is noticed within a minute.
+*/
+
+public class SessionStore extends AbstractMap<String, Session>
+{
+	private static final Logger logger = LoggerFactory.getLogger(SessionStore.class);
+
+	private static final long ACCESS_RESOLUTION = 1000L; // access times in memory are accurate to within this
+	private static final long TOUCH_INTERVAL = 60 * 1000L; // granularity of access times written to the database
+	private static final long SWEEP_INTERVAL = 60 * 1000L; // minimum time between passes looking for expired sessions
+
+	// where sessions are kept when they need to outlive the process
+	public static interface Backing
+	{
+		public void store(Session session);
+		public Session fetch(String accessToken);
+		public boolean touch(String accessToken, long timeAccessed); // false if the session is gone
+		public void delete(String curatorID, String accessToken); // (token is null to delete whatever session the curator has)
+		public int purge(long accessedBefore, long createdBefore);
+	}
+
+	// default persistence: the session collection in the main datastore
+	public static final class DatabaseBacking implements Backing
+	{
+		@Override
+		public void store(Session session) {Common.getDataStore().user().storeSession(session);}
+		@Override
+		public Session fetch(String accessToken) {return Common.getDataStore().user().fetchSession(accessToken);}
+		@Override
+		public boolean touch(String accessToken, long timeAccessed) {return Common.getDataStore().user().touchSession(accessToken, timeAccessed);}
+		@Override
+		public void delete(String curatorID, String accessToken) {Common.getDataStore().user().deleteSession(curatorID, accessToken);}
+		@Override
+		public int purge(long accessedBefore, long createdBefore) {return Common.getDataStore().user().purgeSessions(accessedBefore, createdBefore);}
+	}
+
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+	private volatile long idleTimeout = 0, maxAge = 0; // in milliseconds; 0 = unlimited
+	private volatile int maxCount = Integer.MAX_VALUE;
+	private volatile Backing backing = null;
+
+	private final AtomicBoolean sweeping = new AtomicBoolean(false);
+	private volatile long lastSweep = 0;
+
+	// ------------ public methods ------------
+
+	public SessionStore()
+	{
+	}
+
+	// applies the limits from the configuration section; the database backing is used if persistence is requested
+	public void configure(InitParams.Sessions config)
+	{
+		configure(config.idleTimeout * 60 * 1000L, config.maxAge * 60 * 60 * 1000L, config.maxCount,
+				  config.persist ? new DatabaseBacking() : null);
+	}
+
+	public void configure(long idleTimeout, long maxAge, int maxCount, Backing backing)
+	{
+		this.idleTimeout = Math.max(0, idleTimeout);
+		this.maxAge = Math.max(0, maxAge);
+		this.maxCount = maxCount > 0 ? maxCount : Integer.MAX_VALUE;
+		this.backing = backing;
+		lastSweep = System.currentTimeMillis();
+	}
+
+	// returns the session held in memory, if it exists and hasn't expired; using it counts as activity
+	@Override
+	public Session get(Object key)
+	{
+		if (!(key instanceof String)) return null;
+		String curatorID = (String)key;
+		long now = System.currentTimeMillis();
+
+		Session session = sessions.get(curatorID);
+		if (session == null) return null;
+		if (isExpired(session, now))
+		{
+			if (sessions.remove(curatorID, session)) deleteBacking(curatorID, session.accessToken);
+			return null;
+		}
+		return access(curatorID, session, now);
+	}
+
+	// as above, but for a client presenting its access token, which must match; when there is a database backing, a session that
+	// isn't in memory (or has been replaced by a newer login elsewhere) is looked for there
+	public Session get(String curatorID, String accessToken)
+	{
+		Session session = get(curatorID);
+		if (session != null && Objects.equals(session.accessToken, accessToken)) return session;
+
+		session = fetchBacking(accessToken);
+		if (session == null || !curatorID.equals(session.curatorID)) return null;
+		long now = System.currentTimeMillis();
+		if (isExpired(session, now))
+		{
+			deleteBacking(curatorID, session.accessToken);
+			return null;
+		}
+		sessions.put(curatorID, session);
+		trim(now);
+		return access(curatorID, session, now);
+	}
+
+	// adds a newly authenticated session, replacing any previous one for the same curator
+	@Override
+	public Session put(String curatorID, Session session)
+	{
+		long now = System.currentTimeMillis();
+		if (session.timeCreated == 0) session.timeCreated = now;
+		if (session.timeAccessed == 0) session.timeAccessed = now;
+
+		Session previous = sessions.put(curatorID, session);
+		Backing backing = this.backing;
+		if (backing != null)
+		{
+			try {backing.store(session);}
+			catch (Exception ex) {logger.error("Unable to persist session: " + curatorID, ex);}
+		}
+		trim(now);
+		return previous;
+	}
+
+	// logs out the session everywhere, including the database; other instances find out the next time they record an access
+	@Override
+	public Session remove(Object key)
+	{
+		if (!(key instanceof String)) return null;
+		Session previous = sessions.remove(key);
+		deleteBacking((String)key, null);
+		return previous;
+	}
+
+	// forgets about all of the sessions in memory; anything that was persisted is left alone
+	@Override
+	public void clear()
+	{
+		sessions.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return get(key) != null;
+	}
+
+	@Override
+	public int size()
+	{
+		return sessions.size();
+	}
+
+	// view of the sessions held in memory, which may include some that have expired but not yet been swept out
+	@Override
+	public Set<Map.Entry<String, Session>> entrySet()
+	{
+		return sessions.entrySet();
+	}
+
+	// goes through and gets rid of expired sessions, in memory and in the database if applicable
+	public int purgeExpired()
+	{
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Map.Entry<String, Session> entry : sessions.entrySet())
+		{
+			if (isExpired(entry.getValue(), now) && sessions.remove(entry.getKey(), entry.getValue())) count++;
+		}
+
+		Backing backing = this.backing;
+		if (backing != null && (idleTimeout > 0 || maxAge > 0))
+		{
+			try {backing.purge(idleTimeout > 0 ? now - idleTimeout : 0, maxAge > 0 ? now - maxAge : 0);}
+			catch (Exception ex) {logger.error("Unable to purge persisted sessions", ex);}
+		}
+		return count;
+	}
+
+	// ------------ private methods ------------
+
+	// notes that the session has been used: the access time is only written when it has moved on noticeably, so that busy sessions
+	// aren't being written by every thread; if the database no longer has it, it has been logged out elsewhere
+	private Session access(String curatorID, Session session, long now)
+	{
+		long previous = session.timeAccessed;
+		if (now - previous < ACCESS_RESOLUTION) return session;
+		session.timeAccessed = now;
+		Backing backing = this.backing;
+		if (backing != null && previous / TOUCH_INTERVAL != now / TOUCH_INTERVAL)
+		{
+			boolean present = true;
+			try {present = backing.touch(session.accessToken, now);}
+			catch (Exception ex) {logger.error("Unable to record session access: " + curatorID, ex);}
+			if (!present)
+			{
+				sessions.remove(curatorID, session);
+				return null;
+			}
+		}
+		return session;
+	}
+
+	private boolean isExpired(Session session, long now)
+	{
+		if (idleTimeout > 0 && now - session.timeAccessed > idleTimeout) return true;
+		if (maxAge > 0 && now - session.timeCreated > maxAge) return true;
+		return false;
+	}
+
+	// periodically sweeps out expired sessions, and if still over the limit, drops the least recently used ones until there is
+	// some headroom; only one thread does this at a time, and the others carry on regardless
+	private void trim(long now)
+	{
+		boolean overfull = sessions.size() > maxCount;
+		if (!overfull && now - lastSweep < SWEEP_INTERVAL) return;
+		if (!sweeping.compareAndSet(false, true)) return;
+		try
+		{
+			lastSweep = now;
+			purgeExpired();
+
+			int target = maxCount - maxCount / 10;
+			if (sessions.size() <= maxCount) return;
+
+			List<Map.Entry<String, Session>> entries = new ArrayList<>(sessions.entrySet());
+			entries.sort((e1, e2) -> Long.compare(e1.getValue().timeAccessed, e2.getValue().timeAccessed));
+			for (int n = 0, excess = sessions.size() - target; n < entries.size() && excess > 0; n++)
+			{
+				Map.Entry<String, Session> entry = entries.get(n);
+				if (sessions.remove(entry.getKey(), entry.getValue())) excess--;
+			}
+		}
+		finally
+		{
+			sweeping.set(false);
+		}
+	}
+
+	private Session fetchBacking(String accessToken)
+	{
+		Backing backing = this.backing;
+		if (backing == null || accessToken == null) return null;
+		try {return backing.fetch(accessToken);}
+		catch (Exception ex)
+		{
+			logger.error("Unable to fetch persisted session", ex);
+			return null;
+		}
+	}
+
+	// removes the persisted session, but only if it's the one with the given token (if any): the curator may since have logged
+	// in again on another instance, and that session has to be left alone
+	private void deleteBacking(String curatorID, String accessToken)
+	{
+		Backing backing = this.backing;
+		if (backing == null) return;
+		try {backing.delete(curatorID, accessToken);}
+		catch (Exception ex) {logger.error("Unable to delete persisted session: " + curatorID, ex);}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.bae.data.DataStore.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.bson.*;
+import org.bson.conversions.*;
+import org.slf4j.*;
+
+import com.mongodb.*;
+import com.mongodb.client.*;
+import com.mongodb.client.model.*;
+import com.mongodb.client.model.changestream.*;
+
+/*
+	Keeps an eye on the watermarks, so that writes made by other servers sharing the same database (e.g. several webapp
+	replicas behind a load balancer) find their way to this one: the datastore notifier only hears about writes that were
+	made in the same process. Whenever a watermark moves on by more than this process moved it, the notifier is sent a
+	datastoreRemoteChanged event, so that caches can be refreshed and background tasks woken up.
+
+	The values are read straight out of the sequences collection, and compared with what was seen last time, so nothing
+	is missed even if the feed was interrupted. When the database is a replica set, a change stream on that collection is
+	used to find out promptly that something has happened; a standalone server doesn't provide change streams, so the
+	fallback is to look every so often.
+
+	While the feed is running, it also provides the current watermark values, so that the caches that are keyed by them
+	don't need to make a round trip to the database every time they're used: local increments are applied immediately,
+	and remote ones as soon as they've been noticed.
+*/
+
+public class ChangeFeed
+{
+	private static final Logger logger = LoggerFactory.getLogger(ChangeFeed.class);
+
+	public enum Mode {STREAM, POLL, STOPPED}
+
+	private final DataStore store;
+	private final Map<Watermark, AtomicLong> current = new EnumMap<>(Watermark.class); // most up to date value known
+	private final Map<Watermark, Long> seen = new EnumMap<>(Watermark.class); // value at the last check
+	private final Map<Watermark, AtomicLong> localMoves = new EnumMap<>(Watermark.class); // increments since the last check
+	private final Object sleeper = new Object();
+	private volatile Mode mode = Mode.STOPPED;
+	private volatile boolean stopped = false;
+	private long pollMillis;
+	private Thread thread = null;
+
+	// ------------ public methods ------------
+
+	public ChangeFeed(DataStore store)
+	{
+		this.store = store;
+		for (Watermark mark : Watermark.values())
+		{
+			current.put(mark, new AtomicLong(-1));
+			localMoves.put(mark, new AtomicLong(0));
+		}
+	}
+
+	// starts following: the mode is "stream" or "poll", or "auto" to use a change stream if the database supports it; the
+	// current values are read before returning
+	public void start(String how, long pollMillis)
+	{
+		this.pollMillis = Math.max(1, pollMillis);
+		check();
+
+		boolean stream = !"poll".equals(how);
+		if (stream && !"stream".equals(how) && !streamsAvailable()) stream = false;
+		mode = stream ? Mode.STREAM : Mode.POLL;
+		logger.info("Following changes made by other servers: {}", stream ? "change stream" : "polling every " + this.pollMillis + " ms");
+
+		thread = new Thread(stream ? this::followStream : this::followPoll, "change-feed");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop()
+	{
+		stopped = true;
+		mode = Mode.STOPPED;
+		synchronized (sleeper)
+		{
+			sleeper.notifyAll();
+		}
+		if (thread != null) thread.interrupt();
+	}
+
+	public Mode getMode() {return mode;}
+
+	// most recent known value for the watermark, or -1 if it hasn't been read yet
+	public long current(Watermark mark)
+	{
+		return current.get(mark).get();
+	}
+
+	// called by the datastore after it has moved a watermark on itself, which is applied straight away, and isn't passed
+	// on as a remote change
+	public void movedLocally(Watermark mark, long value)
+	{
+		localMoves.get(mark).incrementAndGet();
+		current.get(mark).accumulateAndGet(value, Math::max);
+	}
+
+	// reads the watermarks from the database and compares them with last time: anything that has moved on by more than this
+	// process accounts for is returned, and sent to the notifier
+	public synchronized Set<Watermark> check()
+	{
+		Map<String, Long> values = new HashMap<>();
+		Bson filter = Filters.in("_id", sequenceNames());
+		for (Document doc : store.db.getCollection(DataStore.COLL_SEQUENCES).find(filter))
+		{
+			Object seq = doc.get("seq");
+			if (seq instanceof Number) values.put(doc.getString("_id"), ((Number)seq).longValue());
+		}
+
+		// note: the local counts are taken after the read, so an increment that sneaks in between is credited early, and
+		// the remote change that it masks (if any) turns up next time around instead
+		Set<Watermark> changed = EnumSet.noneOf(Watermark.class);
+		for (Watermark mark : Watermark.values())
+		{
+			long value = values.getOrDefault(mark.sequence, 0L);
+			long local = localMoves.get(mark).getAndSet(0);
+			Long previous = seen.put(mark, value);
+			if (previous == null)
+				current.get(mark).accumulateAndGet(value, Math::max);
+			else if (value < previous)
+			{
+				// wound backwards, e.g. restored from a backup
+				current.get(mark).set(value);
+				changed.add(mark);
+			}
+			else
+			{
+				current.get(mark).accumulateAndGet(value, Math::max);
+				if (value - previous > local) changed.add(mark);
+			}
+		}
+
+		Notifier notifier = store.getNotifier();
+		if (!changed.isEmpty() && notifier != null)
+		{
+			logger.debug("Watermarks moved by another server: {}", changed);
+			try {notifier.datastoreRemoteChanged(changed);}
+			catch (Exception ex) {logger.error("Remote change notification failed", ex);}
+		}
+		return changed;
+	}
+
+	// ------------ private methods ------------
+
+	private static List<String> sequenceNames()
+	{
+		List<String> names = new ArrayList<>();
+		for (Watermark mark : Watermark.values()) names.add(mark.sequence);
+		return names;
+	}
+
+	// change streams are only available for replica sets (and sharded clusters), so ask the server what it is
+	private boolean streamsAvailable()
+	{
+		try
+		{
+			Document hello = store.db.runCommand(new Document("isMaster", 1));
+			return hello.containsKey("setName") || "isdbgrid".equals(hello.getString("msg"));
+		}
+		catch (MongoException ex)
+		{
+			return false;
+		}
+	}
+
+	private void followPoll()
+	{
+		while (!stopped)
+		{
+			pause(pollMillis);
+			if (stopped) break;
+			try {check();}
+			catch (MongoException ex) {logger.warn("Unable to check watermarks: {}", ex.getMessage());}
+		}
+	}
+
+	// the stream is only used as a signal that something has happened, since the comparison with the stored values is what
+	// decides what changed; if the stream breaks, it's reopened after a pause, with a check to catch up on anything missed
+	private void followStream()
+	{
+		List<Bson> pipeline = Collections.singletonList(Aggregates.match(Filters.in("documentKey._id", sequenceNames())));
+		MongoCollection<Document> coll = store.db.getCollection(DataStore.COLL_SEQUENCES);
+		while (!stopped)
+		{
+			try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = coll.watch(pipeline).maxAwaitTime(pollMillis, TimeUnit.MILLISECONDS).cursor())
+			{
+				check();
+				while (!stopped)
+				{
+					if (cursor.tryNext() != null) check();
+				}
+			}
+			catch (MongoException | IllegalStateException ex)
+			{
+				if (stopped) break;
+				logger.warn("Change stream interrupted, reopening: {}", ex.getMessage());
+				pause(pollMillis);
+			}
+		}
+	}
+
+	private void pause(long millis)
+	{
+		synchronized (sleeper)
+		{
+			try {sleeper.wait(millis);}
+			catch (InterruptedException ex) {/* checks the stopped flag */}
+		}
+	}
+}
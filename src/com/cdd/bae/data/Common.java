@@ -65,10 +65,23 @@ public class Common implements DataStore.Notifier
 
 	private static String configFN = null;
 	private static Configuration configuration = null;
+	private static long configStamp = 0; // changes whenever the configuration instance is replaced
 	
 	private static OntologyTree ontoProps = null, ontoValues = null;
 	private static ProvisionalCache provCache = null;
 
+	// resources that are loaded during bootstrap, some of which take a while: those that aren't strictly necessary to get
+	// started are loaded in the background, and can be checked for readiness
+	public enum Resource
+	{
+		CONFIGURATION, // templates, vocabulary, etc.
+		DATABASE, // data store connection
+		ONTOLOGY, // baseline ontology trees
+		NLP, // natural language models
+		PROVISIONAL; // cached provisional terms
+	}
+	private static StartupStages<Resource> startup = null; // null if not bootstrapped from a servlet context
+
 	// performs initialisation: only performs actions the first time it is called
 	public static void bootstrap(ServletContext context)
 	{
@@ -124,41 +137,23 @@ public class Common implements DataStore.Notifier
 			logger.info("Bootstrap: initializing");
 			logger.info("Bootstrap: Configuration file: {}", configFN);
 
-			configuration = null;
-			try
-			{
-				configuration = new Configuration(configFN);
-			}
-			catch (ConfigurationException ex)
-			{
-				logger.error("Configuration failed: [" + String.join(", ", ex.getDetails()) + "]", ex);
-				return;
-			}
+			// the configuration & database are needed by everything, so those are loaded right here before returning; the
+			// others are loaded in the background, concurrently, and whatever needs them will have to wait until they're ready
+			startup = new StartupStages<>(Resource.class, logger);
+			startup.stage(Resource.ONTOLOGY, () -> loadOntology(context));
+			startup.stage(Resource.NLP, Common::loadNLPModels, Resource.CONFIGURATION);
+			startup.stage(Resource.PROVISIONAL, Common::loadProvisionals, Resource.DATABASE);
+			startup.start();
 
-			Util.writeln("==== Parameters ====\n\n" + configuration.getParams() + "\n");
-			bootstrap(configuration.getParams());
-			
-			Util.writeln("Loading ontology...");
-			try (var istr = context.getResourceAsStream("/WEB-INF/data/ontology.gz"))
+			startup.runNow(Resource.CONFIGURATION, Common::loadConfiguration);
+			startup.runNow(Resource.DATABASE, () ->
 			{
-				var gzip = new GZIPInputStream(istr);
-				ontoProps = OntologyTree.deserialise(gzip);
-				ontoValues = OntologyTree.deserialise(gzip);
-				gzip.close();
-				
-				Util.writeln("    ontology properties: " + ontoProps.countURI());
-				Util.writeln("    ontology values:     " + ontoValues.countURI());
-			}
-			catch (IOException ex)
-			{
-				logger.info("Extreme failure: unable to read ontologies.");
-				Util.errmsg("Ontology load failure", ex);
-			}
-			
-			Util.writeln("Caching provisional terms...");
-			provCache = new ProvisionalCache();
-			provCache.update();
-			Util.writeln("    # provisional terms: " + provCache.numTerms());
+				if (configuration == null) return;
+				InitParams params = configuration.getParams();
+				bootstrap(params);
+				if (params.database != null && store.isDBAvailable())
+					store.startChangeFeed(params.database.changeFeed, params.database.changePoll * 1000L);
+			});
 		}
 	}
 
@@ -166,7 +161,7 @@ public class Common implements DataStore.Notifier
 	// to go for command line invocation
 	public static void bootstrap(Configuration configuration)
 	{
-		Common.configuration = configuration;
+		setConfiguration(configuration);
 		bootstrap(configuration.getParams());
 	}
 
@@ -183,7 +178,12 @@ public class Common implements DataStore.Notifier
 				initTime = new Date().getTime();
 
 				store = new DataStore(params.database);
-				store.setNotifier(main);
+				store.setNotifier(new NotifyCoalescer(main, params.database.notifyDelay));
+				// without a change feed, the cached assays would never hear about changes made by other servers
+				store.assay().setCacheSize("none".equals(params.database.changeFeed) ? 0 : params.database.assayCache * 1024L * 1024);
+				store.model().setCacheSize(params.database.modelCache * 1024L * 1024);
+				if (params.modelStore != null && params.modelStore.directory != null)
+					store.model().setModelDirectory(new File(params.modelStore.directory));
 			}
 			catch (Exception ex)
 			{
@@ -213,6 +213,20 @@ public class Common implements DataStore.Notifier
 		}
 	}
 	
+	// returns true if all of the given resources have finished loading (or were never in need of loading)
+	public static boolean isReady(Resource... resources)
+	{
+		var stages = startup;
+		return stages == null || stages.isReady(resources);
+	}
+
+	// waits until all of the given resources have finished loading
+	public static void awaitReady(Resource... resources)
+	{
+		var stages = startup;
+		if (stages != null) stages.await(resources);
+	}
+
 	// returns true if running in stateless mode, i.e. all database operations are unavailable
 	public static boolean isStateless()
 	{
@@ -276,10 +290,10 @@ public class Common implements DataStore.Notifier
 		if (PubChemAssays.main() != null) PubChemAssays.main().bumpMeasurements();
 	}
 
-	// sent when compounds have been amended such that action is required (e.g. downloading structures)
+	// sent when compounds have been amended such that action is required (e.g. downloading structures); the compound writes
+	// move the watermark themselves
 	public void datastoreCompoundsChanged()
 	{
-		store.compound().nextWatermarkCompound();
 		if (PubChemAssays.main() != null) PubChemAssays.main().bumpCompounds();
 	}
 
@@ -289,6 +303,26 @@ public class Common implements DataStore.Notifier
 		// nop (for now)
 	}
 
+	// sent when another server sharing the database has made changes: the watermark-keyed caches notice for themselves, but
+	// the cached assays, the provisional terms and the background tasks need to be told
+	public void datastoreRemoteChanged(Set<DataStore.Watermark> watermarks)
+	{
+		for (DataStore.Watermark mark : watermarks)
+		{
+			if (mark == DataStore.Watermark.ASSAY)
+			{
+				DataStore store = getDataStore();
+				if (store != null) store.assay().invalidateCache();
+				if (FingerprintCalculator.main() != null) FingerprintCalculator.main().bump();
+			}
+			else if (mark == DataStore.Watermark.MODEL && ModelBuilder.main() != null) ModelBuilder.main().bump();
+			else if (mark == DataStore.Watermark.CORR && CorrelationBuilder.main() != null) CorrelationBuilder.main().bump();
+			else if (mark == DataStore.Watermark.MEASURE && PubChemAssays.main() != null) PubChemAssays.main().bumpMeasurements();
+			else if (mark == DataStore.Watermark.COMPOUND && PubChemAssays.main() != null) PubChemAssays.main().bumpCompounds();
+			else if (mark == DataStore.Watermark.PROVISIONAL) refreshProvisionals();
+		}
+	}
+
 	// ------------- access to configuration data ----------
 
 	public static void setConfiguration(Configuration newConfiguration)
@@ -296,6 +330,18 @@ public class Common implements DataStore.Notifier
 		synchronized (mutex)
 		{
 			configuration = newConfiguration;
+			long content = newConfiguration == null ? 0 : newConfiguration.getContentStamp();
+			configStamp = content != 0 ? content : Math.max(configStamp + 1, new Date().getTime());
+		}
+	}
+
+	// a value that changes whenever the templates, vocabulary or configuration file do, and stays the same across restarts
+	// when they don't: can be used like a watermark for content that is derived from them
+	public static long getConfigStamp()
+	{
+		synchronized (mutex)
+		{
+			return configStamp;
 		}
 	}
 
@@ -413,6 +459,7 @@ public class Common implements DataStore.Notifier
 
 	public static NLPModels getNLPModels()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getNLPModels();
@@ -421,6 +468,7 @@ public class Common implements DataStore.Notifier
 
 	public static SentenceModel getSentenceModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getSentenceModel();
@@ -429,6 +477,7 @@ public class Common implements DataStore.Notifier
 
 	public static TokenizerModel getTokenModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getTokenModel();
@@ -437,6 +486,7 @@ public class Common implements DataStore.Notifier
 
 	public static POSModel getPosModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getPosModel();
@@ -445,6 +495,7 @@ public class Common implements DataStore.Notifier
 
 	public static ChunkerModel getChunkModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getChunkModel();
@@ -453,6 +504,7 @@ public class Common implements DataStore.Notifier
 
 	public static ParserModel getParserModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getParserModel();
@@ -461,6 +513,7 @@ public class Common implements DataStore.Notifier
 
 	public static TokenNameFinderModel getLocationModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getLocationModel();
@@ -469,6 +522,7 @@ public class Common implements DataStore.Notifier
 
 	public static TokenNameFinderModel getPersonModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getPersonModel();
@@ -477,6 +531,7 @@ public class Common implements DataStore.Notifier
 
 	public static TokenNameFinderModel getOrganizationModel()
 	{
+		awaitReady(Resource.NLP);
 		synchronized (mutex)
 		{
 			return configuration.getOrganizationModel();
@@ -511,17 +566,20 @@ public class Common implements DataStore.Notifier
 	// returns the static global baseline ontology tree for properties
 	public static OntologyTree getOntoProps() 
 	{
+		awaitReady(Resource.ONTOLOGY);
 		return ontoProps;
 	}
 	
-	// returns the static global baseline ontology tree for properties
+	// returns the static global baseline ontology tree for values
 	public static OntologyTree getOntoValues()
 	{
+		awaitReady(Resource.ONTOLOGY);
 		return ontoValues;
 	}
 	
 	public static ProvisionalCache getProvCache()
 	{
+		awaitReady(Resource.PROVISIONAL);
 		return provCache;
 	}
 
@@ -530,14 +588,12 @@ public class Common implements DataStore.Notifier
 	// obtain a tree instance for the given assignment
 	public static SchemaTree obtainTree(Schema schema, Schema.Assignment assn)
 	{
-		//return configuration.obtainTree(schema, assn.propURI, assn.groupNest());
 		return new CompositeTree(getOntoValues(), assn).compose();
 	}
 
 	// convenience method for grabbing a schema tree, by supplying only the property URI
 	public static SchemaTree obtainTree(Schema schema, String propURI, String[] groupNest)
 	{
-		//return configuration.obtainTree(schema, propURI, groupNest);
 		var assn = schema.findAssignmentByProperty(propURI, groupNest);
 		if (assn.length == 0) return null;
 		return obtainTree(schema, assn[0]);
@@ -567,6 +623,94 @@ public class Common implements DataStore.Notifier
 
 	// ------------ private methods ------------
 
+	// bootstrap stages: each of these logs its own problems, and leaves the corresponding resource empty if it fails
+
+	private static void loadConfiguration()
+	{
+		try
+		{
+			// NLP models are loaded as a separate stage, rather than holding up everything else
+			setConfiguration(new Configuration(configFN, false));
+			Util.writeln("==== Parameters ====\n\n" + configuration.getParams() + "\n");
+		}
+		catch (ConfigurationException ex)
+		{
+			logger.error("Configuration failed: [" + String.join(", ", ex.getDetails()) + "]", ex);
+		}
+	}
+
+	private static void loadNLPModels()
+	{
+		var config = getConfiguration();
+		if (config != null) config.loadNLPModels();
+	}
+
+	private static void loadOntology(ServletContext context)
+	{
+		Util.writeln("Loading ontology...");
+		if (!loadMappedOntology(context.getRealPath("/WEB-INF/data/ontology.bin")))
+		{
+			try (var istr = context.getResourceAsStream("/WEB-INF/data/ontology.gz"))
+			{
+				var gzip = new GZIPInputStream(istr);
+				ontoProps = OntologyTree.deserialise(gzip);
+				ontoValues = OntologyTree.deserialise(gzip);
+				gzip.close();
+			}
+			catch (IOException ex)
+			{
+				logger.info("Extreme failure: unable to read ontologies.");
+				Util.errmsg("Ontology load failure", ex);
+			}
+		}
+		if (ontoProps != null && ontoValues != null)
+		{
+			Util.writeln("    ontology properties: " + ontoProps.countURI());
+			Util.writeln("    ontology values:     " + ontoValues.countURI());
+		}
+	}
+
+	// brings the provisional terms up to date, both the cache and the ones grafted onto the schema trees
+	private static void refreshProvisionals()
+	{
+		if (!isReady(Resource.PROVISIONAL)) return; // (will be loaded fresh anyway)
+		var cache = provCache;
+		if (cache != null) cache.update();
+		var config = getConfiguration();
+		var vocabFile = config == null ? null : config.getSchemaVocabFile();
+		if (vocabFile != null) vocabFile.loadProvisionals();
+	}
+
+	private static void loadProvisionals()
+	{
+		if (getDataStore() == null) return;
+		Util.writeln("Caching provisional terms...");
+		var cache = new ProvisionalCache();
+		cache.update();
+		provCache = cache;
+		Util.writeln("    # provisional terms: " + provCache.numTerms());
+	}
+
+	// the pre-converted form of the ontologies can be mapped straight into memory, which is much quicker than unpacking the
+	// original; returns false if it's not there (or not usable), in which case the regular file is the fallback
+	private static boolean loadMappedOntology(String fn)
+	{
+		if (fn == null || !new File(fn).exists()) return false;
+		try
+		{
+			var trees = OntologyMapped.open(new File(fn));
+			if (trees.length < 2) throw new IOException("Expected 2 trees, found " + trees.length);
+			ontoProps = trees[0];
+			ontoValues = trees[1];
+			return true;
+		}
+		catch (IOException ex)
+		{
+			logger.warn("Unable to use mapped ontology file " + fn + ", falling back to regular format", ex);
+			return false;
+		}
+	}
+
 	// ----- methods required for testing ------
 
 	public static void setDataStore(DataStore store)
@@ -589,4 +733,9 @@ public class Common implements DataStore.Notifier
 	{
 		initTime = 1;
 	}
+
+	public static void setStartup(StartupStages<Resource> startup)
+	{
+		Common.startup = startup;
+	}
 }
@@ -19,6 +19,7 @@
 package com.cdd.bae.data;
 
 import com.cdd.bae.data.DataObject.*;
+import com.cdd.bae.util.*;
 import com.cdd.bae.util.diff.*;
 import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
@@ -42,6 +43,177 @@ import com.mongodb.client.result.*;
 public class DataAssay
 {
 	private DataStore store;
+	private AssayCache cache = new AssayCache(DEFAULT_CACHE_BYTES, DEFAULT_CACHE_AGE);
+	
+	// kinds of change that an assay write can make, which determine who needs to know about it
+	protected static final int CHANGED_TEXT = 1;
+	protected static final int CHANGED_ANNOTATIONS = 2;
+	protected static final int CHANGED_MEASUREMENTS = 4;
+
+	protected static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+	protected static final long DEFAULT_CACHE_AGE = 60 * 1000L; // milliseconds
+
+	static
+	{
+		Metrics.gauge("assayCache.bytes", () ->
+		{
+			DataStore store = Common.getDataStore();
+			return store == null ? 0 : store.assay().cache.totalBytes();
+		});
+	}
+
+	// least recently used assays, as they come out of the database (i.e. after conforming the annotations): the size of each
+	// is an estimate of its memory footprint, and the oldest are dropped when the total goes over the limit; what goes in and
+	// what comes out are copies, so that callers are free to modify the assays that they're given; any change to the schema
+	// templates or the provisional terms could conform the annotations differently, so the whole lot is discarded whenever
+	// either of them moves on; writes by this instance discard the assays that they touch, and writes by other servers (which
+	// all move the assay watermark, except for fingerprints) get everything discarded via the change feed; nothing is kept for
+	// longer than the maximum age either, which bounds how long a change can go unnoticed if the feed lags or misses it;
+	// without a change feed there's no way to hear about other servers at all, so the cache should be switched off
+	protected static class AssayCache
+	{
+		private long maxBytes, maxAge;
+		private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // in access order
+		private final Map<String, Long> uniqueIDs = new HashMap<>(); // uniqueID-to-assayID for whatever is currently cached
+		private long totalBytes = 0;
+		private long stampConfig = -1, stampProvisional = -1;
+		private long generation = 0; // incremented whenever anything is discarded
+
+		private static final class Entry
+		{
+			Assay assay;
+			long bytes;
+			long expires; // in nanoTime
+		}
+
+		public AssayCache(long maxBytes, long maxAge)
+		{
+			this.maxBytes = maxBytes;
+			this.maxAge = maxAge;
+		}
+
+		// returns a copy of the cached assay, or null if it isn't (or is no longer) cached; the stamps are the current values
+		// for the configuration & provisional terms, which clear out everything if they've changed
+		public synchronized Assay get(long assayID, long configStamp, long provStamp)
+		{
+			checkStamps(configStamp, provStamp);
+			Entry entry = current(assayID);
+			Metrics.cache("assay").record(entry != null);
+			return entry == null ? null : copyAssay(entry.assay);
+		}
+		public synchronized Assay getUniqueID(String uniqueID, long configStamp, long provStamp)
+		{
+			checkStamps(configStamp, provStamp);
+			Long assayID = uniqueIDs.get(uniqueID);
+			Entry entry = assayID == null ? null : current(assayID);
+			Metrics.cache("assay").record(entry != null);
+			return entry == null ? null : copyAssay(entry.assay);
+		}
+
+		// to be obtained before reading from the database: if anything gets discarded in the meanwhile, then what was read
+		// might already be out of date, so it doesn't get cached
+		public synchronized long ticket()
+		{
+			return generation;
+		}
+
+		public synchronized void put(Assay assay, long ticket)
+		{
+			if (ticket != generation || maxBytes <= 0) return;
+			long bytes = estimateBytes(assay);
+			if (bytes > maxBytes / 4) return;
+
+			forgetEntry(assay.assayID);
+			Entry entry = new Entry();
+			entry.assay = copyAssay(assay);
+			entry.bytes = bytes;
+			entry.expires = System.nanoTime() + maxAge * 1000000L;
+			entries.put(assay.assayID, entry);
+			if (assay.uniqueID != null) uniqueIDs.put(assay.uniqueID, assay.assayID);
+			totalBytes += bytes;
+
+			for (Iterator<Entry> it = entries.values().iterator(); totalBytes > maxBytes && it.hasNext();)
+			{
+				Entry oldest = it.next();
+				it.remove();
+				totalBytes -= oldest.bytes;
+				if (oldest.assay.uniqueID != null) uniqueIDs.remove(oldest.assay.uniqueID, oldest.assay.assayID);
+			}
+		}
+
+		public synchronized void forget(long assayID)
+		{
+			generation++;
+			forgetEntry(assayID);
+		}
+		public synchronized void forgetUniqueID(String uniqueID)
+		{
+			generation++;
+			Long assayID = uniqueIDs.get(uniqueID);
+			if (assayID != null) forgetEntry(assayID);
+		}
+
+		public synchronized void clear()
+		{
+			generation++;
+			entries.clear();
+			uniqueIDs.clear();
+			totalBytes = 0;
+		}
+
+		public synchronized void setMaxBytes(long maxBytes)
+		{
+			this.maxBytes = maxBytes;
+			clear();
+		}
+		public synchronized void setMaxAge(long maxAge)
+		{
+			this.maxAge = maxAge;
+			clear();
+		}
+
+		public synchronized int size() {return entries.size();}
+		public synchronized long totalBytes() {return totalBytes;}
+
+		private void checkStamps(long configStamp, long provStamp)
+		{
+			if (configStamp == stampConfig && provStamp == stampProvisional) return;
+			clear();
+			stampConfig = configStamp;
+			stampProvisional = provStamp;
+		}
+
+		// the entry for the assay, unless it has been around for too long, in which case it's dropped
+		private Entry current(long assayID)
+		{
+			Entry entry = entries.get(assayID);
+			if (entry == null || entry.expires - System.nanoTime() > 0) return entry;
+			forgetEntry(assayID);
+			return null;
+		}
+
+		private void forgetEntry(long assayID)
+		{
+			Entry entry = entries.remove(assayID);
+			if (entry == null) return;
+			totalBytes -= entry.bytes;
+			if (entry.assay.uniqueID != null) uniqueIDs.remove(entry.assay.uniqueID, assayID);
+		}
+
+		// rough idea of the memory taken up by an assay: mostly the strings, at 2 bytes per character, plus a fixed amount
+		// for each object
+		private static long estimateBytes(Assay assay)
+		{
+			long bytes = 256 + 2 * (StringUtils.length(assay.text) + StringUtils.length(assay.uniqueID) + StringUtils.length(assay.schemaURI));
+			if (assay.annotations != null) for (Annotation annot : assay.annotations)
+				bytes += 64 + 2 * (StringUtils.length(annot.propURI) + StringUtils.length(annot.valueURI)) + 100 * Util.length(annot.groupNest);
+			if (assay.textLabels != null) for (TextLabel label : assay.textLabels)
+				bytes += 64 + 2 * (StringUtils.length(label.propURI) + StringUtils.length(label.text)) + 100 * Util.length(label.groupNest);
+			bytes += 512 * Util.length(assay.history) + 128 * (Util.length(assay.schemaBranches) + Util.length(assay.schemaDuplication));
+			bytes += 128 * Util.length(assay.pubchemXRefs) + 4 * Util.length(assay.fplist);
+			return bytes;
+		}
+	}
 
 	// ------------ public methods ------------
 
@@ -50,6 +222,28 @@ public class DataAssay
 		this.store = store;
 	}
 
+	// changes the upper limit for the cache of recently fetched assays (zero to switch it off)
+	public void setCacheSize(long maxBytes)
+	{
+		cache.setMaxBytes(maxBytes);
+	}
+
+	// changes how long a cached assay can be used for (in milliseconds) before it has to be fetched again
+	public void setCacheAge(long maxAge)
+	{
+		cache.setMaxAge(maxAge);
+	}
+
+	// discards all of the cached assays: necessary when the content has been changed by some other means, e.g. another server
+	// or restoring a backup
+	public void invalidateCache()
+	{
+		cache.clear();
+	}
+	
+	public int cacheSize() {return cache.size();}
+	public long cacheBytes() {return cache.totalBytes();}
+
 	// total # of assays, with no qualifiers
 	public int countAssays()
 	{
@@ -58,7 +252,7 @@ public class DataAssay
 	
 	public long getWatermark()
 	{
-		return store.getSequence(SEQ_WATERMARK_ASSAY);
+		return store.getWatermark(Watermark.ASSAY);
 	}
 	
 	public long nextWatermark()
@@ -66,32 +260,81 @@ public class DataAssay
 		return store.getNextSequence(SEQ_WATERMARK_ASSAY);
 	}
 	
-	// fetches an assay based on its internal ID number
+	// fetches an assay based on its internal ID number; recently used assays come from the cache (the caller gets its own copy)
 	public Assay getAssay(long assayID)
 	{
+		long configStamp = Common.getConfigStamp(), provStamp = store.getWatermark(Watermark.PROVISIONAL);
+		Assay assay = cache.get(assayID, configStamp, provStamp);
+		if (assay != null) return assay;
+
+		long ticket = cache.ticket();
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
 		Document filter = new Document(FLD_ASSAY_ID, assayID);
 		for (Document doc : coll.find(filter).limit(1)) 
 		{
-			Assay assay = assayFromDoc(doc);
+			assay = assayFromDoc(doc);
 			AssayUtil.conformAnnotations(assay);
+			cache.put(assay, ticket);
 			return assay;
 		}
 		return null;
 	}
 	public Assay getAssayFromUniqueID(String uniqueID)
 	{
+		long configStamp = Common.getConfigStamp(), provStamp = store.getWatermark(Watermark.PROVISIONAL);
+		Assay assay = cache.getUniqueID(uniqueID, configStamp, provStamp);
+		if (assay != null) return assay;
+
+		long ticket = cache.ticket();
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
 		Document filter = new Document(FLD_ASSAY_UNIQUEID, uniqueID);
 		for (Document doc : coll.find(filter).limit(1))
 		{
-			Assay assay = assayFromDoc(doc);
+			assay = assayFromDoc(doc);
 			AssayUtil.conformAnnotations(assay);
+			cache.put(assay, ticket);
 			return assay;
 		}
 		return null;
 	}
-	
+
+	// fetches many assays with a single query (for those that aren't already cached); the result lines up with the requested IDs,
+	// with null for any that are missing
+	public Assay[] getAssays(long[] assayIDList)
+	{
+		long configStamp = Common.getConfigStamp(), provStamp = store.getWatermark(Watermark.PROVISIONAL);
+		Assay[] ret = new Assay[assayIDList.length];
+		BasicDBList idlist = new BasicDBList();
+		Map<Long, List<Integer>> map = new HashMap<>();
+		for (int n = 0; n < assayIDList.length; n++)
+		{
+			ret[n] = cache.get(assayIDList[n], configStamp, provStamp);
+			if (ret[n] != null) continue;
+			List<Integer> indices = map.get(assayIDList[n]);
+			if (indices == null)
+			{
+				idlist.add(assayIDList[n]);
+				map.put(assayIDList[n], indices = new ArrayList<>());
+			}
+			indices.add(n);
+		}
+		if (idlist.isEmpty()) return ret;
+
+		long ticket = cache.ticket();
+		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
+		Document filter = new Document(FLD_ASSAY_ID, new Document("$in", idlist));
+		for (Document doc : coll.find(filter).batchSize(idlist.size()))
+		{
+			Assay assay = assayFromDoc(doc);
+			AssayUtil.conformAnnotations(assay);
+			cache.put(assay, ticket);
+			List<Integer> indices = map.get(assay.assayID);
+			ret[indices.get(0)] = assay;
+			for (int n = 1; n < indices.size(); n++) ret[indices.get(n)] = copyAssay(assay);
+		}
+		return ret;
+	}
+
 	// pulls out selections of all assays, referring to them by their assay IDs
 	public long[] fetchAllAssayID()
 	{
@@ -343,15 +586,17 @@ public class DataAssay
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
 		Document filter = new Document(FLD_ASSAY_ID, assayID);
 		DeleteResult result = coll.deleteOne(filter);
+		cache.forget(assayID);
 
 		if (result.getDeletedCount() > 0)
 		{
-			nextWatermark();
-			if (store.notifier != null)
+			store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+			Notifier notifier = store.notifier();
+			if (notifier != null)
 			{
-				store.notifier.datastoreTextChanged();
-				store.notifier.datastoreFingerprintsChanged();
-				store.notifier.datastoreAnnotationsChanged();
+				notifier.datastoreTextChanged();
+				notifier.datastoreFingerprintsChanged();
+				notifier.datastoreAnnotationsChanged();
 			}
 		}
 
@@ -362,45 +607,71 @@ public class DataAssay
 	// clobbers whatever is there; the history is inserted as-is, erasing any previous tracking
 	public void setAssay(Assay assay)
 	{
-		if (assay.assayID == 0) assay.assayID = store.getNextSequence(SEQ_ID_ASSAY);
-		
-		AssayUtil.conformAnnotations(assay);
+		Document doc = setAssayDoc(assay);
 
+		// the previous content comes back from the same round trip, so that only relevant changes are notified; only the fields
+		// that are compared by detectChanges are returned
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
-		BasicDBList dbannot = new BasicDBList();
-		BasicDBList dblabel = new BasicDBList();
-		if (assay.annotations != null) for (Annotation annot : assay.annotations) dbannot.add(formulateAnnotation(annot));
-		if (assay.textLabels != null) for (TextLabel label : assay.textLabels) dblabel.add(formulateTextLabel(label));
+		Document idx = new Document(FLD_ASSAY_ID, assay.assayID);
+		Document proj = new Document(FLD_ASSAY_ID, true).append(FLD_ASSAY_UNIQUEID, true).append(FLD_ASSAY_TEXT, true)
+			.append(FLD_ASSAY_SCHEMAURI, true).append(FLD_ASSAY_SCHEMABRANCHES, true).append(FLD_ASSAY_SCHEMADUPLICATION, true)
+			.append(FLD_ASSAY_ANNOTATIONS, true).append(FLD_ASSAY_TEXTLABELS, true);
+		FindOneAndUpdateOptions opt = new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.BEFORE).projection(proj);
+		Document prevDoc = coll.findOneAndUpdate(idx, new Document("$set", doc), opt);
+		cache.forget(assay.assayID);
 
-		Document doc = new Document();
-		doc.append(FLD_ASSAY_ID, assay.assayID);
-		doc.append(FLD_ASSAY_UNIQUEID, assay.uniqueID);
-		doc.append(FLD_ASSAY_TEXT, assay.text);
-		doc.append(FLD_ASSAY_ANNOTATIONS, dbannot);
-		doc.append(FLD_ASSAY_TEXTLABELS, dblabel);
-		doc.append(FLD_ASSAY_ISCURATED, assay.isCurated);
-		doc.append(FLD_ASSAY_FPLIST, null);
-		// NOTE: pubchemSource is deprecated
-		//if (Util.notBlank(assay.pubchemSource)) doc.append(FLD_ASSAY_PUBCHEMSOURCE, assay.pubchemSource);
-		if (assay.curationTime != null) doc.append(FLD_ASSAY_CURATIONTIME, assay.curationTime.getTime());
-		if (assay.touchedTime != null) doc.append(FLD_ASSAY_TOUCHEDTIME, assay.touchedTime.getTime());
-		doc.append(FLD_ASSAY_CURATORID, assay.curatorID);
-		if (assay.schemaURI != null) doc.append(FLD_ASSAY_SCHEMAURI, assay.schemaURI);
-		if (assay.schemaBranches != null) doc.append(FLD_ASSAY_SCHEMABRANCHES, serialiseSchemaBranches(assay.schemaBranches));
-		if (assay.schemaDuplication != null) doc.append(FLD_ASSAY_SCHEMADUPLICATION, serialiseSchemaDuplication(assay.schemaDuplication));
+		Assay previous = prevDoc == null ? null : assayFromDoc(prevDoc);
+		if (previous != null) AssayUtil.conformAnnotations(previous);
 
-		doc.put(FLD_ASSAY_HISTORY, serialiseHistory(assay.history));
-		doc.put(FLD_ASSAY_PUBCHEMXREF, serialisePubChemXRef(assay.pubchemXRefs));
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+		notifyChanges(detectChanges(previous, assay) & ~CHANGED_MEASUREMENTS);
+	}
+	
+	// bulk equivalent of setAssay (for replaceList) and submitAssay (for amendList): everything is written in a single round trip;
+	// the watermark and notifications are left to the caller, via bulkComplete(), so that a large import does not wake up the
+	// background tasks once per assay
+	public void bulkWriteAssays(List<Assay> replaceList, List<Assay> amendList)
+	{
+		List<WriteModel<Document>> models = new ArrayList<>();
+		
+		// new assays get their identifiers from a single reserved block
+		int numNew = 0;
+		for (Assay assay : replaceList) if (assay.assayID == 0) numNew++;
+		long nextID = numNew == 0 ? 0 : store.reserveSequenceBlock(SEQ_ID_ASSAY, numNew);
 
-		Document idx = new Document(FLD_ASSAY_ID, assay.assayID);
-		coll.updateOne(idx, new Document("$set", doc), new UpdateOptions().upsert(true));
+		for (Assay assay : replaceList)
+		{
+			if (assay.assayID == 0) assay.assayID = nextID++;
+			Document doc = setAssayDoc(assay);
+			Document idx = new Document(FLD_ASSAY_ID, assay.assayID);
+			models.add(new UpdateOneModel<>(idx, new Document("$set", doc), new UpdateOptions().upsert(true)));
+		}
+		
+		long[] amendIDList = new long[amendList.size()];
+		for (int n = 0; n < amendIDList.length; n++) amendIDList[n] = amendList.get(n).assayID;
+		Assay[] previous = getAssays(amendIDList);
 
-		nextWatermark();
-		if (store.notifier != null)
+		for (int n = 0; n < amendIDList.length; n++)
 		{
-			store.notifier.datastoreTextChanged();
-			store.notifier.datastoreAnnotationsChanged();
+			Assay assay = amendList.get(n);
+			Document doc = submitAssayDoc(assay, previous[n]);
+			if (previous[n] != null)
+				models.add(new UpdateOneModel<>(new Document(FLD_ASSAY_ID, assay.assayID), new Document("$set", doc), new UpdateOptions().upsert(true)));
+			else
+				models.add(new InsertOneModel<>(doc));
 		}
+		
+		if (models.isEmpty()) return;
+		store.db.getCollection(COLL_ASSAY).bulkWrite(models, new BulkWriteOptions().ordered(true));
+		for (Assay assay : replaceList) cache.forget(assay.assayID);
+		for (Assay assay : amendList) cache.forget(assay.assayID);
+	}
+	
+	// to be called once after any number of bulkWriteAssays(..): bumps the watermark & lets everyone know
+	public void bulkComplete()
+	{
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+		notifyChanges(CHANGED_TEXT | CHANGED_ANNOTATIONS | CHANGED_MEASUREMENTS);
 	}
 	
 	// submits an assay entry, based on the datastructure; if the assayID value is zero, this translates to a request for a new assay
@@ -409,7 +680,7 @@ public class DataAssay
 	public void submitAssay(Assay assay)
 	{
 		Assay previous = assay.assayID == 0 ? null : getAssay(assay.assayID);
-		if (assay.assayID == 0) assay.assayID = store.getNextSequence(SEQ_ID_ASSAY);
+		if (assay.assayID == 0) assay.assayID = store.allocateSequence(SEQ_ID_ASSAY);
 		
 		Document doc = submitAssayDoc(assay, previous);
 				
@@ -422,15 +693,10 @@ public class DataAssay
 			coll.updateOne(idx, new Document("$set", doc), new UpdateOptions().upsert(true));
 		}
 		else coll.insertOne(doc);
+		cache.forget(assay.assayID);
 
-		nextWatermark();
-		if (store.notifier != null)
-		{
-			// TO DO: check to see if these actually changed...
-			store.notifier.datastoreTextChanged();
-			store.notifier.datastoreAnnotationsChanged();
-			store.notifier.datastoreMeasurementsChanged();
-		}
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+		notifyChanges(detectChanges(previous, assay));
 	}
 	
 	// associates the fingerprints with the indicated assay
@@ -441,8 +707,10 @@ public class DataAssay
 		BasicDBList dblist = new BasicDBList();
 		for (int fp : fplist) dblist.add(fp);
 		coll.updateOne(idx, new Document("$set", new Document(FLD_ASSAY_FPLIST, dblist)));
+		cache.forget(assayID);
 
-		if (store.notifier != null) store.notifier.datastoreFingerprintsChanged();
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreFingerprintsChanged();
 	}
 	
 	// remove fingerprints from a specific assay
@@ -451,8 +719,10 @@ public class DataAssay
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
 		Document idx = new Document(FLD_ASSAY_ID, assayID);
 		coll.updateOne(idx, new Document("$set", new Document(FLD_ASSAY_FPLIST, null)));
+		cache.forget(assayID);
 
-		if (store.notifier != null) store.notifier.datastoreFingerprintsChanged();
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreFingerprintsChanged();
 	}
 	
 	// replaces just the semantic annotations
@@ -463,9 +733,11 @@ public class DataAssay
 		BasicDBList dbannot = new BasicDBList();
 		if (annots != null) for (Annotation annot : annots) dbannot.add(formulateAnnotation(annot));
 		coll.updateOne(idx, new Document("$set", new Document(FLD_ASSAY_ANNOTATIONS, dbannot)));
+		cache.forget(assayID);
 
-		nextWatermark();
-		if (store.notifier != null) store.notifier.datastoreAnnotationsChanged();
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreAnnotationsChanged();
 	}
 	
 	public void submitAssayPubChemAnnotations(int pubchemAID, Annotation[] annots)
@@ -476,9 +748,11 @@ public class DataAssay
 		BasicDBList dbannot = new BasicDBList();
 		if (annots != null) for (Annotation annot : annots) dbannot.add(formulateAnnotation(annot));
 		coll.updateOne(idx, new Document("$set", new Document(FLD_ASSAY_ANNOTATIONS, dbannot)));
+		cache.forgetUniqueID(uniqueID);
 
-		nextWatermark();
-		if (store.notifier != null) store.notifier.datastoreAnnotationsChanged();
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreAnnotationsChanged();
 	}	
 	// replaces just the text for the indicated assay
 	public void replaceAssayText(int pubchemAID, String text)
@@ -488,8 +762,11 @@ public class DataAssay
 		Document idx = new Document(FLD_ASSAY_UNIQUEID, uniqueID);
 		Document doc = new Document(FLD_ASSAY_TEXT, text).append(FLD_ASSAY_FPLIST, null);
 		coll.updateOne(idx, new Document("$set", doc));
+		cache.forgetUniqueID(uniqueID);
 
-		if (store.notifier != null) store.notifier.datastoreTextChanged();
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreTextChanged();
 	}
 	
 	// updates the choice of schema for an assay
@@ -499,8 +776,11 @@ public class DataAssay
 		Document idx = new Document(FLD_ASSAY_ID, assayID);
 		Document doc = new Document(FLD_ASSAY_SCHEMAURI, schemaURI);
 		coll.updateOne(idx, new Document("$set", doc));
+		cache.forget(assayID);
 
-		if (store.notifier != null) store.notifier.datastoreAnnotationsChanged();
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreAnnotationsChanged();
 	}
 	
 	// obtains a list of PubChem AIDs of assays that do/do not have the "measureChecked" flag set, i.e. action is
@@ -532,6 +812,7 @@ public class DataAssay
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
 		Document idx = new Document(FLD_ASSAY_UNIQUEID, uniqueID);
 		coll.updateOne(idx, new Document("$set", new Document(FLD_ASSAY_MEASURECHECKED, measureChecked)));
+		cache.forgetUniqueID(uniqueID);
 	}
 	
 	// change just the curation state of a single assay
@@ -540,6 +821,8 @@ public class DataAssay
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
 		Document idx = new Document(FLD_ASSAY_ID, assayID);
 		coll.updateOne(idx, new Document("$set", new Document(FLD_ASSAY_ISCURATED, isCurated)));
+		cache.forget(assayID);
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
 	}
 	
 	// changes the "measurement state" for an assay: this is an arbitrary string that can be compared to some external resource
@@ -550,6 +833,8 @@ public class DataAssay
 		MongoCollection<Document> coll = store.db.getCollection(COLL_ASSAY);
 		Document idx = new Document(FLD_ASSAY_ID, assayID);
 		coll.updateOne(idx, new Document("$set", new Document(FLD_ASSAY_MEASURESTATE, measureState)));
+		cache.forget(assayID);
+		store.bumpWatermark(SEQ_WATERMARK_ASSAY);
 	}
 	
 	// counts up use of properties: returns the number of curated documents that annotate each given property
@@ -762,6 +1047,16 @@ public class DataAssay
 	
 	// ------------ private methods ------------
 
+	// copy that can be modified without affecting the original: the annotations & labels are the parts that callers edit,
+	// so they're duplicated too
+	protected static Assay copyAssay(Assay assay)
+	{
+		Assay dup = assay.clone();
+		if (dup.annotations != null) for (int n = 0; n < dup.annotations.length; n++) dup.annotations[n] = dup.annotations[n].clone();
+		if (dup.textLabels != null) for (int n = 0; n < dup.textLabels.length; n++) dup.textLabels[n] = dup.textLabels[n].clone();
+		return dup;
+	}
+
 	// pulls out everything from the source document
 	protected static Assay assayFromDoc(Document doc)
 	{
@@ -889,6 +1184,91 @@ public class DataAssay
 		return assay;
 	}
 
+	// compares the before & after content of an assay, and returns the kinds of change that were made (all of them, if it is new)
+	protected static int detectChanges(Assay previous, Assay assay)
+	{
+		if (previous == null) return CHANGED_TEXT | CHANGED_ANNOTATIONS | CHANGED_MEASUREMENTS;
+		
+		int changes = 0;
+		if (!Util.equals(previous.text, assay.text)) changes |= CHANGED_TEXT;
+		if (!Util.equals(previous.schemaURI, assay.schemaURI) || 
+			!sameContent(previous.annotations, assay.annotations) || !sameContent(previous.textLabels, assay.textLabels) ||
+			!sameBranches(previous.schemaBranches, assay.schemaBranches) || !sameDuplication(previous.schemaDuplication, assay.schemaDuplication))
+			changes |= CHANGED_ANNOTATIONS;
+		if (!Util.equals(previous.uniqueID, assay.uniqueID)) changes |= CHANGED_MEASUREMENTS; // measurements are keyed by uniqueID
+		return changes;
+	}
+	
+	// sends out the notifications that correspond to the changes
+	protected void notifyChanges(int changes)
+	{
+		Notifier notifier = store.notifier();
+		if (notifier == null) return;
+		if ((changes & CHANGED_TEXT) != 0) notifier.datastoreTextChanged();
+		if ((changes & CHANGED_ANNOTATIONS) != 0) notifier.datastoreAnnotationsChanged();
+		if ((changes & CHANGED_MEASUREMENTS) != 0) notifier.datastoreMeasurementsChanged();
+	}
+	
+	// order-independent comparison of annotations or labels
+	private static boolean sameContent(Object[] list1, Object[] list2)
+	{
+		if (Util.length(list1) != Util.length(list2)) return false;
+		if (list1 == null || list2 == null) return true;
+		return new HashSet<>(Arrays.asList(list1)).equals(new HashSet<>(Arrays.asList(list2)));
+	}
+	private static boolean sameBranches(SchemaBranch[] list1, SchemaBranch[] list2)
+	{
+		if (Util.length(list1) != Util.length(list2)) return false;
+		for (int n = 0; n < Util.length(list1); n++)
+		{
+			if (!Util.equals(list1[n].schemaURI, list2[n].schemaURI) || !Arrays.equals(list1[n].groupNest, list2[n].groupNest)) return false;
+		}
+		return true;
+	}
+	private static boolean sameDuplication(SchemaDuplication[] list1, SchemaDuplication[] list2)
+	{
+		if (Util.length(list1) != Util.length(list2)) return false;
+		for (int n = 0; n < Util.length(list1); n++)
+		{
+			if (list1[n].multiplicity != list2[n].multiplicity || !Arrays.equals(list1[n].groupNest, list2[n].groupNest)) return false;
+		}
+		return true;
+	}
+
+	// puts together the document used by setAssay, assigning a new ID if necessary
+	protected Document setAssayDoc(Assay assay)
+	{
+		if (assay.assayID == 0) assay.assayID = store.allocateSequence(SEQ_ID_ASSAY);
+		
+		AssayUtil.conformAnnotations(assay);
+
+		BasicDBList dbannot = new BasicDBList();
+		BasicDBList dblabel = new BasicDBList();
+		if (assay.annotations != null) for (Annotation annot : assay.annotations) dbannot.add(formulateAnnotation(annot));
+		if (assay.textLabels != null) for (TextLabel label : assay.textLabels) dblabel.add(formulateTextLabel(label));
+
+		Document doc = new Document();
+		doc.append(FLD_ASSAY_ID, assay.assayID);
+		doc.append(FLD_ASSAY_UNIQUEID, assay.uniqueID);
+		doc.append(FLD_ASSAY_TEXT, assay.text);
+		doc.append(FLD_ASSAY_ANNOTATIONS, dbannot);
+		doc.append(FLD_ASSAY_TEXTLABELS, dblabel);
+		doc.append(FLD_ASSAY_ISCURATED, assay.isCurated);
+		doc.append(FLD_ASSAY_FPLIST, null);
+		// NOTE: pubchemSource is deprecated
+		//if (Util.notBlank(assay.pubchemSource)) doc.append(FLD_ASSAY_PUBCHEMSOURCE, assay.pubchemSource);
+		if (assay.curationTime != null) doc.append(FLD_ASSAY_CURATIONTIME, assay.curationTime.getTime());
+		if (assay.touchedTime != null) doc.append(FLD_ASSAY_TOUCHEDTIME, assay.touchedTime.getTime());
+		doc.append(FLD_ASSAY_CURATORID, assay.curatorID);
+		if (assay.schemaURI != null) doc.append(FLD_ASSAY_SCHEMAURI, assay.schemaURI);
+		if (assay.schemaBranches != null) doc.append(FLD_ASSAY_SCHEMABRANCHES, serialiseSchemaBranches(assay.schemaBranches));
+		if (assay.schemaDuplication != null) doc.append(FLD_ASSAY_SCHEMADUPLICATION, serialiseSchemaDuplication(assay.schemaDuplication));
+
+		doc.put(FLD_ASSAY_HISTORY, serialiseHistory(assay.history));
+		doc.put(FLD_ASSAY_PUBCHEMXREF, serialisePubChemXRef(assay.pubchemXRefs));
+		return doc;
+	}
+
 	// provides the mechanics for submitting new assay content, replacing what's necessary and generating history
 	protected Document submitAssayDoc(Assay assay, Assay previous)
 	{
@@ -137,7 +137,7 @@ public class DataCompound
 	{
 		MongoCollection<Document> coll = store.db.getCollection(COLL_COMPOUND);
 
-		if (cpd.compoundID == 0) cpd.compoundID = store.getNextSequence(SEQ_ID_COMPOUND);
+		if (cpd.compoundID == 0) cpd.compoundID = store.allocateSequence(SEQ_ID_COMPOUND);
 
 		Document doc = new Document();
 		doc.append(FLD_COMPOUND_ID, cpd.compoundID);
@@ -157,10 +157,12 @@ public class DataCompound
 			cpd.id = doc.getObjectId("_id").toHexString();
 		}
 
-		if (store.notifier != null)
+		store.bumpWatermark(SEQ_WATERMARK_COMPOUND);
+		Notifier notifier = store.notifier();
+		if (notifier != null)
 		{
-			store.notifier.datastoreCompoundsChanged();
-			store.notifier.datastoreStructuresChanged();
+			notifier.datastoreCompoundsChanged();
+			notifier.datastoreStructuresChanged();
 		}
 	}
 
@@ -173,7 +175,7 @@ public class DataCompound
 
 		BasicDBObject change = new BasicDBObject();
 		change.append("$set", new BasicDBObject().append(FLD_COMPOUND_MOLFILE, null));
-		coll.updateMany(query, change);
+		if (coll.updateMany(query, change).getModifiedCount() > 0) store.bumpWatermark(SEQ_WATERMARK_COMPOUND);
 	}
 
 	// checks to see if a particular SID (PubChem Substance ID) is already in the compounds collection; if not,
@@ -184,13 +186,15 @@ public class DataCompound
 		Document filter = new Document(FLD_COMPOUND_PUBCHEMSID, sid);
 		for (Document doc : coll.find(filter).limit(1)) return doc.getLong(FLD_COMPOUND_ID);
 
-		long compoundID = store.getNextSequence(SEQ_ID_COMPOUND);
+		long compoundID = store.allocateSequence(SEQ_ID_COMPOUND);
 		Document doc = new Document();
 		doc.append(FLD_COMPOUND_ID, compoundID);
 		doc.append(FLD_COMPOUND_PUBCHEMSID, sid);
 		coll.insertOne(doc);
 
-		if (store.notifier != null) store.notifier.datastoreCompoundsChanged();
+		store.bumpWatermark(SEQ_WATERMARK_COMPOUND);
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreCompoundsChanged();
 		return compoundID;
 	}
 
@@ -202,14 +206,16 @@ public class DataCompound
 		Document filter = new Document(FLD_COMPOUND_VAULTMID, vaultMID);
 		for (Document doc : coll.find(filter).limit(1)) return doc.getLong(FLD_COMPOUND_ID);
 
-		long compoundID = store.getNextSequence(SEQ_ID_COMPOUND);
+		long compoundID = store.allocateSequence(SEQ_ID_COMPOUND);
 		Document doc = new Document();
 		doc.append(FLD_COMPOUND_ID, compoundID);
 		doc.append(FLD_COMPOUND_VAULTID, vaultID);
 		doc.append(FLD_COMPOUND_VAULTMID, vaultMID);
 		coll.insertOne(doc);
 
-		if (store.notifier != null) store.notifier.datastoreCompoundsChanged();
+		store.bumpWatermark(SEQ_WATERMARK_COMPOUND);
+		Notifier notifier = store.notifier();
+		if (notifier != null) notifier.datastoreCompoundsChanged();
 		return compoundID;
 	}
 
@@ -217,7 +223,7 @@ public class DataCompound
 	{
 		MongoCollection<Document> coll = store.db.getCollection(COLL_COMPOUND);
 		Document idx = new Document("_id", new ObjectId(id));
-		coll.deleteOne(idx);
+		if (coll.deleteOne(idx).getDeletedCount() > 0) store.bumpWatermark(SEQ_WATERMARK_COMPOUND);
 	}
 
 	// stats
@@ -234,8 +240,8 @@ public class DataCompound
 		return (int)coll.countDocuments(filter);
 	}
 
-	// compound watermark: when compounds need to be updated (e.g. downloading structures)
-	public long getWatermarkCompound() {return store.getSequence(SEQ_WATERMARK_COMPOUND);}
+	// compound watermark: moved by every write, so it also tells when compounds need to be updated (e.g. downloading structures)
+	public long getWatermarkCompound() {return store.getWatermark(Watermark.COMPOUND);}
 	public long nextWatermarkCompound() {return store.getNextSequence(SEQ_WATERMARK_COMPOUND);}
 
 	// ------------ private methods ------------
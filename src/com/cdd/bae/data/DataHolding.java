@@ -44,6 +44,8 @@ public class DataHolding
 	{
 		this.store = store;
 	}
+
+	public long getWatermark() {return store.getWatermark(Watermark.HOLDING);}
 	
 	// levels up the holding bay entry to an assay description; this is only appropriate when the assay didn't exist before;
 	// for obvious reasons, the "removed" terms are not considered
@@ -144,6 +146,7 @@ public class DataHolding
 		
 		MongoCollection<Document> coll = store.db.getCollection(COLL_HOLDING);
 		coll.insertOne(doc);
+		store.bumpWatermark(SEQ_WATERMARK_HOLDING);
 	}
 	
 	// removes the holding item from the database
@@ -151,7 +154,7 @@ public class DataHolding
 	{
 		MongoCollection<Document> coll = store.db.getCollection(COLL_HOLDING);
 		Document idx = new Document(FLD_HOLDING_ID, holdingID);
-		coll.deleteOne(idx);
+		if (coll.deleteOne(idx).getDeletedCount() > 0) store.bumpWatermark(SEQ_WATERMARK_HOLDING);
 	}
 
 	// fetch all of the holding IDs, with no further information about what lies within; guaranteed to be in order
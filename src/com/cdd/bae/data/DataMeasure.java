@@ -27,10 +27,13 @@ import java.util.*;
 
 import org.apache.commons.lang3.*;
 import org.bson.*;
+import org.bson.io.*;
 import org.bson.types.*;
+import org.slf4j.*;
 
 import com.mongodb.*;
 import com.mongodb.client.*;
+import com.mongodb.client.model.*;
 
 /*
 	Specialisation based on DataStore: provides access to groups of measurement data.
@@ -38,7 +41,11 @@ import com.mongodb.client.*;
 
 public class DataMeasure
 {
+	private static final Logger logger = LoggerFactory.getLogger(DataMeasure.class);
+
 	private DataStore store;
+	private Boolean transactional = null; // null = not checked yet
+	private volatile MeasureStats cachedStats = null;
 	
 	// commonly used string types (for Measurement::type); not necessarily limited to these
 	public static final String TYPE_ACTIVITY = "activity"; // boolean 1=active, 0=active
@@ -47,6 +54,8 @@ public class DataMeasure
 	public static final String TYPE_MEASUREMENT = "measurement"; // general, i.e. need to dig deeper to decide what it is specifically
 
 	protected static final int LIMIT = 100000;
+	private static final String STATS_KEY = "measure"; // identifies the statistics document
+	private static final int CODE_ILLEGAL_OPERATION = 20; // server error when transactions are used without a replica set
 
 	// ------------ public methods ------------
 
@@ -144,6 +153,7 @@ public class DataMeasure
 			coll.insertOne(doc);
 			measure.id = doc.getObjectId("_id").toHexString();
 		}
+		store.bumpWatermark(SEQ_WATERMARK_MEASURE);
 	}
 	
 	// usually equivalent to calling updateMeasurement(..) with the id undefined; if the number of items is
@@ -179,12 +189,67 @@ public class DataMeasure
 		return blocks.toArray(new Measurement[blocks.size()]);
 	}
 	
+	// bulk ingestion: writes all of the columns, for any number of assays, with as few round trips as possible; each column is
+	// split up into blocks as necessary, and the documents are encoded directly from the primitive arrays; this assumes that the
+	// measurements were already cleared out, or are being added to; returns the number of documents written
+	public int insertMeasurements(List<MeasureColumn> columns)
+	{
+		List<RawBsonDocument> docs = encodeColumns(columns);
+		if (docs.isEmpty()) return 0;
+		MongoCollection<RawBsonDocument> coll = store.db.getCollection(COLL_MEASUREMENT, RawBsonDocument.class);
+		coll.insertMany(docs, new InsertManyOptions().ordered(false));
+		store.bumpWatermark(SEQ_WATERMARK_MEASURE);
+		return docs.size();
+	}
+	
+	// as above, except that all of the measurements that already belong to the listed assays are removed at the same time, so
+	// that they are replaced in one step; if the server supports transactions, readers never see a partial state; otherwise the
+	// delete & inserts go out as a single ordered bulk write
+	public int replaceMeasurements(long[] assayIDList, List<MeasureColumn> columns)
+	{
+		List<RawBsonDocument> docs = encodeColumns(columns);
+		if (assayIDList.length == 0 && docs.isEmpty()) return 0;
+
+		MongoCollection<RawBsonDocument> coll = store.db.getCollection(COLL_MEASUREMENT, RawBsonDocument.class);
+		Document filter = new Document(FLD_MEASUREMENT_ASSAYID, new Document("$in", Arrays.asList(ArrayUtils.toObject(assayIDList))));
+
+		if (supportsTransactions())
+		{
+			try (ClientSession session = store.mongo.startSession())
+			{
+				session.withTransaction(() ->
+				{
+					coll.deleteMany(session, filter);
+					if (!docs.isEmpty()) coll.insertMany(session, docs, new InsertManyOptions().ordered(false));
+					return null;
+				});
+				store.bumpWatermark(SEQ_WATERMARK_MEASURE);
+				return docs.size();
+			}
+			catch (MongoException ex)
+			{
+				// the server can still turn out not to do transactions (e.g. a standalone that claims a set name), in which case the
+				// non-atomic route is used from now on; anything else is a genuine failure
+				if (ex.getCode() != CODE_ILLEGAL_OPERATION) throw ex;
+				logger.warn("Transactions not supported, replacing measurements non-transactionally: {}", ex.getMessage());
+				transactional = false;
+			}
+		}
+
+		List<WriteModel<RawBsonDocument>> requests = new ArrayList<>(docs.size() + 1);
+		requests.add(new DeleteManyModel<>(filter));
+		for (RawBsonDocument doc : docs) requests.add(new InsertOneModel<>(doc));
+		coll.bulkWrite(requests, new BulkWriteOptions().ordered(true));
+		store.bumpWatermark(SEQ_WATERMARK_MEASURE);
+		return docs.size();
+	}
+
 	// remove just one
 	public void deleteMeasurement(String id)
 	{
 		MongoCollection<Document> coll = store.db.getCollection(COLL_MEASUREMENT);
 		Document idx = new Document("_id", new ObjectId(id));
-		coll.deleteOne(idx);
+		if (coll.deleteOne(idx).getDeletedCount() > 0) store.bumpWatermark(SEQ_WATERMARK_MEASURE);
 	}
 	
 	// remove all measurements for an assay
@@ -192,7 +257,7 @@ public class DataMeasure
 	{
 		MongoCollection<Document> coll = store.db.getCollection(COLL_MEASUREMENT);
 		Document idx = new Document(FLD_MEASUREMENT_ASSAYID, assayID);
-		coll.deleteMany(idx);
+		if (coll.deleteMany(idx).getDeletedCount() > 0) store.bumpWatermark(SEQ_WATERMARK_MEASURE);
 	}
 
 	// returns the total number of measurement datapoints
@@ -202,62 +267,168 @@ public class DataMeasure
 		return (int)coll.countDocuments();
 	}
 
-	// returns the number of assay identifiers, i.e. number of assays that have measurements
+	// returns the number of assay identifiers, i.e. number of assays that have measurements; the distinct values are collected
+	// on the server, so only the count comes back
 	public int countUniqueAssays()
 	{
 		MongoCollection<Document> coll = store.db.getCollection(COLL_MEASUREMENT);
-		Document proj = new Document(FLD_MEASUREMENT_ASSAYID, true);
-		Set<Long> unique = new HashSet<>();
-		for (Document doc : coll.find().projection(proj)) unique.add(doc.getLong(FLD_MEASUREMENT_ASSAYID));
-		return unique.size();
-		
-		/* ... this seems to be even slower and more prone to timeout
-		String reduce = String.join("\n", new String[]
-		{
-			"function(doc, prev)",
-			"{",
-			"  var assayID = doc." + FLD_MEASUREMENT_ASSAYID + ";",
-			"  prev[assayID] = true;",
-			"}"
-		});
-		Document group = new Document("ns", COLL_MEASUREMENT);
-		group.append("initial", new Document()).append("$reduce", reduce);
-		
-		Document result = store.db.runCommand(new Document("group", group));
-		List<Document> retvals = (List<Document>)result.get("retval");
-		Document props = retvals.get(0);
-		return props.size();*/
+		List<Document> pipeline = Arrays.asList(
+			new Document("$group", new Document("_id", "$" + FLD_MEASUREMENT_ASSAYID)),
+			new Document("$count", "count"));
+		for (Document doc : coll.aggregate(pipeline).allowDiskUse(true)) return ((Number)doc.get("count")).intValue();
+		return 0;
 	}
 	
-	// for a given assay, counts the number of compounds that are associated with it by way of measurements
+	// for a given assay, counts the number of compounds that are associated with it by way of measurements; the compound
+	// arrays are unwound & made distinct on the server
 	public int countCompounds(long assayID)
 	{
-		// NOTE: might be possible to speed up the implementation by using internal javascript, but still have to collect
-		// the IDs to remote nondegenerates... may be a bit slow either ways
-	
 		MongoCollection<Document> coll = store.db.getCollection(COLL_MEASUREMENT);
 		Document filter = new Document(FLD_MEASUREMENT_ASSAYID, assayID);
 		// note: adding {type=activity/primary} restriction cuts down the time taken to count the molecules, but there may be
 		// cases where an assay will have measurements of other types but not these... consider this a low priority bug
 		List<String> types = Arrays.asList(new String[]{TYPE_ACTIVITY, TYPE_PRIMARY});
 		filter.append(FLD_MEASUREMENT_TYPE, new Document("$in", types));
-		Document proj = new Document(FLD_MEASUREMENT_COMPOUNDID, true);
 
-		Set<Long> uniqueCompounds = new HashSet<>();
-		for (Document doc : coll.find(filter).projection(proj))
+		List<Document> pipeline = Arrays.asList(
+			new Document("$match", filter),
+			new Document("$project", new Document(FLD_MEASUREMENT_COMPOUNDID, true)),
+			new Document("$unwind", "$" + FLD_MEASUREMENT_COMPOUNDID),
+			new Document("$group", new Document("_id", "$" + FLD_MEASUREMENT_COMPOUNDID)),
+			new Document("$count", "count"));
+		for (Document doc : coll.aggregate(pipeline).allowDiskUse(true)) return ((Number)doc.get("count")).intValue();
+		return 0;
+	}
+
+	// summary statistics for measurements & compounds: these are kept in the database, and only recalculated when either of the
+	// measurement or compound watermarks have moved on since last time
+	public MeasureStats getStats()
+	{
+		long wmMeasure = getWatermarkMeasure(), wmCompound = store.compound().getWatermarkCompound();
+
+		MeasureStats stats = cachedStats;
+		if (stats != null && stats.watermarkMeasure == wmMeasure && stats.watermarkCompound == wmCompound) return stats;
+
+		// another instance may have done the work already
+		MongoCollection<Document> coll = store.db.getCollection(COLL_STATS);
+		Document idx = new Document("_id", STATS_KEY);
+		for (Document doc : coll.find(idx).limit(1))
 		{
-			List<?> listCompound = doc.get(FLD_MEASUREMENT_COMPOUNDID, List.class);
-			for (Object cpdID : listCompound) uniqueCompounds.add((Long)cpdID);
+			stats = statsFromDoc(doc);
+			if (stats.watermarkMeasure == wmMeasure && stats.watermarkCompound == wmCompound) return cachedStats = stats;
 		}
-		return uniqueCompounds.size();
+
+		// the watermarks are from before counting, so if anything changes in the meanwhile, the next call will redo it
+		stats = new MeasureStats();
+		stats.watermarkMeasure = wmMeasure;
+		stats.watermarkCompound = wmCompound;
+		stats.assaysWithMeasurements = countUniqueAssays();
+		stats.numMeasurements = countMeasurements();
+		stats.numCompounds = store.compound().countTotal();
+		stats.compoundsWithStructures = store.compound().countWithStructures();
+
+		Document doc = new Document("_id", STATS_KEY);
+		doc.append(FLD_STATS_WATERMARKMEASURE, stats.watermarkMeasure);
+		doc.append(FLD_STATS_WATERMARKCOMPOUND, stats.watermarkCompound);
+		doc.append(FLD_STATS_ASSAYSWITHMEASUREMENTS, stats.assaysWithMeasurements);
+		doc.append(FLD_STATS_NUMMEASUREMENTS, stats.numMeasurements);
+		doc.append(FLD_STATS_NUMCOMPOUNDS, stats.numCompounds);
+		doc.append(FLD_STATS_COMPOUNDSWITHSTRUCTURES, stats.compoundsWithStructures);
+		coll.replaceOne(idx, doc, new ReplaceOptions().upsert(true));
+
+		return cachedStats = stats;
 	}
 
 	// measurement watermark: when measurements need to be updated (e.g. acquiring the full record and extracting)
-	public long getWatermarkMeasure() {return store.getSequence(SEQ_WATERMARK_MEASURE);}
+	public long getWatermarkMeasure() {return store.getWatermark(Watermark.MEASURE);}
 	public long nextWatermarkMeasure() {return store.getNextSequence(SEQ_WATERMARK_MEASURE);}
 
 	// ------------ private methods ------------
 
+	// transactions need a replica set or sharded cluster (and a recent enough server): find out once
+	private boolean supportsTransactions()
+	{
+		if (transactional != null) return transactional;
+		boolean supported = false;
+		if (store.mongo != null) try
+		{
+			Document info = store.db.runCommand(new Document("isMaster", 1));
+			boolean cluster = info.get("setName") != null || "isdbgrid".equals(info.get("msg"));
+			Object wire = info.get("maxWireVersion");
+			supported = cluster && wire instanceof Number && ((Number)wire).intValue() >= 7;
+		}
+		catch (MongoException ex) {supported = false;}
+		transactional = supported;
+		return supported;
+	}
+
+	// turns the columns into documents, LIMIT values at a time
+	private static List<RawBsonDocument> encodeColumns(List<MeasureColumn> columns)
+	{
+		List<RawBsonDocument> docs = new ArrayList<>();
+		for (MeasureColumn col : columns)
+		{
+			int sz = col.size();
+			if (sz == 0) continue;
+			for (int n = 0; n < sz; n += LIMIT) docs.add(encodeBlock(col, n, Math.min(n + LIMIT, sz)));
+		}
+		return docs;
+	}
+
+	// writes out the BSON for part of a column directly, so the values never have to be boxed; the fields are the same as for
+	// updateMeasurement(..)
+	private static RawBsonDocument encodeBlock(MeasureColumn col, int start, int end)
+	{
+		BasicOutputBuffer buff = new BasicOutputBuffer(64 + (end - start) * 32);
+		try (BsonBinaryWriter writer = new BsonBinaryWriter(buff))
+		{
+			writer.writeStartDocument();
+			writer.writeObjectId("_id", new ObjectId());
+			writer.writeInt64(FLD_MEASUREMENT_ASSAYID, col.assayID);
+			writeString(writer, FLD_MEASUREMENT_NAME, col.name);
+			writeString(writer, FLD_MEASUREMENT_UNITS, col.units);
+			writeString(writer, FLD_MEASUREMENT_TYPE, col.type);
+
+			writer.writeStartArray(FLD_MEASUREMENT_COMPOUNDID);
+			for (int n = start; n < end; n++) writer.writeInt64(col.compoundID[n]);
+			writer.writeEndArray();
+
+			writer.writeStartArray(FLD_MEASUREMENT_VALUE);
+			for (int n = start; n < end; n++)
+			{
+				if (Double.isNaN(col.value[n])) writer.writeNull(); else writer.writeDouble(col.value[n]);
+			}
+			writer.writeEndArray();
+
+			writer.writeStartArray(FLD_MEASUREMENT_RELATION);
+			for (int n = start; n < end; n++)
+			{
+				String rel = col.relation == null ? "=" : col.relation[n];
+				if (rel == null) writer.writeNull(); else writer.writeString(rel);
+			}
+			writer.writeEndArray();
+
+			writer.writeEndDocument();
+		}
+		return new RawBsonDocument(buff.toByteArray());
+	}
+	private static void writeString(BsonBinaryWriter writer, String name, String value)
+	{
+		if (value == null) writer.writeNull(name); else writer.writeString(name, value);
+	}
+
+	private static MeasureStats statsFromDoc(Document doc)
+	{
+		MeasureStats stats = new MeasureStats();
+		stats.watermarkMeasure = doc.getLong(FLD_STATS_WATERMARKMEASURE);
+		stats.watermarkCompound = doc.getLong(FLD_STATS_WATERMARKCOMPOUND);
+		stats.assaysWithMeasurements = doc.getInteger(FLD_STATS_ASSAYSWITHMEASUREMENTS, 0);
+		stats.numMeasurements = doc.getInteger(FLD_STATS_NUMMEASUREMENTS, 0);
+		stats.numCompounds = doc.getInteger(FLD_STATS_NUMCOMPOUNDS, 0);
+		stats.compoundsWithStructures = doc.getInteger(FLD_STATS_COMPOUNDSWITHSTRUCTURES, 0);
+		return stats;
+	}
+
 	private Measurement measurementFromDoc(Document doc)
 	{
 		Measurement measure = new Measurement();
@@ -19,12 +19,20 @@
 package com.cdd.bae.data;
 
 import com.cdd.bae.data.DataObject.*;
+import com.cdd.bae.util.*;
 
 import static com.cdd.bae.data.DataStore.*;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import org.bson.*;
+import org.bson.types.*;
+import org.slf4j.*;
 
 import com.mongodb.*;
 import com.mongodb.client.*;
@@ -36,6 +44,8 @@ import com.mongodb.client.model.*;
 
 public class DataModel
 {
+	private static final Logger logger = LoggerFactory.getLogger(DataModel.class);
+
 	private DataStore store;
 
 	private ModelCache nlpCache;
@@ -44,22 +54,69 @@ public class DataModel
 	protected static final String TYPE_NLP = "nlp";
 	protected static final String TYPE_CORR = "corr";
 
+	// encoded form of a model: version, flags, calibration (low & high), count, then the fingerprints (ascending) followed by
+	// the contributions, big-endian
+	protected static final int BLOB_VERSION = 1;
+	protected static final int BLOB_EXPLICIT = 1, BLOB_HAS_CONTENT = 2; // flags
+	protected static final int BLOB_HEADER_SIZE = 14;
+
+	protected static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024; // (each for NLP & correlation)
+	private static final int AGING_REQUESTS = 10000;
+
+	static
+	{
+		Metrics.gauge("modelCache.bytes", () ->
+		{
+			DataStore store = Common.getDataStore();
+			return store == null ? 0 : store.model().nlpCache.totalBytes() + store.model().corrCache.totalBytes();
+		});
+	}
+
+	// models as they come out of the database, for the current watermark only: reads don't lock anything, and the total size
+	// is kept under a limit by throwing out the least requested models (stale ones first); request counts are halved every so
+	// often, so that what's popular now counts for more than what was popular earlier; the cache can be warmed up with a single
+	// query, which fetches the most requested models (or as many as will fit, if nothing has been requested yet); each target
+	// has a version that is incremented after every write, so that a model that was read before the write finished doesn't get
+	// left in the cache
 	protected static class ModelCache
 	{
 		private DataStore store;
 
 		private String modelType;
-		private String seqWatermark;
-		private Map<Integer, Model> cache = new HashMap<>();
+		private Watermark mark;
+		private final Map<Integer, Entry> cache = new ConcurrentHashMap<>();
+		private final Map<Integer, AtomicInteger> requests = new ConcurrentHashMap<>();
+		private final Map<Integer, Long> versions = new ConcurrentHashMap<>(); // only for targets that have been written
+		private final AtomicInteger requestsSinceAging = new AtomicInteger();
+		private final AtomicLong totalBytes = new AtomicLong();
+		private volatile long maxBytes = DEFAULT_CACHE_BYTES;
+		private final Object evictMutex = new Object();
 		private Set<Integer> cacheTargets = null;
+		private long targetsWatermark = -1; // the list of targets is refetched if another server has moved the watermark on
 		private final Object mutex = new Object();
+		private File mappedFile = null; // optional local copy of all the models, used for predictions
+		private volatile MappedModels mapped = null;
+
+		private static final int WARMUP_BATCH = 100;
+
+		private static final class Entry
+		{
+			final Model model;
+			final long bytes;
+
+			Entry(Model model)
+			{
+				this.model = model;
+				bytes = estimateBytes(model);
+			}
+		}
 
 		public ModelCache(String modelType, DataStore store)
 		{
 			this.modelType = modelType;
 			this.store = store;
-			if (modelType.equals(TYPE_NLP)) seqWatermark = SEQ_WATERMARK_MODEL;
-			else if (modelType.equals(TYPE_CORR)) seqWatermark = SEQ_WATERMARK_CORR;
+			if (modelType.equals(TYPE_NLP)) mark = Watermark.MODEL;
+			else if (modelType.equals(TYPE_CORR)) mark = Watermark.CORR;
 		}
 
 		// returns various totals
@@ -72,9 +129,10 @@ public class DataModel
 		// return a list of all of the targets of the corresponding type
 		public Set<Integer> allTargets()
 		{
+			long watermark = getWatermark();
 			synchronized (mutex)
 			{
-				if (cacheTargets != null) return cacheTargets;
+				if (cacheTargets != null && targetsWatermark == watermark) return cacheTargets;
 			}
 			Set<Integer> all = new HashSet<>();
 			MongoCollection<Document> coll = store.db.getCollection(COLL_MODEL);
@@ -84,6 +142,7 @@ public class DataModel
 			synchronized (mutex)
 			{
 				cacheTargets = all;
+				targetsWatermark = watermark;
 			}
 			return all;
 		}
@@ -100,38 +159,104 @@ public class DataModel
 		public Model getModel(int target)
 		{
 			long watermark = getWatermark();
-			synchronized (mutex)
+			countRequest(target);
+			Entry entry = cache.get(target);
+			boolean hit = entry != null && entry.model.watermark == watermark;
+			Metrics.cache("model." + modelType).record(hit);
+			if (hit) return entry.model.target < 0 ? null : entry.model; // (negative target means not in database)
+
+			long version = versions.getOrDefault(target, 0L);
+			MongoCollection<Document> coll = store.db.getCollection(COLL_MODEL);
+			Model model = null;
+			for (Document doc : coll.find(targetFilter(target))) model = modelFromDoc(doc);
+
+			if (model == null)
+			{
+				// not found: so temporarily block it
+				Model blocked = new Model();
+				blocked.watermark = watermark;
+				blocked.target = -1;
+				admitUnchanged(target, blocked, version);
+			}
+			else admitUnchanged(target, model, version);
+			return model;
+		}
+
+		// fetches the most requested models that are up to date (or any up to date models, if there haven't been any requests
+		// yet), stopping when the cache is full; returns the number added
+		public int warmUp()
+		{
+			if (maxBytes <= 0) return 0;
+			long watermark = getWatermark();
+			Map<Integer, Long> before = new HashMap<>(versions);
+
+			List<Integer> popular = new ArrayList<>();
+			Map<Integer, Integer> counts = new HashMap<>();
+			for (Map.Entry<Integer, AtomicInteger> entry : requests.entrySet())
 			{
-				Model model = cache.get(target);
-				if (model != null && model.watermark == watermark)
+				int target = entry.getKey(), num = entry.getValue().get();
+				Entry current = cache.get(target);
+				if (num == 0 || (current != null && current.model.watermark == watermark)) continue;
+				popular.add(target);
+				counts.put(target, num);
+			}
+			boolean anyRequests = !requests.isEmpty();
+			if (anyRequests && popular.isEmpty()) return 0; // (they're all there already)
+			popular.sort((t1, t2) -> Integer.compare(counts.get(t2), counts.get(t1)));
+
+			MongoCollection<Document> coll = store.db.getCollection(COLL_MODEL);
+			Document filter = new Document(FLD_MODEL_TYPE, modelType).append(FLD_MODEL_WATERMARK, watermark);
+			int count = 0;
+
+			// without any request history, there's nothing to choose between them, so it's first come first served
+			if (!anyRequests)
+			{
+				for (Document doc : coll.find(filter))
 				{
-					if (model.target < 0) return null; // means not in database
-					return model;
+					Model model = modelFromDoc(doc);
+					if (totalBytes.get() + estimateBytes(model) > maxBytes) break;
+					if (admitWarm(model, watermark, before)) count++;
 				}
+				return count;
+			}
 
-				MongoCollection<Document> coll = store.db.getCollection(COLL_MODEL);
-				for (Document doc : coll.find(targetFilter(target)))
+			// otherwise they're fetched a batch at a time, most requested first
+			for (int n = 0; n < popular.size(); n += WARMUP_BATCH)
+			{
+				List<Integer> batch = popular.subList(n, Math.min(n + WARMUP_BATCH, popular.size()));
+				Map<Integer, Model> fetched = new HashMap<>();
+				Document query = new Document(filter).append(FLD_MODEL_TARGET, new Document("$in", batch));
+				for (Document doc : coll.find(query))
 				{
-					model = modelFromDoc(doc);
-					cache.put(target, model);
-					return model;
+					Model model = modelFromDoc(doc);
+					fetched.put(model.target, model);
+				}
+				for (int target : batch)
+				{
+					Model model = fetched.get(target);
+					if (model == null) continue;
+					if (totalBytes.get() + estimateBytes(model) > maxBytes) return count;
+					if (admitWarm(model, watermark, before)) count++;
 				}
-
-				// not found: so temporarily block it
-				model = new Model();
-				model.watermark = watermark;
-				model.target = -1;
-				cache.put(target, model);
 			}
-			return null;
+			return count;
 		}
 
+		// changes the upper limit for the cache (zero to switch it off)
+		public void setMaxBytes(long maxBytes)
+		{
+			this.maxBytes = maxBytes;
+			evict(maxBytes);
+		}
+
+		public int cacheSize() {return cache.size();}
+		public long totalBytes() {return totalBytes.get();}
+
 		// adds or replaces the indicated model
 		public void submitModel(Model model)
 		{
 			synchronized (mutex)
 			{
-				cache.put(model.target, model);
 				if (cacheTargets == null) allTargets();
 				cacheTargets.add(model.target);
 			}
@@ -142,6 +267,8 @@ public class DataModel
 			doc.append(FLD_MODEL_ISEXPLICIT, model.isExplicit);
 
 			coll.replaceOne(targetFilter(model.target), doc, new ReplaceOptions().upsert(true));
+			versions.merge(model.target, 1L, Long::sum);
+			admit(model.target, model);
 		}
 
 		// deletion of models
@@ -149,12 +276,14 @@ public class DataModel
 		{
 			synchronized (mutex)
 			{
-				cache.remove(target);
 				if (cacheTargets != null) cacheTargets.remove(target);
 			}
 
 			MongoCollection<Document> coll = store.db.getCollection(COLL_MODEL);
 			coll.deleteOne(targetFilter(target));
+			versions.merge(target, 1L, Long::sum);
+			Entry entry = cache.remove(target);
+			if (entry != null) totalBytes.addAndGet(-entry.bytes);
 		}
 
 		// blanking of models: this keeps the watermark updated, but removes everything else, so it's somewhat invisible
@@ -183,8 +312,8 @@ public class DataModel
 		}
 
 		// watermark controls rebuild of models when NLP fingerprints or annotations have changed
-		public long getWatermark() {return store.getSequence(seqWatermark);}
-		public long nextWatermark() {return store.getNextSequence(seqWatermark);}
+		public long getWatermark() {return store.getWatermark(mark);}
+		public long nextWatermark() {return store.getNextSequence(mark.sequence);}
 
 		// returns the watermark for the corresponding kind of model, based on the target (aka annotation fingerprint); returns 0 if there is no model
 		public long getModelWatermark(int target)
@@ -195,10 +324,157 @@ public class DataModel
 			return 0;
 		}
 
+		// calibrated prediction from the model for the target, or NaN if there isn't one; the mapped file is used for models that
+		// are up to date, and anything else is fetched from the database
+		public double predict(int target, int[] fplist, int excludeFP)
+		{
+			MappedModels models = mapped;
+			if (models != null)
+			{
+				long watermark = getWatermark();
+				int idx = models.indexOf(target);
+				boolean usable = idx >= 0 ? models.getModelWatermark(idx) == watermark : models.isComplete() && models.getWatermark() == watermark;
+				Metrics.cache("model." + modelType + ".mapped").record(usable);
+				if (usable) return idx >= 0 ? models.predict(idx, fplist, excludeFP) : Double.NaN;
+			}
+			return DataModel.predict(getModel(target), fplist, excludeFP);
+		}
+
+		// points to the local file for the models, and uses whatever is already there
+		public void setMappedFile(File file)
+		{
+			mappedFile = file;
+			mapped = null;
+			if (file == null || !file.exists()) return;
+			try
+			{
+				mapped = MappedModels.open(file);
+			}
+			catch (IOException ex)
+			{
+				logger.warn("Unable to use mapped model file " + file + ", will be rewritten", ex);
+			}
+		}
+
+		// rewrites the local file if it doesn't have the same models as the database, i.e. any are missing, extra or have a
+		// different watermark; returns true if it was rewritten
+		public boolean refreshMappedFile() throws IOException
+		{
+			if (mappedFile == null) return false;
+			long watermark = getWatermark();
+			MappedModels models = mapped;
+			if (models != null && matchesDatabase(models)) return false;
+
+			File tmpFile = new File(mappedFile.getPath() + ".tmp");
+			MongoCollection<Document> coll = store.db.getCollection(COLL_MODEL);
+			try (MappedModels.Writer writer = new MappedModels.Writer(tmpFile, watermark))
+			{
+				for (Document doc : coll.find(new Document(FLD_MODEL_TYPE, modelType)))
+				{
+					Object blob = doc.get(FLD_MODEL_BLOB);
+					byte[] encoded = blob instanceof Binary ? ((Binary)blob).getData() : encodeModel(modelFromDoc(doc));
+					writer.add(doc.getInteger(FLD_MODEL_TARGET), doc.getLong(FLD_MODEL_WATERMARK), encoded);
+				}
+			}
+			Files.move(tmpFile.toPath(), mappedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			mapped = MappedModels.open(mappedFile);
+			logger.info("Wrote {} {} models to {}", mapped.size(), modelType, mappedFile);
+			return true;
+		}
+
+		// true if the file has exactly the models that are in the database, each with the same watermark
+		private boolean matchesDatabase(MappedModels models)
+		{
+			MongoCollection<Document> coll = store.db.getCollection(COLL_MODEL);
+			Document proj = new Document(FLD_MODEL_TARGET, true).append(FLD_MODEL_WATERMARK, true);
+			int count = 0;
+			for (Document doc : coll.find(new Document(FLD_MODEL_TYPE, modelType)).projection(proj))
+			{
+				int idx = models.indexOf(doc.getInteger(FLD_MODEL_TARGET));
+				if (idx < 0 || models.getModelWatermark(idx) != doc.getLong(FLD_MODEL_WATERMARK)) return false;
+				count++;
+			}
+			return count == models.size();
+		}
+
 		private Document targetFilter(int target)
 		{
 			return new Document(FLD_MODEL_TYPE, modelType).append(FLD_MODEL_TARGET, target);
 		}
+
+		private Entry admit(int target, Model model)
+		{
+			if (maxBytes <= 0) return null;
+			Entry entry = new Entry(model), previous = cache.put(target, entry);
+			long total = totalBytes.addAndGet(entry.bytes - (previous == null ? 0 : previous.bytes));
+			if (total > maxBytes) evict(maxBytes * 9 / 10); // (leave some room, so that it isn't done every time)
+			return entry;
+		}
+
+		// admits a model that was read from the database when the target was at the given version; if it has been written
+		// since then, what was read may be out of date, so it's taken out again (unless the writer has already replaced it)
+		private void admitUnchanged(int target, Model model, long version)
+		{
+			Entry entry = admit(target, model);
+			if (entry == null || versions.getOrDefault(target, 0L) == version) return;
+			if (cache.remove(target, entry)) totalBytes.addAndGet(-entry.bytes);
+		}
+
+		// admits a model fetched by warming up, unless it's already there; returns true if it was added
+		private boolean admitWarm(Model model, long watermark, Map<Integer, Long> before)
+		{
+			Entry current = cache.get(model.target);
+			if (current != null && current.model.watermark == watermark) return false;
+			admitUnchanged(model.target, model, before.getOrDefault(model.target, 0L));
+			return true;
+		}
+
+		// keeps a count of requests for each target, halving them all once there have been plenty more requests than targets
+		private void countRequest(int target)
+		{
+			requests.computeIfAbsent(target, t -> new AtomicInteger()).incrementAndGet();
+			if (requestsSinceAging.incrementAndGet() < Math.max(AGING_REQUESTS, 10 * requests.size())) return;
+			requestsSinceAging.set(0);
+			for (Iterator<AtomicInteger> it = requests.values().iterator(); it.hasNext();)
+			{
+				AtomicInteger count = it.next();
+				if (count.updateAndGet(n -> n / 2) == 0) it.remove();
+			}
+		}
+
+		// throws out models until the total is under the limit: those from an earlier watermark go first, since they'll never be
+		// used again, then the least requested
+		private void evict(long limit)
+		{
+			synchronized (evictMutex)
+			{
+				if (totalBytes.get() <= limit) return;
+				long watermark = getWatermark();
+				List<Map.Entry<Integer, Entry>> entries = new ArrayList<>(cache.entrySet());
+				int[] rank = new int[entries.size()];
+				for (int n = 0; n < rank.length; n++)
+				{
+					Map.Entry<Integer, Entry> entry = entries.get(n);
+					AtomicInteger count = requests.get(entry.getKey());
+					rank[n] = entry.getValue().model.watermark != watermark ? -1 : count == null ? 0 : count.get();
+				}
+				Integer[] order = new Integer[rank.length];
+				for (int n = 0; n < order.length; n++) order[n] = n;
+				Arrays.sort(order, (i1, i2) -> Integer.compare(rank[i1], rank[i2]));
+
+				for (int n = 0; n < order.length && totalBytes.get() > limit; n++)
+				{
+					Map.Entry<Integer, Entry> entry = entries.get(order[n]);
+					if (cache.remove(entry.getKey(), entry.getValue())) totalBytes.addAndGet(-entry.getValue().bytes);
+				}
+			}
+		}
+
+		// rough idea of the memory taken up by a model: 8 bytes for each fingerprint & contribution, plus a fixed amount
+		private static long estimateBytes(Model model)
+		{
+			return 128 + 8L * (model.fplist == null ? 0 : model.fplist.length);
+		}
 	}
 
 	// ------------ public methods ------------
@@ -233,6 +509,38 @@ public class DataModel
 	public Model getModelNLP(int target) {return nlpCache.getModel(target);}
 	public Model getModelCorr(int target) {return corrCache.getModel(target);}
 
+	// changes the upper limit for each of the model caches (zero to switch them off)
+	public void setCacheSize(long maxBytes)
+	{
+		nlpCache.setMaxBytes(maxBytes);
+		corrCache.setMaxBytes(maxBytes);
+	}
+
+	// loads the most requested models into the cache with a single query: to be called once the models have been brought up to date
+	public int warmCacheNLP() {return nlpCache.warmUp();}
+	public int warmCacheCorr() {return corrCache.warmUp();}
+
+	// returns the number of models currently held in memory
+	public int cacheSizeNLP() {return nlpCache.cacheSize();}
+	public int cacheSizeCorr() {return corrCache.cacheSize();}
+
+	// calibrated predictions (0..1) for the target given the sorted fingerprints, or NaN if there's no model, or it's not explicit;
+	// for correlation models, the target's own fingerprint doesn't count
+	public double predictNLP(int target, int[] fplist) {return nlpCache.predict(target, fplist, Integer.MIN_VALUE);}
+	public double predictCorr(int target, int[] fplist) {return corrCache.predict(target, fplist, target);}
+
+	// keeps local memory-mapped copies of the models in the given directory, which are used for predictions
+	public void setModelDirectory(File dir)
+	{
+		if (dir != null && !dir.exists() && !dir.mkdirs()) logger.error("Unable to create model directory: {}", dir);
+		nlpCache.setMappedFile(dir == null ? null : new File(dir, "models-nlp.bin"));
+		corrCache.setMappedFile(dir == null ? null : new File(dir, "models-corr.bin"));
+	}
+
+	// brings the local copies up to date, if necessary: to be called once the models have settled down
+	public boolean refreshMappedNLP() throws IOException {return nlpCache.refreshMappedFile();}
+	public boolean refreshMappedCorr() throws IOException {return corrCache.refreshMappedFile();}
+
 	// deletion of models
 	public void deleteModelNLP(int target) {nlpCache.deleteModel(target);}
 	public void deleteModelCorr(int target) {corrCache.deleteModel(target);}
@@ -283,12 +591,100 @@ public class DataModel
 	public long getWatermarkCorr() {return corrCache.getWatermark();}
 	public long nextWatermarkCorr() {return corrCache.nextWatermark();}
 
+	// raw Bayesian score converted to 0..1 using the calibration range (originally from the ROC): if there's no range, just give
+	// it a more/less binary choice; if there is a range, use a sinusoidal pattern, using tan: so 0 and 1 are approached asymptotically
+	public static double calibrate(double raw, float calibLow, float calibHigh)
+	{
+		if (calibLow == calibHigh) return raw > calibLow ? 0.7 : 0.3;
+		double cal = (raw - calibLow) / (calibHigh - calibLow);
+		return Math.atan(cal) / Math.PI + 0.5;
+	}
+
+	// calibrated prediction from the model for the fingerprints (which are sorted, as are the model's), or NaN if the model is missing,
+	// blank or only implied by branches
+	public static double predict(Model model, int[] fplist, int excludeFP)
+	{
+		if (model == null || model.fplist == null) return Double.NaN;
+		if (!model.isExplicit) return Double.NaN; // don't want parent-only terms showing up independently
+
+		double raw = 0;
+		int i = 0;
+		for (int fp : fplist)
+		{
+			for (; i < model.fplist.length; i++)
+			{
+				if (model.fplist[i] == fp && fp != excludeFP) raw += model.contribs[i];
+				if (model.fplist[i] >= fp) break;
+			}
+		}
+		return calibrate(raw, model.calibLow, model.calibHigh);
+	}
+
+	// packs the model content into a single block: much smaller than lists of boxed numbers, and the same form is used for the
+	// memory-mapped file; the fingerprints are sorted, if they aren't already
+	public static byte[] encodeModel(Model model)
+	{
+		int count = model.fplist == null ? 0 : model.fplist.length;
+		int[] fplist = model.fplist;
+		float[] contribs = model.contribs;
+		for (int n = 1; n < count; n++) if (fplist[n - 1] > fplist[n])
+		{
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) order[i] = i;
+			Arrays.sort(order, (i1, i2) -> Integer.compare(model.fplist[i1], model.fplist[i2]));
+			fplist = new int[count];
+			contribs = new float[count];
+			for (int i = 0; i < count; i++)
+			{
+				fplist[i] = model.fplist[order[i]];
+				contribs[i] = model.contribs[order[i]];
+			}
+			break;
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(BLOB_HEADER_SIZE + 8 * count);
+		buf.put((byte)BLOB_VERSION);
+		buf.put((byte)((model.isExplicit ? BLOB_EXPLICIT : 0) | (model.fplist != null ? BLOB_HAS_CONTENT : 0)));
+		buf.putFloat(model.calibLow).putFloat(model.calibHigh).putInt(count);
+		for (int n = 0; n < count; n++) buf.putInt(fplist[n]);
+		for (int n = 0; n < count; n++) buf.putFloat(contribs[n]);
+		return buf.array();
+	}
+
+	public static Model decodeModel(int target, long watermark, byte[] encoded)
+	{
+		ByteBuffer buf = ByteBuffer.wrap(encoded);
+		if (buf.get() != BLOB_VERSION) throw new IllegalArgumentException("Unsupported model encoding");
+		int flags = buf.get();
+
+		Model model = new Model();
+		model.target = target;
+		model.watermark = watermark;
+		model.isExplicit = (flags & BLOB_EXPLICIT) != 0;
+		model.calibLow = buf.getFloat();
+		model.calibHigh = buf.getFloat();
+		int count = buf.getInt();
+		if ((flags & BLOB_HAS_CONTENT) != 0)
+		{
+			model.fplist = new int[count];
+			model.contribs = new float[count];
+			buf.asIntBuffer().get(model.fplist);
+			buf.position(buf.position() + 4 * count);
+			buf.asFloatBuffer().get(model.contribs);
+		}
+		return model;
+	}
+
 	// ------------ protected methods ------------
 
 	// ------------ private methods ------------
 
 	protected static Model modelFromDoc(Document doc)
 	{
+		Object blob = doc.get(FLD_MODEL_BLOB);
+		if (blob instanceof Binary) return decodeModel(doc.getInteger(FLD_MODEL_TARGET), doc.getLong(FLD_MODEL_WATERMARK), ((Binary)blob).getData());
+
+		// older documents have the content as lists
 		Model model = new Model();
 		model.watermark = doc.getLong(FLD_MODEL_WATERMARK);
 		model.target = doc.getInteger(FLD_MODEL_TARGET);
@@ -323,20 +719,7 @@ public class DataModel
 	{
 		Document doc = new Document(FLD_MODEL_TYPE, type).append(FLD_MODEL_TARGET, model.target)/*.append(FLD_MODEL_SCHEMAURI, model.schemaURI)*/;
 		doc.append(FLD_MODEL_WATERMARK, model.watermark);
-
-		BasicDBList dbFPList = new BasicDBList();
-		for (int fp : model.fplist) dbFPList.add(fp);
-		doc.append(FLD_MODEL_FPLIST, dbFPList);
-
-		BasicDBList dbContribs = new BasicDBList();
-		for (double c : model.contribs) dbContribs.add(c);
-		doc.append(FLD_MODEL_CONTRIBS, dbContribs);
-
-		BasicDBList dbCalib = new BasicDBList();
-		dbCalib.add(model.calibLow);
-		dbCalib.add(model.calibHigh);
-		doc.append(FLD_MODEL_CALIBRATION, dbCalib);
-
+		doc.append(FLD_MODEL_BLOB, new Binary(encodeModel(model)));
 		doc.append(FLD_MODEL_ISEXPLICIT, model.isExplicit);
 		return doc;
 	}
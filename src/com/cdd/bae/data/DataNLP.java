@@ -90,7 +90,7 @@ public class DataNLP
 	}
 
 	// NLP fingerprint watermark: bumped each time the underlying data is changed
-	public long getWatermark() {return store.getSequence(SEQ_WATERMARK_NLP);}
+	public long getWatermark() {return store.getWatermark(Watermark.NLP);}
 	public long nextWatermark() {return store.getNextSequence(SEQ_WATERMARK_NLP);}
 
 	// ------------ private methods ------------
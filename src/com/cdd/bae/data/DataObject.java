@@ -321,7 +321,52 @@ public interface DataObject
 		public Double[] value; // values can be null
 		public String[] relation; // typically "=", ">", "<", or some other relational modifier/substitute for missing value
 	}
-	
+
+	// same content as a measurement, but using primitive arrays: used for bulk ingestion, where boxing millions of values
+	// adds up; gets split into blocks as necessary when written to the database
+	public static final class MeasureColumn
+	{
+		public long assayID;
+		public String name, units, type;
+
+		public long[] compoundID;
+		public double[] value; // NaN means no value
+		public String[] relation; // if null, all of them are "="
+
+		public MeasureColumn() {}
+		public MeasureColumn(long assayID, String name, String units, String type, int size)
+		{
+			this.assayID = assayID;
+			this.name = name;
+			this.units = units;
+			this.type = type;
+			compoundID = new long[size];
+			value = new double[size];
+		}
+		public MeasureColumn(Measurement measure)
+		{
+			this(measure.assayID, measure.name, measure.units, measure.type, measure.compoundID.length);
+			for (int n = 0; n < compoundID.length; n++)
+			{
+				compoundID[n] = measure.compoundID[n];
+				value[n] = measure.value[n] == null ? Double.NaN : measure.value[n];
+			}
+			relation = measure.relation;
+		}
+
+		public int size() {return compoundID.length;}
+	}
+
+	// summary statistics for measurements & compounds: these are expensive to count, so they are cached against the watermarks
+	// that were current when they were calculated
+	public static final class MeasureStats
+	{
+		public long watermarkMeasure, watermarkCompound;
+		public int assaysWithMeasurements; // number of distinct assays that have any measurements
+		public int numMeasurements; // number of measurement documents
+		public int numCompounds, compoundsWithStructures;
+	}
+
 	// a compound, with various identifiers, and a molecular structure
 	public static final class Compound
 	{
@@ -63,6 +63,9 @@ public class DataProvisional
 		return store.getNextSequence(DataStore.SEQ_PROVISIONAL_URI);
 	}
 	
+	public long getWatermark() {return store.getWatermark(Watermark.PROVISIONAL);}
+	public long nextWatermark() {return store.getNextSequence(SEQ_WATERMARK_PROVISIONAL);}
+	
 	// fetches a single provisional term, given its primary key identifier
 	public Provisional getProvisional(long provisionalID)
 	{
@@ -85,7 +88,9 @@ public class DataProvisional
 		MongoCollection<Document> coll = store.db.getCollection(COLL_PROVISIONAL);
 		Document idx = new Document(FLD_PROVISIONAL_ID, provisionalID);
 		DeleteResult delResult = coll.deleteOne(idx);
-		return delResult.getDeletedCount() > 0;
+		if (delResult.getDeletedCount() == 0) return false;
+		store.bumpWatermark(SEQ_WATERMARK_PROVISIONAL);
+		return true;
 	}
 
 	// total # of provisional term, with no qualifiers
@@ -129,6 +134,8 @@ public class DataProvisional
 			doc.append(FLD_PROVISIONAL_CREATEDTIME, now.getTime());
 			coll.insertOne(doc);
 		}
+		
+		store.bumpWatermark(SEQ_WATERMARK_PROVISIONAL);
 	}
 
 	// return parent of the provisional term with specified uri, or null if none exists
@@ -150,6 +157,26 @@ public class DataProvisional
 		return provTerms.toArray(new Provisional[0]);
 	}
 	
+	// fetch the identifiers of every term, without the rest of the content
+	public long[] fetchAllIDs()
+	{
+		MongoCollection<Document> coll = store.db.getCollection(COLL_PROVISIONAL);
+		Document proj = new Document(FLD_PROVISIONAL_ID, true);
+		List<Long> idList = new ArrayList<>();
+		for (Document doc : coll.find().projection(proj)) idList.add(doc.getLong(FLD_PROVISIONAL_ID));
+		return idList.stream().mapToLong(Long::longValue).toArray();
+	}
+	
+	// fetch the terms that have been created or modified at or after the given time (in milliseconds)
+	public Provisional[] fetchTermsModifiedSince(long time)
+	{
+		List<Provisional> provTerms = new ArrayList<>();
+		MongoCollection<Document> coll = store.db.getCollection(COLL_PROVISIONAL);
+		Document filter = new Document(FLD_PROVISIONAL_MODIFIEDTIME, new Document("$gte", time));
+		for (Document doc : coll.find(filter)) provTerms.add(fromDoc(doc));
+		return provTerms.toArray(new Provisional[0]);
+	}
+	
 	// return all the terms with the given parent (which may be a provisional term or a more permanent one)
 	public Provisional[] fetchChildTerms(String parentURI)
 	{
@@ -23,6 +23,7 @@ import com.cdd.bae.util.*;
 import com.cdd.bao.util.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.bson.*;
 import org.slf4j.*;
@@ -67,9 +68,64 @@ public class DataStore implements DataObject
 		
 		// sent when compound structures have been updated
 		public void datastoreStructuresChanged();
+
+		// sent when watermarks have been moved on by another server that shares the database: the writer has already done
+		// its own bookkeeping, so all that remains is for local caches and tasks to catch up
+		public default void datastoreRemoteChanged(Set<Watermark> watermarks) {}
 	}
 	protected Notifier notifier = null;
 
+	// the sequences that are moved on whenever the corresponding content changes, so that anything derived from it can tell
+	// when it has gone out of date
+	public enum Watermark
+	{
+		NLP(SEQ_WATERMARK_NLP),
+		MODEL(SEQ_WATERMARK_MODEL),
+		CORR(SEQ_WATERMARK_CORR),
+		MEASURE(SEQ_WATERMARK_MEASURE),
+		COMPOUND(SEQ_WATERMARK_COMPOUND),
+		ASSAY(SEQ_WATERMARK_ASSAY),
+		PROVISIONAL(SEQ_WATERMARK_PROVISIONAL),
+		HOLDING(SEQ_WATERMARK_HOLDING),
+		USER(SEQ_WATERMARK_USER);
+
+		public final String sequence;
+
+		private Watermark(String sequence) {this.sequence = sequence;}
+
+		// returns the watermark that uses the given sequence, or null if it's something else (e.g. an identifier)
+		public static Watermark forSequence(String seqID)
+		{
+			for (Watermark mark : values()) if (mark.sequence.equals(seqID)) return mark;
+			return null;
+		}
+	}
+	private volatile ChangeFeed changeFeed = null;
+	
+	// groups together a series of writes: watermark increments and notifications are held back until the outermost session on
+	// the same thread is closed, whereupon each distinct watermark is incremented once, and each kind of notification is sent once
+	public final class WriteSession implements AutoCloseable
+	{
+		private int depth = 1;
+		private final Set<String> watermarks = new LinkedHashSet<>();
+		private final NotifyCoalescer held = new NotifyCoalescer(notifier, -1);
+		
+		private WriteSession() {}
+		
+		@Override
+		public void close()
+		{
+			if (--depth > 0) return;
+			writeSession.remove();
+			for (String seq : watermarks) getNextSequence(seq);
+			held.flush();
+		}
+	}
+	private final ThreadLocal<WriteSession> writeSession = new ThreadLocal<>();
+
+	// per-process sources of identifiers, which reserve sequence values in blocks
+	private final Map<String, SequenceAllocator> allocators = new ConcurrentHashMap<>();
+
 	// ------------ pseudo-schema ------------
 
 	// sequences	
@@ -80,6 +136,9 @@ public class DataStore implements DataObject
 	protected static final String SEQ_WATERMARK_MEASURE = "watermarkMeasure"; // incremented when measurements need updating
 	protected static final String SEQ_WATERMARK_COMPOUND = "watermarkCompound"; // incremented when compounds need updating
 	protected static final String SEQ_WATERMARK_ASSAY = "watermarkAssay"; // incremented when assays have changed
+	protected static final String SEQ_WATERMARK_PROVISIONAL = "watermarkProvisional"; // incremented when provisional terms have changed
+	protected static final String SEQ_WATERMARK_HOLDING = "watermarkHolding"; // incremented when holding bay entries come or go
+	protected static final String SEQ_WATERMARK_USER = "watermarkUser"; // incremented when a user's name or email changes
 	protected static final String SEQ_ID_ASSAY = "assayID"; 
 	protected static final String SEQ_ID_COMPOUND = "compoundID";
 	protected static final String SEQ_ID_HOLDING = "holdingID";
@@ -148,6 +207,7 @@ public class DataStore implements DataObject
 	protected static final String FLD_MODEL_CONTRIBS = "contribs"; // Bayesian model contributions for each
 	protected static final String FLD_MODEL_CALIBRATION = "calibration"; // ROC calibration: [min,max]
 	protected static final String FLD_MODEL_ISEXPLICIT = "isExplicit"; // true if used directly; false if came in only due to branches
+	protected static final String FLD_MODEL_BLOB = "blob"; // fingerprints, contributions & calibration in one binary block (see DataModel.encodeModel)
 
 	// annotation index mapping (for efficiency purposes)
 	protected static final String COLL_ANNOT = "annotations";
@@ -175,6 +235,15 @@ public class DataStore implements DataObject
 	protected static final String FLD_COMPOUND_VAULTID = "vaultID";
 	protected static final String FLD_COMPOUND_VAULTMID = "vaultMID";
 
+	// cached statistics, each of which is keyed by the watermarks that were current when they were calculated
+	protected static final String COLL_STATS = "stats";
+	protected static final String FLD_STATS_WATERMARKMEASURE = "watermarkMeasure";
+	protected static final String FLD_STATS_WATERMARKCOMPOUND = "watermarkCompound";
+	protected static final String FLD_STATS_ASSAYSWITHMEASUREMENTS = "assaysWithMeasurements";
+	protected static final String FLD_STATS_NUMMEASUREMENTS = "numMeasurements";
+	protected static final String FLD_STATS_NUMCOMPOUNDS = "numCompounds";
+	protected static final String FLD_STATS_COMPOUNDSWITHSTRUCTURES = "compoundsWithStructures";
+
 	// stashing list of assay-containing files that have already been scanned & loaded
 	protected static final String COLL_LOADFILES = "loadfiles";
 	protected static final String FLD_LOADFILES_PATH = "path"; // full path on server
@@ -194,6 +263,19 @@ public class DataStore implements DataObject
 	protected static final String FLD_USER_PWSALT = "passwordSalt"; // password hash, if available
 	protected static final String FLD_USER_CURATION_HISTORY = "curation"; // assay identifier of assays curated by user in reverse chronological order
 
+	// login sessions, optionally kept so that they outlive a restart and can be shared between webapp instances
+	protected static final String COLL_SESSION = "session";
+	protected static final String FLD_SESSION_CURATORID = "curatorID"; // unique key: one session per curator
+	protected static final String FLD_SESSION_TYPE = "type";
+	protected static final String FLD_SESSION_SERVICENAME = "serviceName";
+	protected static final String FLD_SESSION_TOKENHASH = "tokenHash"; // SHA-256 of the access token, which is not itself kept
+	protected static final String FLD_SESSION_USERID = "userID";
+	protected static final String FLD_SESSION_USERNAME = "userName";
+	protected static final String FLD_SESSION_EMAIL = "email";
+	protected static final String FLD_SESSION_STATUS = "status";
+	protected static final String FLD_SESSION_CREATED = "created"; // when the session was authenticated (long)
+	protected static final String FLD_SESSION_ACCESSED = "accessed"; // most recent use, to within a minute or so (long)
+
 	// collection housing term requests
 	protected static final String COLL_PROVISIONAL = "provisional";
 	protected static final String FLD_PROVISIONAL_ID = "provisionalID";
@@ -263,6 +345,7 @@ public class DataStore implements DataObject
 		
 		MongoClientOptions.Builder options = MongoClientOptions.builder();
 		options.socketTimeout(SOCKET_TIMEOUT_MS);
+		options.addCommandListener(new MongoTimings());
 		
 		if (dbConfig.user != null && dbConfig.password != null)
 		{
@@ -317,6 +400,53 @@ public class DataStore implements DataObject
 	}
 
 	public void setNotifier(Notifier notifier) {this.notifier = notifier;}
+	public Notifier getNotifier() {return notifier;}
+
+	// starts keeping track of changes made by other servers that share the same database (see ChangeFeed); the mode is one
+	// of "auto", "stream", "poll" or "none"; returns null if there's nothing to keep track of
+	public ChangeFeed startChangeFeed(String mode, long pollMillis)
+	{
+		stopChangeFeed();
+		if (db == null || "none".equals(mode)) return null;
+		ChangeFeed feed = new ChangeFeed(this);
+		feed.start(mode, pollMillis);
+		changeFeed = feed;
+		return feed;
+	}
+
+	public void stopChangeFeed()
+	{
+		ChangeFeed feed = changeFeed;
+		changeFeed = null;
+		if (feed != null) feed.stop();
+	}
+
+	public ChangeFeed getChangeFeed() {return changeFeed;}
+	
+	// starts a write session for the current thread (or joins the one that is already in progress); use with try-with-resources
+	public WriteSession beginSession()
+	{
+		WriteSession session = writeSession.get();
+		if (session != null) session.depth++;
+		else writeSession.set(session = new WriteSession());
+		return session;
+	}
+	
+	// increments a watermark, or defers it until the end of the current write session
+	protected void bumpWatermark(String seq)
+	{
+		WriteSession session = writeSession.get();
+		if (session != null) session.watermarks.add(seq);
+		else getNextSequence(seq);
+	}
+	
+	// the notifier that writes should report to: during a write session, this holds onto everything until the end
+	protected Notifier notifier()
+	{
+		WriteSession session = writeSession.get();
+		if (session != null) return session.held;
+		return notifier;
+	}
 	
 	// access to specialisations
 	public DataAssay assay() {return dataAssay;}
@@ -364,6 +494,8 @@ public class DataStore implements DataObject
 		createIndex(COLL_LOADFILES + "_" + FLD_LOADFILES_PATH, COLL_LOADFILES, new String[]{FLD_LOADFILES_PATH}, null, true);
 		
 		createIndex(COLL_USER + "_" + FLD_USER_CURATORID, COLL_USER, new String[]{FLD_USER_CURATORID}, null, true);
+		createIndex(COLL_SESSION + "_" + FLD_SESSION_CURATORID, COLL_SESSION, new String[]{FLD_SESSION_CURATORID}, null, true);
+		createIndex(COLL_SESSION + "_" + FLD_SESSION_TOKENHASH, COLL_SESSION, new String[]{FLD_SESSION_TOKENHASH}, null, false);
 		
 		createIndex(COLL_PROVISIONAL + "_" + FLD_PROVISIONAL_ID, COLL_PROVISIONAL, new String[]{FLD_PROVISIONAL_ID}, null, true);
 		createIndex(COLL_PROVISIONAL + "_" + FLD_PROVISIONAL_URI, COLL_PROVISIONAL, new String[]{FLD_PROVISIONAL_URI}, null, false);
@@ -416,6 +548,9 @@ public class DataStore implements DataObject
 			SEQ_WATERMARK_MEASURE,
 			SEQ_WATERMARK_COMPOUND,
 			SEQ_WATERMARK_ASSAY,
+			SEQ_WATERMARK_PROVISIONAL,
+			SEQ_WATERMARK_HOLDING,
+			SEQ_WATERMARK_USER,
 			SEQ_ID_ASSAY,
 			SEQ_ID_COMPOUND,
 			SEQ_ID_HOLDING,
@@ -451,6 +586,14 @@ public class DataStore implements DataObject
 		dataKeywordMap = new DataKeywordMap(this);
 	}	
 
+	// current value of a watermark: while the change feed is running, this is known without having to ask the database
+	protected long getWatermark(Watermark mark)
+	{
+		ChangeFeed feed = changeFeed;
+		long value = feed == null ? -1 : feed.current(mark);
+		return value >= 0 ? value : getSequence(mark.sequence);
+	}
+
 	// fetches the value of a sequence
 	protected long getSequence(String seqID)
 	{
@@ -462,11 +605,38 @@ public class DataStore implements DataObject
 
 	// increments a sequence, then returns the new value
 	protected long getNextSequence(String seqID)
+	{
+		return reserveSequenceBlock(seqID, 1);
+	}
+
+	// advances a sequence by the given amount, and returns the first of the reserved values: the increment is atomic, so the
+	// whole range [first, first + count) belongs to the caller, even when other processes are using the same sequence
+	protected long reserveSequenceBlock(String seqID, int count)
 	{
 		MongoCollection<Document> coll = db.getCollection(COLL_SEQUENCES);
 		Document query = new Document("_id", seqID);
-		Document update = new Document("$inc", new Document("seq", 1));
+		Document update = new Document("$inc", new Document("seq", (long)count));
 		Document result = coll.findOneAndUpdate(query, update); // (gets the _old_ value, which is fine)
-		return (Long)result.get("seq");
+		long first = (Long)result.get("seq");
+
+		ChangeFeed feed = changeFeed;
+		Watermark mark = feed == null ? null : Watermark.forSequence(seqID);
+		if (mark != null) feed.movedLocally(mark, first + count);
+
+		return first;
+	}
+
+	// obtains a new identifier for the sequence, taken from a block that has been reserved by this process: use this for
+	// identifiers that are created in large numbers, where a round trip for each one would add up
+	protected long allocateSequence(String seqID)
+	{
+		return allocators.computeIfAbsent(seqID, id -> new SequenceAllocator(this, id)).next();
+	}
+
+	// forgets about any blocks of identifiers that have been reserved but not used; this is only necessary if the sequences
+	// have been wound back underneath this instance, e.g. by restoring the database from a backup
+	public void discardSequenceBlocks()
+	{
+		allocators.clear();
 	}
 }
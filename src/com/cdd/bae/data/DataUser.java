@@ -24,6 +24,8 @@ import com.mongodb.client.*;
 import com.mongodb.client.model.*;
 import static com.cdd.bae.data.DataStore.*;
 
+import java.nio.charset.*;
+import java.security.*;
 import java.util.*;
 
 import org.apache.commons.codec.*;
@@ -55,6 +57,8 @@ public class DataUser
 		this.store = store;
 	}
 	
+	public long getWatermark() {return store.getWatermark(Watermark.USER);}
+
 	public int countUsers()
 	{
 		return (int)store.db.getCollection(COLL_USER).countDocuments();
@@ -81,7 +85,7 @@ public class DataUser
 	}
 	
 	// given that an authentication event just happened, updates the user database; this will create a new user record if none existed, otherwise
-	// it will update pertinent details
+	// it will update pertinent details (the watermark only moves if the name or email are different)
 	public void submitSession(Authentication.Session session)
 	{
 		MongoCollection<Document> coll = store.db.getCollection(COLL_USER);
@@ -92,7 +96,9 @@ public class DataUser
 		doc.append(FLD_USER_NAME, session.userName);
 		doc.append(FLD_USER_EMAIL, session.email);
 		doc.append(FLD_USER_LASTAUTHENT, new Date().getTime());
-		coll.updateOne(idx, new Document("$set", doc), new UpdateOptions().upsert(true));
+		Document previous = coll.findOneAndUpdate(idx, new Document("$set", doc), new FindOneAndUpdateOptions().upsert(true));
+		if (previous == null || !Objects.equals(previous.getString(FLD_USER_NAME), session.userName) ||
+			!Objects.equals(previous.getString(FLD_USER_EMAIL), session.email)) store.bumpWatermark(SEQ_WATERMARK_USER);
 	}
 	
 	// changes the status of a user; if not present in the database, nothing happens
@@ -110,7 +116,7 @@ public class DataUser
 		MongoCollection<Document> coll = store.db.getCollection(COLL_USER);
 		Document idx = new Document(FLD_USER_CURATORID, curatorID);
 		Document doc = new Document(FLD_USER_NAME, newName);
-		coll.updateOne(idx, new Document("$set", doc));
+		if (coll.updateOne(idx, new Document("$set", doc)).getModifiedCount() > 0) store.bumpWatermark(SEQ_WATERMARK_USER);
 	}
 	
 	// changes the email of a user; if not present in the database, nothing happens
@@ -119,7 +125,7 @@ public class DataUser
 		MongoCollection<Document> coll = store.db.getCollection(COLL_USER);
 		Document idx = new Document(FLD_USER_CURATORID, curatorID);
 		Document doc = new Document(FLD_USER_EMAIL, newEmail);
-		coll.updateOne(idx, new Document("$set", doc));
+		if (coll.updateOne(idx, new Document("$set", doc)).getModifiedCount() > 0) store.bumpWatermark(SEQ_WATERMARK_USER);
 	}
 	
 	public void changeCredentials(String curatorID, byte[] passwordHash, byte[]salt)
@@ -131,8 +137,111 @@ public class DataUser
 		coll.updateOne(idx, new Document("$set", doc));
 	}
 
+	// persisted login sessions: these are only used when sessions are configured to be kept in the database, in which case the
+	// in-memory session store writes through to here, and looks here for anything it doesn't already have; the access token
+	// itself is never stored, only its hash, which is what the session is looked up by
+	public void storeSession(Authentication.Session session)
+	{
+		MongoCollection<Document> coll = store.db.getCollection(COLL_SESSION);
+		Document idx = new Document(FLD_SESSION_CURATORID, session.curatorID);
+		Document doc = new Document(FLD_SESSION_CURATORID, session.curatorID);
+		doc.append(FLD_SESSION_TYPE, session.type);
+		doc.append(FLD_SESSION_SERVICENAME, session.serviceName);
+		doc.append(FLD_SESSION_TOKENHASH, hashToken(session.accessToken));
+		doc.append(FLD_SESSION_USERID, session.userID);
+		doc.append(FLD_SESSION_USERNAME, session.userName);
+		doc.append(FLD_SESSION_EMAIL, session.email);
+		doc.append(FLD_SESSION_STATUS, session.status);
+		doc.append(FLD_SESSION_CREATED, session.timeCreated);
+		doc.append(FLD_SESSION_ACCESSED, session.timeAccessed);
+		coll.replaceOne(idx, doc, new ReplaceOptions().upsert(true));
+	}
+
+	// finds the session that goes with the access token, which is filled back in, since it can't come from the database
+	public Authentication.Session fetchSession(String accessToken)
+	{
+		if (accessToken == null) return null;
+		MongoCollection<Document> coll = store.db.getCollection(COLL_SESSION);
+		Document filter = new Document(FLD_SESSION_TOKENHASH, hashToken(accessToken));
+		for (Document doc : coll.find(filter).limit(1))
+		{
+			Authentication.Session session = sessionFromDoc(doc);
+			session.accessToken = accessToken;
+			return session;
+		}
+		return null;
+	}
+
+	// records the most recent use of a session; only moves forward, in case another instance has a later time; returns false
+	// if the session is no longer there, i.e. it was logged out or replaced by another login
+	public boolean touchSession(String accessToken, long timeAccessed)
+	{
+		if (accessToken == null) return false;
+		MongoCollection<Document> coll = store.db.getCollection(COLL_SESSION);
+		Document idx = new Document(FLD_SESSION_TOKENHASH, hashToken(accessToken));
+		return coll.updateOne(idx, new Document("$max", new Document(FLD_SESSION_ACCESSED, timeAccessed))).getMatchedCount() > 0;
+	}
+
+	public void deleteSession(String curatorID)
+	{
+		deleteSession(curatorID, null);
+	}
+
+	// as above, but only if the session still has the given access token, i.e. it hasn't been replaced by a newer login
+	public void deleteSession(String curatorID, String accessToken)
+	{
+		MongoCollection<Document> coll = store.db.getCollection(COLL_SESSION);
+		Document filter = new Document(FLD_SESSION_CURATORID, curatorID);
+		if (accessToken != null) filter.append(FLD_SESSION_TOKENHASH, hashToken(accessToken));
+		coll.deleteOne(filter);
+	}
+
+	// removes sessions that have not been used since the first time, or were created before the second (either can be zero
+	// to indicate no limit); returns the number deleted
+	public int purgeSessions(long accessedBefore, long createdBefore)
+	{
+		List<Document> conditions = new ArrayList<>();
+		if (accessedBefore > 0) conditions.add(new Document(FLD_SESSION_ACCESSED, new Document("$lt", accessedBefore)));
+		if (createdBefore > 0) conditions.add(new Document(FLD_SESSION_CREATED, new Document("$lt", createdBefore)));
+		if (conditions.isEmpty()) return 0;
+
+		MongoCollection<Document> coll = store.db.getCollection(COLL_SESSION);
+		return (int)coll.deleteMany(new Document("$or", conditions)).getDeletedCount();
+	}
+
 	// ------------ private methods ------------
 	
+	private Authentication.Session sessionFromDoc(Document doc)
+	{
+		Authentication.Session session = new Authentication.Session();
+		session.curatorID = doc.getString(FLD_SESSION_CURATORID);
+		session.type = doc.getString(FLD_SESSION_TYPE);
+		session.serviceName = doc.getString(FLD_SESSION_SERVICENAME);
+		session.userID = doc.getString(FLD_SESSION_USERID);
+		session.userName = doc.getString(FLD_SESSION_USERNAME);
+		session.email = doc.getString(FLD_SESSION_EMAIL);
+		String status = doc.getString(FLD_SESSION_STATUS);
+		if (status != null) session.status = status;
+		session.timeCreated = doc.getLong(FLD_SESSION_CREATED);
+		session.timeAccessed = doc.getLong(FLD_SESSION_ACCESSED);
+		return session;
+	}
+
+	// hex-encoded SHA-256 of the token: they are random enough that a plain digest can't be reversed by guessing
+	protected static String hashToken(String accessToken)
+	{
+		if (accessToken == null) return null;
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(accessToken.getBytes(StandardCharsets.UTF_8));
+			return Hex.encodeHexString(digest);
+		}
+		catch (NoSuchAlgorithmException ex)
+		{
+			throw new IllegalStateException(ex); // every JVM is required to have it
+		}
+	}
+
 	// pulls out everything from the source document
 	private User userFromDoc(Document doc)
 	{
@@ -0,0 +1,194 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+	Local copy of all of the models of one kind (NLP or correlation), in a file that is memory-mapped and read directly by
+	the prediction path: nothing is unpacked into objects, so the amount of heap used doesn't depend on how many models
+	there are, and the operating system decides which parts are paged in.
+
+	Each model is stored in the same compact form that is used for the database (see DataModel.encodeModel), and the
+	index is sorted by target, so that looking one up is a binary search.
+
+	Layout of the file, all numbers being big-endian:
+		header: magic number, version, watermark (long) at the time of writing, number of models, offset of the index
+		models: one encoded model after another
+		index: for each model, in ascending order of target: target, watermark (long), offset of the encoded model
+
+	The file is written by DataModel whenever the models in the database have settled down, and is replaced as a whole;
+	models that have been rebuilt in the meanwhile are noticed by comparing watermarks.
+*/
+
+public class MappedModels
+{
+	private static final int MAGIC_NUMBER = 0xBAE0B0DE;
+	private static final int CURRENT_VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int ENTRY_SIZE = 16; // target, watermark, offset
+
+	private final ByteBuffer buf;
+	private final long watermark;
+	private final int numModels, ofsIndex;
+	private final boolean complete;
+
+	// writes the file, one model at a time, so that they never all need to be in memory
+	public static final class Writer implements Closeable
+	{
+		private final FileChannel channel;
+		private final long watermark;
+		private final List<long[]> index = new ArrayList<>(); // {target, watermark, offset}
+		private long position = HEADER_SIZE;
+
+		public Writer(File file, long watermark) throws IOException
+		{
+			this.watermark = watermark;
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+
+		// adds the model (in encoded form) for the target, which may be in any order
+		public void add(int target, long modelWatermark, byte[] encoded) throws IOException
+		{
+			index.add(new long[]{target, modelWatermark, position});
+			writeFully(ByteBuffer.wrap(encoded), position);
+			position += encoded.length;
+			if (position > Integer.MAX_VALUE) throw new IOException("Mapped model file too large");
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				index.sort((e1, e2) -> Long.compare(e1[0], e2[0]));
+				ByteBuffer block = ByteBuffer.allocate(index.size() * ENTRY_SIZE);
+				for (long[] entry : index) block.putInt((int)entry[0]).putLong(entry[1]).putInt((int)entry[2]);
+				block.flip();
+				writeFully(block, position);
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC_NUMBER).putInt(CURRENT_VERSION).putLong(watermark).putInt(index.size()).putInt((int)position);
+				header.flip();
+				writeFully(header, 0);
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+
+		private void writeFully(ByteBuffer src, long pos) throws IOException
+		{
+			while (src.hasRemaining()) pos += channel.write(src, pos);
+		}
+	}
+
+	// ------------ public methods ------------
+
+	public static MappedModels open(File file) throws IOException
+	{
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Mapped model file too large: " + file);
+			return new MappedModels(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public MappedModels(ByteBuffer buf) throws IOException
+	{
+		this.buf = buf;
+		if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC_NUMBER) throw new IOException("Not a mapped model file");
+		if (buf.getInt(4) != CURRENT_VERSION) throw new IOException("Unsupported mapped model version: " + buf.getInt(4));
+		watermark = buf.getLong(8);
+		numModels = buf.getInt(16);
+		ofsIndex = buf.getInt(20);
+		if (numModels < 0 || ofsIndex < HEADER_SIZE || (long)ofsIndex + (long)numModels * ENTRY_SIZE > buf.limit())
+			throw new IOException("Mapped model file is truncated");
+
+		boolean allCurrent = true;
+		for (int n = 0; n < numModels && allCurrent; n++) allCurrent = getModelWatermark(n) == watermark;
+		complete = allCurrent;
+	}
+
+	// the watermark for this kind of model when the file was written
+	public long getWatermark() {return watermark;}
+
+	public int size() {return numModels;}
+
+	// true if every model was up to date when the file was written
+	public boolean isComplete() {return complete;}
+
+	// returns the index of the model for the target, or -1 if there isn't one
+	public int indexOf(int target)
+	{
+		int lo = 0, hi = numModels - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int look = getTarget(mid);
+			if (look < target) lo = mid + 1;
+			else if (look > target) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	public int getTarget(int idx) {return buf.getInt(ofsIndex + idx * ENTRY_SIZE);}
+	public long getModelWatermark(int idx) {return buf.getLong(ofsIndex + idx * ENTRY_SIZE + 4);}
+
+	// calibrated prediction for the given (sorted) fingerprints, working directly from the mapped content: same result as
+	// DataModel.predict on the decoded model, including NaN for models that are blank or not explicit
+	public double predict(int idx, int[] fplist, int excludeFP)
+	{
+		int pos = buf.getInt(ofsIndex + idx * ENTRY_SIZE + 12);
+		int flags = buf.get(pos + 1);
+		if ((flags & DataModel.BLOB_HAS_CONTENT) == 0 || (flags & DataModel.BLOB_EXPLICIT) == 0) return Double.NaN;
+		float calibLow = buf.getFloat(pos + 2), calibHigh = buf.getFloat(pos + 6);
+		int count = buf.getInt(pos + 10);
+		int ofsFP = pos + DataModel.BLOB_HEADER_SIZE, ofsContrib = ofsFP + 4 * count;
+
+		double raw = 0;
+		int i = 0;
+		for (int fp : fplist)
+		{
+			for (; i < count; i++)
+			{
+				int look = buf.getInt(ofsFP + 4 * i);
+				if (look == fp && fp != excludeFP) raw += buf.getFloat(ofsContrib + 4 * i);
+				if (look >= fp) break;
+			}
+		}
+		return DataModel.calibrate(raw, calibLow, calibHigh);
+	}
+
+	// unpacks the whole model, for anything that needs it as an object
+	public DataObject.Model getModel(int idx)
+	{
+		int pos = buf.getInt(ofsIndex + idx * ENTRY_SIZE + 12);
+		int count = (buf.get(pos + 1) & DataModel.BLOB_HAS_CONTENT) == 0 ? 0 : buf.getInt(pos + 10);
+		byte[] encoded = new byte[DataModel.BLOB_HEADER_SIZE + 8 * count];
+		buf.duplicate().position(pos).get(encoded);
+		return DataModel.decodeModel(getTarget(idx), getModelWatermark(idx), encoded);
+	}
+}
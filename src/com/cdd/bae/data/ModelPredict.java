@@ -198,30 +198,7 @@ public class ModelPredict
 	private double predictNLP(int[] fplist, int targetFP)
 	{
 		if (fplist == null || fplist.length == 0) return Double.NaN;
-	
-		DataObject.Model model = store.model().getModelNLP(targetFP);
-		if (model == null || model.fplist == null) return Double.NaN;
-		if (!model.isExplicit) return Double.NaN; // don't want parent-only terms showing up independently
-		
-		double raw = 0;
-		int i = 0;
-		for (int fp : fplist)
-		{
-			// note: both 'fplist's are sorted
-			for (; i < model.fplist.length; i++)
-			{
-				if (model.fplist[i] == fp) raw += model.contribs[i];
-				if (model.fplist[i] >= fp) break;
-			}			
-		}
-		
-		// convert the raw Bayesian output based on the calibration range (originally from the ROC): if there's no range, just give it a
-		// more/less binary choice; if there is a range, use a sinusoidal pattern, using tan: so 0 and 1 are approached asymptotically
-		
-		if (model.calibLow == model.calibHigh) return raw > model.calibLow ? 0.7 : 0.3;
-
-		double cal = (raw - model.calibLow) / (model.calibHigh - model.calibLow);
-		return Math.atan(cal) / Math.PI + 0.5;
+		return store.model().predictNLP(targetFP, fplist); // note: fingerprints are sorted
 	}
 	
 	// turn the preexisting target assignments into a calibrated correlation prediction, if possible; the fingerprints are target indices,
@@ -229,30 +206,7 @@ public class ModelPredict
 	private double predictCorrelation(int[] fplist, int targetFP)
 	{
 		if (fplist.length < 1) return Double.NaN; 
-		
-		DataObject.Model model = store.model().getModelCorr(targetFP);
-		if (model == null || model.fplist == null) return Double.NaN;
-		if (!model.isExplicit) return Double.NaN; // don't want parent-only terms showing up independently
-		
-		double raw = 0;
-		int i = 0;
-		for (int fp : fplist)
-		{
-			// note: both 'fplist's are sorted
-			for (; i < model.fplist.length; i++)
-			{
-				if (model.fplist[i] == fp && fp != targetFP) raw += model.contribs[i];
-				if (model.fplist[i] >= fp) break;
-			}			
-		}
-		
-		// convert the raw Bayesian output based on the calibration range (originally from the ROC): if there's no range, just give it a
-		// more/less binary choice; if there is a range, use a sinusoidal pattern, using tan: so 0 and 1 are approached asymptotically
-		
-		if (model.calibLow == model.calibHigh) return raw > model.calibLow ? 0.7 : 0.3;
-
-		double cal = (raw - model.calibLow) / (model.calibHigh - model.calibLow);
-		return Math.atan(cal) / Math.PI + 0.5;
+		return store.model().predictCorr(targetFP, fplist);
 	}
 }
 
@@ -0,0 +1,70 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.bae.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.bson.*;
+
+import com.mongodb.event.*;
+
+/*
+	Listens to the commands sent by the MongoDB driver, and records how long each one took, by collection and command
+	(e.g. "mongo.assay.find"). The driver reports the collection when the command starts and the time when it finishes, so
+	the name is held onto in between.
+*/
+
+public class MongoTimings implements CommandListener
+{
+	private final Map<Integer, String> pending = new ConcurrentHashMap<>(); // requestID-to-metric name
+
+	// ------------ public methods ------------
+
+	@Override
+	public void commandStarted(CommandStartedEvent event)
+	{
+		pending.put(event.getRequestId(), "mongo." + collectionName(event.getCommandName(), event.getCommand()) + "." + event.getCommandName());
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event)
+	{
+		String name = pending.remove(event.getRequestId());
+		if (name != null) Metrics.timer(name).record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event)
+	{
+		String name = pending.remove(event.getRequestId());
+		if (name != null) Metrics.counter(name + ".failed").increment();
+	}
+
+	// ------------ private methods ------------
+
+	// most commands name the collection as their first argument, but getMore puts it elsewhere, and some don't have one
+	private static String collectionName(String commandName, BsonDocument command)
+	{
+		BsonValue value = commandName.equals("getMore") ? command.get("collection") : command.get(commandName);
+		return value != null && value.isString() ? value.asString().getValue() : "-";
+	}
+}
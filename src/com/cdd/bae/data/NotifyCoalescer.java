@@ -0,0 +1,146 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.slf4j.*;
+
+/*
+	Sits between the datastore and the real notifier, and merges together repeated notifications: the first one of each
+	kind starts the clock, and everything that arrives within the delay window is delivered as one. This stops a burst of
+	writes (e.g. bulk curation) from waking up the background builders over and over.
+
+	A delay of zero passes everything straight through; a negative delay holds everything until flush() is called.
+*/
+
+public class NotifyCoalescer implements DataStore.Notifier
+{
+	private static final Logger logger = LoggerFactory.getLogger(NotifyCoalescer.class);
+
+	private static final int TEXT = 1 << 0;
+	private static final int FINGERPRINTS = 1 << 1;
+	private static final int ANNOTATIONS = 1 << 2;
+	private static final int MEASUREMENTS = 1 << 3;
+	private static final int COMPOUNDS = 1 << 4;
+	private static final int STRUCTURES = 1 << 5;
+
+	private static ScheduledExecutorService scheduler = null;
+
+	private final DataStore.Notifier target;
+	private final long delay;
+	private int pending = 0;
+	private ScheduledFuture<?> scheduled = null;
+
+	// ------------ public methods ------------
+
+	public NotifyCoalescer(DataStore.Notifier target, long delay)
+	{
+		this.target = target;
+		this.delay = delay;
+	}
+
+	public DataStore.Notifier getTarget() {return target;}
+
+	@Override
+	public void datastoreTextChanged() {post(TEXT);}
+
+	@Override
+	public void datastoreFingerprintsChanged() {post(FINGERPRINTS);}
+
+	@Override
+	public void datastoreAnnotationsChanged() {post(ANNOTATIONS);}
+
+	@Override
+	public void datastoreMeasurementsChanged() {post(MEASUREMENTS);}
+
+	@Override
+	public void datastoreCompoundsChanged() {post(COMPOUNDS);}
+
+	@Override
+	public void datastoreStructuresChanged() {post(STRUCTURES);}
+
+	// changes from elsewhere have already been batched up by the change feed, so they go straight through
+	@Override
+	public void datastoreRemoteChanged(Set<DataStore.Watermark> watermarks)
+	{
+		if (target != null) target.datastoreRemoteChanged(watermarks);
+	}
+
+	// sends everything that is waiting, right now
+	public void flush()
+	{
+		int flags;
+		synchronized (this)
+		{
+			flags = pending;
+			pending = 0;
+			if (scheduled != null) scheduled.cancel(false);
+			scheduled = null;
+		}
+		if (flags == 0 || target == null) return;
+
+		try
+		{
+			if ((flags & TEXT) != 0) target.datastoreTextChanged();
+			if ((flags & FINGERPRINTS) != 0) target.datastoreFingerprintsChanged();
+			if ((flags & ANNOTATIONS) != 0) target.datastoreAnnotationsChanged();
+			if ((flags & MEASUREMENTS) != 0) target.datastoreMeasurementsChanged();
+			if ((flags & COMPOUNDS) != 0) target.datastoreCompoundsChanged();
+			if ((flags & STRUCTURES) != 0) target.datastoreStructuresChanged();
+		}
+		catch (Exception ex) {logger.error("Notification failed", ex);}
+	}
+
+	// true if there is anything waiting to be sent
+	public synchronized boolean isPending()
+	{
+		return pending != 0;
+	}
+
+	// ------------ private methods ------------
+
+	private void post(int flag)
+	{
+		if (delay == 0)
+		{
+			synchronized (this) {pending |= flag;}
+			flush();
+			return;
+		}
+		synchronized (this)
+		{
+			pending |= flag;
+			if (delay < 0 || scheduled != null) return;
+			scheduled = getScheduler().schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler()
+	{
+		if (scheduler == null) scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "NotifyCoalescer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		return scheduler;
+	}
+}
@@ -0,0 +1,300 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import java.util.*;
+
+/*
+	Substring index for an ontology tree: the labels, alternate labels and URIs of every branch are case-folded once, and each
+	run of 3 characters (trigram) maps to the list of branches that contain it. A query is answered by intersecting the lists
+	for its own trigrams, which narrows it down to a handful of candidates, and then confirming that those really do contain
+	the whole query. Trigrams that turn up in a large fraction of the branches (such as the "http" part of URIs) aren't worth
+	keeping, since they hardly narrow anything down; queries made only of those, or that are shorter than 3 characters, fall
+	back to going through everything, which is still quicker than the tree walk since the case-folding is already done.
+
+	Matches are ranked by how well they match: exact label, then label prefix, start of a word within the label, anywhere in
+	the label, alternate labels, and finally the URI; ties are broken by shorter labels, and then the order of the tree. Only
+	the best few (as many as were asked for) are held onto while going through the candidates, so a query that matches most
+	of the tree doesn't collect and sort all of them; and once there are enough exact matches, nothing later can displace
+	them, so the rest is skipped.
+
+	The branches are referred to by their position in the tree (see Entries), so that the index for a memory-mapped tree
+	doesn't have to make an object for each of them, and neither is the case-folded text kept for it: that would put all of
+	the strings back onto the heap. Instead the text of the candidates is read from the mapped string pool as needed, which
+	makes the queries that can't be narrowed down (see above) slower than for the regular tree.
+*/
+
+public class OntologyIndex
+{
+	private static final int GRAM = 3;
+	private static final double MAX_POSTING_FRACTION = 0.1; // trigrams in more than this fraction of branches aren't kept
+	private static final int MIN_POSTING_LIMIT = 100; // ... unless the tree is very small
+
+	private final OntologyTree onto;
+	private final int treeSize; // number of URIs in the tree at the time the index was built
+	private final Entries entries;
+	private final String[][] folded; // for each branch: label, URI, then any alternate labels; all lowercase (or null)
+	private final Map<Long, int[]> postings = new HashMap<>(); // trigram-to-ascending branch indices
+	private final Set<Long> tooCommon = new HashSet<>(); // trigrams that were dropped
+
+	// ranking of match quality: lower is better
+	public static final int MATCH_EXACT = 0, MATCH_PREFIX = 1, MATCH_WORD = 2, MATCH_LABEL = 3;
+	public static final int MATCH_ALT_PREFIX = 4, MATCH_ALT = 5, MATCH_URI = 6, MATCH_NONE = Integer.MAX_VALUE;
+
+	// order of matches, as {quality, label length, index}: best first
+	private static final Comparator<int[]> RANKING = (m1, m2) ->
+	{
+		if (m1[0] != m2[0]) return Integer.compare(m1[0], m2[0]);
+		if (m1[1] != m2[1]) return Integer.compare(m1[1], m2[1]);
+		return Integer.compare(m1[2], m2[2]);
+	};
+
+	// a list of branch indices which grows as the tree is traversed, so each branch appears just once & in order
+	private static final class Postings
+	{
+		int[] ids = new int[4];
+		int size = 0;
+
+		void add(int id)
+		{
+			if (size > 0 && ids[size - 1] == id) return;
+			if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+	}
+
+	// the branches of a tree in tree order (depth first), by position
+	interface Entries
+	{
+		int size();
+		OntologyTree.Branch branch(int idx); // only called for those that are returned
+		String label(int idx);
+		String uri(int idx);
+		String[] altLabels(int idx);
+		boolean isOnHeap(); // if true, the text is in memory anyway, so keeping a folded copy is worth it
+	}
+
+	// the regular kind of tree, in which all of the branches are objects already
+	static final class BranchEntries implements Entries
+	{
+		private final OntologyTree onto;
+		private final OntologyTree.Branch[] branches;
+
+		BranchEntries(OntologyTree onto)
+		{
+			this.onto = onto;
+			List<OntologyTree.Branch> list = new ArrayList<>();
+			Deque<OntologyTree.Branch> stack = new ArrayDeque<>();
+			OntologyTree.Branch[] roots = onto.getRoots();
+			for (int n = roots.length - 1; n >= 0; n--) stack.push(roots[n]);
+			while (!stack.isEmpty())
+			{
+				OntologyTree.Branch branch = stack.pop();
+				list.add(branch);
+				for (int n = branch.children.size() - 1; n >= 0; n--) stack.push(branch.children.get(n));
+			}
+			branches = list.toArray(new OntologyTree.Branch[list.size()]);
+		}
+
+		public int size() {return branches.length;}
+		public OntologyTree.Branch branch(int idx) {return branches[idx];}
+		public String label(int idx) {return branches[idx].label;}
+		public String uri(int idx) {return branches[idx].uri;}
+		public String[] altLabels(int idx) {return onto.getAltLabels(branches[idx].uri);}
+		public boolean isOnHeap() {return true;}
+	}
+
+	// ------------ public methods ------------
+
+	public OntologyIndex(OntologyTree onto)
+	{
+		this.onto = onto;
+		treeSize = onto.countURI();
+		entries = onto.indexEntries();
+		int size = entries.size();
+		folded = entries.isOnHeap() ? new String[size][] : null;
+
+		Map<Long, Postings> building = new HashMap<>();
+		for (int n = 0; n < size; n++)
+		{
+			String[] texts = foldEntry(n);
+			if (folded != null) folded[n] = texts;
+
+			for (String text : texts) for (int i = 0; i + GRAM <= text.length(); i++)
+				building.computeIfAbsent(trigram(text, i), k -> new Postings()).add(n);
+		}
+
+		int limit = Math.max(MIN_POSTING_LIMIT, (int)(size * MAX_POSTING_FRACTION));
+		for (Map.Entry<Long, Postings> entry : building.entrySet())
+		{
+			Postings post = entry.getValue();
+			if (post.size > limit)
+				tooCommon.add(entry.getKey());
+			else
+				postings.put(entry.getKey(), Arrays.copyOf(post.ids, post.size));
+		}
+	}
+
+	// true if the tree has had branches added or taken away since this index was made
+	public boolean isStale()
+	{
+		return onto.countURI() != treeSize;
+	}
+
+	public int size() {return entries.size();}
+
+	// returns up to maxResults branches that contain the query in their label, alternate labels or URI, best matches first
+	public List<OntologyTree.Branch> search(String query, boolean caseSensitive, int maxResults)
+	{
+		List<OntologyTree.Branch> results = new ArrayList<>();
+		if (query == null || query.isEmpty() || maxResults <= 0) return results;
+
+		String fquery = fold(query);
+		int[] candidates = candidates(fquery);
+
+		PriorityQueue<int[]> best = new PriorityQueue<>(Math.min(maxResults, 100) + 1, RANKING.reversed()); // worst at the head
+		if (candidates == null)
+		{
+			for (int n = 0; n < entries.size(); n++) if (addMatch(best, maxResults, n, query, fquery, caseSensitive)) break;
+		}
+		else
+		{
+			for (int n : candidates) if (addMatch(best, maxResults, n, query, fquery, caseSensitive)) break;
+		}
+
+		int[][] matches = best.toArray(new int[best.size()][]);
+		Arrays.sort(matches, RANKING);
+		for (int[] match : matches) results.add(entries.branch(match[2]));
+		return results;
+	}
+
+	// ------------ private methods ------------
+
+	private static String fold(String str)
+	{
+		return str == null ? "" : str.toLowerCase(Locale.ROOT);
+	}
+
+	// label, URI, then any alternate labels, all lowercase
+	private String[] foldEntry(int idx)
+	{
+		String[] altLabels = entries.altLabels(idx);
+		String[] texts = new String[2 + (altLabels == null ? 0 : altLabels.length)];
+		texts[0] = fold(entries.label(idx));
+		texts[1] = fold(entries.uri(idx));
+		for (int i = 2; i < texts.length; i++) texts[i] = fold(altLabels[i - 2]);
+		return texts;
+	}
+
+	private static long trigram(String str, int pos)
+	{
+		return ((long)str.charAt(pos) << 32) | ((long)str.charAt(pos + 1) << 16) | str.charAt(pos + 2);
+	}
+
+	// branches that could contain the query, in order, or null if the index can't narrow it down
+	private int[] candidates(String fquery)
+	{
+		if (fquery.length() < GRAM) return null;
+
+		List<int[]> lists = new ArrayList<>();
+		Set<Long> seen = new HashSet<>();
+		for (int i = 0; i + GRAM <= fquery.length(); i++)
+		{
+			long key = trigram(fquery, i);
+			if (!seen.add(key) || tooCommon.contains(key)) continue;
+			int[] list = postings.get(key);
+			if (list == null) return new int[0]; // a trigram that appears nowhere: so nothing can match
+			lists.add(list);
+		}
+		if (lists.isEmpty()) return null;
+
+		lists.sort(Comparator.comparingInt(list -> list.length));
+		int[] result = lists.get(0);
+		for (int n = 1; n < lists.size() && result.length > 0; n++) result = intersect(result, lists.get(n));
+		return result;
+	}
+
+	private static int[] intersect(int[] list1, int[] list2)
+	{
+		int[] result = new int[Math.min(list1.length, list2.length)];
+		int sz = 0;
+		for (int i = 0, j = 0; i < list1.length && j < list2.length;)
+		{
+			if (list1[i] < list2[j]) i++;
+			else if (list1[i] > list2[j]) j++;
+			else {result[sz++] = list1[i]; i++; j++;}
+		}
+		return Arrays.copyOf(result, sz);
+	}
+
+	// keeps hold of the branch if it's among the best maxResults so far (the branches have to come in tree order); returns true
+	// if they're all exact matches, since anything after that can only be worse
+	private boolean addMatch(PriorityQueue<int[]> best, int maxResults, int idx, String query, String fquery, boolean caseSensitive)
+	{
+		String[] texts = folded != null ? folded[idx] : foldEntry(idx);
+		int quality = quality(idx, texts, query, fquery, caseSensitive);
+		if (quality == MATCH_NONE) return false;
+
+		int[] match = new int[]{quality, texts[0].length(), idx};
+		if (best.size() < maxResults) best.add(match);
+		else if (RANKING.compare(match, best.peek()) < 0)
+		{
+			best.poll();
+			best.add(match);
+		}
+		return best.size() == maxResults && best.peek()[0] == MATCH_EXACT;
+	}
+
+	private int quality(int idx, String[] texts, String query, String fquery, boolean caseSensitive)
+	{
+		String label = caseSensitive ? entries.label(idx) : texts[0], find = caseSensitive ? query : fquery;
+		if (label != null)
+		{
+			int pos = label.indexOf(find);
+			if (pos == 0) return label.length() == find.length() ? MATCH_EXACT : MATCH_PREFIX;
+			if (pos > 0)
+			{
+				for (; pos > 0; pos = label.indexOf(find, pos + 1)) if (!Character.isLetterOrDigit(label.charAt(pos - 1))) return MATCH_WORD;
+				return MATCH_LABEL;
+			}
+		}
+
+		int best = MATCH_NONE;
+		for (int n = 2; n < texts.length; n++)
+		{
+			String alt = texts[n];
+			if (caseSensitive && !alt.contains(fquery)) continue; // quick rejection before recovering the original
+			if (caseSensitive) alt = originalAltLabel(idx, n - 2);
+			int pos = alt == null ? -1 : alt.indexOf(find);
+			if (pos == 0) return MATCH_ALT_PREFIX;
+			if (pos > 0) best = MATCH_ALT;
+		}
+		if (best != MATCH_NONE) return best;
+
+		String uri = caseSensitive ? entries.uri(idx) : texts[1];
+		return uri != null && uri.contains(find) ? MATCH_URI : MATCH_NONE;
+	}
+
+	// the alternate labels aren't kept in their original form, so have to be fetched from the tree when case matters
+	private String originalAltLabel(int idx, int altIdx)
+	{
+		String[] altLabels = entries.altLabels(idx);
+		return altLabels == null || altIdx >= altLabels.length ? null : altLabels[altIdx];
+	}
+}
@@ -0,0 +1,419 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/*
+	Ontology tree that is read directly out of a memory-mapped file, rather than being unpacked into objects up front. The
+	file is laid out so that nothing needs to be parsed in order to start using it: each tree is a block of fixed size
+	records, one per branch, which refer to each other by index and to their text by offset into a pool of strings (each
+	distinct string is stored just once). Branch objects are made the first time they are asked for, and kept so that the
+	same instance is always handed back; the children of a branch are a list that makes its members on demand as well.
+
+	Layout of the file, all integers being big-endian:
+		header: magic number, version, number of trees, then the offset of each tree
+		tree: counts (branches, roots, descriptions, alternate labels, external URLs) and offsets of the sections below
+			branches: NODE_SIZE integers each, in depth-first order, with children sorted by label
+			children: indices of the roots, followed by the children of each branch, so each has a contiguous range
+			references: string offsets for the alternate labels and external URLs, again as contiguous ranges
+			sorted: branch indices in order of the UTF-8 bytes of their URIs, for looking them up by binary search
+			pool: each string as its length in bytes, then the UTF-8 encoding
+
+	The trees are read-only: they are made by converting from the regular serialised form (see OntologyCommands).
+*/
+
+public class OntologyMapped extends OntologyTree
+{
+	private static final int MAGIC_NUMBER = 0xBAE0B1A7;
+	private static final int CURRENT_VERSION = 1;
+
+	// fields of each branch record
+	private static final int NODE_PARENT = 0, NODE_CHILD = 1, NODE_NCHILD = 2, NODE_DESCENDENTS = 3;
+	private static final int NODE_URI = 4, NODE_LABEL = 5, NODE_DESCR = 6;
+	private static final int NODE_ALT = 7, NODE_NALT = 8, NODE_URL = 9, NODE_NURL = 10;
+	private static final int NODE_SIZE = 11;
+
+	// fields of the tree header
+	private static final int TREE_NODES = 0, TREE_ROOTS = 1, TREE_DESCR = 2, TREE_ALT = 3, TREE_URL = 4;
+	private static final int TREE_OFS_NODES = 5, TREE_OFS_CHILDREN = 6, TREE_OFS_REFS = 7, TREE_OFS_SORTED = 8, TREE_OFS_POOL = 9;
+	private static final int TREE_SIZE = 10;
+
+	private final ByteBuffer buf; // just this tree's block
+	private final int numNodes, numRoots, numDescr, numAltLabels, numExternalURLs;
+	private final int ofsNodes, ofsChildren, ofsRefs, ofsSorted, ofsPool;
+	private final AtomicReferenceArray<Branch> branches; // filled in as they're asked for
+
+	// children of a mapped branch: they're only made into objects when they're fetched
+	private final class ChildList extends AbstractList<Branch> implements RandomAccess
+	{
+		private final int first, size;
+
+		ChildList(int first, int size)
+		{
+			this.first = first;
+			this.size = size;
+		}
+
+		@Override
+		public Branch get(int index)
+		{
+			if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+			return branch(buf.getInt(ofsChildren + (first + index) * 4));
+		}
+
+		@Override
+		public int size() {return size;}
+	}
+
+	// ------------ public methods ------------
+
+	// maps the file and returns each of the trees in it, in the order they were written
+	public static OntologyMapped[] open(File file) throws IOException
+	{
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Mapped ontology file too large: " + file);
+			return fromBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	// writes the given trees in mapped form, which can be done from any kind of tree (e.g. one that was just deserialised)
+	public static void write(OutputStream ostr, OntologyTree... trees) throws IOException
+	{
+		byte[][] blocks = new byte[trees.length][];
+		for (int n = 0; n < trees.length; n++) blocks[n] = encodeTree(trees[n]);
+
+		var data = new DataOutputStream(new BufferedOutputStream(ostr));
+		data.writeInt(MAGIC_NUMBER);
+		data.writeInt(CURRENT_VERSION);
+		data.writeInt(trees.length);
+		int pos = (3 + trees.length) * 4;
+		for (var block : blocks)
+		{
+			data.writeInt(pos);
+			pos += block.length;
+		}
+		for (var block : blocks) data.write(block);
+		data.flush();
+	}
+
+	@Override
+	public int countURI() {return numNodes;}
+	@Override
+	public int countDescr() {return numDescr;}
+	@Override
+	public int countAltLabels() {return numAltLabels;}
+	@Override
+	public int countExternalURLs() {return numExternalURLs;}
+
+	@Override
+	public Branch[] getRoots()
+	{
+		var roots = new Branch[numRoots];
+		for (int n = 0; n < numRoots; n++) roots[n] = branch(buf.getInt(ofsChildren + n * 4));
+		return roots;
+	}
+
+	@Override
+	public Branch getBranch(String uri)
+	{
+		int idx = find(uri);
+		return idx < 0 ? null : branch(idx);
+	}
+
+	@Override
+	public String getLabel(String uri)
+	{
+		int idx = find(uri);
+		if (idx < 0) return null;
+		Branch branch = branches.get(idx);
+		return branch != null ? branch.label : string(field(idx, NODE_LABEL));
+	}
+
+	@Override
+	public String getDescr(String uri)
+	{
+		int idx = find(uri);
+		return idx < 0 ? null : string(field(idx, NODE_DESCR));
+	}
+
+	@Override
+	public String[] getAltLabels(String uri)
+	{
+		int idx = find(uri);
+		return idx < 0 ? null : strings(field(idx, NODE_ALT), field(idx, NODE_NALT));
+	}
+
+	@Override
+	public String[] getExternalURLs(String uri)
+	{
+		int idx = find(uri);
+		return idx < 0 ? null : strings(field(idx, NODE_URL), field(idx, NODE_NURL));
+	}
+
+	// the index goes by position in the file, which is already in tree order, and reads the text without making branches
+	@Override
+	OntologyIndex.Entries indexEntries()
+	{
+		return new OntologyIndex.Entries()
+		{
+			public int size() {return numNodes;}
+			public Branch branch(int idx) {return OntologyMapped.this.branch(idx);}
+			public String label(int idx) {return string(field(idx, NODE_LABEL));}
+			public String uri(int idx) {return string(field(idx, NODE_URI));}
+			public String[] altLabels(int idx) {return strings(field(idx, NODE_ALT), field(idx, NODE_NALT));}
+			public boolean isOnHeap() {return false;}
+		};
+	}
+
+	// the mapped form is derived from the regular one, and can't be written back out as such
+	@Override
+	public void serialise(OutputStream ostr) throws IOException
+	{
+		throw new IOException("Mapped ontology trees are read-only: serialise the original instead.");
+	}
+
+	// ------------ private methods ------------
+
+	private OntologyMapped(ByteBuffer buf)
+	{
+		this.buf = buf;
+		numNodes = buf.getInt(TREE_NODES * 4);
+		numRoots = buf.getInt(TREE_ROOTS * 4);
+		numDescr = buf.getInt(TREE_DESCR * 4);
+		numAltLabels = buf.getInt(TREE_ALT * 4);
+		numExternalURLs = buf.getInt(TREE_URL * 4);
+		ofsNodes = buf.getInt(TREE_OFS_NODES * 4);
+		ofsChildren = buf.getInt(TREE_OFS_CHILDREN * 4);
+		ofsRefs = buf.getInt(TREE_OFS_REFS * 4);
+		ofsSorted = buf.getInt(TREE_OFS_SORTED * 4);
+		ofsPool = buf.getInt(TREE_OFS_POOL * 4);
+		branches = new AtomicReferenceArray<>(numNodes);
+	}
+
+	// splits up a buffer containing the whole file
+	static OntologyMapped[] fromBuffer(ByteBuffer buf) throws IOException
+	{
+		if (buf.limit() < 12 || buf.getInt(0) != MAGIC_NUMBER) throw new IOException("Not a mapped ontology file.");
+		if (buf.getInt(4) != CURRENT_VERSION) throw new IOException("Mapped ontology file is the wrong version.");
+
+		int count = buf.getInt(8);
+		var trees = new OntologyMapped[count];
+		for (int n = 0; n < count; n++)
+		{
+			int start = buf.getInt(12 + n * 4), end = n < count - 1 ? buf.getInt(16 + n * 4) : buf.limit();
+			if (start < 0 || end > buf.limit() || end - start < TREE_SIZE * 4) throw new IOException("Mapped ontology file is truncated.");
+			trees[n] = new OntologyMapped(buf.duplicate().position(start).limit(end).slice());
+		}
+		return trees;
+	}
+
+	// number of branches that have been made into objects so far
+	int countMaterialised()
+	{
+		int count = 0;
+		for (int n = 0; n < numNodes; n++) if (branches.get(n) != null) count++;
+		return count;
+	}
+
+	private int field(int idx, int which)
+	{
+		return buf.getInt(ofsNodes + (idx * NODE_SIZE + which) * 4);
+	}
+
+	// returns the branch object for the index, making it (and any of its ancestors) if this is the first time
+	private Branch branch(int idx)
+	{
+		Branch branch = branches.get(idx);
+		if (branch != null) return branch;
+
+		int pidx = field(idx, NODE_PARENT);
+		branch = new Branch(pidx < 0 ? null : branch(pidx), string(field(idx, NODE_URI)), string(field(idx, NODE_LABEL)));
+		branch.children = new ChildList(field(idx, NODE_CHILD), field(idx, NODE_NCHILD));
+		branch.descendents = field(idx, NODE_DESCENDENTS);
+
+		// another thread may have beaten this one to it, in which case theirs is the one to use
+		return branches.compareAndSet(idx, null, branch) ? branch : branches.get(idx);
+	}
+
+	private String string(int ref)
+	{
+		if (ref < 0) return null;
+		int len = buf.getInt(ofsPool + ref);
+		var bytes = new byte[len];
+		buf.get(ofsPool + ref + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private String[] strings(int first, int count)
+	{
+		if (count == 0) return null;
+		var list = new String[count];
+		for (int n = 0; n < count; n++) list[n] = string(buf.getInt(ofsRefs + (first + n) * 4));
+		return list;
+	}
+
+	// binary search for the branch with the given URI: comparison is done on the encoded bytes, so nothing is decoded
+	private int find(String uri)
+	{
+		if (uri == null) return -1;
+		byte[] key = uri.getBytes(StandardCharsets.UTF_8);
+		int lo = 0, hi = numNodes - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1, idx = buf.getInt(ofsSorted + mid * 4);
+			int ref = field(idx, NODE_URI), cmp = compareBytes(ofsPool + ref + 4, buf.getInt(ofsPool + ref), key);
+			if (cmp < 0) lo = mid + 1;
+			else if (cmp > 0) hi = mid - 1;
+			else return idx;
+		}
+		return -1;
+	}
+
+	private int compareBytes(int pos, int len, byte[] key)
+	{
+		for (int n = 0, sz = Math.min(len, key.length); n < sz; n++)
+		{
+			int cmp = Integer.compare(buf.get(pos + n) & 0xFF, key[n] & 0xFF);
+			if (cmp != 0) return cmp;
+		}
+		return Integer.compare(len, key.length);
+	}
+
+	private static int compareBytes(byte[] b1, byte[] b2)
+	{
+		for (int n = 0, sz = Math.min(b1.length, b2.length); n < sz; n++)
+		{
+			int cmp = Integer.compare(b1[n] & 0xFF, b2[n] & 0xFF);
+			if (cmp != 0) return cmp;
+		}
+		return Integer.compare(b1.length, b2.length);
+	}
+
+	// lays out a single tree as a self-contained block, with offsets relative to its start
+	private static byte[] encodeTree(OntologyTree onto) throws IOException
+	{
+		Comparator<Branch> byLabel = (b1, b2) -> b1.label.compareToIgnoreCase(b2.label);
+
+		// depth first ordering, with siblings by label, as is done when deserialising
+		List<Branch> order = new ArrayList<>();
+		Map<Branch, Integer> index = new IdentityHashMap<>();
+		List<Branch> roots = new ArrayList<>(Arrays.asList(onto.getRoots()));
+		roots.sort(byLabel);
+		Deque<Branch> stack = new ArrayDeque<>();
+		for (int n = roots.size() - 1; n >= 0; n--) stack.push(roots.get(n));
+		while (!stack.isEmpty())
+		{
+			Branch branch = stack.pop();
+			index.put(branch, order.size());
+			order.add(branch);
+			List<Branch> children = sortedChildren(branch, byLabel);
+			for (int n = children.size() - 1; n >= 0; n--) stack.push(children.get(n));
+		}
+
+		var poolBytes = new ByteArrayOutputStream();
+		var pool = new DataOutputStream(poolBytes);
+		Map<String, Integer> poolIndex = new HashMap<>();
+
+		int numNodes = order.size(), numDescr = 0, numAlt = 0, numURL = 0;
+		int[] nodes = new int[numNodes * NODE_SIZE];
+		List<Integer> children = new ArrayList<>(), refs = new ArrayList<>();
+		for (var root : roots) children.add(index.get(root));
+		byte[][] uriBytes = new byte[numNodes][];
+
+		for (int n = 0; n < numNodes; n++)
+		{
+			Branch branch = order.get(n);
+			int base = n * NODE_SIZE;
+			nodes[base + NODE_PARENT] = branch.parent == null ? -1 : index.get(branch.parent);
+
+			List<Branch> sorted = sortedChildren(branch, byLabel);
+			nodes[base + NODE_CHILD] = children.size();
+			nodes[base + NODE_NCHILD] = sorted.size();
+			for (var child : sorted) children.add(index.get(child));
+			nodes[base + NODE_DESCENDENTS] = branch.descendents;
+
+			nodes[base + NODE_URI] = intern(pool, poolIndex, branch.uri);
+			nodes[base + NODE_LABEL] = intern(pool, poolIndex, branch.label);
+			uriBytes[n] = branch.uri.getBytes(StandardCharsets.UTF_8);
+
+			String descr = onto.getDescr(branch.uri);
+			nodes[base + NODE_DESCR] = intern(pool, poolIndex, descr);
+			if (descr != null) numDescr++;
+
+			String[] altLabels = onto.getAltLabels(branch.uri), externalURLs = onto.getExternalURLs(branch.uri);
+			nodes[base + NODE_ALT] = refs.size();
+			nodes[base + NODE_NALT] = altLabels == null ? 0 : altLabels.length;
+			if (altLabels != null) {numAlt++; for (var str : altLabels) refs.add(intern(pool, poolIndex, str));}
+			nodes[base + NODE_URL] = refs.size();
+			nodes[base + NODE_NURL] = externalURLs == null ? 0 : externalURLs.length;
+			if (externalURLs != null) {numURL++; for (var str : externalURLs) refs.add(intern(pool, poolIndex, str));}
+		}
+
+		Integer[] sorted = new Integer[numNodes];
+		for (int n = 0; n < numNodes; n++) sorted[n] = n;
+		Arrays.sort(sorted, (i1, i2) -> compareBytes(uriBytes[i1], uriBytes[i2]));
+
+		pool.flush();
+		int ofsNodes = TREE_SIZE * 4;
+		int ofsChildren = ofsNodes + nodes.length * 4;
+		int ofsRefs = ofsChildren + children.size() * 4;
+		int ofsSorted = ofsRefs + refs.size() * 4;
+		int ofsPool = ofsSorted + numNodes * 4;
+
+		var block = new ByteArrayOutputStream(ofsPool + poolBytes.size());
+		var data = new DataOutputStream(block);
+		for (int v : new int[]{numNodes, roots.size(), numDescr, numAlt, numURL, ofsNodes, ofsChildren, ofsRefs, ofsSorted, ofsPool}) data.writeInt(v);
+		for (int v : nodes) data.writeInt(v);
+		for (int v : children) data.writeInt(v);
+		for (int v : refs) data.writeInt(v);
+		for (int v : sorted) data.writeInt(v);
+		poolBytes.writeTo(data);
+		data.flush();
+		return block.toByteArray();
+	}
+
+	private static List<Branch> sortedChildren(Branch branch, Comparator<Branch> byLabel)
+	{
+		List<Branch> children = new ArrayList<>(branch.children);
+		children.sort(byLabel);
+		return children;
+	}
+
+	// adds the string to the pool if it isn't there already, and returns its offset; null is denoted by -1
+	private static int intern(DataOutputStream pool, Map<String, Integer> poolIndex, String str) throws IOException
+	{
+		if (str == null) return -1;
+		Integer ref = poolIndex.get(str);
+		if (ref != null) return ref;
+		ref = pool.size();
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		pool.writeInt(bytes.length);
+		pool.write(bytes);
+		poolIndex.put(str, ref);
+		return ref;
+	}
+}
@@ -55,6 +55,7 @@ public class OntologyTree
 	protected Map<String, String> uriToDescr = new HashMap<>();
 	protected Map<String, String[]> uriToAltLabels = new HashMap<>();
 	protected Map<String, String[]> uriToExternalURLs = new HashMap<>();
+	private volatile OntologyIndex index = null; // made on demand
 	
 	// for serialisation
 	private static final int MAGIC_NUMBER = 0xDEADBEEF; // has to start with this number, else is not correct
@@ -123,6 +124,24 @@ public class OntologyTree
 	public String[] getAltLabels(String uri) {return uriToAltLabels.get(uri);}
 	public String[] getExternalURLs(String uri) {return uriToExternalURLs.get(uri);}
 	
+	// substring index for searching labels & URIs: built the first time it's needed, and again if the content has changed
+	public OntologyIndex getIndex()
+	{
+		OntologyIndex index = this.index;
+		if (index != null && !index.isStale()) return index;
+		synchronized (this)
+		{
+			if (this.index == null || this.index.isStale()) this.index = new OntologyIndex(this);
+			return this.index;
+		}
+	}
+	
+	// the branches as seen by the index: overridden by trees that don't keep them all as objects
+	OntologyIndex.Entries indexEntries()
+	{
+		return new OntologyIndex.BranchEntries(this);
+	}
+	
 	// writes everything to an outputstream using a concise binary format
 	public void serialise(OutputStream ostr) throws IOException
 	{	
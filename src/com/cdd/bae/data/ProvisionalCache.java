@@ -28,13 +28,65 @@ import org.apache.commons.lang3.*;
 
 /*
 	Stores provisional terms in a cache so they can be quickly applied to composed branches.
+	
+	The content is an immutable snapshot, which is rebuilt off to the side whenever the terms change and then swapped in, so
+	the lookups (which happen for every annotation of every assay) never have to wait for each other or for a reload.
 */
 
 public class ProvisionalCache
 {
-	private Map<String, DataObject.Provisional> mapURI = new HashMap<>(); // term URI -> entry (note: use remapped URI)
-	private Map<String, DataObject.Provisional[]> mapParent = new HashMap<>(); // parent URI -> list of entries (note: use remapped URI)
-	private Map<String, String> remapURI = new HashMap<>(); // original URI -> final formal URI
+	private static final long MODIFIED_MARGIN = 60 * 1000L; // allowance for clock differences between writers (ms)
+
+	private static final class Snapshot
+	{
+		final long watermark; // provisional watermark at the time of loading
+		final long latestModified; // most recent modification time of any term
+		final Map<Long, DataObject.Provisional> mapID = new HashMap<>(); // provisionalID -> entry
+		final Map<String, DataObject.Provisional> mapURI = new HashMap<>(); // term URI -> entry (note: use remapped URI)
+		final Map<String, DataObject.Provisional[]> mapParent = new HashMap<>(); // parent URI -> list of entries (note: use remapped URI)
+		final Map<String, String> remapURI = new HashMap<>(); // original URI -> final formal URI, with chains already followed
+		final int numRemappings;
+		final DataObject.Provisional[] allTerms;
+		
+		Snapshot()
+		{
+			watermark = -1;
+			latestModified = 0;
+			numRemappings = 0;
+			allTerms = new DataObject.Provisional[0];
+		}
+		
+		Snapshot(long watermark, Collection<DataObject.Provisional> terms)
+		{
+			this.watermark = watermark;
+			
+			long latest = 0;
+			for (var prov : terms)
+			{
+				mapID.put(prov.provisionalID, prov);
+				if (prov.modifiedTime != null) latest = Math.max(latest, prov.modifiedTime.getTime());
+			}
+			latestModified = latest;
+			
+			// first extract all the remappings (which affect the next part)
+			Map<String, String> direct = new HashMap<>();
+			for (var prov : terms) if (Util.notBlank(prov.remappedTo)) direct.put(prov.uri, prov.remappedTo);
+			numRemappings = direct.size();
+			for (String uri : direct.keySet()) remapURI.put(uri, followChain(direct, uri));
+			
+			// go through and process each one
+			for (var prov : terms)
+			{
+				String parentURI = prov.parentURI == null ? null : remapURI.getOrDefault(prov.parentURI, prov.parentURI);
+				String termURI = prov.remappedTo != null ? prov.remappedTo : prov.uri;
+
+				mapURI.put(termURI, prov);
+				mapParent.put(parentURI, ArrayUtils.add(mapParent.get(parentURI), prov));			
+			}
+			allTerms = mapURI.values().toArray(new DataObject.Provisional[mapURI.size()]);
+		}
+	}
+	private volatile Snapshot snapshot = new Snapshot();
 
     // ------------ public methods ------------
 
@@ -50,88 +102,103 @@ public class ProvisionalCache
 		return cache;
 	}
 	
-	// reload the provisional terms from the database; this is fast enough to call after any modification to the database
+	// brings the provisional terms up to date with the database; if the watermark hasn't moved this is a no-op, and otherwise
+	// only the terms that were modified since last time are fetched, along with the list of identifiers to catch deletions;
+	// readers carry on using the previous snapshot until the new one is ready
 	public synchronized void update()
 	{
 		var store = Common.getDataStore();
 		if (!store.isDBAvailable()) return;
 	
-		mapURI.clear();
-		mapParent.clear();
-		remapURI.clear();
-	
-		var allTerms = store.provisional().fetchAllTerms();
-		
-		// first extract all the remappings (which affect the next part)
-		for (var prov : allTerms) if (Util.notBlank(prov.remappedTo))
+		Snapshot current = snapshot;
+		long watermark = store.provisional().getWatermark();
+		if (current.watermark == watermark) return;
+
+		Map<Long, DataObject.Provisional> terms = new HashMap<>();
+		if (current.watermark < 0)
 		{
-			remapURI.put(prov.uri, prov.remappedTo);
+			for (var prov : store.provisional().fetchAllTerms()) terms.put(prov.provisionalID, prov);
 		}
-	
-		// go through and process each one
-		for (var prov : allTerms)
+		else
 		{
-			String parentURI = remapMaybe(prov.parentURI);
-			String termURI = prov.remappedTo != null ? prov.remappedTo : prov.uri;
-
-			mapURI.put(termURI, prov);
-			mapParent.put(parentURI, ArrayUtils.add(mapParent.get(parentURI), prov));			
+			Set<Long> present = new HashSet<>();
+			for (long id : store.provisional().fetchAllIDs()) present.add(id);
+			for (var entry : current.mapID.entrySet()) if (present.contains(entry.getKey())) terms.put(entry.getKey(), entry.getValue());
+			for (var prov : store.provisional().fetchTermsModifiedSince(current.latestModified - MODIFIED_MARGIN))
+				if (present.contains(prov.provisionalID)) terms.put(prov.provisionalID, prov);
+
+			// anything that is present but wasn't picked up is lacking a modification time, so go the long way round
+			if (terms.size() != present.size())
+			{
+				terms.clear();
+				for (var prov : store.provisional().fetchAllTerms()) terms.put(prov.provisionalID, prov);
+			}
 		}
+		
+		snapshot = new Snapshot(watermark, terms.values());
+	}
+	
+	// discards the current content, so that the next update will be a full reload
+	public synchronized void reset()
+	{
+		snapshot = new Snapshot();
 	}
 	
 	// for a given URI, converts it into the new one if applicable, or returns null if it isn't affected by remapping
-	public synchronized String remap(String uri)
+	public String remap(String uri)
 	{
 		if (uri == null) return null;
-		String newURI = remapURI.get(uri);
-		if (newURI == null) return null;
-		if (!remapURI.containsKey(newURI)) return newURI;
-		
-		// chained remapping, prevent loops
-		Set<String> seenURI = new HashSet<>();
-		seenURI.add(uri);
-		seenURI.add(newURI);
-		uri = newURI;
-		while (true)
-		{
-			newURI = remapURI.get(uri);
-			if (newURI == null || seenURI.contains(newURI)) break;
-			uri = newURI;
-			seenURI.add(uri);
-		}
-		return uri;
+		return snapshot.remapURI.get(uri);
 	}
 	
 	// as above, but returns the original URI if it's not remapped
-	public synchronized String remapMaybe(String uri)
+	public String remapMaybe(String uri)
 	{
 		String newURI = remap(uri);
 		return newURI == null ? uri : newURI;
 	}
 	
 	// querying info
-	public synchronized int numTerms()
+	public int numTerms()
 	{
-		return mapURI.size();
+		return snapshot.mapURI.size();
 	}
-	public synchronized int numRemappings()
+	public int numRemappings()
 	{
-		return remapURI.size();
+		return snapshot.numRemappings;
 	}
 	
 	// fetch all the terms
-	public synchronized DataObject.Provisional[] getAllTerms()
+	public DataObject.Provisional[] getAllTerms()
 	{
-		return mapURI.values().toArray(new DataObject.Provisional[mapURI.size()]);
+		return snapshot.allTerms.clone();
 	}
 	
 	// fetch the term based on the URI (note that if the parameter has been remapped to a new URI, it won't be found)
-	public synchronized DataObject.Provisional getTerm(String uri)
+	public DataObject.Provisional getTerm(String uri)
 	{
-		return mapURI.get(uri);
+		return snapshot.mapURI.get(uri);
 	}
 	
     // ------------ private methods ------------
 
-
+	// follows a chain of remappings to the end, stopping if it loops back on itself
+	private static String followChain(Map<String, String> direct, String uri)
+	{
+		String newURI = direct.get(uri);
+		if (!direct.containsKey(newURI)) return newURI;
+		
+		Set<String> seenURI = new HashSet<>();
+		seenURI.add(uri);
+		seenURI.add(newURI);
+		uri = newURI;
+		while (true)
+		{
+			newURI = direct.get(uri);
+			if (newURI == null || seenURI.contains(newURI)) break;
+			uri = newURI;
+			seenURI.add(uri);
+		}
+		return uri;
+	}
 }
@@ -0,0 +1,70 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+/*
+	Hands out identifiers from one of the database sequences without a round trip for each: a block of consecutive values
+	is reserved with a single atomic increment, and then doled out locally. Each block belongs to this process alone, so
+	any number of processes can share the same sequence safely; the cost is that whatever is left of a block when the
+	process stops is never used, so there may be gaps in the numbering.
+
+	The block size starts at 1, and doubles whenever a block gets used up quickly, so occasional inserts waste nothing while
+	bulk loads soon settle into large blocks; it halves again when demand drops off.
+*/
+
+public class SequenceAllocator
+{
+	private static final long BURST_TIME = 1000; // a block that runs out sooner than this (in ms) means demand is high
+	public static final int MAX_BLOCK = 1024;
+
+	private final DataStore store;
+	private final String seqID;
+
+	private long next = 0, limit = 0; // current block is [next, limit)
+	private int blockSize = 0;
+	private long blockTime = 0;
+
+	// ------------ public methods ------------
+
+	public SequenceAllocator(DataStore store, String seqID)
+	{
+		this.store = store;
+		this.seqID = seqID;
+	}
+
+	// returns the next unused identifier, reserving another block from the database if necessary
+	public synchronized long next()
+	{
+		if (next >= limit)
+		{
+			long now = System.currentTimeMillis();
+			if (blockSize == 0) blockSize = 1;
+			else if (now - blockTime < BURST_TIME) blockSize = Math.min(blockSize << 1, MAX_BLOCK);
+			else blockSize = Math.max(blockSize >> 1, 1);
+
+			next = store.reserveSequenceBlock(seqID, blockSize);
+			limit = next + blockSize;
+			blockTime = now;
+		}
+		return next++;
+	}
+
+	// number of identifiers that have been reserved but not yet handed out
+	public synchronized int available() {return (int)(limit - next);}
+}
@@ -44,11 +44,15 @@ public class BulkCommands implements Main.ExecuteBase
 		String cmd = args[0];
 		String[] options = ArrayUtils.remove(args, 0);
 
-		/*if (cmd.equals("oosdelete")) oosDelete(options);
-		else if (cmd.equals("oosmigrate")) oosMigrate(options);
-		else*/ if (cmd.equals("oosrenprop")) oosRenameProp(options);
-		else if (cmd.equals("oosprefix")) oosChangePrefix(options);
-		else Util.writeln("Unknown command: '" + cmd + "'.");
+		// watermarks & notifications are sent once at the end, rather than for every assay
+		try (DataStore.WriteSession writes = Common.getDataStore().beginSession())
+		{
+			/*if (cmd.equals("oosdelete")) oosDelete(options);
+			else if (cmd.equals("oosmigrate")) oosMigrate(options);
+			else*/ if (cmd.equals("oosrenprop")) oosRenameProp(options);
+			else if (cmd.equals("oosprefix")) oosChangePrefix(options);
+			else Util.writeln("Unknown command: '" + cmd + "'.");
+		}
 	}
 	
 	public void printHelp()
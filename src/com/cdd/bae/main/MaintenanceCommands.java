@@ -137,13 +137,16 @@ public class MaintenanceCommands implements Main.ExecuteBase
 		Util.writeln("Curated assays: " + assayIDList.length);
 		int numModified = 0;
 		String schemaURI = "http://www.bioassayontology.org/bas#";
-		for (int n = 0; n < assayIDList.length; n++)
+		try (DataStore.WriteSession writes = store.beginSession())
 		{
-			DataObject.Assay assay = store.assay().getAssay(assayIDList[n]);
-			if (assay.schemaURI != null && assay.schemaURI.length() > 0) continue;
-			Util.writeln((n + 1) + "/" + assayIDList.length + ": ID=" + assayIDList[n]);
-			store.assay().submitAssaySchema(assay.assayID, schemaURI);
-			numModified++;
+			for (int n = 0; n < assayIDList.length; n++)
+			{
+				DataObject.Assay assay = store.assay().getAssay(assayIDList[n]);
+				if (assay.schemaURI != null && assay.schemaURI.length() > 0) continue;
+				Util.writeln((n + 1) + "/" + assayIDList.length + ": ID=" + assayIDList[n]);
+				store.assay().submitAssaySchema(assay.assayID, schemaURI);
+				numModified++;
+			}
 		}
 		Util.writeln("Done: " + numModified + " assays changed.");
 		
@@ -353,18 +356,21 @@ public class MaintenanceCommands implements Main.ExecuteBase
 			if (compounds.length == 0) break;
 			
 			Util.writeln("Fetched: " + compounds.length + " (first ID=" + compounds[0].compoundID + ")");
-			for (int n = 0; n < compounds.length; n++)
+			try (DataStore.WriteSession writes = store.beginSession())
 			{
-				DataObject.Compound cpd = compounds[n];
-				org.openscience.cdk.interfaces.IAtomContainer mol = ChemInf.parseMolecule(cpd.molfile);
-				if (mol == null) 
+				for (int n = 0; n < compounds.length; n++)
 				{
-					Util.writeln("Warning: compoundID " + cpd.compoundID + " has structure, but is not parseable.");
-					continue;
+					DataObject.Compound cpd = compounds[n];
+					org.openscience.cdk.interfaces.IAtomContainer mol = ChemInf.parseMolecule(cpd.molfile);
+					if (mol == null) 
+					{
+						Util.writeln("Warning: compoundID " + cpd.compoundID + " has structure, but is not parseable.");
+						continue;
+					}
+					cpd.hashECFP6 = ChemInf.hashECFP6(mol);
+					store.compound().updateCompound(cpd);
+					total++;
 				}
-				cpd.hashECFP6 = ChemInf.hashECFP6(mol);
-				store.compound().updateCompound(cpd);
-				total++;
 			}
 		}
 		
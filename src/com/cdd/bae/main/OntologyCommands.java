@@ -50,6 +50,8 @@ public class OntologyCommands implements Main.ExecuteBase
 
 		if (cmd.equals("build")) buildVocab(options);
 		else if (cmd.equals("fragment")) buildFragments(options);
+		else if (cmd.equals("convert")) convertMapped(options);
+		else if (cmd.equals("benchmark")) benchmarkMapped(options);
 		//else if (cmd.equals("loadtemplate")) loadTemplate(options);
 		//else Util.writeln("Unknown command: '" + cmd + "'.");
 	}
@@ -63,6 +65,10 @@ public class OntologyCommands implements Main.ExecuteBase
 		Util.writeln("        <ontodir> <outputfn>");
 		Util.writeln("    fragment: assemble ontology as fragmented files");
 		Util.writeln("        <ontodir> <fragdir>");
+		Util.writeln("    convert: turn assembled ontology trees into the memory-mapped form (ontology.bin)");
+		Util.writeln("        <inputfn.gz> <outputfn.bin>");
+		Util.writeln("    benchmark: compare load time & memory use of the regular and mapped forms");
+		Util.writeln("        <inputfn.gz> <inputfn.bin>");
 		//Util.writeln("    loadtemplate: load template into database");
 		//Util.writeln("        <templatefn>");
 		
@@ -131,6 +137,130 @@ public class OntologyCommands implements Main.ExecuteBase
 		Util.writeln("Done.");
 	}
 	
+	// reads the regular (gzipped) ontology trees and writes them out again in the form that can be mapped into memory
+	private void convertMapped(String[] options) throws IOException
+	{
+		if (options.length < 2) throw new IOException("Options: <inputfn.gz> <outputfn.bin>");
+		String infile = Util.expandFileHome(options[0]);
+		String outfile = Util.expandFileHome(options[1]);
+
+		Util.writeln("Reading " + infile);
+		OntologyTree[] trees = readRegular(infile);
+		Util.writeln("Properties: " + trees[0].countURI());
+		Util.writeln("Values:     " + trees[1].countURI());
+
+		Util.writeln("Writing " + outfile);
+		try (var ostr = new FileOutputStream(outfile))
+		{
+			OntologyMapped.write(ostr, trees);
+		}
+
+		// make sure that what was written reads back the same
+		OntologyMapped[] mapped = OntologyMapped.open(new File(outfile));
+		for (int n = 0; n < trees.length; n++)
+		{
+			if (mapped[n].countURI() != trees[n].countURI()) throw new IOException("Mapped tree #" + (n + 1) + " has the wrong size.");
+			for (var root : trees[n].getRoots())
+			{
+				var branch = mapped[n].getBranch(root.uri);
+				if (branch == null || !branch.label.equals(root.label) || branch.descendents != root.descendents)
+					throw new IOException("Mapped tree #" + (n + 1) + " differs at " + root.uri);
+			}
+		}
+		Util.writeln("Done: " + new File(infile).length() + " bytes compressed, " + new File(outfile).length() + " bytes mapped.");
+	}
+
+	// loads both forms of the ontology trees, reporting how long they take and how much memory they hold onto, and then
+	// how quickly they can look up every term; each form is loaded in turn, with the previous one discarded
+	private void benchmarkMapped(String[] options) throws IOException
+	{
+		if (options.length < 2) throw new IOException("Options: <inputfn.gz> <inputfn.bin>");
+		String regularFN = Util.expandFileHome(options[0]);
+		String mappedFN = Util.expandFileHome(options[1]);
+
+		List<String> uris = new ArrayList<>();
+		for (var tree : readRegular(regularFN)) collectURIs(uris, tree.getRoots());
+		Collections.shuffle(uris, new Random(0));
+		Util.writeln("Looking up " + uris.size() + " URIs in each form");
+
+		for (int pass = 1; pass <= 3; pass++)
+		{
+			Util.writeln("Pass " + pass + ":");
+
+			long heap = usedMemory(), time = System.nanoTime();
+			OntologyTree[] trees = readRegular(regularFN);
+			long loadTime = System.nanoTime() - time, heapUsed = usedMemory() - heap;
+			long lookupTime = timeLookups(trees, uris);
+			Util.writeln(String.format("    regular: load %.1f ms, heap %.1f MB, lookups %.1f ms",
+									   loadTime * 1E-6, heapUsed / (1024.0 * 1024), lookupTime * 1E-6));
+			reportIndex(trees, heap);
+			trees = null;
+
+			heap = usedMemory();
+			time = System.nanoTime();
+			trees = OntologyMapped.open(new File(mappedFN));
+			loadTime = System.nanoTime() - time;
+			heapUsed = usedMemory() - heap;
+			lookupTime = timeLookups(trees, uris);
+			long heapAfter = usedMemory() - heap;
+			Util.writeln(String.format("    mapped:  load %.1f ms, heap %.1f MB, lookups %.1f ms (heap afterward %.1f MB)",
+									   loadTime * 1E-6, heapUsed / (1024.0 * 1024), lookupTime * 1E-6, heapAfter / (1024.0 * 1024)));
+			reportIndex(trees, heap);
+		}
+	}
+
+	// builds the search index for each tree, and reports the time taken, the heap in use with it (relative to the baseline
+	// from before the trees were loaded), and how long some searches take: short queries go through every branch
+	private void reportIndex(OntologyTree[] trees, long heap)
+	{
+		long time = System.nanoTime();
+		for (var tree : trees) tree.getIndex();
+		long buildTime = System.nanoTime() - time, heapUsed = usedMemory() - heap;
+
+		String[] queries = {"assay", "cell line", "luciferase", "protein kinase", "ic50", "ph"};
+		time = System.nanoTime();
+		for (var tree : trees) for (String query : queries) tree.getIndex().search(query, false, 100);
+		long searchTime = System.nanoTime() - time;
+
+		Util.writeln(String.format("             index %.1f ms, heap with index %.1f MB, %d searches %.1f ms",
+								   buildTime * 1E-6, heapUsed / (1024.0 * 1024), queries.length * trees.length, searchTime * 1E-6));
+	}
+
+	private OntologyTree[] readRegular(String fn) throws IOException
+	{
+		try (var istr = new GZIPInputStream(new FileInputStream(fn)))
+		{
+			return new OntologyTree[]{OntologyTree.deserialise(istr), OntologyTree.deserialise(istr)};
+		}
+	}
+
+	private void collectURIs(List<String> uris, OntologyTree.Branch[] branches)
+	{
+		for (var branch : branches)
+		{
+			uris.add(branch.uri);
+			collectURIs(uris, branch.children.toArray(new OntologyTree.Branch[0]));
+		}
+	}
+
+	private long timeLookups(OntologyTree[] trees, List<String> uris) throws IOException
+	{
+		long time = System.nanoTime();
+		for (String uri : uris)
+		{
+			if (trees[0].getLabel(uri) == null && trees[1].getLabel(uri) == null) throw new IOException("Missing URI: " + uri);
+		}
+		return System.nanoTime() - time;
+	}
+
+	// heap in use after collecting garbage, as best as can be determined
+	private static long usedMemory()
+	{
+		var runtime = Runtime.getRuntime();
+		for (int n = 0; n < 3; n++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
 	/*private void loadTemplate(String[] options) throws IOException
 	{
 		if (options.length < 1) throw new IOException("Options: <templatefn>");
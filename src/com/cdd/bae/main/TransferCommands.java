@@ -20,11 +20,14 @@ package com.cdd.bae.main;
 
 import com.cdd.bae.data.*;
 import com.cdd.bae.model.assocrules.*;
+import com.cdd.bae.util.*;
 import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 import org.apache.commons.lang3.*;
@@ -39,6 +42,12 @@ import org.json.*;
 public class TransferCommands implements Main.ExecuteBase
 {
 	private static final String JSON_SUFFIX = ".json";
+	private static final int EXPORT_BATCH = 100; // number of assays to fetch from the database at a time
+	private static final int IMPORT_BATCH = 500; // number of assays to parse & write at a time, for bulk imports
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	private static final int COMPARE_NOTHING = 0;
+	private static final int COMPARE_REPLACE = 1;
+	private static final int COMPARE_AMEND = 2;
 	private DataStore store = null;
 
 	// ------------ public methods ------------
@@ -69,6 +78,8 @@ public class TransferCommands implements Main.ExecuteBase
 		Util.writeln("    exportassays {fn.zip}: writes all curated assays to a ZIP archive");
 		Util.writeln("    importassays {fn.zip}: adds or updates assays from ZIP archive; clobbers existing assays");
 		Util.writeln("    augmentassays {fn.zip}: as for import, but appends annotations rather than clobbering");
+		Util.writeln("        --force: import even when identical");
+		Util.writeln("        --bulk: parse in parallel & write in batches, resuming from {fn.zip}" + CHECKPOINT_SUFFIX + " if present");
 		Util.writeln("    exclusivecurated {fn.zip}: resets curated status of assays");
 		Util.writeln("    annotations {fn.txt}: export assay annotations as items sets");
 		Util.writeln("    exportholding {fn.zip}: writes holding bay content to a ZIP archive");
@@ -119,34 +130,34 @@ public class TransferCommands implements Main.ExecuteBase
 		}
 		
 		File file = new File(fn);
-		try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		try (ParallelZip zip = new ParallelZip(new BufferedOutputStream(new FileOutputStream(file))))
 		{
 			int orphan = 0;
-			for (int n = 0; n < assayIDList.length; n++)
+			for (int i = 0; i < assayIDList.length; i += EXPORT_BATCH)
 			{
-				DataObject.Assay assay = store.assay().getAssay(assayIDList[n]);
-				if (assay == null)
+				long[] batch = Arrays.copyOfRange(assayIDList, i, Math.min(i + EXPORT_BATCH, assayIDList.length));
+				DataObject.Assay[] assays = store.assay().getAssays(batch);
+				for (int j = 0; j < batch.length; j++)
 				{
-					Util.writeln("Error: assayID " + assayIDList[n] + " not found in database.");
-					return;
+					int n = i + j;
+					DataObject.Assay assay = assays[j];
+					if (assay == null)
+					{
+						Util.writeln("Error: assayID " + assayIDList[n] + " not found in database.");
+						return;
+					}
+					
+					if (n % 100 == 99) Util.writeln(String.format("    writing %d of %d...", n + 1, assayIDList.length));
+					
+					// NOTE: may want to exclude anything without a PubChemAID (or other subsequently added unique identifiers), since
+					// they can't be reliably tracked from one database to another
+					
+					String code = String.valueOf(++orphan);
+					if (assay.assayID > 0) code = "id" + assay.assayID;
+					
+					// serialisation & compression happen on the worker threads
+					zip.submit("assay_" + code + JSON_SUFFIX, () -> AssayJSON.serialiseAssay(assay).toString().getBytes());
 				}
-				
-				if (n % 100 == 99) Util.writeln(String.format("    writing %d of %d...", n + 1, assayIDList.length));
-				
-				// NOTE: may want to exclude anything without a PubChemAID (or other subsequently added unique identifiers), since
-				// they can't be reliably tracked from one database to another
-				
-				String code = String.valueOf(++orphan);
-				if (assay.assayID > 0) code = "id" + assay.assayID;
-				
-				zip.putNextEntry(new ZipEntry("assay_" + code + JSON_SUFFIX));
-				JSONObject json = AssayJSON.serialiseAssay(assay);
-
-				Writer wtr = new OutputStreamWriter(zip);
-				json.write(wtr);
-				wtr.flush();
-
-				zip.closeEntry();
 			}
 			Util.writeln("Export complete.");
 		}
@@ -156,10 +167,11 @@ public class TransferCommands implements Main.ExecuteBase
 	// import assays found in the ZIP file, as long as they are different in some way
 	private void importAssays(String[] options, boolean augment)
 	{
-		boolean force = false;
+		boolean force = false, bulk = false;
 		for (int n = 0; n < options.length; n++)
 		{
 			if (options[n].equals("--force")) {force = true; options = ArrayUtils.remove(options, n); n--;}
+			else if (options[n].equals("--bulk")) {bulk = true; options = ArrayUtils.remove(options, n); n--;}
 		}
 		
 		if (options.length == 0) {Util.errmsg("Must provide at least one filename."); return;}
@@ -179,6 +191,13 @@ public class TransferCommands implements Main.ExecuteBase
 			store = Common.getDataStore();
 			store.setNotifier(null);
 			
+			if (bulk)
+			{
+				try {importAssaysBulk(file, augment, force);}
+				catch (IOException ex) {Util.errmsg("Import failed", ex);}
+				continue;
+			}
+			
 			try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(file))))
 			{
 				int numEntries = 0, numParsed = 0, numUpdated = 0;
@@ -220,6 +239,189 @@ public class TransferCommands implements Main.ExecuteBase
 		}
 	}
 
+	// bulk variant of importing: entries are parsed and compared on a thread pool, and written in batches with a single database
+	// round trip each; the watermark is bumped just once at the end; progress is recorded in a checkpoint file next to the ZIP file
+	// after each batch, so that an interrupted import can resume
+	private void importAssaysBulk(File file, boolean augment, boolean force) throws IOException
+	{
+		File fileCheckpoint = new File(file.getPath() + CHECKPOINT_SUFFIX);
+		int skipEntries = 0;
+		String skipPath = null;
+		if (fileCheckpoint.exists())
+		{
+			String[] bits = Files.readString(fileCheckpoint.toPath()).trim().split("\t", 2);
+			skipEntries = Integer.parseInt(bits[0]);
+			skipPath = bits.length > 1 ? bits[1] : null;
+			Util.writeln("    resuming after entry " + skipEntries + " (" + skipPath + ")");
+		}
+	
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		int[] counts = new int[2]; // parsed, updated
+		int numEntries = 0;
+		boolean anyWritten = false, complete = false;
+		try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			List<String> batchPath = new ArrayList<>();
+			List<byte[]> batchData = new ArrayList<>();
+			for (ZipEntry ze = zip.getNextEntry(); ze != null; ze = zip.getNextEntry())
+			{
+				String path = ze.getName();
+				if (!path.endsWith(JSON_SUFFIX)) continue;
+				numEntries++;
+				if (numEntries < skipEntries) continue;
+				if (numEntries == skipEntries)
+				{
+					if (skipPath != null && !skipPath.equals(path))
+					{
+						Util.writeln("Checkpoint does not match the file: delete [" + fileCheckpoint + "] to start over.");
+						return;
+					}
+					continue;
+				}
+
+				batchPath.add(path);
+				batchData.add(zip.readAllBytes());
+				if (batchPath.size() < IMPORT_BATCH) continue;
+				
+				anyWritten = true;
+				if (!importBatch(pool, batchPath, batchData, augment, force, counts)) return;
+				writeCheckpoint(fileCheckpoint, numEntries, path);
+				Util.writeln(String.format("    imported %d entries...", numEntries));
+				batchPath.clear();
+				batchData.clear();
+			}
+			if (batchPath.size() > 0)
+			{
+				anyWritten = true;
+				if (!importBatch(pool, batchPath, batchData, augment, force, counts)) return;
+			}
+			complete = true;
+		}
+		finally
+		{
+			pool.shutdownNow();
+			if (anyWritten) store.assay().bulkComplete();
+		}
+		
+		if (complete) fileCheckpoint.delete();
+
+		Util.writeln("Import complete.");
+		Util.writeln("    Found assays: " + numEntries);
+		Util.writeln("    Parsed assays: " + counts[0]);
+		Util.writeln("    Updated assays: " + counts[1]);
+	}
+	
+	// parses, compares and writes a batch of assays; returns false if there was a problem with any of the entries, in which case
+	// nothing from the batch is written
+	private boolean importBatch(ExecutorService pool, List<String> batchPath, List<byte[]> batchData, 
+								boolean augment, boolean force, int[] counts) throws IOException
+	{
+		int sz = batchPath.size();
+		
+		List<Future<DataObject.Assay>> parsing = new ArrayList<>();
+		for (byte[] data : batchData) parsing.add(pool.submit(() -> 
+			AssayJSON.deserialiseAssay(new JSONObject(new JSONTokener(new InputStreamReader(new ByteArrayInputStream(data)))))));
+		DataObject.Assay[] assays = new DataObject.Assay[sz];
+		for (int n = 0; n < sz; n++)
+		{
+			try {assays[n] = parsing.get(n).get();}
+			catch (ExecutionException ex)
+			{
+				Util.writeln("File unparseable: " + batchPath.get(n));
+				ex.getCause().printStackTrace();
+				return false;
+			}
+			catch (InterruptedException ex) {throw new InterruptedIOException();}
+			if (assays[n] != null) counts[0]++;
+		}
+
+		// previous content for each uniqueID, fetched in one pass
+		String[] uniqueIDList = new String[sz];
+		for (int n = 0; n < sz; n++) if (assays[n] != null) uniqueIDList[n] = assays[n].uniqueID;
+		DataObject.Assay[] prevAssays = lookupPrevious(uniqueIDList);
+
+		// the same uniqueID can show up more than once, in which case the later one has to see the result of the earlier one, so
+		// the batch is split into runs that have no repeats
+		for (int start = 0, end; start < sz; start = end)
+		{
+			Set<String> seen = new HashSet<>();
+			for (end = start; end < sz; end++)
+			{
+				String uniqueID = uniqueIDList[end];
+				if (Util.notBlank(uniqueID) && !seen.add(uniqueID)) break;
+			}
+			if (start > 0) 
+			{
+				// anything after the first run needs a fresh look at the database
+				DataObject.Assay[] fresh = lookupPrevious(Arrays.copyOfRange(uniqueIDList, start, end));
+				System.arraycopy(fresh, 0, prevAssays, start, fresh.length);
+			}
+			
+			List<Future<Integer>> comparing = new ArrayList<>();
+			for (int n = start; n < end; n++)
+			{
+				DataObject.Assay assay = assays[n], prevAssay = prevAssays[n];
+				comparing.add(pool.submit(() -> assay == null ? 0 : compareAssay(assay, prevAssay, augment, force)));
+			}
+			List<DataObject.Assay> replaceList = new ArrayList<>(), amendList = new ArrayList<>();
+			for (int n = start; n < end; n++)
+			{
+				int action;
+				try {action = comparing.get(n - start).get();}
+				catch (ExecutionException ex) {throw new IOException(ex.getCause());}
+				catch (InterruptedException ex) {throw new InterruptedIOException();}
+				if (action == COMPARE_REPLACE) replaceList.add(assays[n]);
+				else if (action == COMPARE_AMEND) amendList.add(prevAssays[n]);
+			}
+			store.assay().bulkWriteAssays(replaceList, amendList);
+			counts[1] += replaceList.size() + amendList.size();
+		}
+		return true;
+	}
+	
+	// fetches the existing assays for each of the given uniqueIDs (null if blank or not found)
+	private DataObject.Assay[] lookupPrevious(String[] uniqueIDList)
+	{
+		List<String> present = new ArrayList<>();
+		for (String uniqueID : uniqueIDList) if (Util.notBlank(uniqueID)) present.add(uniqueID);
+		long[][] presentIDList = store.assay().assayIDFromUniqueID(present.toArray(new String[present.size()]));
+
+		long[] prevID = new long[uniqueIDList.length];
+		for (int n = 0, p = 0; n < uniqueIDList.length; n++) if (Util.notBlank(uniqueIDList[n]))
+		{
+			long[] idlist = presentIDList[p++];
+			if (idlist != null) prevID[n] = idlist[0];
+		}
+		return store.assay().getAssays(prevID);
+	}
+	
+	// the decision part of updateAssay, for bulk importing: either nothing, replace with the incoming assay, or amend the previous
+	// assay (which gets modified in place)
+	private static int compareAssay(DataObject.Assay assay, DataObject.Assay prevAssay, boolean augment, boolean force)
+	{
+		if (prevAssay == null)
+		{
+			assay.assayID = 0; // a new one will be assigned
+			return COMPARE_REPLACE;
+		}
+		if (!augment)
+		{
+			if (!force && assaysEquivalent(assay, prevAssay)) return COMPARE_NOTHING;
+			assay.assayID = prevAssay.assayID;
+			if (assay.curationTime == null) assay.curationTime = new Date();
+			return COMPARE_REPLACE;
+		}
+		return augmentAssay(prevAssay, assay) == null ? COMPARE_NOTHING : COMPARE_AMEND;
+	}
+	
+	// records the progress of a bulk import
+	private static void writeCheckpoint(File file, int numEntries, String path) throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		Files.writeString(tmp.toPath(), numEntries + "\t" + path + "\n");
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
 	// looks through the zip file for all uniqueIDs that are considered to be "curated"; anything not in this list needs gets marked
 	// as uncurated
 	private void exclusiveCurated(String[] options)
@@ -271,22 +473,25 @@ public class TransferCommands implements Main.ExecuteBase
 
 		long timeThen = new Date().getTime();
 		int numChanged = 0;
-		for (int n = 0; n < assayIDList.length; n++)
+		try (DataStore.WriteSession writes = store.beginSession())
 		{
-			long timeNow = new Date().getTime();
-			if (timeNow > timeThen + 1000)
-			{
-				Util.writeln("    progress: " + (n + 1) + "/" + assayIDList.length + ", changed: " + numChanged);
-				timeThen = timeNow;
-			}
-			DataObject.Assay assay = store.assay().getAssay(assayIDList[n]);
-			if (assay == null) continue;
-			
-			if (assay.isCurated && !valid.contains(assay.uniqueID))
+			for (int n = 0; n < assayIDList.length; n++)
 			{
-				Util.writeln("    marking uncurated: ID=" + assay.assayID + " / unique=" + assay.uniqueID);
-				store.assay().submitIsCurated(assayIDList[n], false);
-				numChanged++;
+				long timeNow = new Date().getTime();
+				if (timeNow > timeThen + 1000)
+				{
+					Util.writeln("    progress: " + (n + 1) + "/" + assayIDList.length + ", changed: " + numChanged);
+					timeThen = timeNow;
+				}
+				DataObject.Assay assay = store.assay().getAssay(assayIDList[n]);
+				if (assay == null) continue;
+				
+				if (assay.isCurated && !valid.contains(assay.uniqueID))
+				{
+					Util.writeln("    marking uncurated: ID=" + assay.assayID + " / unique=" + assay.uniqueID);
+					store.assay().submitIsCurated(assayIDList[n], false);
+					numChanged++;
+				}
 			}
 		}
 		
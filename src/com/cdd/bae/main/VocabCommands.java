@@ -41,6 +41,11 @@ public class VocabCommands implements Main.ExecuteBase
 
 	public void execute(String[] args) throws IOException
 	{
+		if (args.length > 0 && args[0].equals("index"))
+		{
+			indexVocab(ArrayUtils.remove(args, 0));
+			return;
+		}
 	/*
 		if (args.length == 0) {printHelp(); return;}
 		
@@ -69,6 +74,7 @@ public class VocabCommands implements Main.ExecuteBase
 		Util.writeln("        -o {output file}");
 		Util.writeln("    show {fn}: display a single vocabulary output file");
 		Util.writeln("    diff {f1} {f2} {schema}: display differences between schema-dump files f1 and f2; the file `schema` is the reference schema for both dumps.");
+		Util.writeln("    index {input} {output}: convert a vocabulary file to the indexed form, which loads without unpacking its trees");
 		
 		Util.writeln();
 		Util.writeln("e.g. bae vocab build -t /opt/bae/template/schema.json -s /opt/bae/ontology -o /opt/bae/vocab.dump");
@@ -76,6 +82,32 @@ public class VocabCommands implements Main.ExecuteBase
 	
 	// ------------ private methods ------------
 	
+	// rewrites a regular vocabulary file (gzipped or otherwise) in the indexed form: the schema vocabulary configuration can
+	// point to either kind
+	private void indexVocab(String[] options) throws IOException
+	{
+		if (options.length != 2) throw new IOException("Options: {input} {output}");
+		String infile = Util.expandFileHome(options[0]), outfile = Util.expandFileHome(options[1]);
+
+		Util.writeln("Reading " + infile);
+		SchemaVocab schvoc;
+		try (InputStream istr = new FileInputStream(infile))
+		{
+			InputStream input = infile.endsWith(".gz") ? new GZIPInputStream(istr) : istr;
+			schvoc = SchemaVocab.deserialise(input, new Schema[0]); // note: giving no schemata works for this purpose
+		}
+		int numTrees = 0;
+		for (SchemaVocab.StoredTree stored : schvoc.getTrees()) numTrees++;
+		Util.writeln("    # terms: " + schvoc.numTerms() + ", # trees: " + numTrees);
+
+		Util.writeln("Writing " + outfile);
+		try (OutputStream ostr = new FileOutputStream(outfile))
+		{
+			SchemaVocabIndex.write(schvoc, ostr);
+		}
+		Util.writeln("Done: " + new File(infile).length() + " bytes to " + new File(outfile).length() + " bytes");
+	}
+
 	/*
 	// downloads updates for schema vocabulary & templates, and compares them to the current content
 	private void updateSchema(String[] options) throws IOException
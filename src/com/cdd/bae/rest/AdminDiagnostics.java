@@ -0,0 +1,88 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.config.authentication.Authentication.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.tasks.*;
+import com.cdd.bae.util.*;
+
+import java.lang.management.*;
+
+import org.json.*;
+
+/*
+	AdminDiagnostics: runtime metrics for the server, i.e. latency histograms for the REST calls, background tasks and
+	database operations, cache hit rates, the state of the JVM, and what each of the scheduled tasks is up to
+
+	Parameters:
+		reset: (optional) if true, the metrics are started again from zero after being returned
+*/
+
+public class AdminDiagnostics extends RESTBaseServlet
+{
+	private static final long serialVersionUID = 1L;
+
+	// ------------ public methods ------------
+
+	@Override
+	protected boolean requireSession()
+	{
+		return true;
+	}
+
+	@Override
+	protected boolean hasPermission(Session session)
+	{
+		return session != null && session.isAdministrator();
+	}
+
+	@Override
+	protected JSONObject processRequest(JSONObject input, Session session) throws RESTException
+	{
+		JSONObject result = Metrics.toJSON();
+		result.put("runtime", describeRuntime());
+		result.put("tasks", TaskScheduler.main().toJSON());
+		if (input.optBoolean("reset", false)) Metrics.reset();
+		return result;
+	}
+
+	// diagnostics are particularly useful while the service is still starting up
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[0];
+	}
+
+	// ------------ private methods ------------
+
+	private static JSONObject describeRuntime()
+	{
+		Runtime rt = Runtime.getRuntime();
+		JSONObject json = new JSONObject();
+		json.put("uptimeSeconds", ManagementFactory.getRuntimeMXBean().getUptime() / 1000);
+		json.put("processors", rt.availableProcessors());
+		json.put("memoryMax", rt.maxMemory());
+		json.put("memoryTotal", rt.totalMemory());
+		json.put("memoryUsed", rt.totalMemory() - rt.freeMemory());
+		json.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+		json.put("systemLoad", ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage());
+		return json;
+	}
+}
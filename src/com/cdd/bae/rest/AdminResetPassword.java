@@ -20,6 +20,7 @@ package com.cdd.bae.rest;
 
 import com.cdd.bae.config.authentication.*;
 import com.cdd.bae.config.authentication.Authentication.*;
+import com.cdd.bae.data.*;
 
 import org.apache.http.*;
 import org.json.*;
@@ -68,4 +69,11 @@ public class AdminResetPassword extends RESTBaseServlet
 	{
 		return new String[]{"curatorID"};
 	}
+
+	// authentication only: nothing to wait for
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[0];
+	}
 }
@@ -61,6 +61,17 @@ public class ApplyHoldingBay extends RESTBaseServlet
 
 	@Override
 	protected JSONObject processRequest(JSONObject input, Session session) throws RESTException
+	{
+		// watermarks & notifications for all of the applied changes are sent once the batch is done
+		try (DataStore.WriteSession writes = Common.getDataStore().beginSession())
+		{
+			return applyRequest(input, session);
+		}
+	}
+
+	// ------------ private methods ------------
+
+	private JSONObject applyRequest(JSONObject input, Session session) throws RESTException
 	{
 		long[] applyList = input.optJSONArrayEmpty("applyList").toLongArray();
 		long[] deleteList = input.optJSONArrayEmpty("deleteList").toLongArray();
@@ -118,8 +129,6 @@ public class ApplyHoldingBay extends RESTBaseServlet
 		return result;
 	}
 
-	// ------------ private methods ------------
-
 //	// creates a holding bay entry that contains the assay as modified by the mapping list parameters; if nothing changed,
 //	// returns null
 //	private DataObject.Holding applyMapping(DataObject.Assay assay, JSONObject[] mappingList, Session session)
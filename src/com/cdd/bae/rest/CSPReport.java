@@ -19,6 +19,7 @@
 package com.cdd.bae.rest;
 
 import com.cdd.bae.config.authentication.Authentication.*;
+import com.cdd.bae.data.*;
 
 import org.json.*;
 
@@ -43,6 +44,13 @@ public class CSPReport extends RESTBaseServlet
 		return new JSONObject("{}");
 	}
 
+	// just logs the report, so there's no reason to turn it away during startup
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[0];
+	}
+
 	// ------------ private methods ------------
 
 }
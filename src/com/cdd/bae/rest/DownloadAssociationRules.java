@@ -49,6 +49,7 @@ public class DownloadAssociationRules extends RESTBaseServlet
 	@Override
 	protected void process(HttpServletRequest request, HttpServletResponse response, boolean isPost) throws IOException
 	{
+		response = ResponseEncoding.wrap(request, response);
 		try
 		{
 			int minSupport = Util.safeInt(request.getParameter("minSupport"), 5);
@@ -90,6 +90,13 @@ public class FindIdentifier extends RESTBaseServlet
 		return result;
 	}
 
+	// identifier lookups only need the configuration & database
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[0];
+	}
+
 	// ------------ private methods ------------
 
 	private String[] splitID(String id)
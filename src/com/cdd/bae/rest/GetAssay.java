@@ -74,6 +74,16 @@ public class GetAssay extends RESTBaseServlet
 		return result;
 	}
 
+	// the assay content (whose labels can come from provisional terms), the holding bay entries and curator names that go with it,
+	// plus the optional extras
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		if (input.optBoolean("countCompounds", false))
+			return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG, Dependency.PROVISIONAL, Dependency.HOLDING, Dependency.USER, Dependency.MEASURE};
+		return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG, Dependency.PROVISIONAL, Dependency.HOLDING, Dependency.USER};
+	}
+
 	@Override
 	protected JSONSchemaValidator getSchemaValidator()
 	{
@@ -76,4 +76,11 @@ public class GetIdentifiers extends RESTBaseServlet
 	{
 		response.setHeader("Cache-Control", "public, max-age=31536000");
 	}
+
+	// available before the ontology etc. have finished loading
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[0];
+	}
 }
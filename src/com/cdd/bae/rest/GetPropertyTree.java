@@ -54,6 +54,13 @@ public class GetPropertyTree extends RESTBaseServlet
 		return new JSONObject().put("tree", buildTree(par.schema, par.assn, par.applicable));
 	}
 
+	// the tree comes from the schema & vocabulary, adorned with provisional terms and the availability of models
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		return new Dependency[]{Dependency.CONFIG, Dependency.PROVISIONAL, Dependency.MODEL, Dependency.NLP};
+	}
+
 	// ------------ private methods ------------
 	
 	// builds the tree, then serialises it to JSON
@@ -0,0 +1,51 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import java.util.*;
+
+import javax.servlet.http.*;
+
+/*
+	Copy of the headers that have been set on a response so far. Resetting the response is the only way to take back a header
+	once it has been set (e.g. Content-Encoding, when an error has to be sent instead of the content), but that also loses the
+	ones that still apply, such as those added by filters or by the content negotiation: these can be put back afterwards.
+*/
+
+public class HeaderSnapshot
+{
+	private final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+	// ------------ public methods ------------
+
+	public HeaderSnapshot(HttpServletResponse response)
+	{
+		for (String name : response.getHeaderNames()) headers.computeIfAbsent(name, k -> new ArrayList<>(response.getHeaders(name)));
+	}
+
+	// clears the response (which must not be committed yet), then restores the headers as they were when the snapshot was taken
+	public void reset(HttpServletResponse response)
+	{
+		response.reset();
+		for (Map.Entry<String, List<String>> entry : headers.entrySet())
+		{
+			for (String value : entry.getValue()) response.addHeader(entry.getKey(), value);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import java.io.*;
+import java.util.*;
+
+import org.json.*;
+
+/*
+	Writes compact JSON incrementally, so that a large response can be sent as it is generated rather than being built up
+	as one big tree first. Objects and arrays are opened and closed explicitly, and values can be anything that JSONObject
+	would accept, including whole JSONObject/JSONArray instances for the individual items.
+
+	Usage, for an array of results:
+
+		out.beginArray();
+		for (...) out.value(json);
+		out.endArray();
+*/
+
+public class JSONStream implements Closeable, Flushable
+{
+	private final Writer wtr;
+	private final Deque<Boolean> isObject = new ArrayDeque<>(); // nesting: true for objects, false for arrays
+	private boolean needComma = false, afterKey = false;
+
+	// ------------ public methods ------------
+
+	public JSONStream(Writer wtr)
+	{
+		this.wtr = wtr;
+	}
+
+	public JSONStream beginObject() throws IOException
+	{
+		prefix();
+		wtr.write('{');
+		isObject.push(true);
+		needComma = false;
+		return this;
+	}
+
+	public JSONStream endObject() throws IOException
+	{
+		if (isObject.isEmpty() || !isObject.peek() || afterKey) throw new IllegalStateException("Not in an object");
+		isObject.pop();
+		wtr.write('}');
+		needComma = true;
+		return this;
+	}
+
+	public JSONStream beginArray() throws IOException
+	{
+		prefix();
+		wtr.write('[');
+		isObject.push(false);
+		needComma = false;
+		return this;
+	}
+
+	public JSONStream endArray() throws IOException
+	{
+		if (isObject.isEmpty() || isObject.peek()) throw new IllegalStateException("Not in an array");
+		isObject.pop();
+		wtr.write(']');
+		needComma = true;
+		return this;
+	}
+
+	// the name of the next field: must be within an object, and followed by a value, object or array
+	public JSONStream key(String key) throws IOException
+	{
+		if (isObject.isEmpty() || !isObject.peek() || afterKey) throw new IllegalStateException("Key not expected");
+		if (needComma) wtr.write(',');
+		wtr.write(JSONObject.quote(key));
+		wtr.write(':');
+		afterKey = true;
+		return this;
+	}
+
+	public JSONStream value(Object value) throws IOException
+	{
+		prefix();
+		if (value instanceof JSONObject)
+			((JSONObject)value).write(wtr);
+		else if (value instanceof JSONArray)
+			((JSONArray)value).write(wtr);
+		else
+			wtr.write(JSONObject.valueToString(value));
+		needComma = true;
+		return this;
+	}
+
+	// shorthand for key & value
+	public JSONStream field(String key, Object value) throws IOException
+	{
+		return key(key).value(value);
+	}
+
+	// true if everything that was opened has been closed
+	public boolean isComplete()
+	{
+		return isObject.isEmpty() && !afterKey;
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		wtr.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		wtr.close();
+	}
+
+	// ------------ private methods ------------
+
+	// separator that goes before a value, depending on context
+	private void prefix() throws IOException
+	{
+		if (afterKey)
+		{
+			afterKey = false;
+			return;
+		}
+		if (!isObject.isEmpty() && isObject.peek()) throw new IllegalStateException("Value within object requires a key");
+		if (needComma) wtr.write(',');
+	}
+}
@@ -148,6 +148,26 @@ public class KeywordMatch extends RESTBaseServlet
 		return new JSONObject().put(RETURN_JSONARRAY, results);
 	}
 
+	// matches against the schema trees, and optionally restricts to terms in use by the curated assays
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG, Dependency.PROVISIONAL};
+	}
+
+	@Override
+	protected boolean coalesceRequests()
+	{
+		return true;
+	}
+
+	// goes through the whole schema tree for each assignment
+	@Override
+	protected boolean useWorkerPool()
+	{
+		return true;
+	}
+
 	// ------------ private methods ------------
 	
 	protected static void searchByPropURI(List<Proposal> proposals, String keywords, Schema schema)
@@ -112,6 +112,13 @@ public class ListCompounds extends RESTBaseServlet
 	}
 
 	
+	// assays with many measurements are slow to gather up
+	@Override
+	protected boolean useWorkerPool()
+	{
+		return true;
+	}
+
 	// ------------ private methods ------------
 
 	// obtain unique list of compounds per assay, returning the identifiers
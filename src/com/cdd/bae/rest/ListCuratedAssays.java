@@ -95,6 +95,16 @@ public class ListCuratedAssays extends RESTBaseServlet
 		return result;
 	}
 
+	// the selection criteria are applied to assays using the schemas
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		// out-of-schema terms and FAIRness are judged against the trees, which include provisional terms
+		if (input.optString("anomaly").equals("outschema") || input.optBoolean("withFAIRness", false))
+			return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG, Dependency.PROVISIONAL};
+		return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG};
+	}
+
 	// ------------ private methods ------------
 
 	// goes through all the assays and limits to just those with missing assignments
@@ -37,6 +37,8 @@ import com.cdd.bao.util.*;
 		query: string
 		caseSensitive: (default = false)
 		maxResults: (default = 100)
+		
+	Matches are ordered best first: see OntologyIndex.
 */
 
 public class OntologySearch extends RESTBaseServlet 
@@ -58,10 +60,8 @@ public class OntologySearch extends RESTBaseServlet
 		boolean caseSensitive = input.optBoolean("caseSensitive", false);
 		int maxResults = input.optInt("maxResults", 100);
 		
-		if (!caseSensitive) query = query.toLowerCase();
-		
-		List<OntologyTree.Branch> matchList = new ArrayList<>();
-		for (var root : onto.getRoots()) collectMatches(matchList, root, query, caseSensitive, maxResults, onto);
+		// the index ranks the results by match quality, best first
+		List<OntologyTree.Branch> matchList = onto.getIndex().search(query, caseSensitive, maxResults);
 		
 		var jsonMatches = new JSONArray();
 		for (var branch : matchList)
@@ -78,28 +78,6 @@ public class OntologySearch extends RESTBaseServlet
 
 		return new JSONObject().put("matches", jsonMatches);
 	}
-
-	// ------------ private methods ------------
-	
-	private void collectMatches(List<OntologyTree.Branch> matchList, OntologyTree.Branch branch, String query, boolean caseSensitive, int maxResults, OntologyTree onto)
-	{
-		if (matchList.size() >= maxResults) return;
-		
-		boolean matched = false;
-		matched = (caseSensitive ? branch.label : branch.label.toLowerCase()).contains(query);
-		matched = matched || (caseSensitive ? branch.uri : branch.uri.toLowerCase()).contains(query);
-		
-		if (!matched)
-		{
-			var altLabels = onto.getAltLabels(query);
-			if (altLabels != null) for (String label : altLabels)
-				matched = matched || (caseSensitive ? label : label.toLowerCase()).contains(query);
-		}
-			
-		if (matched) matchList.add(branch);
-		
-		for (var child : branch.children) collectMatches(matchList, child, query, caseSensitive, maxResults, onto);
-	}
 }
 
 
@@ -80,6 +80,7 @@ public class RDF extends RESTBaseServlet
 	@Override
 	protected void process(HttpServletRequest request, HttpServletResponse response, boolean isPost) throws IOException
 	{
+		response = ResponseEncoding.wrap(request, response);
 		try
 		{
 			LoginSupport login = new LoginSupport(request);
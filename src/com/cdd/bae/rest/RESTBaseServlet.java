@@ -20,10 +20,13 @@ package com.cdd.bae.rest;
 
 import com.cdd.bae.config.authentication.Authentication.*;
 import com.cdd.bae.data.*;
+import com.cdd.bae.tasks.*;
 import com.cdd.bae.util.*;
 import com.cdd.bao.util.*;
 
 import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
 import java.util.*;
 
 import javax.servlet.*;
@@ -46,6 +49,22 @@ import org.json.*;
 	or override validateParameter with a more thorough validation process.
 
 	If additional processing of the response is required, override processResponse.
+
+	Services whose output is a pure function of the input parameters and the state of the data can override getDependencies
+	to declare which watermarks they rely on: the response is then given a strong ETag that is derived from those watermarks
+	and the parameters, conditional requests are answered with 304 Not Modified without doing any work, and if the
+	"responseCache" section is configured, the serialized bytes are kept in memory so that repeat requests from other clients
+	don't need to be recomputed either. The older getETag method is still honoured for services that don't declare any.
+
+	Services that can take a long time (searching, suggestions, etc.) override useWorkerPool, so that their requests are
+	processed asynchronously on a bounded pool of their own rather than on the container's threads: see WorkerPool. Those
+	that also declare their dependencies can override coalesceRequests, so that identical requests arriving together are
+	computed just once.
+
+	While the service is starting up, some of the heavier resources are still being loaded in the background (see
+	Common.Resource): services that need any of those get a 503 with Retry-After until they are ready. By default that
+	means the ontology and provisional terms, since almost everything uses schema trees; services that need more (NLP
+	models) or less (just the database) override getRequiredResources.
 */
 
 public abstract class RESTBaseServlet extends HttpServlet
@@ -53,6 +72,7 @@ public abstract class RESTBaseServlet extends HttpServlet
 	private static final long serialVersionUID = 1L;
 
 	public static final String RETURN_JSONARRAY = "returnJsonArray";
+	private static final int NOT_READY_RETRY = 5; // seconds to suggest waiting before retrying, when resources are still loading
 
 	public enum Status
 	{
@@ -111,6 +131,38 @@ public abstract class RESTBaseServlet extends HttpServlet
 		}
 	}
 
+	// the kinds of data that a response can be derived from, each of which has a counter that moves whenever the content changes
+	public enum Dependency
+	{
+		ASSAY, // assay content & annotations
+		NLP, // NLP fingerprints
+		MODEL, // NLP-based models
+		CORR, // correlation models
+		COMPOUND, // compound structures
+		MEASURE, // measurements
+		PROVISIONAL, // provisional terms
+		HOLDING, // holding bay entries
+		USER, // curator names & emails
+		CONFIG; // templates, vocabulary and other configuration
+
+		public long watermark(DataStore store)
+		{
+			switch (this)
+			{
+				case ASSAY: return store.assay().getWatermark();
+				case NLP: return store.nlp().getWatermark();
+				case MODEL: return store.model().getWatermarkNLP();
+				case CORR: return store.model().getWatermarkCorr();
+				case COMPOUND: return store.compound().getWatermarkCompound();
+				case MEASURE: return store.measure().getWatermarkMeasure();
+				case PROVISIONAL: return store.provisional().getWatermark();
+				case HOLDING: return store.holding().getWatermark();
+				case USER: return store.user().getWatermark();
+				default: return Common.getConfigStamp();
+			}
+		}
+	}
+
 	protected Logger logger = null;
 
 	// ------------ abstract methods ------------
@@ -118,6 +170,39 @@ public abstract class RESTBaseServlet extends HttpServlet
 	// process the JSON input and returns JSON output
 	protected abstract JSONObject processRequest(JSONObject input, Session session) throws RESTException;
 
+	// servlets that generate very large content can opt in to writing it incrementally, by returning true and overriding
+	// streamRequest rather than building the whole result first
+	protected boolean isStreaming(JSONObject input)
+	{
+		return false;
+	}
+
+	// writes out the result as it goes: by default it is just the regular result, in one piece
+	protected void streamRequest(JSONObject input, Session session, JSONStream out) throws RESTException, IOException
+	{
+		JSONObject result = processRequest(input, session);
+		out.value(result.has(RETURN_JSONARRAY) ? result.getJSONArray(RETURN_JSONARRAY) : result);
+	}
+
+	// services that are expensive and likely to be asked the same thing by several users at once can return true, so that
+	// identical concurrent requests share a single computation (see SingleFlight); only applies if getDependencies is defined
+	protected boolean coalesceRequests()
+	{
+		return false;
+	}
+
+	// slow services return true to have their requests handled by a WorkerPool, so that they don't hold up everything else
+	protected boolean useWorkerPool()
+	{
+		return false;
+	}
+
+	// the resources that have to be loaded before a request can be handled: until then, clients are told to come back later
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[]{Common.Resource.ONTOLOGY, Common.Resource.PROVISIONAL};
+	}
+
 	// ------------ implementation methods ------------
 
 	@Override
@@ -130,13 +215,19 @@ public abstract class RESTBaseServlet extends HttpServlet
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException
 	{
-		process(request, response, false);
+		if (useWorkerPool() && request.isAsyncSupported())
+			WorkerPool.forEndpoint(getClass().getSimpleName()).dispatch(request, response, (req, resp) -> process(req, resp, false));
+		else
+			process(request, response, false);
 	}
 
 	@Override
 	public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException
 	{
-		process(request, response, true);
+		if (useWorkerPool() && request.isAsyncSupported())
+			WorkerPool.forEndpoint(getClass().getSimpleName()).dispatch(request, response, (req, resp) -> process(req, resp, true));
+		else
+			process(request, response, true);
 	}
 
 	protected void process(HttpServletRequest request, HttpServletResponse response, boolean isPost) throws IOException
@@ -146,6 +237,13 @@ public abstract class RESTBaseServlet extends HttpServlet
 			JSON (POST and GET parameter are added to the JSON object POST and GET: an empty JSON
 			object is created and POST and GET parameter added as fields
 		*/
+		long timeStart = System.nanoTime();
+		if (!Common.isReady(getRequiredResources()))
+		{
+			prepareNotReadyResponse(response);
+			return;
+		}
+		response = ResponseEncoding.wrap(request, response);
 		try
 		{
 			if (isNotModified(request, response)) return;
@@ -159,19 +257,56 @@ public abstract class RESTBaseServlet extends HttpServlet
 			// do the actual work
 			Session session = null;
 			if (requireSession()) session = getSession(request);
+			boolean permitted = hasPermission(session);
+
+			// if the content is defined by watermarks, the client may already have it (in the representation that it would get
+			// now, i.e. compressed or not), or it may be in the cache
+			String etag = permitted ? makeETag(input, session) : null;
+			String matched = etag == null ? null : matchETag(request.getHeader("If-None-Match"), etag, ResponseEncoding.select(response, -1));
+			if (matched != null)
+			{
+				response.setHeader("ETag", matched);
+				response.setStatus(RESTException.HTTPStatus.NOT_MODIFIED.code());
+				Metrics.counter("rest.notModified").increment();
+				return;
+			}
+			if (permitted && isStreaming(input))
+			{
+				streamResponse(response, input, session, etag);
+				return;
+			}
+			ResponseCache cache = etag == null ? null : ResponseCache.main();
+			byte[] content = cache == null ? null : cache.get(etag);
+
+			if (content == null && etag == null)
+			{
+				JSONObject result;
+				if (permitted)
+					result = processRequest(input, session);
+				else
+					result = statusResponse(false, Status.NOLOGIN);
+
+				// use the processResponse for servlet specific customization (needs to happen before we write to response)
+				processResponse(response);
+				setETag(response);
+
+				// and return the result in the response
+				prepareJSONResponse(response, result);
+				return;
+			}
+			if (content == null)
+			{
+				// (having an etag implies permission)
+				final Session sessionFinal = session;
+				SingleFlight.Computation computation = () -> formatJSON(processRequest(input, sessionFinal)).getBytes(StandardCharsets.UTF_8);
+				content = coalesceRequests() ? SingleFlight.main().get(etag, computation) : computation.compute();
+				if (cache != null) cache.put(etag, content);
+			}
 
-			JSONObject result;
-			if (hasPermission(session))
-				result = processRequest(input, session);
-			else
-				result = statusResponse(false, Status.NOLOGIN);
-
-			// use the processResponse for servlet specific customization (needs to happen before we write to response)
 			processResponse(response);
-			setETag(response);
-
-			// and return the result in the response
-			prepareJSONResponse(response, result);
+			response.setHeader("ETag", ResponseEncoding.variantETag(etag, ResponseEncoding.select(response, content.length)));
+			prepareResponse(response, content, ContentType.JSON, null);
+			response.setStatus(RESTException.HTTPStatus.OK.code());
 		}
 		catch (RESTException e)
 		{
@@ -181,6 +316,11 @@ public abstract class RESTBaseServlet extends HttpServlet
 		{
 			prepareErrorResponse(request, response, new RESTException(e, "Unexpected error occured", RESTException.HTTPStatus.INTERNAL_SERVER_ERROR));
 		}
+		finally
+		{
+			long micros = Metrics.timer("rest." + getClass().getSimpleName()).since(timeStart);
+			Metrics.timer(TaskScheduler.LATENCY_TIMER).record(micros);
+		}
 	}
 
 	// minimum implementation for parameter validation using the list of required parameters
@@ -262,6 +402,53 @@ public abstract class RESTBaseServlet extends HttpServlet
 		return null;
 	}
 
+	// override to declare the data that the response is derived from, given the input parameters; the response must not depend
+	// on anything else other than the session (if required), otherwise clients could be told that stale content is current
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		return null;
+	}
+
+	// strong ETag made from the servlet, the current watermarks for its dependencies, the session and the input parameters;
+	// returns null if the servlet doesn't declare dependencies
+	protected String makeETag(JSONObject input, Session session)
+	{
+		Dependency[] deps = getDependencies(input);
+		DataStore store = Common.getDataStore();
+		if (deps == null || store == null) return null;
+
+		StringBuilder buff = new StringBuilder(getClass().getName());
+		for (Dependency dep : deps) buff.append('\n').append(dep).append('=').append(dep.watermark(store));
+		if (requireSession()) buff.append('\n').append(session == null ? "" : session.curatorID + ":" + session.status);
+		for (String key : new TreeSet<>(input.keySet())) buff.append('\n').append(key).append('=').append(input.get(key));
+
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(buff.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder("\"");
+			for (byte b : digest) hex.append(String.format("%02x", b & 0xFF));
+			return hex.append('"').toString();
+		}
+		catch (NoSuchAlgorithmException ex) {throw new IllegalStateException(ex);} // SHA-1 is always available
+	}
+
+	// checks an If-None-Match header (which may be a list, a wildcard, or flagged as weak) against the current ETag: the client
+	// has it already if it holds either the uncompressed content, or the variant for the encoding that would be used now; returns
+	// the tag that matched, or null
+	protected static String matchETag(String header, String etag, String encoding)
+	{
+		if (header == null) return null;
+		String variant = ResponseEncoding.variantETag(etag, encoding);
+		for (String tag : header.split(","))
+		{
+			tag = tag.trim();
+			if (tag.startsWith("W/")) tag = tag.substring(2);
+			if (tag.equals(variant) || tag.equals("*")) return variant;
+			if (tag.equals(etag)) return etag;
+		}
+		return null;
+	}
+
 	// required for testing
 	Session getSession(HttpServletRequest request)
 	{
@@ -297,12 +484,7 @@ public abstract class RESTBaseServlet extends HttpServlet
 	{
 		try
 		{
-			String content;
-			if (result.has(RETURN_JSONARRAY))
-				content = result.getJSONArray(RETURN_JSONARRAY).toString();
-			else
-				content = result.toString();
-			prepareResponse(response, content, ContentType.JSON);
+			prepareResponse(response, formatJSON(result), ContentType.JSON);
 			response.setStatus(RESTException.HTTPStatus.OK.code());
 		}
 		catch (Exception e)
@@ -318,13 +500,24 @@ public abstract class RESTBaseServlet extends HttpServlet
 
 	protected void prepareResponse(HttpServletResponse response, String content, 
 			ContentType contentType, String filename) throws IOException
+	{
+		prepareResponse(response, content.getBytes(Util.UTF8), contentType, filename);
+	}
+
+	protected void prepareResponse(HttpServletResponse response, byte[] bytes, 
+			ContentType contentType, String filename) throws IOException
 	{
 		response.setContentType(contentType.toString());
 		response.setCharacterEncoding(Util.UTF8);
 		if (filename != null) 
 			response.setHeader("Content-Disposition", "attachment;filename=\"" + filename + "\"");
 
-		byte[] bytes = content.getBytes(Util.UTF8);
+		String encoding = ResponseEncoding.select(response, bytes.length);
+		if (encoding != null)
+		{
+			bytes = ResponseEncoding.compress(bytes, encoding);
+			response.setHeader("Content-Encoding", encoding);
+		}
 		response.setContentLength(bytes.length);
 		try
 		{
@@ -339,6 +532,61 @@ public abstract class RESTBaseServlet extends HttpServlet
 		}
 	}
 
+	// writes the content from a streaming servlet directly to the response, compressed if applicable; errors can only be reported
+	// properly if nothing has been sent yet, otherwise the connection is cut off, which the client will see as truncated
+	protected void streamResponse(HttpServletResponse response, JSONObject input, Session session, String etag) throws RESTException, IOException
+	{
+		processResponse(response);
+		HeaderSnapshot headers = new HeaderSnapshot(response);
+		String encoding = ResponseEncoding.select(response, -1);
+		if (etag != null) response.setHeader("ETag", ResponseEncoding.variantETag(etag, encoding));
+		if (encoding != null) response.setHeader("Content-Encoding", encoding);
+		response.setContentType(ContentType.JSON.toString());
+		response.setCharacterEncoding(Util.UTF8);
+		response.setStatus(RESTException.HTTPStatus.OK.code());
+
+		JSONStream out = new JSONStream(new BufferedWriter(new OutputStreamWriter(
+						ResponseEncoding.open(response.getOutputStream(), encoding), StandardCharsets.UTF_8), 16384));
+		try
+		{
+			streamRequest(input, session, out);
+			if (!out.isComplete()) throw new RESTException("Incomplete JSON stream", RESTException.HTTPStatus.INTERNAL_SERVER_ERROR);
+			out.close();
+		}
+		catch (RESTException | RuntimeException ex)
+		{
+			if (response.isCommitted())
+			{
+				logger.error("Streamed response aborted", ex);
+				return;
+			}
+			headers.reset(response); // the error goes out without the ETag & encoding, but keeps everything else
+			throw ex;
+		}
+		catch (IOException ex)
+		{
+			if (!ex.getClass().getSimpleName().equals("ClientAbortException")) throw ex;
+			/* ignore this exception; user migrated away from page and result is no longer required */
+		}
+	}
+
+	// the JSON content as it is to be sent back
+	protected static String formatJSON(JSONObject result)
+	{
+		if (result.has(RETURN_JSONARRAY)) return result.getJSONArray(RETURN_JSONARRAY).toString();
+		return result.toString();
+	}
+
+	// the service is still starting up: this is routine, so it isn't logged as an error
+	protected void prepareNotReadyResponse(HttpServletResponse response) throws IOException
+	{
+		Metrics.counter("rest.notReady").increment();
+		response.setStatus(RESTException.HTTPStatus.SERVICE_UNAVAILABLE.code());
+		response.setHeader("Retry-After", String.valueOf(NOT_READY_RETRY));
+		var ex = new RESTException("Service is starting up, please try again shortly", RESTException.HTTPStatus.SERVICE_UNAVAILABLE);
+		prepareResponse(response, ex.toJSON().toString(), ContentType.JSON);
+	}
+
 	protected void prepareErrorResponse(HttpServletRequest request, HttpServletResponse response, RESTException e) throws IOException
 	{
 		logger.error("URL causing exception : {}", request.getRequestURL());
@@ -36,7 +36,8 @@ public class RESTException extends Exception
 		BAD_REQUEST(400), 
 		UNAUTHORIZED(401), 
 		FORBIDDEN(403),
-		INTERNAL_SERVER_ERROR(500);
+		INTERNAL_SERVER_ERROR(500),
+		SERVICE_UNAVAILABLE(503);
 		
 		private final int code;
 
@@ -0,0 +1,108 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
+
+import java.util.*;
+
+/*
+	In-memory cache of serialized REST responses, keyed by their ETag. Since the ETag is derived from the watermarks that the
+	content depends on, entries never need to be invalidated: once the data changes they are simply no longer asked for, and
+	get pushed out by the least recently used entries as the total size goes over the limit.
+
+	If the "responseCache" section is not configured, there is no cache, and responses are computed every time.
+*/
+
+public class ResponseCache
+{
+	private static ResponseCache main = null;
+	private static final Object mutex = new Object();
+
+	private final long maxBytes;
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true); // in access order
+	private long totalBytes = 0;
+
+	static
+	{
+		Metrics.gauge("responseCache.bytes", () ->
+		{
+			synchronized (mutex) {return main == null ? 0 : main.totalBytes();}
+		});
+	}
+
+	// ------------ public methods ------------
+
+	public ResponseCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	// returns the cache as defined by the current configuration, or null if there isn't one
+	public static ResponseCache main()
+	{
+		InitParams params = Common.getParams();
+		InitParams.ResponseCache config = params == null ? null : params.responseCache;
+		synchronized (mutex)
+		{
+			if (config == null || config.maxSize <= 0)
+				main = null;
+			else if (main == null || main.maxBytes != config.maxSize * 1024L * 1024)
+				main = new ResponseCache(config.maxSize * 1024L * 1024);
+			return main;
+		}
+	}
+
+	// returns the content for the key, or null if it isn't (or is no longer) cached
+	public synchronized byte[] get(String key)
+	{
+		byte[] content = entries.get(key);
+		Metrics.cache("response").record(content != null);
+		return content;
+	}
+
+	// adds content to the cache, dropping the least recently used entries if it has become too big; content that is a large
+	// fraction of the whole cache is not kept, since it would just push out everything else
+	public synchronized void put(String key, byte[] content)
+	{
+		if (content.length > maxBytes / 4) return;
+
+		byte[] previous = entries.put(key, content);
+		if (previous != null) totalBytes -= previous.length;
+		totalBytes += content.length;
+
+		for (Iterator<byte[]> it = entries.values().iterator(); totalBytes > maxBytes && it.hasNext();)
+		{
+			totalBytes -= it.next().length;
+			it.remove();
+		}
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	public synchronized int size() {return entries.size();}
+	public synchronized long totalBytes() {return totalBytes;}
+	public long getMaxBytes() {return maxBytes;}
+}
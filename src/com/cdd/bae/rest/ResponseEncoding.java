@@ -0,0 +1,127 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import java.io.*;
+import java.util.zip.*;
+
+import javax.servlet.http.*;
+
+/*
+	Negotiation of compressed responses: the Accept-Encoding header from the client is examined once, and the response is
+	wrapped so that the choice travels with it to wherever the content is written. Gzip is preferred over deflate when the
+	client is equally happy with either; content that is too small to benefit is sent as-is.
+
+	Since the compressed bytes are a different representation, strong ETags are given a suffix when compression applies;
+	a conditional request matches either the plain tag or the one for the encoding that would be used for it now.
+*/
+
+public class ResponseEncoding
+{
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+	public static final int MIN_SIZE = 1024; // anything smaller than this isn't worth compressing
+
+	// response that knows which encoding the client asked for
+	private static final class Encoded extends HttpServletResponseWrapper
+	{
+		final String encoding;
+
+		Encoded(HttpServletResponse response, String encoding)
+		{
+			super(response);
+			this.encoding = encoding;
+		}
+	}
+
+	// ------------ public methods ------------
+
+	private ResponseEncoding()
+	{
+	}
+
+	// returns the response, wrapped if the client accepts compressed content
+	public static HttpServletResponse wrap(HttpServletRequest request, HttpServletResponse response)
+	{
+		if (response instanceof Encoded) return response;
+		String encoding = negotiate(request.getHeader("Accept-Encoding"));
+		if (encoding == null) return response;
+		response.setHeader("Vary", "Accept-Encoding");
+		return new Encoded(response, encoding);
+	}
+
+	// picks the preferred supported encoding from an Accept-Encoding header, or null if none
+	public static String negotiate(String header)
+	{
+		if (header == null) return null;
+		String best = null;
+		double bestQ = 0;
+		for (String part : header.split(","))
+		{
+			String[] bits = part.trim().split(";");
+			String coding = bits[0].trim().toLowerCase();
+			double q = 1;
+			for (int n = 1; n < bits.length; n++)
+			{
+				String param = bits[n].trim();
+				if (!param.startsWith("q=")) continue;
+				try {q = Double.parseDouble(param.substring(2));}
+				catch (NumberFormatException ex) {q = 0;}
+			}
+
+			if (coding.equals("x-gzip") || coding.equals("*")) coding = GZIP;
+			if (!coding.equals(GZIP) && !coding.equals(DEFLATE)) continue;
+			if (q > bestQ || (q == bestQ && q > 0 && coding.equals(GZIP))) {best = coding; bestQ = q;}
+		}
+		return bestQ > 0 ? best : null;
+	}
+
+	// the encoding to use for content of the given size (or -1 if unknown, i.e. streamed), or null if it goes out as-is
+	public static String select(HttpServletResponse response, long size)
+	{
+		if (!(response instanceof Encoded)) return null;
+		if (size >= 0 && size < MIN_SIZE) return null;
+		return ((Encoded)response).encoding;
+	}
+
+	public static byte[] compress(byte[] bytes, String encoding) throws IOException
+	{
+		ByteArrayOutputStream buff = new ByteArrayOutputStream(bytes.length / 4 + 64);
+		try (OutputStream ostr = open(buff, encoding))
+		{
+			ostr.write(bytes);
+		}
+		return buff.toByteArray();
+	}
+
+	// wraps the stream so that whatever is written is compressed (null encoding = no change); closing it finishes the encoding
+	public static OutputStream open(OutputStream ostr, String encoding) throws IOException
+	{
+		if (GZIP.equals(encoding)) return new GZIPOutputStream(ostr, 8192);
+		if (DEFLATE.equals(encoding)) return new DeflaterOutputStream(ostr, new Deflater(), 8192);
+		return ostr;
+	}
+
+	// strong ETag for the encoded representation, e.g. "abc" becomes "abc-gzip"
+	public static String variantETag(String etag, String encoding)
+	{
+		if (encoding == null || etag == null || !etag.endsWith("\"")) return etag;
+		return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+	}
+}
@@ -103,6 +103,13 @@ public class SchemaBranch extends RESTBaseServlet
 		return new JSONObject().put("trees", jsonResults);	
 	}
 
+	// branches are composed from the vocabulary, including any provisional terms
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		return new Dependency[]{Dependency.CONFIG, Dependency.PROVISIONAL};
+	}
+
 	// ------------ private methods ------------
 	
 	// internal functionality for building up a partial branch of a tree section, based on requested parameters
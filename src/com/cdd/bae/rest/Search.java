@@ -136,6 +136,29 @@ public class Search extends RESTBaseServlet
 		return results;
 	}
 
+	// scores against the assays and their schemas (the results include holding bay entries and curator names), with the option
+	// of counting compounds too
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		if (input.optBoolean("countCompounds", false))
+			return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG, Dependency.PROVISIONAL, Dependency.HOLDING, Dependency.USER, Dependency.MEASURE};
+		return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG, Dependency.PROVISIONAL, Dependency.HOLDING, Dependency.USER};
+	}
+
+	@Override
+	protected boolean coalesceRequests()
+	{
+		return true;
+	}
+
+	// scores every assay, so it has its own pool of workers
+	@Override
+	protected boolean useWorkerPool()
+	{
+		return true;
+	}
+
 	// ------------ private methods ------------
 
 	private Result[] performComparisons(long[] assayIDList, DataObject.Annotation[] search, double threshold, DataStore store)
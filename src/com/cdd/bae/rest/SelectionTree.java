@@ -98,6 +98,25 @@ public class SelectionTree extends RESTBaseServlet
 		return layers;
 	}
 
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		return new Dependency[]{Dependency.ASSAY, Dependency.CONFIG, Dependency.PROVISIONAL};
+	}
+
+	@Override
+	protected boolean coalesceRequests()
+	{
+		return true;
+	}
+
+	// tallies all of the assays, which is slow when there are a lot of them
+	@Override
+	protected boolean useWorkerPool()
+	{
+		return true;
+	}
+
 	// ------------ private methods ------------
 
 	private JSONArray formatNodeResults(WinnowTree.NodeResult[] nodes)
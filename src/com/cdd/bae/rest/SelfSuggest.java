@@ -85,6 +85,13 @@ public class SelfSuggest extends RESTBaseServlet
 		return new JSONObject().put(RETURN_JSONARRAY, results);
 	}
 	
+	// the suggestions draw on the NLP models
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[]{Common.Resource.ONTOLOGY, Common.Resource.PROVISIONAL, Common.Resource.NLP};
+	}
+
 	// ------------ private methods ------------
 
 	// make self-suggestions for one assay, for which there should be 1-or-more assignments; the result(s) are
@@ -0,0 +1,189 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+	Coalesces identical requests: when several arrive for the same key while the first one is still being computed, they
+	wait for it to finish and share its result rather than each doing the same work. The result is then held onto for a
+	few seconds, which covers the common case of a group of users all looking at the same thing at about the same time. The
+	time is taken from the "responseCache" configuration section: if there is none, results are shared only while they are
+	in progress.
+
+	Keys are the ETags made by RESTBaseServlet, which fold in the parameters and watermarks, so a result is never shared
+	once the underlying data has changed. Failures are passed along to whoever was waiting, but aren't retained. The work is
+	done on the thread of the first request, so if that one is cancelled (e.g. abandoned by its WorkerPool) the computation
+	is interrupted: this isn't a failure of the computation itself, so one of the waiting requests starts it over instead.
+*/
+
+public class SingleFlight
+{
+	public static final int MAX_RETAINED = 1000; // more than this many completed results, and they are let go early
+
+	private static final SingleFlight main = new SingleFlight(0);
+
+	private volatile long ttl; // milliseconds that a result is kept after it has been computed
+	private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+	// the work to be done for a key, the first time it's asked for
+	public interface Computation
+	{
+		byte[] compute() throws RESTException;
+	}
+
+	private static final class Flight
+	{
+		final CompletableFuture<byte[]> future = new CompletableFuture<>();
+		volatile long timeCompleted = 0;
+
+		boolean isStale(long now, long ttl)
+		{
+			return timeCompleted > 0 && now - timeCompleted > ttl;
+		}
+	}
+
+	// ------------ public methods ------------
+
+	public SingleFlight(long ttl)
+	{
+		this.ttl = ttl;
+	}
+
+	// returns the instance used by the servlets, with its retention time as currently configured
+	public static SingleFlight main()
+	{
+		InitParams params = Common.getParams();
+		InitParams.ResponseCache config = params == null ? null : params.responseCache;
+		main.ttl = config == null ? 0 : Math.max(0, config.resultTTL) * 1000L;
+		return main;
+	}
+
+	// returns the result for the key: computed by this thread if nobody else is already on it, otherwise shared
+	public byte[] get(String key, Computation computation) throws RESTException
+	{
+		while (true)
+		{
+			Flight mine = new Flight();
+			Flight flight = flights.compute(key, (k, current) -> current == null || current.isStale(System.currentTimeMillis(), ttl) ? mine : current);
+			Metrics.cache("coalesce").record(flight != mine);
+
+			if (flight == mine) return compute(key, mine, computation);
+
+			byte[] result = await(flight);
+			if (result != null) return result;
+			Metrics.counter("coalesce.retried").increment();
+		}
+	}
+
+	// number of keys currently in progress or recently completed
+	public int size()
+	{
+		return flights.size();
+	}
+
+	public void clear()
+	{
+		flights.values().removeIf(flight -> flight.future.isDone());
+	}
+
+	// ------------ private methods ------------
+
+	// does the work for everyone waiting on the flight
+	private byte[] compute(String key, Flight mine, Computation computation) throws RESTException
+	{
+		try
+		{
+			byte[] result = computation.compute();
+			mine.timeCompleted = System.currentTimeMillis();
+			mine.future.complete(result);
+			if (ttl <= 0) flights.remove(key, mine);
+			return result;
+		}
+		catch (RESTException | RuntimeException | Error ex)
+		{
+			flights.remove(key, mine);
+			if (isInterruption(ex))
+				mine.future.cancel(false); // not for the others to share: they'll have another go
+			else
+				mine.future.completeExceptionally(ex);
+			throw ex;
+		}
+		finally
+		{
+			if (flights.size() > MAX_RETAINED / 2) purge();
+		}
+	}
+
+	// returns the shared result, or null if the request computing it was cancelled part way, so it's up to the caller
+	private static byte[] await(Flight flight) throws RESTException
+	{
+		try
+		{
+			return flight.future.get();
+		}
+		catch (CancellationException ex)
+		{
+			return null;
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RESTException(ex, "Request interrupted", RESTException.HTTPStatus.SERVICE_UNAVAILABLE);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RESTException) throw (RESTException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new RESTException(cause, "Unexpected error occured", RESTException.HTTPStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	// whether the computation stopped because the thread doing it was interrupted, which may show up in various guises
+	private static boolean isInterruption(Throwable ex)
+	{
+		if (Thread.currentThread().isInterrupted()) return true;
+		for (Throwable cause = ex; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) return true;
+		}
+		return false;
+	}
+
+	// lets go of results that have outlived their time, and if there are still too many, the oldest of those that are done
+	private void purge()
+	{
+		long now = System.currentTimeMillis();
+		flights.values().removeIf(flight -> flight.isStale(now, ttl));
+		if (flights.size() <= MAX_RETAINED) return;
+
+		List<Map.Entry<String, Flight>> done = new ArrayList<>();
+		for (Map.Entry<String, Flight> entry : flights.entrySet()) if (entry.getValue().timeCompleted > 0) done.add(entry);
+		done.sort(Comparator.comparingLong(entry -> entry.getValue().timeCompleted));
+		for (int n = 0; n < done.size() && flights.size() > MAX_RETAINED; n++) flights.remove(done.get(n).getKey(), done.get(n).getValue());
+	}
+}
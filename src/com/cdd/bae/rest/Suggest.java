@@ -285,6 +285,34 @@ public class Suggest extends RESTBaseServlet
 		return new JSONObject().put(RETURN_JSONARRAY, results);
 	}
 	
+	// predictions come from the models, and the terms from the schema trees
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		return new Dependency[]{Dependency.NLP, Dependency.MODEL, Dependency.CORR, Dependency.CONFIG, Dependency.PROVISIONAL};
+	}
+
+	// everyone curating the same assay asks for the same suggestions
+	@Override
+	protected boolean coalesceRequests()
+	{
+		return true;
+	}
+
+	// running the models for every assignment can take a while
+	@Override
+	protected boolean useWorkerPool()
+	{
+		return true;
+	}
+
+	// predictions are made using the NLP models as well as the schema trees
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[]{Common.Resource.ONTOLOGY, Common.Resource.PROVISIONAL, Common.Resource.NLP};
+	}
+
 	// ------------ private methods ------------
 
 	protected static ModelPredict.Prediction[] orderPredictions(ModelPredict.Prediction[] preds)
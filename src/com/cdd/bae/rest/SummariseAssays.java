@@ -22,6 +22,7 @@ import com.cdd.bae.config.authentication.Authentication.*;
 import com.cdd.bae.data.*;
 import com.cdd.bao.util.*;
 
+import java.io.*;
 import java.util.*;
 
 import org.json.*;
@@ -54,38 +55,43 @@ import org.json.*;
 public class SummariseAssays extends RESTBaseServlet
 {
 	private static final long serialVersionUID = 1L;
+	private static final int STREAM_THRESHOLD = 100; // more assays than this are streamed even without compounds
 
 	// ------------ public methods ------------
 	@Override
 	protected JSONObject processRequest(JSONObject input, Session session) throws RESTException
 	{
-		DataStore store = Common.getDataStore();
-		JSONArray listAssayID = input.optJSONArray("assayIDList");
-		JSONArray listUniqueID = input.optJSONArray("uniqueIDList");
 		boolean withCompounds = input.optBoolean("withCompounds", false);
-		Set<Long> onlyCompounds = new HashSet<>();
-		if (input.has("onlyCompounds"))
-		{
-			JSONArray list = input.getJSONArray("onlyCompounds");
-			for (int n = 0; n < list.length(); n++) onlyCompounds.add(list.getLong(n));
-		}
+		Set<Long> onlyCompounds = getOnlyCompounds(input);
 
 		JSONArray results = new JSONArray();
-		int sz1 = listAssayID == null ? 0 : listAssayID.length();
-		int sz2 = listUniqueID == null ? 0 : listUniqueID.length();
-		for (int n = 0; n < Math.max(sz1, sz2); n++)
-		{
-			long assayID = n < sz1 ? listAssayID.getLong(n) : 0;
-			if (assayID == 0 && n < sz2)
-			{
-				long[] ids = store.assay().assayIDFromUniqueID(new String[]{listUniqueID.getString(n)})[0];
-				if (ids != null) assayID = ids[0];
-			}
-			results.put(formulateAssay(assayID, withCompounds, onlyCompounds));
-		}
+		for (long assayID : lookupAssayIDs(input)) results.put(formulateAssay(assayID, withCompounds, onlyCompounds));
 		return new JSONObject().put(RETURN_JSONARRAY, results);
 	}
 
+	// the summaries can add up to a lot of content when they include compounds, or there are many of them, in which case they are
+	// written out one at a time; smaller requests are put together in full
+	@Override
+	protected boolean isStreaming(JSONObject input)
+	{
+		if (input.optBoolean("withCompounds", false)) return true;
+		JSONArray listAssayID = input.optJSONArray("assayIDList");
+		JSONArray listUniqueID = input.optJSONArray("uniqueIDList");
+		int sz = Math.max(listAssayID == null ? 0 : listAssayID.length(), listUniqueID == null ? 0 : listUniqueID.length());
+		return sz > STREAM_THRESHOLD;
+	}
+
+	@Override
+	protected void streamRequest(JSONObject input, Session session, JSONStream out) throws RESTException, IOException
+	{
+		boolean withCompounds = input.optBoolean("withCompounds", false);
+		Set<Long> onlyCompounds = getOnlyCompounds(input);
+
+		out.beginArray();
+		for (long assayID : lookupAssayIDs(input)) out.value(formulateAssay(assayID, withCompounds, onlyCompounds));
+		out.endArray();
+	}
+
 	// chop up an assay's text to make it a short line-sized summary (usually works quite well)
 	public static String truncateText(String text)
 	{
@@ -114,6 +120,46 @@ public class SummariseAssays extends RESTBaseServlet
 
 	// ------------ private methods ------------
 
+	// assay IDs corresponding to each requested entry, by either kind of identifier; 0 if not found
+	private static long[] lookupAssayIDs(JSONObject input)
+	{
+		DataStore store = Common.getDataStore();
+		JSONArray listAssayID = input.optJSONArray("assayIDList");
+		JSONArray listUniqueID = input.optJSONArray("uniqueIDList");
+		int sz1 = listAssayID == null ? 0 : listAssayID.length();
+		int sz2 = listUniqueID == null ? 0 : listUniqueID.length();
+
+		long[] assayIDList = new long[Math.max(sz1, sz2)];
+		for (int n = 0; n < assayIDList.length; n++)
+		{
+			long assayID = n < sz1 ? listAssayID.getLong(n) : 0;
+			if (assayID == 0 && n < sz2)
+			{
+				long[] ids = store.assay().assayIDFromUniqueID(new String[]{listUniqueID.getString(n)})[0];
+				if (ids != null) assayID = ids[0];
+			}
+			assayIDList[n] = assayID;
+		}
+		return assayIDList;
+	}
+
+	// compounds to restrict the results to (empty for all); anything other than an array of IDs is a bad request
+	private static Set<Long> getOnlyCompounds(JSONObject input) throws RESTException
+	{
+		Set<Long> onlyCompounds = new HashSet<>();
+		if (!input.has("onlyCompounds")) return onlyCompounds;
+		try
+		{
+			JSONArray list = input.getJSONArray("onlyCompounds");
+			for (int n = 0; n < list.length(); n++) onlyCompounds.add(list.getLong(n));
+		}
+		catch (JSONException ex)
+		{
+			throw new RESTException(ex, "Parameter 'onlyCompounds' must be an array of compoundIDs", RESTException.HTTPStatus.BAD_REQUEST);
+		}
+		return onlyCompounds;
+	}
+
 	private JSONObject formulateAssay(long assayID, boolean withCompounds, Set<Long> onlyCompounds)
 	{
 		DataStore store = Common.getDataStore();
@@ -21,6 +21,8 @@ package com.cdd.bae.rest;
 import com.cdd.bae.config.authentication.Authentication.*;
 import com.cdd.bae.data.*;
 
+import java.util.*;
+
 import org.json.*;
 
 /*
@@ -40,6 +42,9 @@ public class TallyStats extends RESTBaseServlet
 {
 	private static final long serialVersionUID = 1L;
 
+	private static final Set<String> STATS_TOKENS = new HashSet<>(Arrays.asList(
+		"assaysWithMeasurements", "numMeasurements", "numCompounds", "compoundsWithStructures"));
+
 	// ------------ public methods ------------
 
 	@Override
@@ -49,6 +54,10 @@ public class TallyStats extends RESTBaseServlet
 		
 		String[] tokens = input.getJSONArray("tokens").toStringArray();
 		
+		// the measurement/compound totals are expensive, so they come from the watermark-keyed summary, fetched only if needed
+		DataObject.MeasureStats stats = null;
+		for (String token : tokens) if (STATS_TOKENS.contains(token)) {stats = store.measure().getStats(); break;}
+
 		JSONObject result = new JSONObject();
 		for (String token : tokens)
 		{
@@ -58,14 +67,34 @@ public class TallyStats extends RESTBaseServlet
 			else if (token.equals("nlpFingerprints")) result.put(token, store.nlp().countFingerprints());
 			else if (token.equals("nlpModels")) result.put(token, store.model().countModelNLP());
 			else if (token.equals("corrModels")) result.put(token, store.model().countModelCorr());
-			else if (token.equals("assaysWithMeasurements")) result.put(token, store.measure().countUniqueAssays());
-			else if (token.equals("numMeasurements")) result.put(token, store.measure().countMeasurements());
-			else if (token.equals("numCompounds")) result.put(token, store.compound().countTotal());
-			else if (token.equals("compoundsWithStructures")) result.put(token, store.compound().countWithStructures());
+			else if (token.equals("assaysWithMeasurements")) result.put(token, stats.assaysWithMeasurements);
+			else if (token.equals("numMeasurements")) result.put(token, stats.numMeasurements);
+			else if (token.equals("numCompounds")) result.put(token, stats.numCompounds);
+			else if (token.equals("compoundsWithStructures")) result.put(token, stats.compoundsWithStructures);
 			else throw new RESTException("Unexpected token: '" + token + "'", RESTException.HTTPStatus.BAD_REQUEST);
 		}
 		return result;
 	}
+
+	// the counts only change when the corresponding data does
+	@Override
+	protected Dependency[] getDependencies(JSONObject input)
+	{
+		JSONArray tokens = input.optJSONArray("tokens");
+		if (tokens == null) return null;
+
+		Set<Dependency> deps = EnumSet.noneOf(Dependency.class);
+		for (String token : tokens.toStringArray())
+		{
+			if (token.equals("numAssays") || token.equals("curatedAssays")) deps.add(Dependency.ASSAY);
+			else if (token.equals("assaysWithoutFP")) {deps.add(Dependency.ASSAY); deps.add(Dependency.NLP);}
+			else if (token.equals("nlpFingerprints")) deps.add(Dependency.NLP);
+			else if (token.equals("nlpModels")) deps.add(Dependency.MODEL);
+			else if (token.equals("corrModels")) deps.add(Dependency.CORR);
+			else if (STATS_TOKENS.contains(token)) {deps.add(Dependency.MEASURE); deps.add(Dependency.COMPOUND);}
+		}
+		return deps.toArray(new Dependency[0]);
+	}
 	
 	// ------------ private methods ------------
 	
@@ -132,6 +132,13 @@ public class TextMine extends RESTBaseServlet
 		return result;
 	}
 	
+	// text mining is expensive: run on the worker pool so that quick requests aren't held up
+	@Override
+	protected boolean useWorkerPool()
+	{
+		return true;
+	}
+
 	// ------------ private methods ------------
 
 	// for a partially filled out assay (.text is meaningful, .annotations may have preexisting information) and maybe a schema (which
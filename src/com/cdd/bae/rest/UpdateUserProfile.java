@@ -93,4 +93,11 @@ public class UpdateUserProfile extends RESTBaseServlet
 	{
 		return new String[]{"curatorID", "userName", "email"};
 	}
+
+	// only touches the user records
+	@Override
+	protected Common.Resource[] getRequiredResources()
+	{
+		return new Common.Resource[0];
+	}
 }
@@ -0,0 +1,402 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.json.*;
+import org.slf4j.*;
+
+/*
+	Bounded pool of worker threads for one kind of slow request, so that a handful of expensive searches can't use up all of
+	the container's threads and hold up the cheap requests behind them. Requests are put into asynchronous mode and handed
+	over to the pool; if its queue is full, the client is told to come back later (503 with Retry-After).
+
+	A request that is still waiting or computing when the timeout comes around is abandoned: the worker is interrupted, and
+	the client gets a 503. Once the response has started being written it is left to finish. Likewise if the client goes
+	away before the result is ready, the work is cancelled.
+
+	Each pool is named after the servlet class, and is recreated if the configuration changes.
+*/
+
+public class WorkerPool
+{
+	private static final Logger logger = LoggerFactory.getLogger(WorkerPool.class);
+
+	private static final Map<String, WorkerPool> pools = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService timer = null; // created on demand
+	private static final Object timerMutex = new Object();
+
+	private final String name;
+	private final InitParams.WorkerPools config;
+	private final ThreadPoolExecutor executor;
+
+	// the work to be done for a request, which writes its own response
+	public interface Handler
+	{
+		void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+	}
+
+	// ------------ public methods ------------
+
+	public WorkerPool(String name, InitParams.WorkerPools config)
+	{
+		this.name = name;
+		this.config = config;
+
+		int threads = config.threads > 0 ? config.threads : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+		AtomicInteger count = new AtomicInteger(0);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, config.queue)), runnable ->
+		{
+			Thread thread = new Thread(runnable, "WorkerPool-" + name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	// returns the pool for the given endpoint, using the current configuration (or the defaults, if there isn't one)
+	public static WorkerPool forEndpoint(String name)
+	{
+		InitParams params = Common.getParams();
+		InitParams.WorkerPools config = params == null ? new InitParams.WorkerPools() : params.workerPools;
+		WorkerPool pool = pools.compute(name, (key, current) ->
+		{
+			if (current != null && current.config.equals(config)) return current;
+			if (current != null) current.executor.shutdown(); // anything already queued is still seen through
+			else
+			{
+				Metrics.gauge("pool." + name + ".active", () -> {WorkerPool p = pools.get(name); return p == null ? 0 : p.getActiveCount();});
+				Metrics.gauge("pool." + name + ".queued", () -> {WorkerPool p = pools.get(name); return p == null ? 0 : p.getQueueSize();});
+			}
+			return new WorkerPool(name, config);
+		});
+		return pool;
+	}
+
+	// stops all of the pools, e.g. when the webapp is being unloaded: running work is interrupted, and requests still waiting
+	// are dropped; the timeout thread is stopped too, and started again if needed
+	public static void shutdownAll()
+	{
+		for (WorkerPool pool : pools.values()) pool.executor.shutdownNow();
+		pools.clear();
+		synchronized (timerMutex)
+		{
+			if (timer != null) timer.shutdownNow();
+			timer = null;
+		}
+	}
+
+	// switches the request into asynchronous mode and queues it up; the response is always seen to, one way or another
+	public void dispatch(HttpServletRequest request, HttpServletResponse response, Handler handler)
+	{
+		AsyncContext context = request.startAsync(request, response);
+		context.setTimeout(0); // timing out is managed here, since the container's version can't tell whether writing has started
+
+		Call call = new Call(context, response, handler);
+		context.addListener(call);
+		try
+		{
+			call.future = executor.submit(call);
+		}
+		catch (RejectedExecutionException ex)
+		{
+			Metrics.counter("pool." + name + ".rejected").increment();
+			call.abandon("Server is busy, please try again shortly");
+			return;
+		}
+		if (config.timeout > 0) call.expiry = timer().schedule(call::expire, config.timeout, TimeUnit.SECONDS);
+	}
+
+	public String getName() {return name;}
+	public int getActiveCount() {return executor.getActiveCount();}
+	public int getQueueSize() {return executor.getQueue().size();}
+
+	// ------------ private methods ------------
+
+	private static ScheduledExecutorService timer()
+	{
+		synchronized (timerMutex)
+		{
+			if (timer == null) timer = Executors.newSingleThreadScheduledExecutor(runnable ->
+			{
+				Thread thread = new Thread(runnable, "WorkerPool-timeout");
+				thread.setDaemon(true);
+				return thread;
+			});
+			return timer;
+		}
+	}
+
+	// the lifecycle of one request: it is pending until the worker starts writing the response, or until it is abandoned
+	// because of a timeout, disconnect or refusal; whichever happens first decides who gets to use the response
+	private final class Call implements Runnable, AsyncListener
+	{
+		private static final int PENDING = 0, WRITING = 1, ABANDONED = 2;
+
+		private final AsyncContext context;
+		private final HttpServletResponse response;
+		private final Handler handler;
+		private final HeaderSnapshot headers;
+		private final long timeQueued = System.nanoTime();
+		private int state = PENDING;
+		private volatile Future<?> future = null;
+		private volatile ScheduledFuture<?> expiry = null;
+
+		Call(AsyncContext context, HttpServletResponse response, Handler handler)
+		{
+			this.context = context;
+			this.response = response;
+			this.handler = handler;
+			headers = new HeaderSnapshot(response);
+		}
+
+		@Override
+		public void run()
+		{
+			synchronized (this)
+			{
+				if (state == ABANDONED) return;
+			}
+			Metrics.timer("pool." + name + ".wait").since(timeQueued);
+			try
+			{
+				handler.handle((HttpServletRequest)context.getRequest(), new Guarded(response, this));
+			}
+			catch (Exception ex)
+			{
+				synchronized (this)
+				{
+					if (state != ABANDONED) logger.error("Request failed for " + name, ex);
+				}
+			}
+			finally
+			{
+				finish();
+			}
+		}
+
+		// called by the timer: only gives up if the worker hasn't started writing
+		void expire()
+		{
+			synchronized (this)
+			{
+				if (state != PENDING) return;
+			}
+			Metrics.counter("pool." + name + ".timeout").increment();
+			abandon("Request took too long, please try again later");
+		}
+
+		// sends back a 503 instead of the result, if that's still possible, and cancels the work
+		void abandon(String message)
+		{
+			synchronized (this)
+			{
+				if (state != PENDING) return;
+				state = ABANDONED;
+
+				try
+				{
+					// anything the worker has set up for its own content (e.g. Content-Encoding) doesn't apply to this
+					headers.reset(response);
+					response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					response.setHeader("Retry-After", String.valueOf(config.retryAfter));
+					response.setContentType(RESTBaseServlet.ContentType.JSON.toString());
+					response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+					JSONObject json = new JSONObject();
+					json.put("status", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					json.put("userMessage", message);
+					response.getOutputStream().write(json.toString().getBytes(StandardCharsets.UTF_8));
+				}
+				catch (IOException | IllegalStateException ex) {/* client has most likely gone */}
+			}
+			cancel();
+			complete();
+		}
+
+		// the client can't receive a response anymore, so there's no point in carrying on
+		void disconnected()
+		{
+			synchronized (this)
+			{
+				if (state == ABANDONED) return;
+				state = ABANDONED;
+			}
+			Metrics.counter("pool." + name + ".disconnected").increment();
+			cancel();
+		}
+
+		// the worker is about to touch the response: returns false if it has been abandoned, and should leave it alone
+		synchronized boolean claim(boolean writing)
+		{
+			if (state == ABANDONED) return false;
+			if (writing) state = WRITING;
+			return true;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event)
+		{
+			ScheduledFuture<?> expiry = this.expiry;
+			if (expiry != null) expiry.cancel(false);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event)
+		{
+			expire();
+		}
+
+		@Override
+		public void onError(AsyncEvent event)
+		{
+			disconnected();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event)
+		{
+			// not applicable
+		}
+
+		private void finish()
+		{
+			ScheduledFuture<?> expiry = this.expiry;
+			if (expiry != null) expiry.cancel(false);
+			synchronized (this)
+			{
+				if (state == ABANDONED) return;
+				state = ABANDONED; // i.e. nothing further may be done with it
+			}
+			complete();
+		}
+
+		private void cancel()
+		{
+			Future<?> future = this.future;
+			if (future != null) future.cancel(true);
+			ScheduledFuture<?> expiry = this.expiry;
+			if (expiry != null) expiry.cancel(false);
+		}
+
+		private void complete()
+		{
+			try {context.complete();}
+			catch (IllegalStateException ex) {/* already completed by the container */}
+		}
+	}
+
+	// response given to the worker: changes are passed through only if the request hasn't been abandoned, and starting to
+	// write the content takes ownership of it, after which it can no longer be timed out
+	private static final class Guarded extends HttpServletResponseWrapper
+	{
+		private final Call call;
+
+		Guarded(HttpServletResponse response, Call call)
+		{
+			super(response);
+			this.call = call;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException
+		{
+			if (!call.claim(true)) throw new IOException("Request abandoned");
+			return super.getOutputStream();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException
+		{
+			if (!call.claim(true)) throw new IOException("Request abandoned");
+			return super.getWriter();
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException
+		{
+			if (call.claim(true)) super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException
+		{
+			if (call.claim(true)) super.sendError(sc);
+		}
+
+		@Override
+		public void flushBuffer() throws IOException
+		{
+			if (call.claim(true)) super.flushBuffer();
+		}
+
+		@Override
+		public void setStatus(int sc)
+		{
+			synchronized (call) {if (call.claim(false)) super.setStatus(sc);}
+		}
+
+		@Override
+		public void setHeader(String name, String value)
+		{
+			synchronized (call) {if (call.claim(false)) super.setHeader(name, value);}
+		}
+
+		@Override
+		public void addHeader(String name, String value)
+		{
+			synchronized (call) {if (call.claim(false)) super.addHeader(name, value);}
+		}
+
+		@Override
+		public void setContentType(String type)
+		{
+			synchronized (call) {if (call.claim(false)) super.setContentType(type);}
+		}
+
+		@Override
+		public void setCharacterEncoding(String charset)
+		{
+			synchronized (call) {if (call.claim(false)) super.setCharacterEncoding(charset);}
+		}
+
+		@Override
+		public void setContentLength(int len)
+		{
+			synchronized (call) {if (call.claim(false)) super.setContentLength(len);}
+		}
+
+		@Override
+		public void reset()
+		{
+			synchronized (call) {if (call.claim(false)) super.reset();}
+		}
+	}
+}
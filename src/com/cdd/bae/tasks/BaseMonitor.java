@@ -19,6 +19,9 @@
 package com.cdd.bae.tasks;
 
 import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
+
+import java.util.*;
 
 import javax.servlet.*;
 
@@ -26,6 +29,9 @@ import org.slf4j.*;
 
 /*
 	Base class for the various monitors that are started during the service initialisation.
+
+	Each monitor's main loop, and any subtasks it has, run as tasks of the TaskScheduler: the waiting functions below
+	tell the scheduler when the task is idle, so that others can take a turn in the meantime.
 */
 
 public class BaseMonitor implements ServletContextListener
@@ -34,6 +40,7 @@ public class BaseMonitor implements ServletContextListener
 	protected volatile boolean stopped = false;
 	protected final Object mutex = new Object();
 	private boolean paused = false;
+	private final List<TaskScheduler.Task> tasks = new ArrayList<>();
 
 	public void contextInitialized(ServletContextEvent ev)
 	{
@@ -48,8 +55,12 @@ public class BaseMonitor implements ServletContextListener
 		logger.info("shutdown");
 
 		stopped = true;
-		// make sure the task cleans up
+		// make sure the task cleans up, even if it was waiting for a turn
 		bump();
+		synchronized (tasks)
+		{
+			for (TaskScheduler.Task task : tasks) task.cancel();
+		}
 
 		logger.info("shutdown complete");
 	}
@@ -66,6 +77,22 @@ public class BaseMonitor implements ServletContextListener
 		bumpThread(mutex);
 	}
 
+	// starts the monitor's main loop as a background task
+	protected void startTask(TaskScheduler.Priority priority, Runnable body)
+	{
+		startTask(null, priority, body);
+	}
+
+	// starts a subtask, which is named after the monitor and the given suffix
+	protected void startTask(String subtask, TaskScheduler.Priority priority, Runnable body)
+	{
+		String name = getClass().getSimpleName() + (subtask == null ? "" : "." + subtask);
+		synchronized (tasks)
+		{
+			tasks.add(TaskScheduler.main().start(name, priority, body));
+		}
+	}
+
 	// synchronization of pauses between compute intensive tasks
 	protected boolean isPaused()
 	{
@@ -79,19 +106,25 @@ public class BaseMonitor implements ServletContextListener
 			paused = true;
 			logger.info("{}: paused", this.getClass().getName());
 			logMemoryUsage();
-			Thread.sleep(seconds * 1000);
+			TaskScheduler.idle(() ->
+			{
+				try {Thread.sleep(seconds * 1000);}
+				catch (InterruptedException e) {/* ignore exception and resume processing in run */}
+			});
 			logMemoryUsage();
 		}
-		catch (InterruptedException e)
-		{
-			/* ignore exception and resume processing in run */ 
-		} 
 		finally
 		{
 			paused = false;
 		}
 	}
 	
+	// latency histogram for some unit of work done by the task, e.g. "task.ModelBuilder.model"
+	protected Metrics.Histogram taskTimer(String what)
+	{
+		return Metrics.timer("task." + getClass().getSimpleName() + "." + what);
+	}
+
 	protected void logMemoryUsage()
 	{
 		Runtime rt = Runtime.getRuntime();
@@ -103,33 +136,39 @@ public class BaseMonitor implements ServletContextListener
 	// helper function to wait thread for seconds based on mutex
 	protected static void waitThread(Object mutex, long seconds)
 	{
-		synchronized (mutex)
+		TaskScheduler.idle(() ->
 		{
-			try
-			{
-				mutex.wait(seconds * 1000);
-			}
-			catch (InterruptedException ex)
+			synchronized (mutex)
 			{
-				/* ignore exception and resume processing in run */
+				try
+				{
+					mutex.wait(seconds * 1000);
+				}
+				catch (InterruptedException ex)
+				{
+					/* ignore exception and resume processing in run */
+				}
 			}
-		}
+		});
 	}
 
 	// helper function to wait thread based on mutex forever
 	protected static void waitThread(Object mutex)
 	{
-		synchronized (mutex)
+		TaskScheduler.idle(() ->
 		{
-			try
+			synchronized (mutex)
 			{
-				mutex.wait();
+				try
+				{
+					mutex.wait();
+				}
+				catch (InterruptedException ex)
+				{
+					/* ignore exception and resume processing in run */
+				}
 			}
-			catch (InterruptedException ex)
-			{
-				/* ignore exception and resume processing in run */
-			}
-		}
+		});
 	}
 
 	// helper function to wake up sleeping thread
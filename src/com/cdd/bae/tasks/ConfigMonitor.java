@@ -20,6 +20,7 @@ package com.cdd.bae.tasks;
 
 import com.cdd.bae.config.*;
 import com.cdd.bae.data.*;
+import com.cdd.bae.rest.*;
 import com.cdd.bae.util.*;
 import com.cdd.bao.util.*;
 
@@ -31,6 +32,9 @@ import javax.servlet.*;
 
 	The current implementation loads a new configuration every time something has changed for the existing configuration.
 	The NLP models take about 5 seconds to load and the schemaVocabFile takes 3.4 seconds. 
+
+	File events are used where possible (see FileEvents): in which case checking for changes doesn't need to look at each
+	file, and the monitor is woken up as soon as a change has settled rather than waiting for the next pass.
 */
 
 public class ConfigMonitor extends BaseMonitor implements Runnable
@@ -53,7 +57,21 @@ public class ConfigMonitor extends BaseMonitor implements Runnable
 			return;
 		}
 
-		new Thread(this).start();
+		FileEvents events = FileEvents.start();
+		if (events != null) events.addListener(this::bump);
+
+		startTask(TaskScheduler.Priority.HIGH, this);
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent ev)
+	{
+		FileEvents.stop();
+		DataStore store = Common.getDataStore();
+		if (store != null) store.stopChangeFeed();
+		WorkerPool.shutdownAll();
+		ParallelZip.shutdown();
+		super.contextDestroyed(ev);
 	}
 
 	// ------------ public methods ------------
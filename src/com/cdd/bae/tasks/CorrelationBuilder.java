@@ -24,6 +24,7 @@ import com.cdd.bae.model.*;
 import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
 
+import java.io.*;
 import java.util.*;
 
 import javax.servlet.*;
@@ -57,7 +58,7 @@ public class CorrelationBuilder extends BaseMonitor implements Runnable
 			return;
 		}
 
-		new Thread(this).start();
+		startTask(TaskScheduler.Priority.LOW, this);
 	}
 
 	// no need to override contextDestroyed
@@ -102,11 +103,26 @@ public class CorrelationBuilder extends BaseMonitor implements Runnable
 			{
 				watermark = modWatermark;
 				logger.info("updating models");
+				long timeStart = System.nanoTime();
 				createAllModels(watermark);
+				taskTimer("pass").since(timeStart);
 				logger.info("update complete");
+
+				// the models are current now, so the popular ones can be loaded in one go, rather than one request at a time
+				if (!stopped && store.model().getWatermarkCorr() == watermark)
+				{
+					timeStart = System.nanoTime();
+					int count = store.model().warmCacheCorr();
+					taskTimer("warmup").since(timeStart);
+					logger.info("cache warmed up with {} models", count);
+				}
 			}
 			else
 			{
+				// models have settled down, so bring the local memory-mapped copy up to date (if there is one)
+				try {store.model().refreshMappedCorr();}
+				catch (IOException ex) {logger.warn("Unable to write mapped model file", ex);}
+
 				logger.info("awaiting further action...");
 				// wait for a long time: will get bumped if anything interesting happens
 				waitTask(LONG_PAUSE_SECONDS);
@@ -140,6 +156,7 @@ public class CorrelationBuilder extends BaseMonitor implements Runnable
 			// early termination condition
 			if (stopped) return;
 			if (store.model().getWatermarkCorr() != watermark) return;
+			TaskScheduler.checkpoint();
 
 			if (store.model().getModelCorrWatermark(target) == watermark) continue;
 			
@@ -155,7 +172,9 @@ public class CorrelationBuilder extends BaseMonitor implements Runnable
 
 			AnnotationFP source = targetToAnnot.get(target);
 			boolean isExplicit = prepareModel(assayInfo, assayIDList, source, fplist, active);
+			long timeStart = System.nanoTime();
 			Model model = buildModel(fplist.toArray(new int[fplist.size()][]), Util.primBoolean(active));
+			taskTimer("model").since(timeStart);
 			if (model != null)
 			{
 				logger.info("annotation#{}, source {}", target, source);
@@ -0,0 +1,101 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.tasks;
+
+import com.cdd.bae.data.*;
+import com.cdd.bae.web.*;
+
+import javax.servlet.*;
+
+/*
+	Keeps an eye on the watermarks that the export cache depends on, and once they have stopped moving for a while,
+	regenerates the most popular downloads so that they are ready before anyone asks for them.
+*/
+
+public class ExportWarmer extends BaseMonitor implements Runnable
+{
+	static final long DELAY_SECONDS = 60; // initial delay
+	static final long PAUSE_SECONDS = 300; // interval between checks when nothing is happening
+	static final long SETTLE_SECONDS = 60; // data must have been quiet for this long before rebuilding
+
+	private String lastState = null;
+
+	// ------------ lifecycle ------------
+
+	@Override
+	public void contextInitialized(ServletContextEvent ev)
+	{
+		super.contextInitialized(ev);
+		startTask(TaskScheduler.Priority.LOW, this);
+	}
+
+	// ------------ public methods ------------
+
+	public void run()
+	{
+		waitTask(DELAY_SECONDS);
+
+		while (!stopped)
+		{
+			try
+			{
+				checkWarm();
+			}
+			catch (Exception ex)
+			{
+				logger.error("Export warming failed", ex);
+			}
+			waitTask(PAUSE_SECONDS);
+		}
+	}
+
+	// ------------ private methods ------------
+
+	// if anything has changed since last time, wait for it to settle and then prepare the popular exports
+	private void checkWarm()
+	{
+		ExportCache cache = ExportCache.main();
+		if (cache == null) return;
+
+		String state = currentState();
+		if (state.equals(lastState)) return;
+
+		// don't chase a moving target: a batch of edits or a bulk import typically bumps the watermarks many times
+		while (!stopped)
+		{
+			waitTask(SETTLE_SECONDS);
+			String nextState = currentState();
+			if (nextState.equals(state)) break;
+			state = nextState;
+		}
+		if (stopped) return;
+
+		long timeStarted = System.currentTimeMillis();
+		int count = cache.warmPopular();
+		if (count > 0) logger.info("Prepared {} exports in {} ms", count, System.currentTimeMillis() - timeStarted);
+		lastState = state;
+	}
+
+	// combination of all the watermarks that can make cached exports go stale
+	private static String currentState()
+	{
+		DataStore store = Common.getDataStore();
+		return store.assay().getWatermark() + ":" + store.provisional().getWatermark() + ":" + Common.getConfigStamp();
+	}
+}
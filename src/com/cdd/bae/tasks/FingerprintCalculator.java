@@ -50,7 +50,7 @@ public class FingerprintCalculator extends BaseMonitor implements Runnable
 			return;
 		}
 
-		new Thread(this).start();
+		startTask(TaskScheduler.Priority.NORMAL, this);
 	}
 
 	// no need to override contextDestroyed
@@ -115,6 +115,7 @@ public class FingerprintCalculator extends BaseMonitor implements Runnable
 		for (long assayID : todo)
 		{
 			if (stopped) break;
+			TaskScheduler.checkpoint();
 						
 			DataObject.Assay assay = store.assay().getAssay(assayID);
 			if (Util.isBlank(getText(assay)) || (assay.fplist != null && assay.fplist.length > 0)) continue;
@@ -122,7 +123,9 @@ public class FingerprintCalculator extends BaseMonitor implements Runnable
 			logger.info("calculating for {} / UID={} ... {} of {}  (#assays={})", assay.assayID, assay.uniqueID, ++pos, todo.length, totalCount);
 
 			if (blockToFP == null) blockToFP = store.nlp().fetchFingerprints();
+			long timeStart = System.nanoTime();
 			if (recalculate(assay, blockToFP)) numApplied++;
+			taskTimer("assay").since(timeStart);
 		}
 			
 		busy = false;
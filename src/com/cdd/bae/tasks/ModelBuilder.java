@@ -24,6 +24,7 @@ import com.cdd.bae.model.*;
 import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
 
+import java.io.*;
 import java.util.*;
 import java.util.Map.*;
 
@@ -59,7 +60,7 @@ public class ModelBuilder extends BaseMonitor implements Runnable
 			return;
 		}
 
-		new Thread(this).start();
+		startTask(TaskScheduler.Priority.LOW, this);
 	}
 
 	// no need to override contextDestroyed
@@ -101,11 +102,26 @@ public class ModelBuilder extends BaseMonitor implements Runnable
 				watermark = modWatermark;
 				
 				logger.info("updating models");
+				long timeStart = System.nanoTime();
 				createAllModels(watermark);
+				taskTimer("pass").since(timeStart);
 				logger.info("update complete");
+
+				// the models are current now, so the popular ones can be loaded in one go, rather than one request at a time
+				if (!stopped && Common.getDataStore().model().getWatermarkNLP() == watermark)
+				{
+					timeStart = System.nanoTime();
+					int count = Common.getDataStore().model().warmCacheNLP();
+					taskTimer("warmup").since(timeStart);
+					logger.info("cache warmed up with {} models", count);
+				}
 			}
 			else
 			{
+				// models have settled down, so bring the local memory-mapped copy up to date (if there is one)
+				try {Common.getDataStore().model().refreshMappedNLP();}
+				catch (IOException ex) {logger.warn("Unable to write mapped model file", ex);}
+
 				logger.info("awaiting further action...");
 				// wait for a long time: will get bumped if anything interesting happens
 				waitTask(LONG_PAUSE_SECONDS);
@@ -146,6 +162,7 @@ public class ModelBuilder extends BaseMonitor implements Runnable
 			// early termination condition
 			if (stopped) return;
 			if (store.model().getWatermarkNLP() != watermark) return;
+			TaskScheduler.checkpoint();
 			
 			// if the watermark is already uptodate, leave it alone (usually happens because of shutdown/restart)
 			if (store.model().getModelNLPWatermark(target) == watermark) continue;
@@ -153,7 +170,7 @@ public class ModelBuilder extends BaseMonitor implements Runnable
 			if (!targetToAnnot.containsKey(target))
 			{
 				logger.info("annotation#{}, not modelled", target);
-				store.model().blankModelCorr(target, watermark);
+				store.model().blankModelNLP(target, watermark);
 				continue;
 			}
 
@@ -163,7 +180,9 @@ public class ModelBuilder extends BaseMonitor implements Runnable
 				int[] annots = annotlist.get(n);
 				active[n] = annots == null ? false : Arrays.binarySearch(annotlist.get(n), target) >= 0;
 			}
+			long timeStart = System.nanoTime();
 			DataObject.Model model = buildModel(fplist, active);
+			taskTimer("model").since(timeStart);
 			if (model != null)
 			{
 				logger.info("annotation#{}, source {}", target, targetToAnnot.get(target));
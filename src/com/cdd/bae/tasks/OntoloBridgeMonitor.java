@@ -63,7 +63,7 @@ public class OntoloBridgeMonitor extends BaseMonitor implements Runnable
 			return;
 		}
 
-		new Thread(this).start();
+		startTask(TaskScheduler.Priority.NORMAL, this);
 	}
 
 	// ------------ public methods ------------
@@ -97,6 +97,7 @@ public class OntoloBridgeMonitor extends BaseMonitor implements Runnable
 			for (DataObject.Provisional prov : store.provisional().fetchAllTerms()) 
 			{
 				if (!statusPoll.contains(prov.bridgeStatus)) continue;
+				TaskScheduler.checkpoint();
 				
 				if (first) logger.info("polling status");
 				first = false;
@@ -21,6 +21,7 @@ package com.cdd.bae.tasks;
 import com.cdd.bae.config.*;
 import com.cdd.bae.data.*;
 import com.cdd.bae.data.DataObject.*;
+import com.cdd.bae.util.*;
 import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
 
@@ -28,10 +29,15 @@ import static com.cdd.bae.tasks.PubChemMeasurements.*;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 import java.util.zip.*;
 
+import javax.json.*;
+import javax.json.stream.*;
 import javax.servlet.*;
 
 import org.apache.commons.lang3.*;
@@ -98,7 +104,7 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 			}
 		}
 	
-		new Thread(this).start();
+		startTask(TaskScheduler.Priority.NORMAL, this);
 	}
 
 	@Override
@@ -166,10 +172,10 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 		store = Common.getDataStore();
 		
 		// start background threads
-		new Thread(() -> monitorFiles()).start();
-		new Thread(() -> monitorDownload()).start();
-		new Thread(() -> monitorMeasurements()).start();
-		new Thread(() -> monitorCompounds()).start();
+		startTask("files", TaskScheduler.Priority.NORMAL, this::monitorFiles);
+		startTask("download", TaskScheduler.Priority.LOW, this::monitorDownload);
+		startTask("measurements", TaskScheduler.Priority.LOW, this::monitorMeasurements);
+		startTask("compounds", TaskScheduler.Priority.LOW, this::monitorCompounds);
 		
 		// start the main loop
 	
@@ -256,75 +262,207 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 
 	// scans through a zip file, looking for assays that may be of interest; returns tallies of the amount of content obtained
 	private static final Pattern PTN_PUBCHEM_SRC = Pattern.compile("^(\\d+)\\.concise.json\\.gz$");
-	protected int[] scanZipFile(File f, Set<Integer> existingAID, Map<String, SchemaTree.Node> sourceMap,
-								Set<Integer> specialAID) throws IOException, JSONException
+	protected int[] scanZipFile(File f, IntHashSet existingAID, Map<String, SchemaTree.Node> sourceMap,
+								Set<Integer> specialAID) throws IOException
 	{
-		class Counter
+		AssayScan scan = new AssayScan(existingAID, sourceMap, specialAID, 1);
+		try
 		{
-			int numFiles = 0;
-			int numMatches = 0;
-			int numAdded = 0;
+			scan.submitFile(f);
 		}
-		final Counter counter = new Counter();
-	
-		try (ZipFile zipFile = new ZipFile(f))
+		finally
 		{
-			zipFile.stream().forEach(ze ->
-			{
-				counter.numFiles++;
-				
-				// filter entries for various reasons
-				String name = new File(ze.getName()).getName();
-				if (ze.getSize() > 100000000)
-				{
-					logger.info("file [{}] too big, at: ", name, ze.getSize());
-					return;
-				}
-				Matcher m = PTN_PUBCHEM_SRC.matcher(name);
-				if (!m.matches()) return;
+			scan.finish();
+		}
+		if (scan.numFailed.get() > 0) throw new IOException("Unable to scan file: " + f.getAbsolutePath());
+		return scan.getTallies();
+	}
 
-				// process remaining entries if not already processed
-				counter.numMatches++;
+	// scans any number of zip files, with the entries being parsed & compared on a pool of threads; entries from the next file
+	// are queued up while the previous one is being finished, so the work is spread across the whole collection; each file
+	// is marked as loaded once all of its entries have been dealt with successfully
+	protected final class AssayScan
+	{
+		private final IntHashSet existingAID;
+		private final Map<String, SchemaTree.Node> sourceMap;
+		private final Set<Integer> specialAID;
+		private final ExecutorService pool;
+		private final Semaphore inflight;
+		private final Phaser phaser = new Phaser(1);
+		private final AtomicInteger numFiles = new AtomicInteger(0), numMatches = new AtomicInteger(0);
+		private final AtomicInteger numAdded = new AtomicInteger(0), numFailed = new AtomicInteger(0);
+
+		// a zip file that is in the process of being scanned: closed when the last entry is done
+		private final class ZipScan
+		{
+			final File file;
+			final ZipFile zipFile;
+			final AtomicInteger remaining = new AtomicInteger(1); // the enumeration of entries counts as one
+			volatile boolean failed = false;
 
-				int aid = Integer.parseInt(m.group(1));
-				if (aid <= 0) return; // unlikely
+			ZipScan(File file) throws IOException
+			{
+				this.file = file;
+				zipFile = new ZipFile(file);
+			}
+		}
 
-				// the entries are gzipped json files
-				JSONObject json = parseGzippedZipfileEntry(zipFile, ze);
-				JSONObject root = json.optJSONObject("PC_AssaySubmit");
-				if (root == null) return;
+		public AssayScan(IntHashSet existingAID, Map<String, SchemaTree.Node> sourceMap, Set<Integer> specialAID, int numThreads)
+		{
+			this.existingAID = existingAID;
+			this.sourceMap = sourceMap;
+			this.specialAID = specialAID;
+			pool = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+			inflight = new Semaphore(Math.max(1, numThreads) * 4);
+		}
 
-				Assay newAssay = parsePubChemAssay(root, sourceMap, specialAID);
-				if (newAssay == null) return;
-				
-				// different logic depending on whether the assay is already in the system
-				if (existingAID.contains(aid))
+		// queues up all of the relevant entries in the file; returns once they have been handed off, but may block if the
+		// pool is already busy
+		public void submitFile(File f) throws IOException
+		{
+			ZipScan zscan = new ZipScan(f);
+			phaser.register();
+			try
+			{
+				for (Enumeration<? extends ZipEntry> iter = zscan.zipFile.entries(); iter.hasMoreElements() && !stopped && !zscan.failed;)
 				{
-					Assay oldAssay = store.assay().getAssayFromUniqueID(Identifier.PUBCHEM_PREFIX + aid);
-					if (oldAssay != null && mergePubChemAssays(newAssay, oldAssay))
+					ZipEntry ze = iter.nextElement();
+					numFiles.incrementAndGet();
+
+					// filter entries for various reasons
+					String name = new File(ze.getName()).getName();
+					if (ze.getSize() > 100000000)
 					{
-						logger.info("updating assay with new PubChem content for AID = {}", aid);
-						store.assay().setAssay(oldAssay); // will update history and stuff
+						logger.info("file [{}] too big, at: {}", name, ze.getSize());
+						continue;
 					}
+					Matcher m = PTN_PUBCHEM_SRC.matcher(name);
+					if (!m.matches()) continue;
+
+					// process remaining entries if not already processed
+					numMatches.incrementAndGet();
+
+					int aid = Integer.parseInt(m.group(1));
+					if (aid <= 0) continue; // unlikely
+
+					zscan.remaining.incrementAndGet();
+					inflight.acquire();
+					Runnable task = () ->
+					{
+						try
+						{
+							if (!stopped && !zscan.failed) scanEntry(zscan.zipFile, ze, aid);
+						}
+						catch (Exception ex)
+						{
+							zscan.failed = true;
+							logger.error("Failed to parse [" + ze.getName() + "] in " + zscan.file.getAbsolutePath(), ex);
+						}
+						finally
+						{
+							inflight.release();
+							finishOne(zscan);
+						}
+					};
+					if (pool != null) pool.execute(task); else task.run();
 				}
-				else
+				if (stopped) zscan.failed = true;
+			}
+			catch (InterruptedException ex)
+			{
+				zscan.failed = true;
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while scanning " + f.getAbsolutePath());
+			}
+			finally
+			{
+				finishOne(zscan);
+			}
+		}
+
+		// waits for everything that was submitted to complete
+		public void finish()
+		{
+			phaser.arriveAndAwaitAdvance();
+			if (pool != null) pool.shutdown();
+		}
+
+		// number of {entries, matches, added} for all of the files so far
+		public int[] getTallies()
+		{
+			return new int[]{numFiles.get(), numMatches.get(), numAdded.get()};
+		}
+
+		// called each time an entry is done, and when the enumeration is done: the last one closes up the file
+		private void finishOne(ZipScan zscan)
+		{
+			if (zscan.remaining.decrementAndGet() > 0) return;
+			try
+			{
+				zscan.zipFile.close();
+			}
+			catch (IOException ex) {logger.error("Failed to close " + zscan.file.getAbsolutePath(), ex);}
+
+			// got to the end, so mark off the file as no need to check it again
+			if (!zscan.failed) store.misc().submitLoadedFile(zscan.file.getAbsolutePath());
+			else numFailed.incrementAndGet();
+			phaser.arriveAndDeregister();
+		}
+
+		// runs on the pool: pulls out the assay description, and adds or updates accordingly
+		private void scanEntry(ZipFile zipFile, ZipEntry ze, int aid) throws IOException
+		{
+			// the entries are gzipped json files, but only the description at the beginning is of interest
+			JSONObject descr;
+			try (InputStream istr = new GZIPInputStream(zipFile.getInputStream(ze)))
+			{
+				descr = parseAssayDescr(istr);
+			}
+			if (descr == null) return;
+
+			Assay newAssay = parsePubChemDescr(descr, sourceMap, specialAID);
+			if (newAssay == null) return;
+
+			// different logic depending on whether the assay is already in the system
+			if (existingAID.contains(aid))
+			{
+				Assay oldAssay = store.assay().getAssayFromUniqueID(Identifier.PUBCHEM_PREFIX + aid);
+				if (oldAssay != null && mergePubChemAssays(newAssay, oldAssay))
 				{
-					// the assay is new, so it can be submitted as a non-curated entry
-					logger.info("adding new PubChem assay from AID = {}", aid);
-					store.assay().setAssay(newAssay);
-					counter.numAdded++;
+					logger.info("updating assay with new PubChem content for AID = {}", aid);
+					store.assay().setAssay(oldAssay); // will update history and stuff
 				}
-			});
+			}
+			else
+			{
+				// the assay is new, so it can be submitted as a non-curated entry
+				logger.info("adding new PubChem assay from AID = {}", aid);
+				store.assay().setAssay(newAssay);
+				numAdded.incrementAndGet();
+			}
 		}
-		catch (UncheckedIOException e)
+	}
+
+	// reads through a PubChem assay JSON stream and returns just the {PC_AssaySubmit.assay.descr} object, without building the
+	// rest of the document: the description comes first, so the (often much larger) data section is never even read; returns
+	// null if it isn't there
+	public static JSONObject parseAssayDescr(InputStream istr) throws IOException
+	{
+		JsonParser parser = Json.createParser(new BufferedReader(new InputStreamReader(istr, StandardCharsets.UTF_8)));
+		try
 		{
-			throw new IOException(e);
+			if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) return null;
+			if (!seekObject(parser, "PC_AssaySubmit") || !seekObject(parser, "assay") || !seekObject(parser, "descr")) return null;
+			return assembleObject(parser);
+		}
+		catch (JsonException ex)
+		{
+			throw new IOException("Invalid PubChem assay JSON", ex);
+		}
+		finally
+		{
+			parser.close();
 		}
-		
-		// got to the end, so mark off the file as no need to check it again
-		store.misc().submitLoadedFile(f.getAbsolutePath());
-		
-		return new int[]{counter.numFiles, counter.numMatches, counter.numAdded};
 	}
 
 	// converts the gzipped JSON file to a JSONObject
@@ -348,7 +486,13 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 	public static Assay parsePubChemAssay(JSONObject root, Map<String, SchemaTree.Node> sourceMap,
 					    				  Set<Integer> specialAID) throws JSONException
 	{
-		JSONObject descr = root.getJSONObject("assay").getJSONObject("descr");
+		return parsePubChemDescr(root.getJSONObject("assay").getJSONObject("descr"), sourceMap, specialAID);
+	}
+
+	// as above, but starting from the description object
+	public static Assay parsePubChemDescr(JSONObject descr, Map<String, SchemaTree.Node> sourceMap,
+										  Set<Integer> specialAID) throws JSONException
+	{
 		int aid = descr.getJSONObject("aid").getInt("id");
 		String source = descr.getJSONObject("aid_source").getJSONObject("db").getString("name");
 		
@@ -413,6 +557,35 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 		return assay;
 	}
 		
+	// assuming the parser is within an object, skips over everything until the given key turns up with an object value; returns
+	// false if it doesn't
+	private static boolean seekObject(JsonParser parser, String key)
+	{
+		while (parser.hasNext())
+		{
+			JsonParser.Event event = parser.next();
+			if (event == JsonParser.Event.END_OBJECT) return false;
+			if (event != JsonParser.Event.KEY_NAME) continue;
+			boolean match = parser.getString().equals(key);
+			event = parser.next();
+			if (match && event == JsonParser.Event.START_OBJECT) return true;
+			skipValue(parser, event);
+		}
+		return false;
+	}
+
+	// moves past the value that was started by the given event, without holding onto any of it
+	private static void skipValue(JsonParser parser, JsonParser.Event event)
+	{
+		if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) return;
+		for (int depth = 1; depth > 0 && parser.hasNext();)
+		{
+			event = parser.next();
+			if (event == JsonParser.Event.START_OBJECT || event == JsonParser.Event.START_ARRAY) depth++;
+			else if (event == JsonParser.Event.END_OBJECT || event == JsonParser.Event.END_ARRAY) depth--;
+		}
+	}
+
 	// pull out the "cross reference" part of a PubChem assay
 	private static PubChemXRef[] parseXRefs(JSONObject descr)
 	{
@@ -642,15 +815,12 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 				try
 				{
 					mblock.acquireBlock();
-					if (mblock.blockSize() > 0) 
-					{
-						for (PubChemMeasureBlock.AssayContent content : mblock.getBlockContent())
-						{
-							logger.info("Measurement Monitor: acquired for pubchem AID = {}, assayID = {}", content.pubchemAID, content.assayID);
-							investigateMeasurements(content.assayID, content.pubchemAID, content.measure);
-						}
-					}
+					if (mblock.blockSize() > 0) investigateMeasurements(mblock.getBlockContent());
 					else logger.info("Measurement Monitor: no measurements available");
+
+					// writing the measurements moves the watermark, so it can't be what decides whether to go again: carry on while
+					// blocks are still coming, and once there are none left, wait for a change made by someone else
+					if (mblock.blockSize() > 0) watermark = -1;
 				}
 				catch (Exception ex)
 				{
@@ -708,21 +878,26 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 					
 					try 
 					{
-						final int BLKSZ = 10;
-						for (int n = 0; n < compounds.length && !stopped; n += BLKSZ)
+						// the compound watermark is moved once for the whole lot, rather than for each one
+						try (DataStore.WriteSession writes = store.beginSession())
 						{
-							Compound[] subset = Arrays.copyOfRange(compounds, n, Math.min(n + BLKSZ, compounds.length));
-							new PubChemCompounds(subset).download();
-							for (Compound cpd : subset)
+							final int BLKSZ = 10;
+							for (int n = 0; n < compounds.length && !stopped; n += BLKSZ)
 							{
-								if (cpd.pubchemCID == 0 && Util.isBlank(cpd.molfile))
+								TaskScheduler.checkpoint();
+								Compound[] subset = Arrays.copyOfRange(compounds, n, Math.min(n + BLKSZ, compounds.length));
+								new PubChemCompounds(subset).download();
+								for (Compound cpd : subset)
 								{
-									throw new IOException("Failed to find CID for SID " + cpd.pubchemSID); // (delete it instead??
-								}
-								else
-								{
-									logger.info("Compound Monitor: matching SID {} with CID {}", cpd.pubchemSID, cpd.pubchemCID);
-									store.compound().updateCompound(cpd);
+									if (cpd.pubchemCID == 0 && Util.isBlank(cpd.molfile))
+									{
+										throw new IOException("Failed to find CID for SID " + cpd.pubchemSID); // (delete it instead??
+									}
+									else
+									{
+										logger.info("Compound Monitor: matching SID {} with CID {}", cpd.pubchemSID, cpd.pubchemCID);
+										store.compound().updateCompound(cpd);
+									}
 								}
 							}
 						}
@@ -766,7 +941,7 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 		
 		logger.info("Updating assay files");
 	
-		Set<Integer> existingAID = new HashSet<>();
+		IntHashSet existingAID = new IntHashSet();
 		for (String uniqueID : store.assay().uniqueIDFromAssayID(store.assay().fetchAllAssayID()))
 		{
 			Identifier.UID uid = Common.getIdentifier().parseKey(uniqueID);
@@ -792,23 +967,32 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 		List<File> files = new ArrayList<>();
 		for (File f : new File(module.directory).listFiles()) if (f.getName().endsWith(".zip")) files.add(f);
 		Collections.sort(files);
-		int numFiles = 0, numMatches = 0, numAdded = 0;
-		for (int n = 0; n < files.size(); n++)
+
+		int numThreads = module.scanThreads > 0 ? module.scanThreads : Runtime.getRuntime().availableProcessors();
+		AssayScan scan = new AssayScan(existingAID, sourceMap, specialAID, numThreads);
+		try
 		{
-			File f = files.get(n);
-			if (skipFiles.contains(f.getAbsolutePath())) continue;
-			
-			logger.info("  assay group ({}/{}): {}", n + 1, files.size(), f.getAbsolutePath());
-			try 
+			for (int n = 0; n < files.size() && !stopped; n++)
 			{
-				int[] tally = scanZipFile(f, existingAID, sourceMap, specialAID);
-				numFiles += tally[0];
-				numMatches += tally[1];
-				numAdded += tally[2];
+				File f = files.get(n);
+				if (skipFiles.contains(f.getAbsolutePath())) continue;
+				TaskScheduler.checkpoint();
+				
+				logger.info("  assay group ({}/{}): {}", n + 1, files.size(), f.getAbsolutePath());
+				try 
+				{
+					scan.submitFile(f);
+				}
+				catch (InterruptedIOException ex) {break;}
+				catch (Exception ex) {Util.errmsg("File parsing failed", ex);}
 			}
-			catch (Exception ex) {Util.errmsg("File parsing failed", ex);}
 		}
-		logger.info("  evaluated: {}, matches: {}, new assays: {}", numFiles, numMatches, numAdded);
+		finally
+		{
+			scan.finish();
+		}
+		int[] tally = scan.getTallies();
+		logger.info("  evaluated: {}, matches: {}, new assays: {}", tally[0], tally[1], tally[2]);
 	}
 
 	// PubChem sources that will be importable
@@ -823,16 +1007,55 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 
 	// given that a JSON object containing the full assay record for a given assay, parse out the measurements
 	protected boolean investigateMeasurements(long assayID, int aid, PubChemMeasurements dl) throws IOException, JSONException
+	{
+		// new compounds are reserved as the measurements are collected: the watermark is moved once at the end
+		try (DataStore.WriteSession writes = store.beginSession())
+		{
+			List<MeasureColumn> columns = new ArrayList<>();
+			boolean found = collectMeasurements(assayID, aid, dl, columns);
+			if (found) store.measure().replaceMeasurements(new long[]{assayID}, columns);
+			store.assay().submitPubChemAIDMeasured(aid, true);
+			return found;
+		}
+	}
+
+	// as above, but for a whole block of assays, which get their measurements replaced with a single bulk write
+	protected void investigateMeasurements(PubChemMeasureBlock.AssayContent[] contentList) throws IOException, JSONException
+	{
+		// as above: one watermark change for all of the compounds reserved by the block
+		try (DataStore.WriteSession writes = store.beginSession())
+		{
+			List<MeasureColumn> columns = new ArrayList<>();
+			List<Long> replaceList = new ArrayList<>();
+			for (PubChemMeasureBlock.AssayContent content : contentList)
+			{
+				TaskScheduler.checkpoint();
+				logger.info("Measurement Monitor: acquired for pubchem AID = {}, assayID = {}", content.pubchemAID, content.assayID);
+				if (collectMeasurements(content.assayID, content.pubchemAID, content.measure, columns)) replaceList.add(content.assayID);
+			}
+
+			if (!replaceList.isEmpty())
+			{
+				int numDocs = store.measure().replaceMeasurements(ArrayUtils.toPrimitive(replaceList.toArray(new Long[0])), columns);
+				logger.info("Measurement Monitor: replaced measurements for {} assays ({} blocks)", replaceList.size(), numDocs);
+			}
+			for (PubChemMeasureBlock.AssayContent content : contentList) store.assay().submitPubChemAIDMeasured(content.pubchemAID, true);
+		}
+	}
+
+	// pulls the measurements out of the downloaded content and appends them to the list of columns; returns false if there
+	// was nothing usable
+	protected boolean collectMeasurements(long assayID, int aid, PubChemMeasurements dl, List<MeasureColumn> columnList)
 	{
 		Column[] columns = dl.getColumns();
 		if (columns == null || columns.length == 0 || dl.numRows() == 0)
 		{
 			logger.info("Measurements: no data acquired for PubChem AID# {}, skipping", aid);
-			store.assay().submitPubChemAIDMeasured(aid, true);
 			return false;
 		}
 		
-		store.measure().deleteMeasurementsForAssay(assayID);
+		// each column refers to mostly the same substances, so only look them up once
+		Map<Integer, Long> sidToCompound = new HashMap<>();
 		
 		List<Row> summary = new ArrayList<>();
 		List<Row> probes = new ArrayList<>();
@@ -845,23 +1068,15 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 		}
 		if (!summary.isEmpty())
 		{
-			Measurement measure = new Measurement();
-			measure.assayID = assayID;
-			measure.name = "Active/Inactive";
-			measure.units = "binary";
-			measure.type = DataMeasure.TYPE_ACTIVITY;
-			fillMeasurements(measure, summary, -1);
-			store.measure().appendMeasurements(measure);
+			MeasureColumn measure = new MeasureColumn(assayID, "Active/Inactive", "binary", DataMeasure.TYPE_ACTIVITY, summary.size());
+			fillColumn(measure, summary, -1, sidToCompound);
+			columnList.add(measure);
 		}
 		if (!probes.isEmpty())
 		{
-			Measurement measure = new Measurement();
-			measure.assayID = assayID;
-			measure.name = "Probe";
-			measure.units = "binary";
-			measure.type = DataMeasure.TYPE_PROBE;
-			fillMeasurements(measure, summary, -2);
-			store.measure().appendMeasurements(measure);
+			MeasureColumn measure = new MeasureColumn(assayID, "Probe", "binary", DataMeasure.TYPE_PROBE, probes.size());
+			fillColumn(measure, probes, -2, sidToCompound);
+			columnList.add(measure);
 		}
 		
 		for (int n = 0; n < columns.length; n++)
@@ -876,16 +1091,12 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 			}
 			if (rows.isEmpty()) continue;
 					
-			Measurement measure = new Measurement();
-			measure.assayID = assayID;
-			measure.name = columns[n].name;
-			measure.units = columns[n].units.representation;
-			measure.type = columns[n].activeColumn ? DataMeasure.TYPE_PRIMARY : DataMeasure.TYPE_MEASUREMENT;
-			fillMeasurements(measure, rows, n);
-			store.measure().appendMeasurements(measure);
+			String type = columns[n].activeColumn ? DataMeasure.TYPE_PRIMARY : DataMeasure.TYPE_MEASUREMENT;
+			MeasureColumn measure = new MeasureColumn(assayID, columns[n].name, columns[n].units.representation, type, rows.size());
+			fillColumn(measure, rows, n, sidToCompound);
+			columnList.add(measure);
 		}
 		
-		store.assay().submitPubChemAIDMeasured(aid, true);
 		return true;	
 	}
 
@@ -973,21 +1184,19 @@ public class PubChemAssays extends BaseMonitor implements Runnable
 		return true;
 	}*/
 	
-	// convenience for fill in the molecule records; column index is the data entity, with special deals for negative values
-	protected void fillMeasurements(Measurement measure, List<Row> rows, int colidx)
+	// convenience for filling in the molecule records; column index is the data entity, with special deals for negative values;
+	// compound IDs are cached, since they are shared between columns
+	protected void fillColumn(MeasureColumn measure, List<Row> rows, int colidx, Map<Integer, Long> sidToCompound)
 	{
-		int sz = rows.size();
-		measure.compoundID = new long[sz];
-		measure.value = new Double[sz];
-		measure.relation = new String[sz];
-		for (int n = 0; n < sz; n++)
+		for (int n = 0; n < rows.size(); n++)
 		{
 			Row row = rows.get(n);
-			measure.compoundID[n] = store.compound().reserveCompoundPubChemSID(row.sid);
-			if (colidx == -1) measure.value[n] = Double.valueOf(row.outcome == PubChemMeasurements.Outcome.ACTIVE ? 1 : 0);
-			else if (colidx == -2) measure.value[n] = Double.valueOf(1);
+			Long compoundID = sidToCompound.get(row.sid);
+			if (compoundID == null) sidToCompound.put(row.sid, compoundID = store.compound().reserveCompoundPubChemSID(row.sid));
+			measure.compoundID[n] = compoundID;
+			if (colidx == -1) measure.value[n] = row.outcome == PubChemMeasurements.Outcome.ACTIVE ? 1 : 0;
+			else if (colidx == -2) measure.value[n] = 1;
 			else measure.value[n] = row.data[colidx].value;
-			measure.relation[n] = "=";
 		}
 	}
 
@@ -252,6 +252,7 @@ public class PubChemMeasurements
 		final int blksz = sz / nblks;
 		for (int i = 0; i < sz; i += blksz)
 		{
+			TaskScheduler.checkpoint();
 			logger.info("fetching block starting at #{}", i + 1);
 			
 			boolean nullFail = false;
@@ -422,7 +423,7 @@ public class PubChemMeasurements
 	}
 	
 	// assuming that a START_OBJECT event just been pulled out, puts together all of the content into a container
-	private JSONObject assembleObject(JsonParser parser)
+	protected static JSONObject assembleObject(JsonParser parser)
 	{
 		JSONObject json = new JSONObject();
 		String key = null;
@@ -448,7 +449,7 @@ public class PubChemMeasurements
 	}
 	
 	// assuming that a a START_ARRAY event just been pulled out, puts together all of the content into a container 
-	private JSONArray assembleArray(JsonParser parser)
+	protected static JSONArray assembleArray(JsonParser parser)
 	{
 		JSONArray json = new JSONArray();
 		
@@ -18,6 +18,8 @@
 
 package com.cdd.bae.tasks;
 
+import com.cdd.bae.util.*;
+
 import java.lang.management.*;
 import java.lang.management.OperatingSystemMXBean;
 
@@ -26,13 +28,15 @@ import javax.servlet.*;
 import com.sun.management.*;
 
 /*
-	Monitors the system. 
+	Monitors the system: periodically logs the number of open files, a digest of the runtime metrics, and the state of the
+	background tasks, so that the slow paths show up in the logs of a production server.
 */
 
 public class SystemMonitor extends BaseMonitor implements Runnable
 {
 	static final long DELAY_SECONDS = 1; // Initial delay
 	static final long PAUSE_SECONDS = 3600; // interval between system checks
+	static final int SUMMARY_TIMERS = 15; // number of the busiest timers to include in the log summary
 
 	// ------------ lifecycle ------------
 
@@ -40,7 +44,7 @@ public class SystemMonitor extends BaseMonitor implements Runnable
 	public void contextInitialized(ServletContextEvent ev)
 	{
 		super.contextInitialized(ev);
-		new Thread(this).start();
+		startTask(TaskScheduler.Priority.HIGH, this);
 	}
 
 	// ------------ public methods ------------
@@ -52,20 +56,25 @@ public class SystemMonitor extends BaseMonitor implements Runnable
 		if (stopped) return;
 		
 		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
-		if (!(os instanceof UnixOperatingSystemMXBean))
-		{
-			logger.info("Cannot monitor system on this server");
-			return;
-		}
+		if (!(os instanceof UnixOperatingSystemMXBean)) logger.info("Cannot monitor open files on this server");
 
 		// start the main loop
 		while (!stopped)
 		{
-			logger.info("Number of open files : {}", ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount());
+			if (os instanceof UnixOperatingSystemMXBean)
+				logger.info("Number of open files : {}", ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount());
+			logSummary();
 			waitTask(logger.isDebugEnabled() ? 10 : PAUSE_SECONDS);
 		}
 	}
 
 	// ------------ private methods ------------
 
+	private void logSummary()
+	{
+		var lines = Metrics.summary(SUMMARY_TIMERS);
+		if (!lines.isEmpty()) logger.info("Metrics summary:\n    {}", String.join("\n    ", lines));
+		var tasks = TaskScheduler.main().summary();
+		if (!tasks.isEmpty()) logger.info("Background tasks:\n    {}", String.join("\n    ", tasks));
+	}
 }
@@ -0,0 +1,355 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.tasks;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import org.json.*;
+import org.slf4j.*;
+
+/*
+	Central scheduler for the background tasks: each monitor (and each of the subtasks that some of them spin off) runs
+	on a thread that was started here, so that the scheduler can keep track of what it's doing, and decide when it gets
+	to do it.
+
+	A task is either running, or idle (i.e. waiting for its next turn, via BaseMonitor.waitTask and friends). Only so many
+	tasks are allowed to be running at the same time: the rest queue up, in order of priority, and are let through as
+	running tasks go idle, or give way at a checkpoint (which long loops call every so often). High priority tasks are
+	the lightweight housekeeping kind, and are never held back.
+
+	The scheduler also keeps an eye on the latency of the REST requests: when they've been slow over the last sampling
+	interval, the server is presumably busy with interactive users, so the other tasks back off for a while before carrying
+	on, for increasingly longer periods if it keeps up.
+*/
+
+public class TaskScheduler
+{
+	private static final Logger logger = LoggerFactory.getLogger(TaskScheduler.class);
+
+	public static final String LATENCY_TIMER = "rest.all"; // aggregate for all REST requests, recorded by RESTBaseServlet
+	public static final long SAMPLE_MILLIS = 10000; // how often the latency and configuration are looked at
+
+	public enum Priority {HIGH, NORMAL, LOW}
+	public enum State {QUEUED, BACKOFF, RUNNING, IDLE, STOPPED, FAILED}
+
+	private static final TaskScheduler main = new TaskScheduler(TaskScheduler::currentParams, Metrics.timer(LATENCY_TIMER), SAMPLE_MILLIS);
+	private static final ThreadLocal<Task> current = new ThreadLocal<>();
+
+	// bookkeeping for one task, which is also what gets reported
+	public static final class Task
+	{
+		private final TaskScheduler scheduler;
+		private final String name;
+		private final Priority priority;
+		private volatile State state = State.QUEUED;
+		private volatile boolean cancelled = false;
+		private volatile long lastRun = 0; // when the most recent run started (wall clock)
+		private volatile long lastDuration = -1; // milliseconds taken by the most recent completed run
+		private final AtomicLong runs = new AtomicLong(0);
+		private long ticket = 0, runStart = 0;
+		private boolean holding = false;
+
+		private Task(TaskScheduler scheduler, String name, Priority priority)
+		{
+			this.scheduler = scheduler;
+			this.name = name;
+			this.priority = priority;
+		}
+
+		public String getName() {return name;}
+		public Priority getPriority() {return priority;}
+		public State getState() {return state;}
+		public long getLastRun() {return lastRun;}
+		public long getLastDuration() {return lastDuration;}
+		public long getRuns() {return runs.get();}
+
+		// lets the task through any queueing or backoff, so that it can notice promptly that it has been told to stop
+		public void cancel()
+		{
+			cancelled = true;
+			synchronized (scheduler)
+			{
+				scheduler.notifyAll();
+			}
+		}
+
+		public JSONObject toJSON()
+		{
+			JSONObject json = new JSONObject();
+			json.put("name", name);
+			json.put("priority", priority.toString());
+			json.put("state", state.toString());
+			json.put("runs", runs.get());
+			if (lastRun > 0) json.put("lastRun", lastRun);
+			if (lastDuration >= 0) json.put("lastDuration", lastDuration);
+			return json;
+		}
+	}
+
+	private final Supplier<InitParams.BackgroundTasks> config;
+	private final Metrics.Histogram latency;
+	private final long sampleMillis;
+	private final List<Task> tasks = new CopyOnWriteArrayList<>();
+	private final PriorityQueue<Task> queue = new PriorityQueue<>(
+				Comparator.comparing((Task task) -> task.priority).thenComparingLong((task) -> task.ticket));
+	private long nextTicket = 0;
+	private int running = 0, limit = 1;
+	private long backoffMillis = 0, lastSample = 0, lastCount = 0, lastTotal = 0;
+	private double recentLatency = 0;
+
+	// ------------ public methods ------------
+
+	public static TaskScheduler main()
+	{
+		return main;
+	}
+
+	// the configuration comes from the supplier, and the request latency from the histogram; both are looked at (at most)
+	// once per sampling interval
+	public TaskScheduler(Supplier<InitParams.BackgroundTasks> config, Metrics.Histogram latency, long sampleMillis)
+	{
+		this.config = config;
+		this.latency = latency;
+		this.sampleMillis = sampleMillis;
+	}
+
+	// starts a new thread for the task, which gets going once it has been given a turn
+	public Task start(String name, Priority priority, Runnable body)
+	{
+		Task task = new Task(this, name, priority);
+		tasks.removeIf((look) -> look.name.equals(name) && (look.state == State.STOPPED || look.state == State.FAILED));
+		tasks.add(task);
+		new Thread(() -> execute(task, body), "task-" + name).start();
+		return task;
+	}
+
+	public List<Task> getTasks()
+	{
+		return new ArrayList<>(tasks);
+	}
+
+	// called by a task when it's about to wait for its next turn: it stops counting as running while the wait is going
+	// on, and afterwards lines up to carry on; when not called from a task, the wait happens as usual
+	public static void idle(Runnable wait)
+	{
+		Task task = current.get();
+		if (task == null)
+		{
+			wait.run();
+			return;
+		}
+		TaskScheduler scheduler = task.scheduler;
+		scheduler.endRun(task);
+		scheduler.release(task);
+		task.state = State.IDLE;
+		try
+		{
+			wait.run();
+		}
+		finally
+		{
+			scheduler.acquire(task);
+			scheduler.beginRun(task);
+		}
+	}
+
+	// called every so often from within long loops: if tasks of the same or higher priority are waiting, or the requests
+	// are slow, the current task steps aside for a while
+	public static void checkpoint()
+	{
+		Task task = current.get();
+		if (task == null || task.priority == Priority.HIGH || task.cancelled) return;
+		TaskScheduler scheduler = task.scheduler;
+		synchronized (scheduler)
+		{
+			scheduler.refresh();
+			Task next = scheduler.queue.peek();
+			boolean contended = next != null && next.priority.compareTo(task.priority) <= 0 && scheduler.running >= scheduler.limit;
+			if (!contended && scheduler.running <= scheduler.limit && scheduler.backoffMillis == 0) return;
+		}
+		scheduler.release(task);
+		scheduler.acquire(task);
+	}
+
+	public synchronized JSONObject toJSON()
+	{
+		JSONObject json = new JSONObject();
+		json.put("maxConcurrent", limit);
+		json.put("running", running);
+		json.put("queued", queue.size());
+		json.put("backoffSeconds", backoffMillis / 1000);
+		json.put("recentLatency", Math.round(recentLatency));
+		JSONArray list = new JSONArray();
+		for (Task task : tasks) list.put(task.toJSON());
+		json.put("tasks", list);
+		return json;
+	}
+
+	// one line per task, for the log
+	public List<String> summary()
+	{
+		List<String> lines = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (Task task : tasks)
+		{
+			String line = task.name + " (" + task.priority.toString().toLowerCase() + "): " + task.state.toString().toLowerCase() + ", runs " + task.runs.get();
+			if (task.lastRun > 0) line += ", last started " + (now - task.lastRun) / 1000 + " s ago";
+			if (task.lastDuration >= 0) line += ", took " + String.format("%.3f", task.lastDuration * 1E-3) + " s";
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	// ------------ private methods ------------
+
+	private static InitParams.BackgroundTasks currentParams()
+	{
+		Configuration configuration = Common.getConfiguration();
+		InitParams params = configuration == null ? null : configuration.getParams();
+		return params == null ? new InitParams.BackgroundTasks() : params.backgroundTasks;
+	}
+
+	private void execute(Task task, Runnable body)
+	{
+		current.set(task);
+		acquire(task);
+		beginRun(task);
+		State finalState = State.STOPPED;
+		try
+		{
+			body.run();
+		}
+		catch (RuntimeException | Error ex)
+		{
+			finalState = State.FAILED;
+			logger.error("Task " + task.name + " failed", ex);
+		}
+		finally
+		{
+			endRun(task);
+			release(task);
+			task.state = finalState;
+			current.remove();
+		}
+	}
+
+	private void beginRun(Task task)
+	{
+		task.runStart = System.nanoTime();
+		task.lastRun = System.currentTimeMillis();
+		task.runs.incrementAndGet();
+	}
+
+	private void endRun(Task task)
+	{
+		task.lastDuration = (System.nanoTime() - task.runStart) / 1000000;
+	}
+
+	// waits for the task to be allowed to run, which includes any backoff that currently applies
+	private void acquire(Task task)
+	{
+		if (task.priority == Priority.HIGH || task.cancelled)
+		{
+			task.state = State.RUNNING;
+			return;
+		}
+
+		boolean interrupted = false;
+		synchronized (this)
+		{
+			refresh();
+			if (backoffMillis > 0)
+			{
+				task.state = State.BACKOFF;
+				long until = System.currentTimeMillis() + backoffMillis;
+				for (long wait = backoffMillis; wait > 0 && !task.cancelled; wait = until - System.currentTimeMillis())
+				{
+					try {wait(wait);}
+					catch (InterruptedException ex) {interrupted = true; break;}
+				}
+			}
+
+			task.ticket = nextTicket++;
+			task.state = State.QUEUED;
+			queue.add(task);
+			while (!task.cancelled && (running >= limit || queue.peek() != task))
+			{
+				try {wait(sampleMillis);}
+				catch (InterruptedException ex) {interrupted = true;}
+				refresh();
+			}
+			queue.remove(task);
+			if (!task.cancelled)
+			{
+				running++;
+				task.holding = true;
+			}
+			task.state = State.RUNNING;
+			notifyAll(); // whoever is next in line is now at the front
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	private synchronized void release(Task task)
+	{
+		if (!task.holding) return;
+		task.holding = false;
+		running--;
+		notifyAll();
+	}
+
+	// takes another look at the configuration and the request latency, if the sampling interval has gone by
+	private void refresh()
+	{
+		long now = System.currentTimeMillis();
+		if (lastSample > 0 && now - lastSample < sampleMillis) return;
+
+		InitParams.BackgroundTasks params = config.get();
+		int newLimit = params.maxConcurrent > 0 ? params.maxConcurrent : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+		if (newLimit > limit) notifyAll();
+		limit = newLimit;
+
+		// average over the requests since last time (the count goes backwards if the metrics were reset)
+		long count = latency.getCount(), total = latency.getTotal();
+		recentLatency = count > lastCount && total >= lastTotal ? (double)(total - lastTotal) / (count - lastCount) * 1E-3 : 0;
+		boolean slow = lastSample > 0 && params.latencyThreshold > 0 && recentLatency > params.latencyThreshold;
+		if (slow)
+		{
+			long max = Math.max(1, params.maxBackoff) * 1000L;
+			backoffMillis = Math.min(max, Math.max(1000, backoffMillis * 2));
+			logger.info("Requests are slow ({} ms on average): background tasks backing off for {} s", Math.round(recentLatency), backoffMillis / 1000);
+		}
+		else if (backoffMillis > 0)
+		{
+			backoffMillis = 0;
+			logger.info("Request latency is back to normal: background tasks resuming");
+		}
+
+		lastSample = now;
+		lastCount = count;
+		lastTotal = total;
+	}
+}
@@ -69,7 +69,7 @@ public class VaultProtocols extends BaseMonitor implements Runnable
 			return;
 		}
 		
-		new Thread(this).start();
+		startTask(TaskScheduler.Priority.NORMAL, this);
 	}
 
 	// Override of contextDestroyed not required
@@ -111,7 +111,7 @@ public class VaultProtocols extends BaseMonitor implements Runnable
 
 		store = Common.getDataStore();
 		
-		new Thread(() -> monitorMolecules()).start();
+		startTask("molecules", TaskScheduler.Priority.LOW, this::monitorMolecules);
 		
 		// start the main loop
 	
@@ -124,6 +124,7 @@ public class VaultProtocols extends BaseMonitor implements Runnable
 				if (stopped) break exit;
 				processVaultProtocols(vaultID, (theVaultID, protocol) ->
 				{
+					TaskScheduler.checkpoint();
 					queryProtocol(theVaultID, protocol);
 					return stopped;
 				});
@@ -296,16 +297,14 @@ public class VaultProtocols extends BaseMonitor implements Runnable
 		
 		cullDuplicateActivity(measureList.get(0));
 		
-		// apply all of the measurements
-		store.measure().deleteMeasurementsForAssay(assay.assayID);
-		
+		// apply all of the measurements, replacing the previous ones in one go (relations are all "=")
+		List<DataObject.MeasureColumn> columns = new ArrayList<>();
 		for (DataObject.Measurement measure : measureList)
 		{
 			if (measure.compoundID == null) continue; // can happen when nothing interesting was found
-			measure.relation = new String[measure.compoundID.length];
-			Arrays.fill(measure.relation, "=");
-			store.measure().appendMeasurements(measure);
+			columns.add(new DataObject.MeasureColumn(measure));
 		}
+		store.measure().replaceMeasurements(new long[]{assay.assayID}, columns);
 		
 		logger.info("submitting: assayID={} uniqueID={} measureState={}", assay.assayID, assay.uniqueID, assay.measureState);
 		store.assay().submitAssay(assay);
@@ -382,11 +381,14 @@ public class VaultProtocols extends BaseMonitor implements Runnable
 
 		// make sure compounds exist for each ID (mapping from Vault to BAE)
 		long[] compoundID = new long[sz];
-		for (int n = 0; n < sz; n++) 
+		try (DataStore.WriteSession writes = store.beginSession())
 		{
-			long moleculeID = moleculeList.get(n);
-			compoundID[n] = store.compound().reserveCompoundVault(vaultID, moleculeID);
-		}		
+			for (int n = 0; n < sz; n++) 
+			{
+				long moleculeID = moleculeList.get(n);
+				compoundID[n] = store.compound().reserveCompoundVault(vaultID, moleculeID);
+			}
+		}
 		
 		// fill in measurement 0: this is the active/inactive determination
 		int actidx = readoutToIndex.get(activeReadoutID);
@@ -545,6 +547,7 @@ public class VaultProtocols extends BaseMonitor implements Runnable
 					DataObject.Compound[] compounds = store.compound().fetchCompoundsNeedVaultMol(100);
 					if (compounds.length == 0) break;
 					
+					TaskScheduler.checkpoint();
 					try {processMolecules(compounds);}
 					catch (Exception ex)
 					{
@@ -585,13 +588,16 @@ public class VaultProtocols extends BaseMonitor implements Runnable
 
 			logger.debug("#compounds {}, #vaultMID {}, #returned {}", group.size(), vaultMIDs.length, molFiles.size());
 
-			for (DataObject.Compound cpd : group)
+			try (DataStore.WriteSession writes = store.beginSession())
 			{
-				// if no structure is returned, we assume no molecule, set to blank string to stop it coming back
-				if (logger.isDebugEnabled() && !molFiles.containsKey(cpd.vaultMID)) logger.debug(" compound {} missing", cpd.vaultMID);
-				cpd.molfile = molFiles.getOrDefault(Long.valueOf(cpd.vaultMID), "");
-				if (!cpd.molfile.equals("")) cpd.hashECFP6 = ChemInf.hashECFP6(ChemInf.parseMolecule(cpd.molfile));
-				store.compound().updateCompound(cpd);
+				for (DataObject.Compound cpd : group)
+				{
+					// if no structure is returned, we assume no molecule, set to blank string to stop it coming back
+					if (logger.isDebugEnabled() && !molFiles.containsKey(cpd.vaultMID)) logger.debug(" compound {} missing", cpd.vaultMID);
+					cpd.molfile = molFiles.getOrDefault(Long.valueOf(cpd.vaultMID), "");
+					if (!cpd.molfile.equals("")) cpd.hashECFP6 = ChemInf.hashECFP6(ChemInf.parseMolecule(cpd.molfile));
+					store.compound().updateCompound(cpd);
+				}
 			}
 		}
 	}
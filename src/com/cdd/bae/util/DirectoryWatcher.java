@@ -34,6 +34,7 @@ public class DirectoryWatcher
 	protected List<String> requiredFiles;
 
 	private Map<File, FileWatcher> loaders = new HashMap<>();
+	private Map<File, Long> dirGenerations = null; // if all directories are watched by FileEvents: their state when loaded
 
 	// ------------ public methods ------------
 
@@ -90,6 +91,13 @@ public class DirectoryWatcher
 
 	public boolean hasChanged()
 	{
+		// if no entries have come or gone from the directories since loading, only the files themselves need checking
+		if (directoriesUnchanged())
+		{
+			for (FileWatcher loader : loaders.values()) if (loader.hasChanged()) return true;
+			return false;
+		}
+
 		// first check if the list of templates has changed
 		List<File> files;
 		try
@@ -112,6 +120,7 @@ public class DirectoryWatcher
 	{
 		loaders.clear();
 
+		dirGenerations = watchDirectories();
 		List<File> files = getFilesOrdered();
 		for (File file : files) loaders.put(file, newFileWatcher(file));
 		postLoad();
@@ -139,6 +148,36 @@ public class DirectoryWatcher
 		return new File(dirName + File.separator + name);
 	}
 
+	// if FileEvents can watch the directory (and subdirectories, if applicable), returns the generation for each; otherwise
+	// returns null, meaning that the directories have to be listed each time
+	private Map<File, Long> watchDirectories()
+	{
+		FileEvents events = FileEvents.active();
+		if (events == null) return null;
+
+		Map<File, Long> generations = new HashMap<>();
+		List<File> pending = new ArrayList<>();
+		pending.add(new File(dirName));
+		while (!pending.isEmpty())
+		{
+			File dir = pending.remove(pending.size() - 1);
+			long gen = events.directoryGeneration(dir);
+			if (gen < 0) return null;
+			generations.put(dir, gen);
+			if (recursive) for (File f : dir.listFiles()) if (f.isDirectory() && !f.getName().startsWith(".")) pending.add(f);
+		}
+		return generations;
+	}
+
+	private boolean directoriesUnchanged()
+	{
+		FileEvents events = FileEvents.active();
+		if (events == null || dirGenerations == null) return false;
+		for (Map.Entry<File, Long> entry : dirGenerations.entrySet())
+			if (events.directoryGeneration(entry.getKey()) != entry.getValue()) return false;
+		return true;
+	}
+
 	// find files in directory (order is important)
 	protected List<File> getFilesOrdered() throws ConfigurationException
 	{
@@ -0,0 +1,251 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.slf4j.*;
+
+/*
+	Event-driven notification of file changes, using the operating system's file watching facility (inotify on Linux)
+	rather than checking the modification time of every file on each pass. FileWatcher and DirectoryWatcher make use of it
+	when it has been started, which is done by ConfigMonitor; otherwise they poll, as they always have.
+
+	Each path that is seen to change is given a new "generation" number, so a watcher only needs to remember the generation
+	of its files at the time it loaded them, and look closer at those that have moved on. Directories have their own
+	generation, which changes when entries are created or deleted. Editors and deployment scripts tend to produce a
+	burst of events for each save (truncate, write, rename, etc.), so events are held back until the burst has gone quiet,
+	and only then published.
+
+	Directories that can't be watched reliably get a generation of -1, and their files are left to be polled: this is
+	the case for network filesystems (where changes made by other hosts don't produce events), symbolic links (which
+	would need to be followed to wherever they point), and whenever the system refuses to watch any more directories.
+	If the only available implementation is itself a polling one (e.g. Mac OS), the service isn't started at all.
+*/
+
+public class FileEvents
+{
+	private static final Logger logger = LoggerFactory.getLogger(FileEvents.class);
+
+	public static final long QUIET_MILLIS = 500; // events are published once there's been none for this long
+
+	// filesystem types for which events aren't reliable, so polling is preferred
+	private static final Set<String> REMOTE_TYPES = new HashSet<>(Arrays.asList(
+				"nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "smb3", "afs", "9p", "vboxsf", "fuse.sshfs", "fuse.s3fs"));
+
+	private static FileEvents main = null;
+
+	private final WatchService service;
+	private final Map<Path, WatchKey> watched = new HashMap<>();
+	private final Set<Path> unwatchable = new HashSet<>();
+	private final Map<Path, Long> generations = new ConcurrentHashMap<>(); // only for files that someone has asked about
+	private final Map<Path, Long> dirGenerations = new ConcurrentHashMap<>();
+	private final Map<Path, Long> epochs = new ConcurrentHashMap<>(); // moves on when a directory's events were lost
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+	private final Thread thread;
+	private volatile boolean stopped = false;
+
+	// ------------ public methods ------------
+
+	// starts the shared instance, if the platform has a proper implementation; returns null if not
+	public static synchronized FileEvents start()
+	{
+		if (main != null) return main;
+		try
+		{
+			WatchService service = FileSystems.getDefault().newWatchService();
+			if (service.getClass().getSimpleName().contains("Polling"))
+			{
+				service.close();
+				logger.info("File events not supported natively: polling instead");
+				return null;
+			}
+			main = new FileEvents(service);
+			logger.info("File events started");
+			return main;
+		}
+		catch (IOException | UnsupportedOperationException ex)
+		{
+			logger.warn("File events unavailable: polling instead ({})", ex.getMessage());
+			return null;
+		}
+	}
+
+	// the shared instance, or null if it isn't running
+	public static synchronized FileEvents active()
+	{
+		return main;
+	}
+
+	public static synchronized void stop()
+	{
+		if (main == null) return;
+		main.shutdown();
+		main = null;
+	}
+
+	// the given callback is invoked, on the event thread, whenever a burst of changes has settled
+	public void addListener(Runnable listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(Runnable listener)
+	{
+		listeners.remove(listener);
+	}
+
+	// current generation for a file (which need not exist), starting to watch its directory if necessary; -1 means that it
+	// can't be watched, and has to be polled
+	public long generation(File file)
+	{
+		Path path = normalise(file);
+		Path dir = path.getParent();
+		if (dir == null || !watch(dir) || Files.isSymbolicLink(path)) return -1;
+		return generations.computeIfAbsent(path, (p) -> 0L) + epochs.getOrDefault(dir, 0L);
+	}
+
+	// current generation for the entries of a directory: moves on whenever something is created or deleted within it
+	public long directoryGeneration(File dir)
+	{
+		Path path = normalise(dir);
+		if (!watch(path)) return -1;
+		return dirGenerations.getOrDefault(path, 0L);
+	}
+
+	// ------------ private methods ------------
+
+	private FileEvents(WatchService service)
+	{
+		this.service = service;
+		thread = new Thread(this::run, "file-events");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void shutdown()
+	{
+		stopped = true;
+		thread.interrupt();
+		try {service.close();}
+		catch (IOException ex) {/* nothing to be done */}
+	}
+
+	private static Path normalise(File file)
+	{
+		return file.toPath().toAbsolutePath().normalize();
+	}
+
+	// makes sure that events are being received for the directory: returns false if that's not possible
+	private synchronized boolean watch(Path dir)
+	{
+		if (watched.containsKey(dir)) return true;
+		if (unwatchable.contains(dir) || stopped) return false;
+		try
+		{
+			if (!Files.isDirectory(dir)) return false; // may come into existence later, so don't remember it
+			String type = Files.getFileStore(dir).type();
+			if (REMOTE_TYPES.contains(type)) throw new IOException("filesystem type " + type + " is remote");
+			watched.put(dir, dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+			return true;
+		}
+		catch (IOException | UnsupportedOperationException ex)
+		{
+			// e.g. the inotify watch limit has been reached
+			logger.info("Cannot watch {} for events, will poll: {}", dir, ex.getMessage());
+			unwatchable.add(dir);
+			return false;
+		}
+	}
+
+	private synchronized void unwatch(Path dir)
+	{
+		WatchKey key = watched.remove(dir);
+		if (key != null) key.cancel();
+	}
+
+	// the event loop: collects paths as they're reported, and publishes them once things have been quiet for long enough
+	private void run()
+	{
+		Set<Path> pendingFiles = new HashSet<>(), pendingDirs = new HashSet<>(), pendingEpochs = new HashSet<>();
+		long lastEvent = 0;
+		while (!stopped)
+		{
+			try
+			{
+				WatchKey key;
+				if (pendingFiles.isEmpty() && pendingDirs.isEmpty() && pendingEpochs.isEmpty())
+					key = service.take();
+				else
+				{
+					long wait = lastEvent + QUIET_MILLIS - System.currentTimeMillis();
+					key = wait > 0 ? service.poll(wait, TimeUnit.MILLISECONDS) : null;
+				}
+
+				if (key != null)
+				{
+					lastEvent = System.currentTimeMillis();
+					Path dir = (Path)key.watchable();
+					for (WatchEvent<?> event : key.pollEvents())
+					{
+						if (event.kind() == OVERFLOW)
+						{
+							// events were lost, so anything in the directory might have changed
+							pendingDirs.add(dir);
+							pendingEpochs.add(dir);
+							continue;
+						}
+						pendingFiles.add(dir.resolve((Path)event.context()));
+						if (event.kind() != ENTRY_MODIFY) pendingDirs.add(dir);
+					}
+					if (!key.reset())
+					{
+						// directory is gone: anyone who asks again will find out it's unwatchable, or start watching afresh
+						unwatch(dir);
+						pendingDirs.add(dir);
+						pendingEpochs.add(dir);
+					}
+					continue;
+				}
+
+				for (Path path : pendingFiles) generations.computeIfPresent(path, (p, gen) -> gen + 1);
+				for (Path path : pendingDirs) dirGenerations.merge(path, 1L, Long::sum);
+				for (Path path : pendingEpochs) epochs.merge(path, 1L, Long::sum);
+				logger.debug("File events: {} files, {} directories changed", pendingFiles.size(), pendingDirs.size());
+				pendingFiles.clear();
+				pendingDirs.clear();
+				pendingEpochs.clear();
+				for (Runnable listener : listeners)
+				{
+					try {listener.run();}
+					catch (Exception ex) {logger.error("File event listener failed", ex);}
+				}
+			}
+			catch (InterruptedException | ClosedWatchServiceException ex)
+			{
+				break;
+			}
+		}
+	}
+}
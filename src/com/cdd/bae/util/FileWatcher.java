@@ -19,6 +19,8 @@
 package com.cdd.bae.util;
 
 import java.io.*;
+import java.nio.file.*;
+import java.security.*;
 import java.util.*;
 
 import com.cdd.bao.util.*;
@@ -36,6 +38,10 @@ import com.cdd.bao.util.*;
 		- getFiles: returns list of all watched files
 		- hasChanged: have the watched files changed?
 		- reset: reset the state of the watcher to the current; hasChanged will return false after this command until files change 
+
+	Normally the modification time of each file is checked every time. If FileEvents is running, files that it can watch
+	are only looked at once an event has been seen for them, at which point the content is compared against a hash taken
+	at the last reset, so that rewriting a file with the same content (or just touching it) doesn't count as a change.
 */
 
 public class FileWatcher
@@ -44,8 +50,12 @@ public class FileWatcher
 	private Map<String, File> filesByLabel = new HashMap<>();
 	private Map<File, Boolean> fileExists = new HashMap<>();
 	protected Map<File, Long> lastModified = new HashMap<>();
+	private Map<File, Long> generation = new HashMap<>(); // only for files that are being watched by FileEvents
+	private Map<File, String> contentHash = new HashMap<>(); // likewise, and only if not too big
 	private boolean stateChanged = false;
 
+	private static final long HASH_LIMIT = 16 * 1024 * 1024; // larger files are compared by modification time only
+
 	// ------------ public methods ------------
 
 	// we can watch a single file or a directory of files
@@ -91,13 +101,31 @@ public class FileWatcher
 		if (stateChanged) return files;
 
 		List<File> changedFiles = new ArrayList<>();
-		// a file has changed if
-		// 	condition 1: file was either deleted or created (xor-operator)
-		// 	condition 2: file exists and was modified
-		for (File f : files)
-			if ((fileExists.get(f).booleanValue() ^ f.exists())
-					|| (f.exists() && lastModified.get(f) < f.lastModified()))
-				changedFiles.add(f);
+		FileEvents events = FileEvents.active();
+		synchronized (this)
+		{
+			for (File f : files)
+			{
+				// when the file is being watched, there's nothing to check unless an event has been seen for it
+				Long gen = generation.get(f);
+				long current = gen == null || events == null ? -1 : events.generation(f);
+				if (gen != null && current == gen) continue;
+
+				// a file has changed if
+				// 	condition 1: file was either deleted or created (xor-operator)
+				// 	condition 2: file exists and was modified
+				boolean changed = (fileExists.get(f).booleanValue() ^ f.exists())
+						|| (f.exists() && lastModified.get(f) < f.lastModified());
+
+				// if the event was for a file with the same content as before, it is ignored from now on
+				if (current >= 0 && f.exists() && contentHash.containsKey(f))
+				{
+					changed = !contentHash.get(f).equals(hashOf(f));
+					if (!changed) generation.put(f, current);
+				}
+				if (changed) changedFiles.add(f);
+			}
+		}
 		return changedFiles;
 	}
 
@@ -158,10 +186,18 @@ public class FileWatcher
 		{
 			fileExists.clear();
 			lastModified.clear();
+			generation.clear();
+			contentHash.clear();
+			FileEvents events = FileEvents.active();
 			for (File f : files)
 			{
 				fileExists.put(f, f.exists());
 				lastModified.put(f, f.exists() ? f.lastModified() : 0);
+
+				long gen = events == null ? -1 : events.generation(f);
+				if (gen < 0) continue;
+				generation.put(f, gen);
+				if (f.exists() && f.length() <= HASH_LIMIT) contentHash.put(f, hashOf(f));
 			}
 			stateChanged = false;
 		}
@@ -176,6 +212,21 @@ public class FileWatcher
 
 	// ------------ private or protected methods ------------
 
+	// digest of the file's content; if it can't be read, returns something that won't match anything else
+	private static String hashOf(File file)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(Files.readAllBytes(file.toPath()));
+			return Base64.getEncoder().encodeToString(digest);
+		}
+		catch (IOException ex)
+		{
+			return "unreadable:" + System.nanoTime();
+		}
+		catch (NoSuchAlgorithmException ex) {throw new IllegalStateException(ex);} // SHA-1 is always available
+	}
+
 	private void initFile(File file)
 	{
 		if (file == null)
@@ -0,0 +1,137 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import java.util.*;
+
+/*
+	Set of primitive integers, using open addressing with linear probing: avoids boxing every value, which adds up when
+	the set has to hold hundreds of thousands of identifiers (e.g. PubChem AIDs).
+
+	Not synchronised: once it has been filled, any number of threads can call contains(..) safely, but modifications
+	must not happen at the same time.
+*/
+
+public class IntHashSet
+{
+	private static final int FREE = 0; // empty slot marker: the value zero itself is tracked separately
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private int[] table;
+	private int size = 0;
+	private boolean hasZero = false;
+
+	// ------------ public methods ------------
+
+	public IntHashSet()
+	{
+		this(16);
+	}
+
+	public IntHashSet(int capacity)
+	{
+		int sz = 16;
+		while (sz * LOAD_FACTOR < capacity) sz <<= 1;
+		table = new int[sz];
+	}
+
+	public IntHashSet(int[] values)
+	{
+		this(values.length);
+		for (int v : values) add(v);
+	}
+
+	// adds the value, returning true if it was not already present
+	public boolean add(int value)
+	{
+		if (value == FREE)
+		{
+			if (hasZero) return false;
+			hasZero = true;
+			size++;
+			return true;
+		}
+
+		int mask = table.length - 1;
+		for (int n = hash(value) & mask; ; n = (n + 1) & mask)
+		{
+			if (table[n] == value) return false;
+			if (table[n] == FREE)
+			{
+				table[n] = value;
+				if (++size > table.length * LOAD_FACTOR) rehash(table.length << 1);
+				return true;
+			}
+		}
+	}
+
+	public boolean contains(int value)
+	{
+		if (value == FREE) return hasZero;
+
+		int mask = table.length - 1;
+		for (int n = hash(value) & mask; ; n = (n + 1) & mask)
+		{
+			if (table[n] == value) return true;
+			if (table[n] == FREE) return false;
+		}
+	}
+
+	public int size() {return size;}
+	public boolean isEmpty() {return size == 0;}
+
+	// returns the content as a sorted array
+	public int[] toArray()
+	{
+		int[] ret = new int[size];
+		int pos = 0;
+		if (hasZero) ret[pos++] = 0;
+		for (int v : table) if (v != FREE) ret[pos++] = v;
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(toArray());
+	}
+
+	// ------------ private methods ------------
+
+	// scrambles the bits, since identifiers tend to be sequential
+	private static int hash(int value)
+	{
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void rehash(int newSize)
+	{
+		int[] oldTable = table;
+		table = new int[newSize];
+		int mask = newSize - 1;
+		for (int v : oldTable) if (v != FREE)
+		{
+			int n = hash(v) & mask;
+			while (table[n] != FREE) n = (n + 1) & mask;
+			table[n] = v;
+		}
+	}
+}
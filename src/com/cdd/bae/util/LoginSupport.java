@@ -92,7 +92,7 @@ public class LoginSupport
 		
 		// a previously prepared session must exist, and the access token must match
 		if (curatorID == null) return null;
-		Authentication.Session session = Common.getAuthentication().getSession(curatorID);
+		Authentication.Session session = Common.getAuthentication().getSession(curatorID, accessToken);
 		if (session == null) return null;
 		if (!session.serviceName.equals(serviceName) || !session.accessToken.equals(accessToken)) session = null;
 		return session;
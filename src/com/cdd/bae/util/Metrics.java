@@ -0,0 +1,250 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import org.json.*;
+
+/*
+	In-process registry of runtime measurements, so that it's possible to see where the time goes on a live server without
+	attaching a profiler. Everything is identified by a dotted name, e.g. "rest.GetAssay" or "mongo.assay.find", and is
+	created on first use.
+
+	Timers are latency histograms in the style of HdrHistogram: values are recorded in microseconds into buckets that have
+	16 linear subdivisions for each power of 2, so percentiles are accurate to within about 6% over the whole range, with a
+	fixed amount of memory and no locking on the recording path. Caches report hits & misses, and gauges are evaluated
+	only when the metrics are reported.
+*/
+
+public class Metrics
+{
+	private static final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+	private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private static final Map<String, HitRate> caches = new ConcurrentHashMap<>();
+	private static final Map<String, Supplier<Object>> gauges = new ConcurrentHashMap<>();
+	private static volatile long timeStarted = System.currentTimeMillis();
+
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	// latency histogram: values are microseconds
+	public static final class Histogram
+	{
+		private static final int SUB_BITS = 4, SUB_COUNT = 1 << SUB_BITS; // 16 subdivisions per power of 2
+		private static final int LINEAR = SUB_COUNT * 2; // values below this have their own bucket
+		private static final int NUM_BUCKETS = LINEAR + (63 - SUB_BITS) * SUB_COUNT;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+		private final LongAdder count = new LongAdder(), total = new LongAdder();
+		private final AtomicLong max = new AtomicLong(0);
+
+		// records the time since the given System.nanoTime() value; returns the value in microseconds
+		public long since(long startNanos)
+		{
+			long micros = (System.nanoTime() - startNanos) / 1000;
+			record(micros);
+			return micros;
+		}
+
+		public void record(long micros)
+		{
+			if (micros < 0) micros = 0;
+			buckets.incrementAndGet(bucketIndex(micros));
+			count.increment();
+			total.add(micros);
+			max.accumulateAndGet(micros, Math::max);
+		}
+
+		public long getCount() {return count.sum();}
+		public long getTotal() {return total.sum();}
+		public long getMax() {return max.get();}
+		public double getMean()
+		{
+			long n = count.sum();
+			return n == 0 ? 0 : (double)total.sum() / n;
+		}
+
+		// returns the value below which the given percentage of recorded values fall (to within the bucket resolution)
+		public long getPercentile(double percent)
+		{
+			long n = count.sum();
+			if (n == 0) return 0;
+			long threshold = Math.max(1, (long)Math.ceil(n * percent / 100));
+			long seen = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++)
+			{
+				seen += buckets.get(i);
+				if (seen >= threshold) return Math.min(bucketUpper(i), max.get());
+			}
+			return max.get();
+		}
+
+		public void reset()
+		{
+			for (int i = 0; i < NUM_BUCKETS; i++) buckets.set(i, 0);
+			count.reset();
+			total.reset();
+			max.set(0);
+		}
+
+		public JSONObject toJSON(double elapsedSeconds)
+		{
+			JSONObject json = new JSONObject();
+			long n = getCount();
+			json.put("count", n);
+			json.put("ratePerMinute", elapsedSeconds > 0 ? n * 60 / elapsedSeconds : 0);
+			json.put("totalMS", getTotal() / 1000);
+			json.put("meanMS", getMean() / 1000);
+			for (double pc : PERCENTILES) json.put("p" + formatPercentile(pc) + "MS", getPercentile(pc) / 1000.0);
+			json.put("maxMS", getMax() / 1000.0);
+			return json;
+		}
+
+		// values below the linear range each get their own bucket, and thereafter each power of 2 is divided evenly
+		static int bucketIndex(long value)
+		{
+			if (value < LINEAR) return (int)value;
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+			return LINEAR + (shift - 1) * SUB_COUNT + (int)(value >> shift) - SUB_COUNT;
+		}
+
+		// largest value that falls into the bucket
+		static long bucketUpper(int index)
+		{
+			if (index < LINEAR) return index;
+			int shift = (index - LINEAR) / SUB_COUNT + 1;
+			long sub = (index - LINEAR) % SUB_COUNT + SUB_COUNT;
+			return ((sub + 1) << shift) - 1;
+		}
+	}
+
+	// hits and misses for some kind of cache
+	public static final class HitRate
+	{
+		private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+		public void hit() {hits.increment();}
+		public void miss() {misses.increment();}
+		public void record(boolean hit)
+		{
+			if (hit) hits.increment(); else misses.increment();
+		}
+
+		public long getHits() {return hits.sum();}
+		public long getMisses() {return misses.sum();}
+		public double getRate()
+		{
+			long h = hits.sum(), total = h + misses.sum();
+			return total == 0 ? 0 : (double)h / total;
+		}
+
+		public JSONObject toJSON()
+		{
+			return new JSONObject().put("hits", getHits()).put("misses", getMisses()).put("hitRate", getRate());
+		}
+	}
+
+	// ------------ public methods ------------
+
+	private Metrics()
+	{
+	}
+
+	public static Histogram timer(String name) {return timers.computeIfAbsent(name, k -> new Histogram());}
+	public static LongAdder counter(String name) {return counters.computeIfAbsent(name, k -> new LongAdder());}
+	public static HitRate cache(String name) {return caches.computeIfAbsent(name, k -> new HitRate());}
+
+	// a value that is obtained from elsewhere whenever the metrics are reported, e.g. the size of a cache
+	public static void gauge(String name, Supplier<Object> supplier) {gauges.put(name, supplier);}
+
+	// starts everything again from zero (gauges are left alone, since they are just views)
+	public static void reset()
+	{
+		for (Histogram hist : timers.values()) hist.reset();
+		for (LongAdder counter : counters.values()) counter.reset();
+		caches.clear();
+		timeStarted = System.currentTimeMillis();
+	}
+
+	// snapshot of everything, with each kind of metric sorted by name
+	public static JSONObject toJSON()
+	{
+		double elapsed = (System.currentTimeMillis() - timeStarted) / 1000.0;
+
+		JSONObject json = new JSONObject();
+		json.put("since", timeStarted);
+		json.put("elapsedSeconds", elapsed);
+
+		JSONObject jsonTimers = new JSONObject();
+		for (Map.Entry<String, Histogram> entry : new TreeMap<>(timers).entrySet())
+			if (entry.getValue().getCount() > 0) jsonTimers.put(entry.getKey(), entry.getValue().toJSON(elapsed));
+		json.put("timers", jsonTimers);
+
+		JSONObject jsonCounters = new JSONObject();
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) jsonCounters.put(entry.getKey(), entry.getValue().sum());
+		json.put("counters", jsonCounters);
+
+		JSONObject jsonCaches = new JSONObject();
+		for (Map.Entry<String, HitRate> entry : new TreeMap<>(caches).entrySet()) jsonCaches.put(entry.getKey(), entry.getValue().toJSON());
+		json.put("caches", jsonCaches);
+
+		JSONObject jsonGauges = new JSONObject();
+		for (Map.Entry<String, Supplier<Object>> entry : new TreeMap<>(gauges).entrySet())
+		{
+			try {jsonGauges.put(entry.getKey(), entry.getValue().get());}
+			catch (Exception ex) {jsonGauges.put(entry.getKey(), ex.toString());}
+		}
+		json.put("gauges", jsonGauges);
+
+		return json;
+	}
+
+	// human readable digest, suitable for writing to the log: the busiest timers by total time, then the caches
+	public static List<String> summary(int maxTimers)
+	{
+		List<String> lines = new ArrayList<>();
+		List<Map.Entry<String, Histogram>> busiest = new ArrayList<>();
+		for (Map.Entry<String, Histogram> entry : timers.entrySet()) if (entry.getValue().getCount() > 0) busiest.add(entry);
+		busiest.sort((e1, e2) -> Long.compare(e2.getValue().getTotal(), e1.getValue().getTotal()));
+
+		for (int n = 0; n < busiest.size() && n < maxTimers; n++)
+		{
+			String name = busiest.get(n).getKey();
+			Histogram hist = busiest.get(n).getValue();
+			lines.add(String.format("%s: n=%d total=%.1fs mean=%.1fms p50=%.1fms p99=%.1fms max=%.1fms", name, hist.getCount(),
+						hist.getTotal() / 1E6, hist.getMean() / 1E3, hist.getPercentile(50) / 1E3, hist.getPercentile(99) / 1E3, hist.getMax() / 1E3));
+		}
+		for (Map.Entry<String, HitRate> entry : new TreeMap<>(caches).entrySet())
+		{
+			HitRate rate = entry.getValue();
+			lines.add(String.format("cache %s: hits=%d misses=%d rate=%.1f%%", entry.getKey(), rate.getHits(), rate.getMisses(), rate.getRate() * 100));
+		}
+		return lines;
+	}
+
+	// ------------ private methods ------------
+
+	private static String formatPercentile(double pc)
+	{
+		return pc == Math.rint(pc) ? String.valueOf((int)pc) : String.valueOf(pc).replace('.', '_');
+	}
+}
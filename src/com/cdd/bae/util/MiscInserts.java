@@ -231,7 +231,7 @@ public class MiscInserts
 		{
 			pfxMap.put(ModelSchema.prefixMap[n], ModelSchema.prefixMap[n + 1]);
 		}
-		buff.append(pfxMap.toString(4) + ";\n");
+		buff.append(pfxMap.toString() + ";\n");
 		buff.append("</script>\n");
 
 		return buff.toString();
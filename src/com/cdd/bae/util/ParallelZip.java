@@ -0,0 +1,438 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/*
+	Writes a ZIP archive where the content of each entry is generated and deflated on a pool of worker threads, while a
+	single writer (the calling thread) stitches the pre-compressed entries into the output stream, in the order that they
+	were submitted. The number of entries in flight is bounded, so memory use does not depend on the size of the archive.
+	The worker threads are shared by all archives, one per processor, so concurrent downloads don't add any more threads.
+
+	Entries that are too big to hold in memory can be written with putStream(..), which generates and deflates them on the
+	calling thread, using a data descriptor for the sizes. The archive is readable by ZipInputStream/ZipFile and uses the
+	Zip64 extensions for the central directory if it runs past the classic limits.
+*/
+
+public class ParallelZip implements Closeable
+{
+	// creates the content for an entry, on a worker thread
+	public static interface Content
+	{
+		public byte[] generate() throws IOException;
+	}
+
+	// writes the content for an entry that is produced as a stream
+	public static interface StreamContent
+	{
+		public void write(OutputStream ostr) throws IOException;
+	}
+
+	// an entry that has been written, as needed for the central directory
+	private static final class Entry
+	{
+		byte[] name;
+		int flags;
+		long crc, compressedSize, size, offset;
+		int dosTime;
+	}
+
+	// an entry that has been compressed, but not yet written
+	private static final class Compressed
+	{
+		long crc, size;
+		byte[] data;
+	}
+
+	private static final int FLAG_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int METHOD_DEFLATED = 8;
+	private static final int VERSION = 20, VERSION_ZIP64 = 45;
+	private static final long MAX32 = 0xFFFFFFFFL;
+	private static final int MAX16 = 0xFFFF;
+
+	private static ExecutorService sharedPool = null;
+	private static final Object poolMutex = new Object();
+
+	private final OutputStream out;
+	private final int maxPending;
+	private final Deque<Map.Entry<byte[], Future<Compressed>>> pending = new ArrayDeque<>();
+	private final List<Entry> entries = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private long offset = 0;
+	private boolean closed = false;
+
+	// ------------ public methods ------------
+
+	public ParallelZip(OutputStream out)
+	{
+		this(out, Runtime.getRuntime().availableProcessors());
+	}
+
+	// the parallelism determines how many entries can be waiting to be written; the threads themselves come from the shared pool
+	public ParallelZip(OutputStream out, int parallelism)
+	{
+		this.out = out;
+		maxPending = Math.max(1, parallelism) * 4;
+	}
+
+	// stops the shared worker threads, e.g. when the webapp is being unloaded; they are started again if needed
+	public static void shutdown()
+	{
+		synchronized (poolMutex)
+		{
+			if (sharedPool != null) sharedPool.shutdownNow();
+			sharedPool = null;
+		}
+	}
+
+	// queues up an entry: the content is generated & compressed in the background; if there are too many entries waiting,
+	// the oldest ones are written out first, which blocks until they are ready
+	public void submit(String name, Content content) throws IOException
+	{
+		byte[] nameBytes = checkName(name);
+		pending.add(new AbstractMap.SimpleEntry<>(nameBytes, workerPool().submit(() -> compress(content.generate()))));
+		while (pending.size() > maxPending) writePending();
+	}
+
+	// convenience for content that is already available: it still gets compressed in the background
+	public void submit(String name, byte[] data) throws IOException
+	{
+		submit(name, () -> data);
+	}
+
+	// writes an entry directly: everything submitted beforehand is written out first, to preserve the order
+	public void putStream(String name, StreamContent content) throws IOException
+	{
+		byte[] nameBytes = checkName(name);
+		flush();
+
+		Entry entry = new Entry();
+		entry.name = nameBytes;
+		entry.flags = FLAG_UTF8 | FLAG_DESCRIPTOR;
+		entry.dosTime = dosTime();
+		entry.offset = offset;
+		writeLocalHeader(entry);
+
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		long dataStart = offset;
+		DeflaterOutputStream dstr = new DeflaterOutputStream(countedOut(), deflater, 8192);
+		CheckedOutputStream cstr = new CheckedOutputStream(dstr, crc);
+		OutputStream ostr = new FilterOutputStream(cstr)
+		{
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				cstr.write(b, off, len);
+			}
+			@Override
+			public void flush() {} // partial flushes would only bloat the compressed stream
+			@Override
+			public void close() {} // the caller may close its writer; the entry is finished below
+		};
+		long size = 0;
+		try
+		{
+			content.write(ostr);
+			dstr.finish();
+			size = deflater.getBytesRead();
+		}
+		finally
+		{
+			deflater.end();
+		}
+
+		entry.crc = crc.getValue();
+		entry.size = size;
+		entry.compressedSize = offset - dataStart;
+		if (entry.size >= MAX32 || entry.compressedSize >= MAX32) throw new IOException("Entry too large: " + name);
+
+		writeInt(0x08074B50);
+		writeInt(entry.crc);
+		writeInt(entry.compressedSize);
+		writeInt(entry.size);
+		entries.add(entry);
+	}
+
+	// writes out everything that has been submitted so far
+	public void flush() throws IOException
+	{
+		while (!pending.isEmpty()) writePending();
+		out.flush();
+	}
+
+	// number of entries that have been written so far
+	public int countEntries()
+	{
+		return entries.size();
+	}
+
+	// writes any remaining entries, followed by the central directory, and closes the underlying stream
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		closed = true;
+		try
+		{
+			flush();
+			writeCentralDirectory();
+			out.flush();
+		}
+		finally
+		{
+			for (Map.Entry<byte[], Future<Compressed>> other : pending) other.getValue().cancel(true);
+			pending.clear();
+			out.close();
+		}
+	}
+
+	// ------------ private methods ------------
+
+	private static ExecutorService workerPool()
+	{
+		synchronized (poolMutex)
+		{
+			if (sharedPool == null)
+			{
+				int numThreads = Runtime.getRuntime().availableProcessors();
+				sharedPool = Executors.newFixedThreadPool(numThreads, runnable ->
+				{
+					Thread thread = new Thread(runnable, "ParallelZip");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			return sharedPool;
+		}
+	}
+
+	private byte[] checkName(String name) throws IOException
+	{
+		if (closed) throw new IOException("Archive is closed");
+		if (!names.add(name)) throw new ZipException("duplicate entry: " + name);
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length > MAX16) throw new ZipException("Entry name too long: " + name);
+		return nameBytes;
+	}
+
+	// runs on the worker threads
+	private static Compressed compress(byte[] data)
+	{
+		Compressed comp = new Compressed();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		comp.crc = crc.getValue();
+		comp.size = data.length;
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try
+		{
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream buff = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+			byte[] chunk = new byte[8192];
+			while (!deflater.finished())
+			{
+				int sz = deflater.deflate(chunk);
+				buff.write(chunk, 0, sz);
+			}
+			comp.data = buff.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+		return comp;
+	}
+
+	// waits for the oldest entry to be compressed, then writes it
+	private void writePending() throws IOException
+	{
+		Map.Entry<byte[], Future<Compressed>> next = pending.poll();
+		Compressed comp;
+		try
+		{
+			comp = next.getValue().get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		}
+		catch (ExecutionException ex)
+		{
+			for (Map.Entry<byte[], Future<Compressed>> other : pending) other.getValue().cancel(true);
+			pending.clear();
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			throw new IOException(cause);
+		}
+		if (comp.size >= MAX32 || comp.data.length >= MAX32) throw new IOException("Entry too large");
+
+		Entry entry = new Entry();
+		entry.name = next.getKey();
+		entry.flags = FLAG_UTF8;
+		entry.dosTime = dosTime();
+		entry.offset = offset;
+		entry.crc = comp.crc;
+		entry.size = comp.size;
+		entry.compressedSize = comp.data.length;
+		writeLocalHeader(entry);
+		writeBytes(comp.data);
+		entries.add(entry);
+	}
+
+	private void writeLocalHeader(Entry entry) throws IOException
+	{
+		writeInt(0x04034B50);
+		writeShort(VERSION);
+		writeShort(entry.flags);
+		writeShort(METHOD_DEFLATED);
+		writeInt(entry.dosTime & MAX32);
+		writeInt(entry.crc);
+		writeInt(entry.compressedSize);
+		writeInt(entry.size);
+		writeShort(entry.name.length);
+		writeShort(0);
+		writeBytes(entry.name);
+	}
+
+	private void writeCentralDirectory() throws IOException
+	{
+		long cdStart = offset;
+		for (Entry entry : entries)
+		{
+			boolean zip64 = entry.offset >= MAX32;
+			writeInt(0x02014B50);
+			writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+			writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+			writeShort(entry.flags);
+			writeShort(METHOD_DEFLATED);
+			writeInt(entry.dosTime & MAX32);
+			writeInt(entry.crc);
+			writeInt(entry.compressedSize);
+			writeInt(entry.size);
+			writeShort(entry.name.length);
+			writeShort(zip64 ? 12 : 0);
+			writeShort(0); // comment
+			writeShort(0); // disk
+			writeShort(0); // internal attributes
+			writeInt(0); // external attributes
+			writeInt(zip64 ? MAX32 : entry.offset);
+			writeBytes(entry.name);
+			if (zip64)
+			{
+				writeShort(0x0001);
+				writeShort(8);
+				writeLong(entry.offset);
+			}
+		}
+		long cdSize = offset - cdStart;
+
+		int count = entries.size();
+		boolean zip64 = count >= MAX16 || cdStart >= MAX32 || cdSize >= MAX32;
+		if (zip64)
+		{
+			long recStart = offset;
+			writeInt(0x06064B50);
+			writeLong(44);
+			writeShort(VERSION_ZIP64);
+			writeShort(VERSION_ZIP64);
+			writeInt(0);
+			writeInt(0);
+			writeLong(count);
+			writeLong(count);
+			writeLong(cdSize);
+			writeLong(cdStart);
+
+			writeInt(0x07064B50);
+			writeInt(0);
+			writeLong(recStart);
+			writeInt(1);
+		}
+
+		writeInt(0x06054B50);
+		writeShort(0);
+		writeShort(0);
+		writeShort(Math.min(count, MAX16));
+		writeShort(Math.min(count, MAX16));
+		writeInt(Math.min(cdSize, MAX32));
+		writeInt(Math.min(cdStart, MAX32));
+		writeShort(0);
+	}
+
+	// MS-DOS format for the current time, as used in the headers
+	private static int dosTime()
+	{
+		LocalDateTime ldt = LocalDateTime.now();
+		int year = Math.max(1980, ldt.getYear());
+		return ((year - 1980) << 25) | (ldt.getMonthValue() << 21) | (ldt.getDayOfMonth() << 16) |
+			   (ldt.getHour() << 11) | (ldt.getMinute() << 5) | (ldt.getSecond() >> 1);
+	}
+
+	// stream that passes through to the output, keeping track of the offset
+	private OutputStream countedOut()
+	{
+		return new OutputStream()
+		{
+			@Override
+			public void write(int b) throws IOException
+			{
+				out.write(b);
+				offset++;
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				out.write(b, off, len);
+				offset += len;
+			}
+		};
+	}
+
+	private void writeBytes(byte[] b) throws IOException
+	{
+		out.write(b);
+		offset += b.length;
+	}
+	private void writeShort(int v) throws IOException
+	{
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+		offset += 2;
+	}
+	private void writeInt(long v) throws IOException
+	{
+		writeShort((int)(v & 0xFFFF));
+		writeShort((int)((v >>> 16) & 0xFFFF));
+	}
+	private void writeLong(long v) throws IOException
+	{
+		writeInt(v & MAX32);
+		writeInt(v >>> 32);
+	}
+}
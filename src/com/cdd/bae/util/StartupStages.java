@@ -0,0 +1,161 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.slf4j.*;
+
+/*
+	Runs a number of loading stages, each identified by an enum value, in dependency order: each stage starts as soon as
+	the stages it was declared to come after have finished, so anything that doesn't depend on anything else gets loaded
+	concurrently. Stages that the caller can't do without can be run directly on the calling thread with runNow, while
+	the rest are handed off to a small pool of daemon threads, which goes away once they're all done.
+
+	A stage counts as ready once it has finished, whether or not it succeeded: failures are logged, and it is up to
+	whoever uses the resource to deal with it not being there (as would have been the case when loading sequentially).
+	Every one of the enum values needs to be given a task, one way or the other, otherwise it will never be ready.
+
+	Readiness is checked on every request, so it's kept cheap: the futures are all made up front and never replaced, so
+	they can be looked up without locking, and once everything is ready a single flag says so.
+*/
+
+public class StartupStages<T extends Enum<T>>
+{
+	private final Logger logger;
+	private final Map<T, CompletableFuture<Void>> done; // filled in by the constructor, and not changed after
+	private final Map<T, Runnable> background;
+	private final Map<T, List<T>> after;
+	private final long timeStart = System.nanoTime();
+	private volatile boolean allReady = false;
+
+	// ------------ public methods ------------
+
+	public StartupStages(Class<T> keyClass, Logger logger)
+	{
+		this.logger = logger;
+		done = new EnumMap<>(keyClass);
+		background = new EnumMap<>(keyClass);
+		after = new EnumMap<>(keyClass);
+		for (T key : keyClass.getEnumConstants()) done.put(key, new CompletableFuture<>());
+	}
+
+	// declares a stage that is to be run in the background, once the given stages are done
+	@SafeVarargs
+	public final StartupStages<T> stage(T key, Runnable task, T... prerequisites)
+	{
+		background.put(key, task);
+		after.put(key, Arrays.asList(prerequisites));
+		return this;
+	}
+
+	// kicks off all of the background stages, each of which will wait until its prerequisites are ready
+	public void start()
+	{
+		if (background.isEmpty()) return;
+
+		var counter = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(background.size(), (runnable) ->
+		{
+			var thread = new Thread(runnable, "bootstrap-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		List<CompletableFuture<Void>> all = new ArrayList<>();
+		for (var entry : background.entrySet())
+		{
+			T key = entry.getKey();
+			var prereq = after.get(key).stream().map(done::get).toArray(CompletableFuture[]::new);
+			CompletableFuture.allOf(prereq).whenCompleteAsync((result, ex) -> execute(key, entry.getValue()), pool);
+			all.add(done.get(key));
+		}
+		CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).whenComplete((result, ex) ->
+		{
+			pool.shutdown();
+			logger.info("Bootstrap: all stages ready, elapsed time: {}", elapsed(timeStart));
+		});
+	}
+
+	// runs a stage directly on the calling thread, which is for those that have to be in place before anything else can
+	// happen; any background stages that were only waiting for this one will start once it's done
+	public void runNow(T key, Runnable task)
+	{
+		execute(key, task);
+	}
+
+	// true if all of the given stages have finished
+	@SafeVarargs
+	public final boolean isReady(T... keys)
+	{
+		if (allReady) return true;
+		for (T key : keys) if (!done.get(key).isDone()) return false;
+		return true;
+	}
+
+	// blocks until all of the given stages have finished
+	@SafeVarargs
+	public final void await(T... keys)
+	{
+		if (allReady) return;
+		for (T key : keys)
+		{
+			var future = done.get(key);
+			if (future.isDone()) continue;
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (ExecutionException ex) {/* never completed exceptionally */}
+		}
+	}
+
+	// ------------ private methods ------------
+
+	private void execute(T key, Runnable task)
+	{
+		long time = System.nanoTime();
+		try
+		{
+			task.run();
+			logger.info("Bootstrap: {} ready, time required: {}", key, elapsed(time));
+		}
+		catch (Throwable ex)
+		{
+			logger.error("Bootstrap: " + key + " failed, time required: " + elapsed(time), ex);
+		}
+		finally
+		{
+			done.get(key).complete(null);
+			if (done.values().stream().allMatch(CompletableFuture::isDone)) allReady = true;
+		}
+	}
+
+	private static String elapsed(long since)
+	{
+		return String.format("%.3f", (System.nanoTime() - since) * 1E-9);
+	}
+}
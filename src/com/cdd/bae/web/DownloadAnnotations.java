@@ -36,7 +36,7 @@ import javax.servlet.http.*;
 		propURI: optional URI; if not provided, fetches them all as a zip file
 */
 
-public class DownloadAnnotations extends BaseServlet 
+public class DownloadAnnotations extends BaseServlet implements ExportCache.Source
 {
 	private static final long serialVersionUID = 1L;
 
@@ -58,30 +58,52 @@ public class DownloadAnnotations extends BaseServlet
 			if (!suffix.equals("tsv")) throw new IOException("Getting all stats: filename must have .tsv extension");
 		}
 
+		Map<String, String> params = new TreeMap<>();
+		if (propURI != null) params.put("propURI", propURI);
+		ExportCache.serve(this, params, request, response);
+	}
+
+	// ------------ cacheable content ------------
+
+	@Override
+	public String getName() {return "DownloadAnnotations";}
+
+	@Override
+	public String getContentType(Map<String, String> params) {return "application/octet-stream";}
+
+	@Override
+	public long[] getWatermarks(Map<String, String> params)
+	{
+		DataStore store = Common.getDataStore();
+		return new long[]{store.assay().getWatermark(), store.provisional().getWatermark(), Common.getConfigStamp()};
+	}
+
+	@Override
+	public void generate(Map<String, String> params, OutputStream ostr) throws IOException
+	{
+		String propURI = params.get("propURI");
 		Schema schema = Common.getSchemaCAT(); // TBD: configurable...	
 		DataStore store = Common.getDataStore();
 		Map<String, Map<String, Integer>> breakdown = store.assay().breakdownAssignments();
 	
 		if (propURI == null)
 		{
-			response.setContentType("application/octet-stream");
-			
-			try (ZipOutputStream zip = new ZipOutputStream(response.getOutputStream()))
+			try (ZipOutputStream zip = new ZipOutputStream(ostr))
 			{
 				for (Schema.Assignment assn : schema.getRoot().flattenedAssignments()) appendAssignment(zip, assn, schema, breakdown);
 			}
 		}
 		else
 		{
-			response.setContentType("application/octet-stream");
-
-			try (BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(response.getOutputStream())))
+			try (BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(ostr)))
 			{
 				writeAssignment(wtr, propURI, schema, breakdown);
 			}
 		}
 	}
 
+	// ------------ private methods ------------
+
 	// emits the information about one assignment in the form of a tab-separated file
 	private void writeAssignment(BufferedWriter wtr, String propURI, Schema schema, Map<String, Map<String, Integer>> breakdown) throws IOException
 	{
@@ -49,7 +49,7 @@ import org.apache.jena.util.*;
 	
 */
 
-public class DownloadEverything extends BaseServlet 
+public class DownloadEverything extends BaseServlet implements ExportCache.Source
 {
 	private static final long serialVersionUID = 1L;
 	
@@ -82,13 +82,34 @@ public class DownloadEverything extends BaseServlet
 	@Override
 	protected void process(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
 	{
-		boolean wholeTree = "true".equalsIgnoreCase(request.getParameter("wholetree"));	
+		Map<String, String> params = new TreeMap<>();
+		params.put("wholetree", String.valueOf("true".equalsIgnoreCase(request.getParameter("wholetree"))));
+		ExportCache.serve(this, params, request, response);
+	}
+
+	// ------------ cacheable content ------------
+
+	@Override
+	public String getName() {return "DownloadEverything";}
+
+	@Override
+	public String getContentType(Map<String, String> params) {return "application/gzip";}
+
+	@Override
+	public long[] getWatermarks(Map<String, String> params)
+	{
+		DataStore store = Common.getDataStore();
+		return new long[]{store.assay().getWatermark(), store.provisional().getWatermark(), Common.getConfigStamp()};
+	}
+
+	@Override
+	public void generate(Map<String, String> params, OutputStream ostr) throws IOException
+	{
+		boolean wholeTree = "true".equals(params.get("wholetree"));
 	
-		response.setContentType("application/gzip");
-		
 		DataStore store = Common.getDataStore();
 		
-		try (GZIPOutputStream gzip = new GZIPOutputStream(response.getOutputStream()))
+		try (GZIPOutputStream gzip = new GZIPOutputStream(ostr))
 		{
 			// create an empty model and push it out: this establishes the abbreviations
 			Model model = createModel();
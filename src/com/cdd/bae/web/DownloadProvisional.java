@@ -41,7 +41,7 @@ import org.apache.jena.util.*;
 	Package up all of the provisional terms into a Turtle file.
 */
 
-public class DownloadProvisional extends BaseServlet 
+public class DownloadProvisional extends BaseServlet implements ExportCache.Source
 {
 	private static final long serialVersionUID = 1L;
 	
@@ -52,12 +52,32 @@ public class DownloadProvisional extends BaseServlet
 	@Override
 	protected void process(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
 	{
-		response.setContentType("text/turtle");
-		
+		ExportCache.serve(this, new TreeMap<>(), request, response);
+	}
+
+	// ------------ cacheable content ------------
+
+	@Override
+	public String getName() {return "DownloadProvisional";}
+
+	@Override
+	public String getContentType(Map<String, String> params) {return "text/turtle";}
+
+	@Override
+	public long[] getWatermarks(Map<String, String> params)
+	{
+		return new long[]{Common.getDataStore().provisional().getWatermark()};
+	}
+
+	@Override
+	public void generate(Map<String, String> params, OutputStream ostr) throws IOException
+	{
 		Model model = buildModel();
-		RDFDataMgr.write(response.getOutputStream(), model, RDFFormat.TURTLE);
+		RDFDataMgr.write(ostr, model, RDFFormat.TURTLE);
 	}
 
+	// ------------ public methods ------------
+
 	// populates the model with all of the triples needed to describe the provisional terms
 	public static void fillModelContent(Model model)
 	{
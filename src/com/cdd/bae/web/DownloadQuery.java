@@ -20,13 +20,13 @@ package com.cdd.bae.web;
 
 import com.cdd.bae.config.*;
 import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
 import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
 
 import java.io.*;
 import java.util.*;
 import java.util.stream.*;
-import java.util.zip.*;
 
 import javax.servlet.*;
 import javax.servlet.http.*;
@@ -51,7 +51,7 @@ import org.json.*;
 		https://beta.bioassayexpress.com/servlet/DownloadQuery/results.zip&assays=true
 */
 
-public class DownloadQuery extends BaseServlet 
+public class DownloadQuery extends BaseServlet implements ExportCache.Source
 {
 	private static final long serialVersionUID = 1L;
 	
@@ -66,20 +66,48 @@ public class DownloadQuery extends BaseServlet
 	
 	@Override
 	protected void process(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		Map<String, String> params = new TreeMap<>();
+		for (String key : new String[]{"query", "assays", "id", "compounds"})
+		{
+			String value = request.getParameter(key);
+			if (value != null) params.put(key, value);
+		}
+		parseIDType(params.get("id")); // fail early, before anything is cached
+
+		ExportCache.serve(this, params, request, response);
+	}
+
+	// ------------ cacheable content ------------
+
+	@Override
+	public String getName() {return "DownloadQuery";}
+
+	@Override
+	public String getContentType(Map<String, String> params)
+	{
+		return "true".equalsIgnoreCase(params.get("assays")) ? "application/zip" : "text/plain";
+	}
+
+	@Override
+	public long[] getWatermarks(Map<String, String> params)
+	{
+		if (!"true".equalsIgnoreCase(params.get("compounds")))
+			return new long[]{store.assay().getWatermark(), Common.getConfigStamp()};
+		return new long[]{store.assay().getWatermark(), Common.getConfigStamp(), 
+						  store.measure().getWatermarkMeasure(), store.compound().getWatermarkCompound()};
+	}
+
+	@Override
+	public void generate(Map<String, String> params, OutputStream ostr) throws IOException
 	{
 		Schema schema = Common.getSchemaCAT(); // TODO: selection of template...
 		Map<Long, DataObject.Assay> assayMap = new HashMap<>();
 
-		String qstr = request.getParameter("query");
-		String idstr = request.getParameter("id");		
-		boolean withAssays = "true".equalsIgnoreCase(request.getParameter("assays"));
-		boolean withCompounds = "true".equalsIgnoreCase(request.getParameter("compounds"));
-		
-		IDType idtype = null;
-		if (idstr == null || idstr.equals("assayID")) idtype = IDType.ASSAYID;
-		else if (idstr.equals("uniqueID")) idtype = IDType.UNIQUEID;
-		else if (idstr.equals("uniqueIDRaw")) idtype = IDType.UNIQUEID_RAW;
-		else throw new IOException("Invalid 'id' type: " + idstr);
+		String qstr = params.get("query");
+		boolean withAssays = "true".equalsIgnoreCase(params.get("assays"));
+		boolean withCompounds = "true".equalsIgnoreCase(params.get("compounds"));
+		IDType idtype = parseIDType(params.get("id"));
 		
 		QueryAssay qa = qstr == null ? null : QueryAssay.parse(qstr);		
 		for (long assayID : store.assay().fetchAssayIDCurated())
@@ -90,17 +118,24 @@ public class DownloadQuery extends BaseServlet
 		}
 
 		if (!withAssays)
-			outputSimpleList(assayMap, response, idtype);
+			outputSimpleList(assayMap, ostr, idtype);
 		else
-			outputWholeData(schema, assayMap, response, withCompounds);
+			outputWholeData(schema, assayMap, ostr, withCompounds);
 	}
 
 	// ------------ private methods ------------
 
-	private void outputSimpleList(Map<Long, DataObject.Assay> assayMap, HttpServletResponse response, IDType idtype) throws IOException
+	private static IDType parseIDType(String idstr) throws IOException
+	{
+		if (idstr == null || idstr.equals("assayID")) return IDType.ASSAYID;
+		else if (idstr.equals("uniqueID")) return IDType.UNIQUEID;
+		else if (idstr.equals("uniqueIDRaw")) return IDType.UNIQUEID_RAW;
+		else throw new IOException("Invalid 'id' type: " + idstr);
+	}
+
+	private void outputSimpleList(Map<Long, DataObject.Assay> assayMap, OutputStream ostr, IDType idtype) throws IOException
 	{
-		response.setContentType("text/plain");
-		BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(response.getOutputStream()));
+		BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(ostr));
 		
 		if (idtype == IDType.ASSAYID)
 		{
@@ -131,51 +166,42 @@ public class DownloadQuery extends BaseServlet
 		wtr.close();
 	}
 	
-	private void outputWholeData(Schema schema, Map<Long, DataObject.Assay> assayMap, HttpServletResponse response, boolean withCompounds) throws IOException
+	private void outputWholeData(Schema schema, Map<Long, DataObject.Assay> assayMap, OutputStream ostr, boolean withCompounds) throws IOException
 	{
 		if (assayMap.size() == 0) throw new IOException("No assays match the query.");
 		
 		Long[] idlist = assayMap.keySet().toArray(new Long[assayMap.size()]);
 		Arrays.sort(idlist);
 
-		response.setContentType("application/zip");
-		ZipOutputStream zip = new ZipOutputStream(response.getOutputStream());
-
-		// first file is the list of assays
-		zip.putNextEntry(new ZipEntry("list.txt"));
-		StringBuilder buff = new StringBuilder();
-		for (long id : idlist) buff.append(id + "\n");
-		zip.write(buff.toString().getBytes());
-		zip.closeEntry();
-		
-		// write out the JSON-formatted assays
-		for (long id : idlist)
+		try (ParallelZip zip = new ParallelZip(ostr))
 		{
-			zip.putNextEntry(new ZipEntry("assay" + id + ".json"));
-			JSONObject json = AssayJSON.serialiseAssay(assayMap.get(id));
-			zip.write(json.toString().getBytes());
-			zip.closeEntry();
-		}
-		
-		// write out the schema/tree structure
-		zip.putNextEntry(new ZipEntry("schema.json"));
-		JSONObject json = null;
-		try {json = formulateSchema(schema, assayMap);}
-		catch (JSONException ex) {throw new IOException(ex);}
-		zip.write(json.toString().getBytes());
-		zip.closeEntry();		
-		
-		// create an SDfile for each assay
-		if (withCompounds)
-		{
-			zip.putNextEntry(new ZipEntry("compounds.sdf"));
-			BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(zip));
-			emitCompounds(wtr, assayMap);
-			wtr.flush();
-			zip.closeEntry();
+			// first file is the list of assays
+			StringBuilder buff = new StringBuilder();
+			for (long id : idlist) buff.append(id + "\n");
+			zip.submit("list.txt", buff.toString().getBytes());
+			
+			// write out the JSON-formatted assays: serialisation & compression happen on the worker threads
+			for (long id : idlist)
+			{
+				DataObject.Assay assay = assayMap.get(id);
+				zip.submit("assay" + id + ".json", () -> AssayJSON.serialiseAssay(assay).toString().getBytes());
+			}
+			
+			// write out the schema/tree structure
+			zip.submit("schema.json", () ->
+			{
+				try {return formulateSchema(schema, assayMap).toString().getBytes();}
+				catch (JSONException ex) {throw new IOException(ex);}
+			});
+			
+			// create an SDfile for each assay
+			if (withCompounds) zip.putStream("compounds.sdf", cstr ->
+			{
+				BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(cstr));
+				emitCompounds(wtr, assayMap);
+				wtr.flush();
+			});
 		}
-
-		zip.close();
 	}
 	
 	// provides labels for all of the terms used in the assays, and the tree structure there within
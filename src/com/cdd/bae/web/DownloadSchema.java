@@ -23,6 +23,7 @@ import com.cdd.bao.template.*;
 import com.cdd.bao.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.zip.*;
 
 import javax.servlet.*;
@@ -34,7 +35,7 @@ import org.json.*;
 	Download schema
 */
 
-public class DownloadSchema extends BaseServlet 
+public class DownloadSchema extends BaseServlet implements ExportCache.Source
 {
 	private static final long serialVersionUID = 1L;
 	
@@ -43,17 +44,37 @@ public class DownloadSchema extends BaseServlet
 	@Override
 	protected void process(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
 	{
-		boolean withTrees = "true".equalsIgnoreCase(request.getParameter("trees"));
+		Map<String, String> params = new TreeMap<>();
+		params.put("trees", String.valueOf("true".equalsIgnoreCase(request.getParameter("trees"))));
+		ExportCache.serve(this, params, request, response);
+	}
+
+	// ------------ cacheable content ------------
+
+	@Override
+	public String getName() {return "DownloadSchema";}
+
+	@Override
+	public String getContentType(Map<String, String> params) {return "application/zip";}
+
+	@Override
+	public long[] getWatermarks(Map<String, String> params)
+	{
+		return new long[]{Common.getConfigStamp(), Common.getDataStore().provisional().getWatermark()};
+	}
+
+	@Override
+	public void generate(Map<String, String> params, OutputStream ostr) throws IOException
+	{
+		boolean withTrees = "true".equals(params.get("trees"));
 		
-		response.setContentType("application/zip");
-		ZipOutputStream zip = new ZipOutputStream(response.getOutputStream());
+		ZipOutputStream zip = new ZipOutputStream(ostr);
 
 		int idx = 0;
 		for (Schema schema : Common.getAllSchemata()) outputSchema(zip, schema, ++idx, withTrees);
 		for (Schema schema : Common.getBranchSchemata()) outputSchema(zip, schema, ++idx, withTrees);
 
 		zip.close();
-
 	}
 
 	// ------------ private methods ------------
@@ -0,0 +1,415 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.web;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.servlet.http.*;
+
+import org.slf4j.*;
+
+/*
+	On-disk cache for the expensive download servlets. Each generated file is keyed by the source name, the request
+	parameters and the current values of whichever watermarks the content depends on, so the cached copy becomes
+	unreachable as soon as any of the underlying data changes, and is eventually pushed out by the LRU size limit.
+
+	Cached files are streamed with FileChannel.transferTo, which lets the kernel do the copy, and are served with a
+	strong ETag and explicit Content-Length so that clients can make conditional requests.
+
+	If the "exportCache" section is not configured, content is generated directly into the response as before.
+*/
+
+public class ExportCache
+{
+	private static final Logger logger = LoggerFactory.getLogger(ExportCache.class);
+
+	private static final String SUFFIX = ".export";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int MAX_POPULAR = 100; // number of distinct requests for which popularity is tracked
+
+	// a servlet that can have its content cached needs to implement this
+	public static interface Source
+	{
+		// unique name for the kind of content
+		public String getName();
+
+		// MIME type for the content
+		public String getContentType(Map<String, String> params);
+
+		// the data-change counters that the content depends on: if any of them moves, the content is stale
+		public long[] getWatermarks(Map<String, String> params);
+
+		// writes the content for the given parameters
+		public void generate(Map<String, String> params, OutputStream ostr) throws IOException;
+	}
+
+	// a request that has been seen, which may be regenerated ahead of time
+	private static final class Popular
+	{
+		Source source;
+		Map<String, String> params;
+		int hits = 0;
+	}
+
+	private static ExportCache main = null;
+	private static final Object mutex = new Object();
+
+	private final File directory;
+	private final long maxBytes;
+	private final int warmCount;
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true); // key-to-size, in access order
+	private long totalBytes = 0;
+	private final Map<String, CompletableFuture<File>> generating = new ConcurrentHashMap<>(); // requests in progress
+	private final Map<String, Popular> popular = new HashMap<>();
+
+	// ------------ public methods ------------
+
+	public ExportCache(File directory, long maxBytes, int warmCount)
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.warmCount = warmCount;
+
+		if (!directory.exists() && !directory.mkdirs()) logger.error("Unable to create export cache directory: {}", directory);
+		loadExisting();
+	}
+
+	// returns the cache as defined by the current configuration, or null if there isn't one
+	public static ExportCache main()
+	{
+		InitParams params = Common.getParams();
+		InitParams.ExportCache config = params == null ? null : params.exportCache;
+		synchronized (mutex)
+		{
+			if (config == null || config.directory == null)
+			{
+				main = null;
+			}
+			else if (main == null || !main.directory.equals(new File(config.directory)) ||
+					 main.maxBytes != config.maxSize * 1024L * 1024 || main.warmCount != config.warmCount)
+			{
+				main = new ExportCache(new File(config.directory), config.maxSize * 1024L * 1024, config.warmCount);
+			}
+			return main;
+		}
+	}
+
+	// serves up content from the source, going via the cache if there is one; the ETag is available either way, since
+	// it is derived from the watermarks rather than the content
+	public static void serve(Source source, Map<String, String> params, HttpServletRequest request,
+							 HttpServletResponse response) throws IOException
+	{
+		response.setContentType(source.getContentType(params));
+
+		String key = makeKey(source, params);
+		String etag = "\"" + key + "\"";
+		response.setHeader("ETag", etag);
+		if (matchesETag(request.getHeader("If-None-Match"), etag))
+		{
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		ExportCache cache = main();
+		if (cache == null)
+		{
+			source.generate(params, response.getOutputStream());
+			return;
+		}
+		cache.notePopular(source, params);
+
+		for (int attempt = 0; ; attempt++)
+		{
+			File file = cache.obtain(key, source, params);
+			try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+			{
+				long size = chan.size();
+				response.setContentLengthLong(size);
+				WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+				for (long pos = 0; pos < size;) pos += chan.transferTo(pos, size - pos, out);
+				return;
+			}
+			catch (NoSuchFileException ex)
+			{
+				// evicted by another thread between obtaining & opening: rare, so just go around again
+				if (attempt > 0) throw ex;
+			}
+		}
+	}
+
+	// unique identifier for the content: the hash of the name, parameters & watermarks
+	public static String makeKey(Source source, Map<String, String> params)
+	{
+		StringBuilder buff = new StringBuilder(source.getName());
+		for (Map.Entry<String, String> entry : new TreeMap<>(params).entrySet())
+			buff.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+		for (long wm : source.getWatermarks(params)) buff.append('\n').append(wm);
+
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(buff.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) hex.append(String.format("%02x", b & 0xFF));
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException ex) {throw new IllegalStateException(ex);} // SHA-1 is always available
+	}
+
+	// checks an If-None-Match header against the ETag: it may be a list, a wildcard, or flagged as weak
+	public static boolean matchesETag(String header, String etag)
+	{
+		if (header == null) return false;
+		for (String tag : header.split(","))
+		{
+			tag = tag.trim();
+			if (tag.startsWith("W/")) tag = tag.substring(2);
+			if (tag.equals("*") || tag.equals(etag)) return true;
+		}
+		return false;
+	}
+
+	// returns the file corresponding to the content, generating it first if necessary
+	public File obtain(String key, Source source, Map<String, String> params) throws IOException
+	{
+		File file = new File(directory, key + SUFFIX);
+		if (isCached(key, file))
+		{
+			file.setLastModified(System.currentTimeMillis());
+			Metrics.cache("export").hit();
+			return file;
+		}
+
+		// only one thread generates any particular file; others wait for its outcome, including failure, rather than each
+		// having a go of their own
+		CompletableFuture<File> pending = new CompletableFuture<>(), inProgress = generating.putIfAbsent(key, pending);
+		if (inProgress != null)
+		{
+			File generated = awaitGenerated(key, inProgress);
+			Metrics.cache("export").hit();
+			return generated;
+		}
+
+		try
+		{
+			if (isCached(key, file)) // (finished just before this thread got in)
+			{
+				Metrics.cache("export").hit();
+				pending.complete(file);
+				return file;
+			}
+			Metrics.cache("export").miss();
+
+			long timeStart = System.nanoTime();
+			File tmp = File.createTempFile(key, TEMP_SUFFIX, directory);
+			try
+			{
+				try (OutputStream ostr = new BufferedOutputStream(new FileOutputStream(tmp)))
+				{
+					source.generate(params, ostr);
+				}
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				Metrics.timer("export." + source.getName()).since(timeStart);
+			}
+			finally
+			{
+				if (tmp.exists()) tmp.delete();
+			}
+
+			synchronized (entries)
+			{
+				Long prev = entries.put(key, file.length());
+				if (prev != null) totalBytes -= prev;
+				totalBytes += file.length();
+				evict(key);
+			}
+			pending.complete(file);
+			return file;
+		}
+		catch (IOException | RuntimeException | Error ex)
+		{
+			pending.completeExceptionally(ex);
+			throw ex;
+		}
+		finally
+		{
+			generating.remove(key, pending);
+		}
+	}
+
+	// regenerates the most frequently requested content, so that the first request after the data changes doesn't pay
+	// for it; returns the number of files that were actually built
+	public int warmPopular()
+	{
+		List<Popular> top = new ArrayList<>();
+		synchronized (popular)
+		{
+			for (Popular pop : popular.values()) top.add(pop);
+			top.sort((p1, p2) -> Integer.compare(p2.hits, p1.hits));
+		}
+
+		int count = 0;
+		for (int n = 0; n < Math.min(warmCount, top.size()); n++)
+		{
+			Popular pop = top.get(n);
+			try
+			{
+				String key = makeKey(pop.source, pop.params);
+				if (contains(key)) continue;
+				obtain(key, pop.source, pop.params);
+				count++;
+			}
+			catch (Exception ex)
+			{
+				logger.error("Unable to pre-generate export: " + pop.source.getName(), ex);
+			}
+		}
+		return count;
+	}
+
+	// information about current content
+	public boolean contains(String key)
+	{
+		synchronized (entries)
+		{
+			return entries.containsKey(key);
+		}
+	}
+	public long getTotalBytes()
+	{
+		synchronized (entries)
+		{
+			return totalBytes;
+		}
+	}
+	public int size()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+
+	// ------------ private methods ------------
+
+	private boolean isCached(String key, File file)
+	{
+		synchronized (entries)
+		{
+			return entries.get(key) != null && file.exists();
+		}
+	}
+
+	// waits for another thread to finish generating the content, and passes on the failure if it didn't work out
+	private static File awaitGenerated(String key, CompletableFuture<File> inProgress) throws IOException
+	{
+		try
+		{
+			return inProgress.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for export: " + key);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new IOException("Export generation failed: " + key, ex.getCause());
+		}
+	}
+
+	// picks up whatever was left over from the previous run, oldest first, and cleans out partial files
+	private void loadExisting()
+	{
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+
+		synchronized (entries)
+		{
+			for (File f : files)
+			{
+				String fn = f.getName();
+				if (fn.endsWith(TEMP_SUFFIX)) f.delete();
+				else if (fn.endsWith(SUFFIX))
+				{
+					entries.put(fn.substring(0, fn.length() - SUFFIX.length()), f.length());
+					totalBytes += f.length();
+				}
+			}
+			evict(null);
+		}
+	}
+
+	// throws out least recently used content until the total size is under the limit; the most recent key is spared, even
+	// if it is bigger than the whole cache, since it is about to be served; must be called within a lock on entries
+	private void evict(String keepKey)
+	{
+		for (Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator(); iter.hasNext() && totalBytes > maxBytes;)
+		{
+			Map.Entry<String, Long> entry = iter.next();
+			if (entry.getKey().equals(keepKey)) continue;
+			new File(directory, entry.getKey() + SUFFIX).delete();
+			totalBytes -= entry.getValue();
+			iter.remove();
+		}
+	}
+
+	// keeps track of how often each request shows up, so that the most common ones can be prepared in advance
+	private void notePopular(Source source, Map<String, String> params)
+	{
+		StringBuilder buff = new StringBuilder(source.getName());
+		for (Map.Entry<String, String> entry : new TreeMap<>(params).entrySet())
+			buff.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+		String id = buff.toString();
+
+		synchronized (popular)
+		{
+			Popular pop = popular.get(id);
+			if (pop == null)
+			{
+				if (popular.size() >= MAX_POPULAR)
+				{
+					String leastID = null;
+					int leastHits = Integer.MAX_VALUE;
+					for (Map.Entry<String, Popular> entry : popular.entrySet()) if (entry.getValue().hits < leastHits)
+					{
+						leastID = entry.getKey();
+						leastHits = entry.getValue().hits;
+					}
+					popular.remove(leastID);
+				}
+				pop = new Popular();
+				pop.source = source;
+				pop.params = new TreeMap<>(params);
+				popular.put(id, pop);
+			}
+			pop.hits++;
+		}
+	}
+}
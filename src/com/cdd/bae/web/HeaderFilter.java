@@ -42,12 +42,11 @@ public class HeaderFilter implements Filter
 
 		filterChain.doFilter(servletRequest, wrapper);
 
-		String setCookie = response.getHeader("Set-Cookie");
-		if (setCookie != null)
-		{
-			setCookie = setCookie.replaceAll("Secure;", "SameSite=Strict; Secure;");
-			response.setHeader("Set-Cookie", "__Host-" + setCookie);
-		}
+		// asynchronous requests are still being worked on, and write their content directly (i.e. not via getWriter): the
+		// cookie is seen to by the wrapper when they do
+		if (servletRequest.isAsyncStarted()) return;
+
+		secureCookie(response);
 		response.getOutputStream().write(wrapper.getResponseContent().getBytes());
 	}
 
@@ -63,6 +62,15 @@ public class HeaderFilter implements Filter
 		/* empty */
 	}
 
+	// restricts the session cookie to this site; has to be done before any content goes out
+	private static void secureCookie(HttpServletResponse response)
+	{
+		String setCookie = response.getHeader("Set-Cookie");
+		if (setCookie == null || setCookie.startsWith("__Host-")) return;
+		setCookie = setCookie.replaceAll("Secure;", "SameSite=Strict; Secure;");
+		response.setHeader("Set-Cookie", "__Host-" + setCookie);
+	}
+
 	public class CustomResponseWrapper extends HttpServletResponseWrapper
 	{
 		private StringWriter stringWriter;
@@ -78,6 +86,7 @@ public class HeaderFilter implements Filter
 		{
 			if (this.stringWriter != null) throw new IllegalStateException("The getWriter() is already called.");
 			isOutputStreamCalled = true;
+			secureCookie((HttpServletResponse)getResponse());
 			return super.getOutputStream();
 		}
 
@@ -89,6 +98,13 @@ public class HeaderFilter implements Filter
 			return new PrintWriter(this.stringWriter);
 		}
 
+		@Override
+		public void flushBuffer() throws IOException
+		{
+			secureCookie((HttpServletResponse)getResponse());
+			super.flushBuffer();
+		}
+
 		public String getResponseContent()
 		{
 			if (this.stringWriter != null) return this.stringWriter.toString();
@@ -96,6 +96,10 @@ public class ConfigurationTest extends TestBaseClass
 		assertNotNull(newConfiguration.getNLPModels(), "NLP models reused");
 		newConfiguration = new Configuration(file.getAbsolutePath(), productionConfiguration, configuration, NO_LOAD_NLPMODELS);
 		assertNull(newConfiguration.getNLPModels(), "NLP models not loaded");
+
+		// same files, same content stamp: unlike the time of loading, it doesn't change on a restart
+		assertNotEquals(0L, configuration.getContentStamp());
+		assertEquals(configuration.getContentStamp(), newConfiguration.getContentStamp());
 	}
 
 	@Test
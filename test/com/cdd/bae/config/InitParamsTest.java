@@ -144,6 +144,11 @@ public class InitParamsTest extends TestBaseClass
 		assertThat(d.name, is("bae"));
 		assertThat(d.user, nullValue());
 		assertThat(d.password, nullValue());
+		assertThat(d.notifyDelay, is(1000));
+		assertThat(d.changeFeed, is("auto"));
+		assertThat(d.changePoll, is(5));
+		assertThat(d.assayCache, is(64));
+		assertThat(d.modelCache, is(256));
 
 		// reading from env takes precedence
 		map.put("host", "json_host");
@@ -151,12 +156,22 @@ public class InitParamsTest extends TestBaseClass
 		map.put("name", "json_name");
 		map.put("user", "json_user");
 		map.put("password", "json_pw");
+		map.put("notifyDelay", "250");
+		map.put("changeFeed", "poll");
+		map.put("changePoll", "30");
+		map.put("assayCache", "0");
+		map.put("modelCache", "32");
 		d = Database.fromJSON(new JSONObject(map), env);
 		assertThat(d.host, is("json_host"));
 		assertThat(d.port, is(5678));
 		assertThat(d.name, is("json_name"));
 		assertThat(d.user, is("json_user"));
 		assertThat(d.password, is("json_pw"));
+		assertThat(d.notifyDelay, is(250));
+		assertThat(d.changeFeed, is("poll"));
+		assertThat(d.changePoll, is(30));
+		assertThat(d.assayCache, is(0));
+		assertThat(d.modelCache, is(32));
 
 		// check that it takes information from environment
 		env.put("MONGO_HOST", "mongo_host");
@@ -522,6 +537,160 @@ public class InitParamsTest extends TestBaseClass
 		assertThat(ModelSchema.getPrefixes().keySet(), hasItem("uri2:"));
 	}
 	
+	@Test
+	public void testSessions()
+	{
+		Map<String, String> map = new HashMap<>();
+		Sessions sessions = Sessions.fromJSON(new JSONObject(map));
+		assertEquality(sessions, new Sessions());
+		assertThat(sessions.idleTimeout, is(720));
+		assertThat(sessions.maxAge, is(168));
+		assertThat(sessions.maxCount, is(10000));
+		assertThat(sessions.persist, is(false));
+
+		map.put("idleTimeout", "30");
+		map.put("maxAge", "0");
+		map.put("maxCount", "500");
+		map.put("persist", "true");
+		sessions = Sessions.fromJSON(new JSONObject(map));
+		assertThat(sessions.idleTimeout, is(30));
+		assertThat(sessions.maxAge, is(0));
+		assertThat(sessions.maxCount, is(500));
+		assertThat(sessions.persist, is(true));
+
+		List<String> lines = new ArrayList<>();
+		sessions.addDescription(lines);
+		assertThat(lines, hasItem("Sessions:"));
+
+		// comprehensive equality test
+		TestUtilities.assertEquality(() ->
+		{
+			Sessions result = new Sessions();
+			result.idleTimeout = 1;
+			result.maxAge = 2;
+			result.maxCount = 3;
+			result.persist = true;
+			return result;
+		});
+	}
+
+	@Test
+	public void testResponseCache()
+	{
+		assertThat(InitParams.ResponseCache.fromJSON(null), nullValue());
+
+		Map<String, String> map = new HashMap<>();
+		InitParams.ResponseCache cache = InitParams.ResponseCache.fromJSON(new JSONObject(map));
+		assertEquality(cache, new InitParams.ResponseCache());
+		assertThat(cache.maxSize, is(64));
+		assertThat(cache.resultTTL, is(5));
+
+		map.put("maxSize", "16");
+		map.put("resultTTL", "0");
+		cache = InitParams.ResponseCache.fromJSON(new JSONObject(map));
+		assertThat(cache.maxSize, is(16));
+		assertThat(cache.resultTTL, is(0));
+
+		List<String> lines = new ArrayList<>();
+		cache.addDescription(lines);
+		assertThat(lines, hasItem("Response cache:"));
+
+		// comprehensive equality test
+		TestUtilities.assertEquality(() ->
+		{
+			InitParams.ResponseCache result = new InitParams.ResponseCache();
+			result.maxSize = 1;
+			result.resultTTL = 2;
+			return result;
+		});
+	}
+
+	@Test
+	public void testWorkerPools()
+	{
+		Map<String, String> map = new HashMap<>();
+		InitParams.WorkerPools pools = InitParams.WorkerPools.fromJSON(new JSONObject(map));
+		assertEquality(pools, new InitParams.WorkerPools());
+		assertThat(pools.threads, is(0));
+		assertThat(pools.queue, is(20));
+		assertThat(pools.timeout, is(120));
+		assertThat(pools.retryAfter, is(10));
+
+		map.put("threads", "4");
+		map.put("timeout", "30");
+		pools = InitParams.WorkerPools.fromJSON(new JSONObject(map));
+		assertThat(pools.threads, is(4));
+		assertThat(pools.timeout, is(30));
+
+		List<String> lines = new ArrayList<>();
+		pools.addDescription(lines);
+		assertThat(lines, hasItem("Worker pools:"));
+
+		// comprehensive equality test
+		TestUtilities.assertEquality(() ->
+		{
+			InitParams.WorkerPools result = new InitParams.WorkerPools();
+			result.threads = 1;
+			result.queue = 2;
+			result.timeout = 3;
+			result.retryAfter = 4;
+			return result;
+		});
+	}
+
+	@Test
+	public void testBackgroundTasks()
+	{
+		Map<String, String> map = new HashMap<>();
+		InitParams.BackgroundTasks tasks = InitParams.BackgroundTasks.fromJSON(new JSONObject(map));
+		assertEquality(tasks, new InitParams.BackgroundTasks());
+		assertThat(tasks.maxConcurrent, is(0));
+		assertThat(tasks.latencyThreshold, is(2000));
+		assertThat(tasks.maxBackoff, is(300));
+
+		map.put("maxConcurrent", "3");
+		map.put("latencyThreshold", "0");
+		tasks = InitParams.BackgroundTasks.fromJSON(new JSONObject(map));
+		assertThat(tasks.maxConcurrent, is(3));
+		assertThat(tasks.latencyThreshold, is(0));
+
+		List<String> lines = new ArrayList<>();
+		tasks.addDescription(lines);
+		assertThat(lines, hasItem("Background tasks:"));
+		assertThat(lines, hasItem(containsString("none")));
+
+		TestUtilities.assertEquality(() ->
+		{
+			InitParams.BackgroundTasks result = new InitParams.BackgroundTasks();
+			result.maxConcurrent = 1;
+			result.latencyThreshold = 2;
+			result.maxBackoff = 3;
+			return result;
+		});
+	}
+
+	@Test
+	public void testModelStore()
+	{
+		assertThat(InitParams.ModelStore.fromJSON(null, "/base"), is(nullValue()));
+
+		Map<String, String> map = new HashMap<>();
+		map.put("directory", "models");
+		InitParams.ModelStore store = InitParams.ModelStore.fromJSON(new JSONObject(map), "/base");
+		assertThat(store.directory, is("/base/models"));
+
+		List<String> lines = new ArrayList<>();
+		store.addDescription(lines);
+		assertThat(lines, hasItem("Model store:"));
+
+		TestUtilities.assertEquality(() ->
+		{
+			InitParams.ModelStore result = new InitParams.ModelStore();
+			result.directory = "/tmp/models";
+			return result;
+		});
+	}
+
 	@Test
 	public void testSaveEquals()
 	{
@@ -0,0 +1,141 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.config;
+
+import com.cdd.bao.template.*;
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.apache.commons.lang3.*;
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.config.SchemaVocabIndex
+*/
+
+public class SchemaVocabIndexTest extends TestBaseClass
+{
+	private Configuration configuration;
+	private Schema[] schemaList;
+
+	@BeforeEach
+	public void prepare() throws ConfigurationException
+	{
+		configuration = TestConfiguration.getConfiguration(false);
+		schemaList = ArrayUtils.addAll(configuration.getAllSchemata(), configuration.getBranchSchemata());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		File file = writeIndex();
+		assertThat(SchemaVocabIndex.isIndex(file), is(true));
+		assertThat(SchemaVocabIndex.isIndex(configuration.getSchemaVocabFile().getFile()), is(false));
+
+		SchemaVocab original = readRegular();
+		SchemaVocabIndex index = SchemaVocabIndex.read(file, schemaList);
+		assertThat(index.getSchemaVocab().numTerms(), is(original.numTerms()));
+
+		Map<String, SchemaVocab.StoredTree> trees = new HashMap<>();
+		for (SchemaVocab.StoredTree stored : original.getTrees()) trees.put(stored.schemaPrefix + "::" + stored.propURI + "::" + Arrays.toString(stored.groupNest), stored);
+		assertThat(index.getEntries(), hasSize(trees.size()));
+
+		// each tree decodes to the same content as the original, and a new instance each time
+		for (SchemaVocabIndex.Entry entry : index.getEntries())
+		{
+			SchemaVocab.StoredTree stored = trees.get(entry.schemaPrefix + "::" + entry.propURI + "::" + Arrays.toString(entry.groupNest));
+			assertNotNull(stored, "no tree for " + entry.propURI);
+			SchemaTree tree = index.decode(entry, stored.assignment);
+			assertThat(index.decode(entry, stored.assignment), not(sameInstance(tree)));
+
+			SchemaTree.Node[] expected = stored.tree.getFlat(), actual = tree.getFlat();
+			assertThat(actual.length, is(expected.length));
+			for (int n = 0; n < expected.length; n++)
+			{
+				assertThat(actual[n].uri, is(expected[n].uri));
+				assertThat(actual[n].label, is(expected[n].label));
+				assertThat(actual[n].descr, is(expected[n].descr));
+				assertThat(actual[n].altLabels, is(expected[n].altLabels));
+				assertThat(actual[n].inSchema, is(expected[n].inSchema));
+				assertThat(actual[n].depth, is(expected[n].depth));
+				assertThat(actual[n].childCount, is(expected[n].childCount));
+				assertThat(actual[n].parent == null ? null : actual[n].parent.uri, is(expected[n].parent == null ? null : expected[n].parent.uri));
+			}
+		}
+
+		// writing the same content again gives the same hashes
+		SchemaVocabIndex again = SchemaVocabIndex.read(writeIndex(), schemaList);
+		for (int n = 0; n < index.getEntries().size(); n++) assertThat(again.getEntries().get(n).hash, is(index.getEntries().get(n).hash));
+	}
+
+	@Test
+	public void testLoadIndexed() throws IOException, ConfigurationException
+	{
+		SchemaVocabFile vocabFile = configuration.getSchemaVocabFile();
+		File original = vocabFile.getFile();
+		SchemaVocab regular = vocabFile.getSchemaVocab();
+		int numTerms = regular.numTerms();
+		String uri = regular.getTerm(numTerms / 2).uri, label = regular.getLabel(uri);
+		try
+		{
+			vocabFile.setFile(writeIndex());
+			vocabFile.reload();
+
+			// the vocabulary is the same, but none of the trees have been unpacked
+			SchemaVocab indexed = vocabFile.getSchemaVocab();
+			assertThat(indexed, not(sameInstance(regular)));
+			assertThat(indexed.numTerms(), is(numTerms));
+			assertThat(indexed.getLabel(uri), is(label));
+			for (SchemaVocab.StoredTree stored : indexed.getTrees()) assertThat(stored.tree.getFlat().length, is(0));
+		}
+		finally
+		{
+			vocabFile.setFile(original);
+			vocabFile.reload();
+		}
+	}
+
+	// ------------ private methods ------------
+
+	private SchemaVocab readRegular() throws IOException
+	{
+		File file = configuration.getSchemaVocabFile().getFile();
+		try (InputStream istr = new FileInputStream(file))
+		{
+			return SchemaVocab.deserialise(file.getName().endsWith(".gz") ? new GZIPInputStream(istr) : istr, schemaList);
+		}
+	}
+
+	private File writeIndex() throws IOException
+	{
+		File file = File.createTempFile("vocab", ".idx", folder.toFile());
+		try (OutputStream ostr = new FileOutputStream(file))
+		{
+			SchemaVocabIndex.write(readRegular(), ostr);
+		}
+		return file;
+	}
+}
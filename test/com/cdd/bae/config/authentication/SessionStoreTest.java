@@ -0,0 +1,357 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.config.authentication;
+
+import com.cdd.bae.config.authentication.Authentication.*;
+import com.cdd.bao.util.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Tests for SessionStore
+*/
+
+public class SessionStoreTest
+{
+	private static final long MINUTE = 60 * 1000L;
+
+	// stands in for the database, which is what would be shared between webapp instances; like the database, it only has one
+	// session per curator, and finds them by access token
+	private static final class MemoryBacking implements SessionStore.Backing
+	{
+		Map<String, Session> content = new ConcurrentHashMap<>();
+
+		@Override
+		public void store(Session session) {content.put(session.curatorID, copy(session));}
+		@Override
+		public Session fetch(String accessToken)
+		{
+			Session session = find(accessToken);
+			return session == null ? null : copy(session);
+		}
+		@Override
+		public boolean touch(String accessToken, long timeAccessed)
+		{
+			Session session = find(accessToken);
+			if (session == null) return false;
+			session.timeAccessed = Math.max(session.timeAccessed, timeAccessed);
+			return true;
+		}
+		@Override
+		public void delete(String curatorID, String accessToken)
+		{
+			content.computeIfPresent(curatorID, (id, s) -> accessToken == null || s.accessToken.equals(accessToken) ? null : s);
+		}
+		@Override
+		public int purge(long accessedBefore, long createdBefore)
+		{
+			int sz = content.size();
+			content.values().removeIf(s -> s.timeAccessed < accessedBefore || s.timeCreated < createdBefore);
+			return sz - content.size();
+		}
+
+		private Session find(String accessToken)
+		{
+			for (Session session : content.values()) if (session.accessToken.equals(accessToken)) return session;
+			return null;
+		}
+	}
+
+	@Test
+	public void testExpiry()
+	{
+		SessionStore store = new SessionStore();
+		store.configure(30 * MINUTE, 60 * MINUTE, 0, null);
+		long now = System.currentTimeMillis();
+
+		store.put("a", makeSession("a"));
+		store.put("b", makeSession("b"));
+		store.put("c", makeSession("c"));
+		assertThat(store, aMapWithSize(3));
+		assertThat(store.get("a").timeCreated, greaterThanOrEqualTo(now));
+
+		// idle for too long
+		store.get("b").timeAccessed = now - 31 * MINUTE;
+		assertThat(store.get("b"), nullValue());
+
+		// in use, but authenticated too long ago
+		store.get("c").timeCreated = now - 61 * MINUTE;
+		assertThat(store.get("c"), nullValue());
+
+		assertThat(store.get("a"), notNullValue());
+		assertThat(store.keySet(), contains("a"));
+
+		// getting it counts as activity
+		Session session = store.get("a");
+		session.timeAccessed = now - 29 * MINUTE;
+		assertThat(store.get("a"), sameInstance(session));
+		assertThat(session.timeAccessed, greaterThanOrEqualTo(now));
+
+		// sweeping explicitly
+		session.timeAccessed = now - 31 * MINUTE;
+		assertThat(store.purgeExpired(), is(1));
+		assertThat(store, anEmptyMap());
+	}
+
+	@Test
+	public void testBounded()
+	{
+		SessionStore store = new SessionStore();
+		store.configure(0, 0, 100, null);
+		long now = System.currentTimeMillis();
+
+		for (int n = 0; n < 100; n++)
+		{
+			Session session = makeSession("u" + n);
+			session.timeAccessed = now - (100 - n) * MINUTE; // higher numbers are more recent
+			store.put(session.curatorID, session);
+		}
+		assertThat(store, aMapWithSize(100));
+		store.get("u0"); // now the most recently used
+
+		// going over the limit drops the least recently used, leaving some headroom
+		store.put("extra", makeSession("extra"));
+		assertThat(store.size(), lessThanOrEqualTo(100));
+		assertThat(store.get("u0"), notNullValue());
+		assertThat(store.get("extra"), notNullValue());
+		assertThat(store.get("u1"), nullValue());
+		assertThat(store.get("u99"), notNullValue());
+	}
+
+	@Test
+	public void testBacking()
+	{
+		// two stores sharing the same backing, as for two webapp instances using the same database
+		MemoryBacking backing = new MemoryBacking();
+		SessionStore store1 = new SessionStore(), store2 = new SessionStore();
+		store1.configure(30 * MINUTE, 0, 0, backing);
+		store2.configure(30 * MINUTE, 0, 0, backing);
+
+		Session session = makeSession("shared");
+		store1.put(session.curatorID, session);
+		assertThat(backing.content.keySet(), contains("shared"));
+
+		// the other instance can only pick it up with the right token
+		assertThat(store2.get("shared"), nullValue());
+		assertThat(store2.get("shared", "wrong"), nullValue());
+		Session other = store2.get("shared", session.accessToken);
+		assertThat(other, notNullValue());
+		assertThat(other.accessToken, is(session.accessToken));
+		assertThat(store2, aMapWithSize(1));
+
+		// a restart loses memory but not the backing
+		store1.clear();
+		assertThat(store1, anEmptyMap());
+		assertThat(store1.get("shared", session.accessToken), notNullValue());
+
+		// expired sessions that turn up from the backing are discarded
+		backing.content.get("shared").timeAccessed = System.currentTimeMillis() - 31 * MINUTE;
+		store1.clear();
+		assertThat(store1.get("shared", session.accessToken), nullValue());
+		assertThat(backing.content, anEmptyMap());
+
+		// logging out removes from everywhere
+		Session gone = makeSession("gone");
+		store1.put("gone", gone);
+		assertThat(store2.get("gone", gone.accessToken), notNullValue());
+		store2.remove("gone");
+		assertThat(backing.content, anEmptyMap());
+	}
+
+	@Test
+	public void testRemoteLogout()
+	{
+		MemoryBacking backing = new MemoryBacking();
+		SessionStore store1 = new SessionStore(), store2 = new SessionStore();
+		store1.configure(0, 0, 0, backing);
+		store2.configure(0, 0, 0, backing);
+
+		Session session = makeSession("user");
+		store1.put(session.curatorID, session);
+		Session copy = store2.get("user", session.accessToken);
+		assertThat(copy, notNullValue());
+
+		// logged out on the first instance: the second one finds out the next time it records the access
+		store1.remove("user");
+		copy.timeAccessed -= 2 * MINUTE;
+		assertThat(store2.get("user", session.accessToken), nullValue());
+		assertThat(store2, anEmptyMap());
+
+		// likewise when the curator logs in again elsewhere, the old token stops working, and the new one is picked up
+		store1.put(session.curatorID, session);
+		copy = store2.get("user", session.accessToken);
+		Session relogin = makeSession("user");
+		store1.put(relogin.curatorID, relogin);
+		copy.timeAccessed -= 2 * MINUTE;
+		assertThat(store2.get("user", session.accessToken), nullValue());
+		assertThat(store2.get("user", relogin.accessToken).accessToken, is(relogin.accessToken));
+	}
+
+	// a session that expires on one instance after the curator has logged in again on another doesn't take the new login with it
+	@Test
+	public void testExpiredAfterRelogin()
+	{
+		MemoryBacking backing = new MemoryBacking();
+		SessionStore store1 = new SessionStore(), store2 = new SessionStore();
+		store1.configure(30 * MINUTE, 0, 0, backing);
+		store2.configure(30 * MINUTE, 0, 0, backing);
+
+		Session session = makeSession("user");
+		store1.put(session.curatorID, session);
+		Session stale = store2.get("user", session.accessToken);
+
+		Session relogin = makeSession("user");
+		store1.put(relogin.curatorID, relogin);
+		stale.timeAccessed = System.currentTimeMillis() - 31 * MINUTE;
+		assertThat(store2.get("user", relogin.accessToken).accessToken, is(relogin.accessToken));
+		assertThat(backing.content.get("user").accessToken, is(relogin.accessToken));
+	}
+
+	// several threads looking up and replacing the same sessions at once: every lookup finds a session, and at the end there's
+	// exactly one per curator
+	@Test
+	public void testConcurrency() throws Exception
+	{
+		final int numThreads = 4, numSessions = 10, numOps = 1000;
+
+		SessionStore store = new SessionStore();
+		store.configure(30 * MINUTE, 0, numSessions, null);
+		for (int n = 0; n < numSessions; n++) store.put("u" + n, makeSession("u" + n));
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		CyclicBarrier start = new CyclicBarrier(numThreads);
+		AtomicInteger misses = new AtomicInteger(0);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < numThreads; t++)
+		{
+			final int offset = t;
+			futures.add(pool.submit(() ->
+			{
+				start.await();
+				for (int n = 0; n < numOps; n++)
+				{
+					String key = "u" + ((n + offset) % numSessions);
+					if (n % 10 == offset) store.put(key, makeSession(key));
+					else if (store.get(key) == null) misses.incrementAndGet();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+		pool.shutdown();
+
+		assertThat(misses.get(), is(0));
+		assertThat(store, aMapWithSize(numSessions));
+		for (Map.Entry<String, Session> entry : store.entrySet()) assertThat(entry.getValue().curatorID, is(entry.getKey()));
+	}
+
+	// contention benchmark: many threads checking sessions, with the occasional login mixed in, which is what the REST servlets
+	// do; the synchronized map is how sessions used to be held, and is run for comparison (the timings are reported, not checked)
+	@Test
+	public void testContention() throws Exception
+	{
+		final int numThreads = 8, numSessions = 1000, numOps = 200000;
+
+		SessionStore store = new SessionStore();
+		store.configure(30 * MINUTE, 0, 0, null);
+		Map<String, Session> locked = new HashMap<>();
+		for (int n = 0; n < numSessions; n++)
+		{
+			store.put("u" + n, makeSession("u" + n));
+			locked.put("u" + n, makeSession("u" + n));
+		}
+
+		long timeStore = runContention(numThreads, numOps, numSessions, key -> store.get(key), session -> store.put(session.curatorID, session));
+		long timeLocked = runContention(numThreads, numOps, numSessions, key ->
+		{
+			synchronized (locked) {return locked.get(key);}
+		}, session ->
+		{
+			synchronized (locked) {locked.put(session.curatorID, session);}
+		});
+		assertThat(store, aMapWithSize(numSessions));
+
+		long totalOps = (long)numThreads * numOps;
+		Util.writeln("Session contention (" + numThreads + " threads): store=" + (totalOps * 1000 / Math.max(1, timeStore)) +
+					 " ops/s, synchronized=" + (totalOps * 1000 / Math.max(1, timeLocked)) + " ops/s");
+	}
+
+	// ------------ private methods ------------
+
+	private static Session makeSession(String curatorID)
+	{
+		Session session = new Session();
+		session.curatorID = curatorID;
+		session.serviceName = "test";
+		session.accessToken = UUID.randomUUID().toString();
+		return session;
+	}
+
+	private static Session copy(Session session)
+	{
+		Session dup = makeSession(session.curatorID);
+		dup.serviceName = session.serviceName;
+		dup.accessToken = session.accessToken;
+		dup.timeCreated = session.timeCreated;
+		dup.timeAccessed = session.timeAccessed;
+		return dup;
+	}
+
+	// hammers the lookup from several threads, with 1 in 1000 operations being a new login; returns elapsed milliseconds
+	private static long runContention(int numThreads, int numOps, int numSessions, java.util.function.Function<String, Session> getter,
+									  java.util.function.Consumer<Session> putter) throws Exception
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		AtomicInteger misses = new AtomicInteger(0);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < numThreads; t++)
+		{
+			final int seed = t;
+			futures.add(pool.submit(() ->
+			{
+				Random rnd = new Random(seed);
+				start.await();
+				for (int n = 0; n < numOps; n++)
+				{
+					String key = "u" + rnd.nextInt(numSessions);
+					if (n % 1000 == 0) putter.accept(makeSession(key));
+					else if (getter.apply(key) == null) misses.incrementAndGet();
+				}
+				return null;
+			}));
+		}
+
+		long t0 = System.currentTimeMillis();
+		start.countDown();
+		for (Future<?> f : futures) f.get();
+		long elapsed = System.currentTimeMillis() - t0;
+		pool.shutdown();
+
+		assertThat(misses.get(), is(0));
+		return elapsed;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.bae.data.DataStore.*;
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.function.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.data.ChangeFeed
+*/
+
+public class ChangeFeedTest
+{
+	private DataStore local, remote;
+	private Notifier previousNotifier;
+	private List<Set<Watermark>> received = Collections.synchronizedList(new ArrayList<>());
+
+	// only interested in the remote changes
+	private class RemoteRecorder implements Notifier
+	{
+		public void datastoreTextChanged() {}
+		public void datastoreFingerprintsChanged() {}
+		public void datastoreAnnotationsChanged() {}
+		public void datastoreMeasurementsChanged() {}
+		public void datastoreCompoundsChanged() {}
+		public void datastoreStructuresChanged() {}
+		public void datastoreRemoteChanged(Set<Watermark> watermarks) {received.add(watermarks);}
+	}
+
+	@BeforeEach
+	public void initialize()
+	{
+		FauxMongo mongo = FauxMongo.getInstance("/testData/db/basic");
+		local = mongo.getDataStore();
+		remote = new DataStore(local.mongo, local.db); // stands in for another server using the same database
+		previousNotifier = local.getNotifier();
+		local.setNotifier(new RemoteRecorder());
+	}
+
+	@AfterEach
+	public void cleanup()
+	{
+		local.stopChangeFeed();
+		local.setNotifier(previousNotifier);
+	}
+
+	@Test
+	public void testRemoteChanges()
+	{
+		ChangeFeed feed = local.startChangeFeed("poll", 60000); // (checks are made explicitly)
+		assertThat(feed.getMode(), is(ChangeFeed.Mode.POLL));
+		assertThat(local.getChangeFeed(), sameInstance(feed));
+		assertThat(local.nlp().getWatermark(), is(10000000L));
+		assertThat(feed.check(), empty());
+
+		// changes made by this process are known straight away, and aren't reported as remote
+		local.nlp().nextWatermark();
+		assertThat(local.nlp().getWatermark(), is(10000001L));
+		assertThat(feed.check(), empty());
+
+		// whereas those made by the other server turn up with the next check
+		long provWatermark = local.provisional().getWatermark();
+		remote.provisional().nextWatermark();
+		remote.model().nextWatermarkCorr();
+		assertThat(local.provisional().getWatermark(), is(provWatermark));
+		assertThat(feed.check(), containsInAnyOrder(Watermark.PROVISIONAL, Watermark.CORR));
+		assertThat(local.provisional().getWatermark(), is(provWatermark + 1));
+		assertThat(local.model().getWatermarkCorr(), is(remote.model().getWatermarkCorr()));
+		assertThat(received, contains(EnumSet.of(Watermark.PROVISIONAL, Watermark.CORR)));
+
+		// when both move the same watermark, it's the remote part that counts
+		local.measure().nextWatermarkMeasure();
+		remote.measure().nextWatermarkMeasure();
+		assertThat(feed.check(), contains(Watermark.MEASURE));
+		local.measure().nextWatermarkMeasure();
+		assertThat(feed.check(), empty());
+		assertThat(received, hasSize(2));
+	}
+
+	@Test
+	public void testModelCache()
+	{
+		local.startChangeFeed("poll", 60000);
+		ChangeFeed feed = local.getChangeFeed();
+		Set<Integer> targets = local.model().allTargetsNLP();
+		assertThat(targets, not(hasItem(110)));
+
+		// a model submitted elsewhere is picked up once the watermark has been seen to move
+		DataObject.Model model = remote.model().getModelNLP(101);
+		model.target = 110;
+		remote.model().submitModelNLP(model);
+		remote.model().nextWatermarkNLP();
+		assertThat(feed.check(), contains(Watermark.MODEL));
+		assertThat(local.model().allTargetsNLP(), hasItem(110));
+	}
+
+	// every kind of assay write moves the watermark, which is how other servers know to discard their cached assays
+	@Test
+	public void testAssayWrites()
+	{
+		ChangeFeed feed = local.startChangeFeed("poll", 60000);
+		assertThat(feed.check(), empty());
+
+		remote.assay().submitIsCurated(2, false);
+		assertThat(feed.check(), contains(Watermark.ASSAY));
+		remote.assay().submitMeasureState(2, "new");
+		assertThat(feed.check(), contains(Watermark.ASSAY));
+		remote.assay().submitAssaySchema(2, "http://www.bioassayontology.org/bas#");
+		assertThat(feed.check(), contains(Watermark.ASSAY));
+		remote.assay().replaceAssayText(1020, "abc");
+		assertThat(feed.check(), contains(Watermark.ASSAY));
+		assertThat(received, hasSize(4));
+	}
+
+	@Test
+	public void testModes() throws InterruptedException
+	{
+		assertNull(local.startChangeFeed("none", 1000));
+		assertNull(local.getChangeFeed());
+
+		// the embedded database isn't a replica set, so there's no change stream, and it comes down to polling
+		ChangeFeed feed = local.startChangeFeed("auto", 20);
+		assertThat(feed.getMode(), is(ChangeFeed.Mode.POLL));
+		remote.compound().nextWatermarkCompound();
+		assertTrue(waitFor(() -> !received.isEmpty()));
+		assertThat(received.get(0), contains(Watermark.COMPOUND));
+
+		local.stopChangeFeed();
+		assertThat(feed.getMode(), is(ChangeFeed.Mode.STOPPED));
+		assertNull(local.getChangeFeed());
+	}
+
+	// ------------ private methods ------------
+
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException
+	{
+		for (int n = 0; n < 100; n++)
+		{
+			if (condition.getAsBoolean()) return true;
+			Thread.sleep(50);
+		}
+		return false;
+	}
+}
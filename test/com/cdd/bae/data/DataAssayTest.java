@@ -95,6 +95,57 @@ public class DataAssayTest
 
 	}
 
+	@Test
+	public void testAssayCache() throws IOException
+	{
+		Metrics.HitRate rate = Metrics.cache("assay");
+		long hits = rate.getHits();
+
+		// second time around comes from the cache, and changing what came out doesn't affect what's in there
+		Assay assay = dataAssay.getAssay(2);
+		assertThat(dataAssay.cacheSize(), is(1));
+		assertThat(dataAssay.cacheBytes(), greaterThan(0L));
+		String propURI = assay.annotations[0].propURI;
+		assay.text = "modified";
+		assay.annotations[0].propURI = "modified";
+		assay = dataAssay.getAssay(2);
+		assertThat(rate.getHits(), is(hits + 1));
+		assertThat(assay.text, not("modified"));
+		assertThat(assay.annotations[0].propURI, is(propURI));
+		assertThat(dataAssay.getAssayFromUniqueID(assay.uniqueID).assayID, is(2L));
+		assertThat(rate.getHits(), is(hits + 2));
+
+		// bulk fetches use what's there, and fill in the rest
+		Assay[] assays = dataAssay.getAssays(new long[]{2, 101, 2222});
+		assertThat(assays[0].assayID, is(2L));
+		assertThat(assays[1].assayID, is(101L));
+		assertThat(assays[2], is(nullValue()));
+		assertThat(rate.getHits(), is(hits + 3));
+		assertThat(dataAssay.cacheSize(), is(2));
+
+		// writes discard the assay in question
+		dataAssay.submitIsCurated(101, true);
+		assertThat(dataAssay.cacheSize(), is(1));
+		assertThat(dataAssay.getAssay(101).isCurated, is(true));
+
+		// as does anything that could change how the annotations are conformed
+		store.provisional().nextWatermark();
+		dataAssay.getAssay(2);
+		assertThat(rate.getHits(), is(hits + 3));
+		assertThat(dataAssay.cacheSize(), is(1));
+
+		// nothing is used once it's too old, since changes made elsewhere might not have been heard about
+		dataAssay.setCacheAge(0);
+		dataAssay.getAssay(2);
+		dataAssay.getAssay(2);
+		assertThat(rate.getHits(), is(hits + 3));
+		dataAssay.setCacheAge(DataAssay.DEFAULT_CACHE_AGE);
+
+		dataAssay.setCacheSize(0);
+		dataAssay.getAssay(2);
+		assertThat(dataAssay.cacheSize(), is(0));
+	}
+
 	@Test
 	public void testFetchAssayIDMethods()
 	{
@@ -258,13 +309,19 @@ public class DataAssayTest
 		verify(store.notifier, times(1)).datastoreTextChanged();
 		verify(store.notifier, times(1)).datastoreAnnotationsChanged();
 
-		// old assay is replaced if new assay has the same ID
+		// old assay is replaced if new assay has the same ID; nothing changed, so there are no notifications
 		dataAssay.setAssay(assay);
 		assertThat(dataAssay.countAssays(), is(prevCount + 1));
 		assertArrays(dataAssay.fetchAllAssayID(), new long[]{2, 101, 102, 103, 104, 105, 106, 100000L});
 
+		verify(store.notifier, times(1)).datastoreTextChanged();
+		verify(store.notifier, times(1)).datastoreAnnotationsChanged();
+
+		// changing just the text only notifies about the text
+		assay.text = "different text";
+		dataAssay.setAssay(assay);
 		verify(store.notifier, times(2)).datastoreTextChanged();
-		verify(store.notifier, times(2)).datastoreAnnotationsChanged();
+		verify(store.notifier, times(1)).datastoreAnnotationsChanged();
 	}
 
 	@Test
@@ -288,9 +345,59 @@ public class DataAssayTest
 		dataAssay.submitAssay(newAssay);
 		assertThat(dataAssay.countAssays(), is(prevCount + 1));
 
-		verify(store.notifier, times(2)).datastoreTextChanged();
+		verify(store.notifier, times(1)).datastoreTextChanged();
+		verify(store.notifier, times(1)).datastoreAnnotationsChanged();
+		verify(store.notifier, times(1)).datastoreMeasurementsChanged();
+
+		// only the annotations are different
+		newAssay.annotations = new Annotation[]{makeAnnotation()};
+		dataAssay.submitAssay(newAssay);
+		verify(store.notifier, times(1)).datastoreTextChanged();
 		verify(store.notifier, times(2)).datastoreAnnotationsChanged();
-		verify(store.notifier, times(2)).datastoreMeasurementsChanged();
+		verify(store.notifier, times(1)).datastoreMeasurementsChanged();
+	}
+
+	@Test
+	public void testWriteSession() throws IOException
+	{
+		long watermark = dataAssay.getWatermark();
+		try (DataStore.WriteSession session = store.beginSession())
+		{
+			for (long assayID : new long[]{2, 101, 102})
+			{
+				Assay assay = dataAssay.getAssay(assayID);
+				assay.text = "modified " + assayID;
+				dataAssay.setAssay(assay);
+			}
+
+			// nothing goes out until the session is closed
+			assertThat(dataAssay.getWatermark(), is(watermark));
+			verify(store.notifier, never()).datastoreTextChanged();
+		}
+
+		assertThat(dataAssay.getWatermark(), is(watermark + 1));
+		verify(store.notifier, times(1)).datastoreTextChanged();
+		verify(store.notifier, never()).datastoreAnnotationsChanged();
+	}
+
+	@Test
+	public void testBulkWriteAssays() throws IOException
+	{
+		// new assays get consecutive identifiers, from one reserved block
+		List<Assay> replaceList = new ArrayList<>();
+		for (long assayID : new long[]{2, 101})
+		{
+			Assay assay = dataAssay.getAssay(assayID);
+			assay.assayID = 0;
+			assay.uniqueID = "bulk:" + assayID;
+			replaceList.add(assay);
+		}
+		int prevCount = dataAssay.countAssays();
+		dataAssay.bulkWriteAssays(replaceList, new ArrayList<>());
+		assertThat(dataAssay.countAssays(), is(prevCount + 2));
+		assertThat(replaceList.get(0).assayID, is(100000L));
+		assertThat(replaceList.get(1).assayID, is(100001L));
+		assertThat(dataAssay.getAssay(100001L).uniqueID, is("bulk:101"));
 	}
 
 	@Test
@@ -360,9 +467,11 @@ public class DataAssayTest
 		assertThat(assay.text, containsString("Counter Screen"));
 		assertThat(assay.annotations.length, is(20));
 
+		long watermark = dataAssay.getWatermark();
 		dataAssay.replaceAssayText(1020, "abc");
 		assay = dataAssay.getAssay(2);
 		assertThat(assay.text, is("abc"));
+		assertThat(dataAssay.getWatermark(), is(watermark + 1));
 		verify(store.notifier, times(1)).datastoreTextChanged();
 	}
 
@@ -372,9 +481,11 @@ public class DataAssayTest
 		Assay assay = dataAssay.getAssay(2);
 		assertThat(assay.schemaURI, is(SCHEMA_URI));
 
+		long watermark = dataAssay.getWatermark();
 		dataAssay.submitAssaySchema(2, SCHEMA_URI); // need to use a known schema here as getAssay does validation
 		assay = dataAssay.getAssay(2);
 		assertThat(assay.schemaURI, is(SCHEMA_URI));
+		assertThat(dataAssay.getWatermark(), is(watermark + 1));
 		verify(store.notifier, times(1)).datastoreAnnotationsChanged();
 	}
 
@@ -407,9 +518,11 @@ public class DataAssayTest
 		Assay assay = dataAssay.getAssay(2);
 		assertThat(assay.isCurated, is(true));
 
+		long watermark = dataAssay.getWatermark();
 		dataAssay.submitIsCurated(2, false);
 		assay = dataAssay.getAssay(2);
 		assertThat(assay.isCurated, is(false));
+		assertThat(dataAssay.getWatermark(), is(watermark + 1));
 	}
 
 	@Test
@@ -418,9 +531,11 @@ public class DataAssayTest
 		Assay assay = dataAssay.getAssay(2);
 		assertThat(assay.measureState, is(nullValue()));
 
+		long watermark = dataAssay.getWatermark();
 		dataAssay.submitMeasureState(2, "new");
 		assay = dataAssay.getAssay(2);
 		assertThat(assay.measureState, is("new"));
+		assertThat(dataAssay.getWatermark(), is(watermark + 1));
 	}
 
 	@Test
@@ -156,8 +156,17 @@ public class DataCompoundTest extends TestBaseClass
 
 		Compound compound = dataCompound.getCompound(id);
 		assertThat(compound.pubchemSID, is(123456));
+		assertThat(dataCompound.getWatermarkCompound(), is(10000001L));
 
 		verify(store.notifier, times(1)).datastoreCompoundsChanged();
+
+		// inside a write session, a batch of new compounds moves the watermark once
+		try (DataStore.WriteSession session = store.beginSession())
+		{
+			for (int sid = 1; sid <= 3; sid++) dataCompound.reserveCompoundPubChemSID(sid);
+		}
+		assertThat(dataCompound.getWatermarkCompound(), is(10000002L));
+		verify(store.notifier, times(2)).datastoreCompoundsChanged();
 	}
 
 	@Test
@@ -178,9 +187,16 @@ public class DataCompoundTest extends TestBaseClass
 	@Test
 	public void testDeleteCompound() throws IOException
 	{
+		long watermark = dataCompound.getWatermarkCompound();
 		assertThat(dataCompound.countTotal(), is(7));
-		dataCompound.deleteCompound(getValidID());
+		String id = getValidID();
+		dataCompound.deleteCompound(id);
 		assertThat(dataCompound.countTotal(), is(6));
+		assertThat(dataCompound.getWatermarkCompound(), is(watermark + 1));
+
+		// nothing to delete the second time, so nothing moves
+		dataCompound.deleteCompound(id);
+		assertThat(dataCompound.getWatermarkCompound(), is(watermark + 1));
 	}
 
 	@Test
@@ -109,8 +109,10 @@ public class DataHoldingTest
 	{
 		assertThat(dataHolding.countTotal(), is(6));
 		Holding holding = DataStoreSupport.makeHolding(1234, 2);
+		long watermark = dataHolding.getWatermark();
 		dataHolding.depositHolding(holding);
 		assertThat(dataHolding.countTotal(), is(7));
+		assertThat(dataHolding.getWatermark(), is(watermark + 1));
 
 		long[] result = dataHolding.fetchHoldings();
 		assertThat(result.length, is(7));
@@ -121,8 +123,10 @@ public class DataHoldingTest
 	public void testDeleteHolding()
 	{
 		assertThat(dataHolding.countTotal(), is(6));
+		long watermark = dataHolding.getWatermark();
 		dataHolding.deleteHolding(10000000L);
 		assertThat(dataHolding.countTotal(), is(5));
+		assertThat(dataHolding.getWatermark(), is(watermark + 1));
 	}
 	
 	@Test
@@ -44,7 +44,8 @@ public class DataMeasureTest
 	public void initialize()
 	{
 		FauxMongo mongo = FauxMongo.getInstance("/testData/db/compound");
-		dataMeasure = new DataMeasure(mongo.getDataStore());
+		store = mongo.getDataStore();
+		dataMeasure = new DataMeasure(store);
 	}
 
 	@Test
@@ -123,6 +124,69 @@ public class DataMeasureTest
 		assertThat(measurements.get(0).compoundID.length, is(size));
 	}
 
+	@Test
+	public void testInsertMeasurements() throws IOException
+	{
+		assertThat(dataMeasure.countMeasurements(), is(2));
+		assertThat(dataMeasure.insertMeasurements(new ArrayList<>()), is(0));
+
+		int size = DataMeasure.LIMIT + 10;
+		MeasureColumn col1 = new MeasureColumn(111L, "big", "uM", DataMeasure.TYPE_PRIMARY, size);
+		for (int n = 0; n < size; n++)
+		{
+			col1.compoundID[n] = n + 1;
+			col1.value[n] = n % 10 == 0 ? Double.NaN : n * 0.5;
+		}
+		MeasureColumn col2 = new MeasureColumn(222L, "small", null, DataMeasure.TYPE_ACTIVITY, 3);
+		col2.compoundID = new long[]{7, 8, 9};
+		col2.value = new double[]{1, 0, 1};
+		col2.relation = new String[]{"=", ">", null};
+
+		assertThat(dataMeasure.insertMeasurements(Arrays.asList(col1, col2)), is(3));
+		assertThat(dataMeasure.countMeasurements(), is(5));
+
+		Measurement[] measurements = dataMeasure.getMeasurements(111L);
+		assertThat(measurements.length, is(1));
+		assertThat(measurements[0].compoundID.length, is(size));
+		assertThat(measurements[0].units, is("uM"));
+		assertThat(measurements[0].compoundID[size - 1], is((long)size));
+		assertThat(measurements[0].value[0], nullValue());
+		assertThat(measurements[0].value[3], is(1.5));
+		assertThat(measurements[0].relation[3], is("="));
+
+		measurements = dataMeasure.getMeasurements(222L);
+		assertThat(measurements.length, is(1));
+		assertThat(measurements[0].units, nullValue());
+		assertThat(measurements[0].compoundID, is(new long[]{7, 8, 9}));
+		assertThat(measurements[0].value, is(new Double[]{1.0, 0.0, 1.0}));
+		assertThat(measurements[0].relation, is(new String[]{"=", ">", null}));
+	}
+
+	@Test
+	public void testReplaceMeasurements() throws IOException
+	{
+		assertThat(dataMeasure.countMeasurements(), is(2));
+		Measurement[] original = dataMeasure.getMeasurements(1L);
+
+		// replacing with one column: the other existing ones go away
+		MeasureColumn col = new MeasureColumn(original[0]);
+		col.value[0] = 99;
+		assertThat(dataMeasure.replaceMeasurements(new long[]{1L}, Arrays.asList(col)), is(1));
+		assertThat(dataMeasure.countMeasurements(), is(1));
+		Measurement[] measurements = dataMeasure.getMeasurements(1L);
+		assertThat(measurements.length, is(1));
+		assertThat(measurements[0].name, is(original[0].name));
+		assertThat(measurements[0].value[0], is(99.0));
+		assertThat(measurements[0].compoundID, is(original[0].compoundID));
+
+		// several assays at once, one of which is just being cleared
+		MeasureColumn other = new MeasureColumn(2L, "other", "binary", DataMeasure.TYPE_ACTIVITY, 2);
+		dataMeasure.replaceMeasurements(new long[]{1L, 2L}, Arrays.asList(other));
+		assertThat(dataMeasure.getMeasurements(1L).length, is(0));
+		assertThat(dataMeasure.getMeasurements(2L).length, is(1));
+		assertThat(dataMeasure.countMeasurements(), is(1));
+	}
+
 	@Test
 	public void testDeleteMeasurement() throws IOException
 	{
@@ -147,6 +211,32 @@ public class DataMeasureTest
 		assertThat(dataMeasure.countCompounds(1L), is(7));
 	}
 
+	@Test
+	public void testStats() throws IOException
+	{
+		long watermark = dataMeasure.getWatermarkMeasure();
+		MeasureStats stats = dataMeasure.getStats();
+		assertThat(stats.numMeasurements, is(2));
+		assertThat(stats.assaysWithMeasurements, is(1));
+		assertThat(stats.watermarkMeasure, is(watermark));
+
+		// unchanged watermarks: no recalculation
+		assertThat(dataMeasure.getStats(), sameInstance(stats));
+
+		// a write moves the watermark, which invalidates the summary
+		dataMeasure.deleteMeasurement(getValidID());
+		assertThat(dataMeasure.getWatermarkMeasure(), is(watermark + 1));
+		stats = dataMeasure.getStats();
+		assertThat(stats.numMeasurements, is(1));
+		assertThat(stats.watermarkMeasure, is(watermark + 1));
+
+		// a fresh instance picks up the stored summary rather than recounting
+		MeasureStats stored = new DataMeasure(store).getStats();
+		assertThat(stored, not(sameInstance(stats)));
+		assertThat(stored.numMeasurements, is(1));
+		assertThat(stored.watermarkCompound, is(stats.watermarkCompound));
+	}
+
 	@Test
 	public void testWatermark() throws IOException
 	{
@@ -19,6 +19,7 @@
 package com.cdd.bae.data;
 
 import com.cdd.bae.data.DataObject.*;
+import com.cdd.bae.util.*;
 import com.cdd.testutil.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -202,6 +203,129 @@ public class DataModelTest
 		assertThat(dataModel.countModelCorr(), is(6));
 	}
 
+	@Test
+	public void testEncodeModel()
+	{
+		Model model = new Model();
+		model.target = 120;
+		model.watermark = 5;
+		model.fplist = new int[]{30, 10, 20};
+		model.contribs = new float[]{3.0f, 1.0f, 2.0f};
+		model.calibLow = -1.5f;
+		model.calibHigh = 2.5f;
+		model.isExplicit = false;
+
+		// fingerprints come back sorted, with the contributions following along
+		Model decoded = DataModel.decodeModel(120, 5, DataModel.encodeModel(model));
+		assertThat(decoded.target, is(120));
+		assertThat(decoded.watermark, is(5L));
+		assertArrayEquals(new int[]{10, 20, 30}, decoded.fplist);
+		assertArrayEquals(new float[]{1.0f, 2.0f, 3.0f}, decoded.contribs);
+		assertThat(decoded.calibLow, is(-1.5f));
+		assertThat(decoded.calibHigh, is(2.5f));
+		assertThat(decoded.isExplicit, is(false));
+
+		// blank models stay blank
+		Model blank = new Model();
+		blank.target = 121;
+		decoded = DataModel.decodeModel(121, 0, DataModel.encodeModel(blank));
+		assertThat(decoded.fplist, is(nullValue()));
+		assertThat(Float.isNaN(decoded.calibLow), is(true));
+
+		// stored in the new form, whereas the test data is in the older list form: both read the same way
+		Model original = dataModel.getModelNLP(101);
+		original.target = 110;
+		dataModel.submitModelNLP(original);
+		model = dataModel.getModelNLP(110);
+		assertArrayEquals(new int[]{10, 11, 12}, model.fplist);
+		assertArrayEquals(new float[]{0.0f, 1.0f, 2.0f}, model.contribs);
+		assertThat(model.calibLow, is(5.0f));
+		assertThat(model.calibHigh, is(6.0f));
+		assertThat(model.isExplicit, is(true));
+	}
+
+	@Test
+	public void testPredict()
+	{
+		assertThat(DataModel.calibrate(1.0, 0.5f, 0.5f), is(0.7));
+		assertThat(DataModel.calibrate(0.0, 0.5f, 0.5f), is(0.3));
+		assertThat(DataModel.calibrate(1.0, 1.0f, 2.0f), is(0.5));
+
+		// test models have contributions 0, 1, 2 for fingerprints 10, 11, 12, and calibration 5..6
+		assertThat(dataModel.predictNLP(101, new int[]{11, 12, 13}), closeTo(Math.atan(-2) / Math.PI + 0.5, 1E-6)); // raw 3
+		assertThat(dataModel.predictNLP(101, new int[]{12}), closeTo(Math.atan(-3) / Math.PI + 0.5, 1E-6));
+		assertThat(dataModel.predictNLP(1111, new int[]{12}), notANumber());
+
+		// correlation models leave out the target's own fingerprint
+		assertThat(dataModel.predictCorr(11, new int[]{11, 12}), notANumber());
+		assertThat(dataModel.predictCorr(101, new int[]{11, 12}), closeTo(Math.atan(-2) / Math.PI + 0.5, 1E-6));
+		Model model = dataModel.getModelCorr(101);
+		model.target = 12;
+		assertThat(DataModel.predict(model, new int[]{11, 12}, 12), closeTo(Math.atan(-4) / Math.PI + 0.5, 1E-6));
+
+		model.isExplicit = false;
+		assertThat(DataModel.predict(model, new int[]{11, 12}, -1), notANumber());
+		dataModel.blankModelNLP(102, 200);
+		assertThat(dataModel.predictNLP(102, new int[]{11, 12}), notANumber());
+	}
+
+	@Test
+	public void testModelCache()
+	{
+		long watermark = dataModel.getWatermarkNLP();
+		for (int target : new int[]{101, 102, 103})
+		{
+			Model model = new Model();
+			model.target = target;
+			model.watermark = watermark;
+			model.fplist = new int[]{10, 11, 12};
+			model.contribs = new float[]{0.0f, 1.0f, 2.0f};
+			dataModel.submitModelNLP(model);
+		}
+		dataModel.setCacheSize(0);
+		assertThat(dataModel.cacheSizeNLP(), is(0));
+
+		// with nothing to go on, warming up takes whatever fits
+		dataModel.setCacheSize(1024 * 1024);
+		assertThat(dataModel.warmCacheNLP(), is(3));
+		assertThat(dataModel.cacheSizeNLP(), is(3));
+		assertThat(dataModel.warmCacheNLP(), is(0)); // (already there)
+
+		// room for two models (of 152 bytes each): the least requested one is left out
+		for (int n = 0; n < 3; n++) dataModel.getModelNLP(101);
+		for (int n = 0; n < 2; n++) dataModel.getModelNLP(102);
+		dataModel.getModelNLP(103);
+		dataModel.setCacheSize(400);
+		assertThat(dataModel.cacheSizeNLP(), is(2));
+		Metrics.HitRate hitRate = Metrics.cache("model.nlp");
+		long hits = hitRate.getHits(), misses = hitRate.getMisses();
+		dataModel.getModelNLP(101);
+		dataModel.getModelNLP(102);
+		dataModel.getModelNLP(103);
+		assertThat(hitRate.getHits() - hits, is(2L));
+		assertThat(hitRate.getMisses() - misses, is(1L));
+		assertThat(dataModel.cacheSizeNLP(), is(2));
+
+		// once there are requests to go on, warming up fetches the most popular, and stops when there's no more room
+		dataModel.setCacheSize(0);
+		dataModel.setCacheSize(400);
+		assertThat(dataModel.warmCacheNLP(), is(2));
+		assertThat(dataModel.cacheSizeNLP(), is(2));
+		hits = hitRate.getHits();
+		dataModel.getModelNLP(101);
+		dataModel.getModelNLP(102);
+		assertThat(hitRate.getHits() - hits, is(2L));
+
+		// a deleted model doesn't come back
+		dataModel.deleteModelNLP(101);
+		assertThat(dataModel.getModelNLP(101), is(nullValue()));
+
+		// models from a previous watermark aren't worth loading
+		dataModel.setCacheSize(1024 * 1024);
+		dataModel.nextWatermarkNLP();
+		assertThat(dataModel.warmCacheNLP(), is(0));
+	}
+
 	// ------------ private methods ------------
 
 	private static void assertGrouping(String expected, SortedMap<Long, List<Integer>> grouped)
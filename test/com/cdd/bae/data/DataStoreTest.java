@@ -24,6 +24,8 @@ import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.*;
+
 import org.junit.jupiter.api.*;
 
 /*
@@ -106,6 +108,35 @@ public class DataStoreTest
 		assertThrows(NullPointerException.class, () -> store.getNextSequence(newSeqID));
 	}
 
+	@Test
+	public void testSequenceBlocks() throws InterruptedException
+	{
+		DataStore store = Common.getDataStore();
+		long seqIDCompound = store.getSequence(DataStore.SEQ_ID_COMPOUND);
+		
+		// reserving a block returns the first value, and moves the sequence past the end
+		assertThat(store.reserveSequenceBlock(DataStore.SEQ_ID_COMPOUND, 10), is(seqIDCompound));
+		assertThat(store.getSequence(DataStore.SEQ_ID_COMPOUND), is(seqIDCompound + 10));
+		
+		// two allocators stand in for separate processes sharing the sequence: everything handed out must be unique, and
+		// must be beyond the range that was reserved above
+		SequenceAllocator alloc1 = new SequenceAllocator(store, DataStore.SEQ_ID_COMPOUND);
+		SequenceAllocator alloc2 = new SequenceAllocator(store, DataStore.SEQ_ID_COMPOUND);
+		Set<Long> seen = Collections.synchronizedSet(new HashSet<>());
+		List<Thread> threads = new ArrayList<>();
+		for (int n = 0; n < 4; n++)
+		{
+			SequenceAllocator alloc = n % 2 == 0 ? alloc1 : alloc2;
+			threads.add(new Thread(() -> {for (int i = 0; i < 500; i++) seen.add(alloc.next());}));
+		}
+		for (Thread t : threads) t.start();
+		for (Thread t : threads) t.join();
+		
+		assertThat(seen.size(), is(2000));
+		assertThat(Collections.min(seen), greaterThanOrEqualTo(seqIDCompound + 10));
+		assertThat(Collections.max(seen), lessThan(store.getSequence(DataStore.SEQ_ID_COMPOUND)));
+	}
+
 	// ------------ private methods ------------
 
 	private void assertEqualAnnotations(DataStore.Annotation annot1, DataStore.Annotation annot2)
@@ -18,6 +18,7 @@
 
 package com.cdd.bae.data;
 
+import com.cdd.bae.config.authentication.*;
 import com.cdd.testutil.*;
 
 import static org.hamcrest.MatcherAssert.*;
@@ -27,6 +28,7 @@ import java.io.*;
 import java.security.*;
 import java.util.*;
 
+import org.bson.*;
 import org.junit.jupiter.api.*;
 
 /*
@@ -40,13 +42,15 @@ public class DataUserTest
 	private static final String USER_1 = "user1";
 	private static final String CURATOR_2 = "curator-2";
 	private static final String CURATOR_1 = "curator-1";
+	DataStore store;
 	DataUser dataUser;
 
 	@BeforeEach
 	public void initialize()
 	{
 		FauxMongo mongo = FauxMongo.getInstance("/testData/db/basic");
-		dataUser = new DataUser(mongo.getDataStore());
+		store = mongo.getDataStore();
+		dataUser = new DataUser(store);
 	}
 
 	@Test
@@ -87,8 +91,16 @@ public class DataUserTest
 		addUserWithSession(CURATOR_1, USER_1);
 		assertThat(dataUser.getUser(CURATOR_1).name, is(USER_1));
 
+		long watermark = dataUser.getWatermark();
 		dataUser.changeUserName(CURATOR_1, NAME_1);
 		assertThat(dataUser.getUser(CURATOR_1).name, is(NAME_1));
+		assertThat(dataUser.getWatermark(), is(watermark + 1));
+
+		// logging in again with the same details leaves the watermark alone
+		dataUser.changeUserName(CURATOR_1, USER_1);
+		watermark = dataUser.getWatermark();
+		addUserWithSession(CURATOR_1, USER_1);
+		assertThat(dataUser.getWatermark(), is(watermark));
 	}
 
 	@Test
@@ -140,6 +152,67 @@ public class DataUserTest
 		assertThat(user.passwordSalt, is(pwSalt));
 	}
 
+	@Test
+	public void testPersistedSessions()
+	{
+		assertThat(dataUser.fetchSession("token1"), nullValue());
+
+		Authentication.Session session = DataStoreSupport.makeUserSession(CURATOR_1, USER_1);
+		session.accessToken = "token1";
+		session.timeCreated = 1000;
+		session.timeAccessed = 2000;
+		dataUser.storeSession(session);
+
+		// only the hash of the token goes into the database, and that is what it is found by
+		Document doc = store.db.getCollection(DataStore.COLL_SESSION).find(new Document(DataStore.FLD_SESSION_CURATORID, CURATOR_1)).first();
+		assertThat(doc.containsKey("accessToken"), is(false));
+		assertThat(doc.getString(DataStore.FLD_SESSION_TOKENHASH), is(DataUser.hashToken("token1")));
+		assertThat(doc.getString(DataStore.FLD_SESSION_TOKENHASH), not(containsString("token1")));
+
+		Authentication.Session stored = dataUser.fetchSession("token1");
+		assertThat(stored.curatorID, is(CURATOR_1));
+		assertThat(stored.userName, is(USER_1));
+		assertThat(stored.accessToken, is("token1"));
+		assertThat(stored.timeCreated, is(1000L));
+		assertThat(stored.timeAccessed, is(2000L));
+		assertThat(dataUser.fetchSession("token2"), nullValue());
+
+		// access times only move forward
+		assertThat(dataUser.touchSession("token1", 5000), is(true));
+		assertThat(dataUser.touchSession("token1", 3000), is(true));
+		assertThat(dataUser.fetchSession("token1").timeAccessed, is(5000L));
+		assertThat(dataUser.touchSession("token2", 5000), is(false));
+
+		// logging in again replaces the previous session
+		session.accessToken = "token3";
+		dataUser.storeSession(session);
+		assertThat(dataUser.fetchSession("token1"), nullValue());
+		assertThat(dataUser.touchSession("token1", 6000), is(false));
+		assertThat(dataUser.fetchSession("token3").curatorID, is(CURATOR_1));
+
+		session = DataStoreSupport.makeUserSession(CURATOR_2, "user2");
+		session.accessToken = "token4";
+		session.timeCreated = 4000;
+		session.timeAccessed = 4000;
+		dataUser.storeSession(session);
+
+		assertThat(dataUser.purgeSessions(0, 0), is(0));
+		assertThat(dataUser.purgeSessions(0, 2000), is(1));
+		assertThat(dataUser.fetchSession("token3"), nullValue());
+		assertThat(dataUser.purgeSessions(4500, 0), is(1));
+		assertThat(dataUser.fetchSession("token4"), nullValue());
+
+		dataUser.storeSession(session);
+		dataUser.deleteSession(CURATOR_2, "token1");
+		assertThat(dataUser.fetchSession("token4"), notNullValue()); // (not the same session)
+		dataUser.deleteSession(CURATOR_2, "token4");
+		assertThat(dataUser.fetchSession("token4"), nullValue());
+
+		dataUser.storeSession(session);
+		dataUser.deleteSession(CURATOR_2);
+		assertThat(dataUser.fetchSession("token4"), nullValue());
+	}
+
 	// ------------ private methods ------------
 
 	private void addUserWithSession(String curatorID, String curatorName)
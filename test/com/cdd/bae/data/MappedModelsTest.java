@@ -0,0 +1,133 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.bae.data.DataObject.*;
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.data.MappedModels
+*/
+
+public class MappedModelsTest extends TestBaseClass
+{
+	@Test
+	public void testReadWrite() throws IOException
+	{
+		File file = new File(folder.toFile(), "models.bin");
+		try (MappedModels.Writer writer = new MappedModels.Writer(file, 7))
+		{
+			writer.add(30, 7, DataModel.encodeModel(makeModel(30, new int[]{1, 2, 3}, new float[]{0.5f, 1.0f, 1.5f}, true)));
+			writer.add(10, 7, DataModel.encodeModel(makeModel(10, new int[]{2, 4}, new float[]{-1.0f, 2.0f}, true)));
+			writer.add(20, 6, DataModel.encodeModel(makeModel(20, new int[]{5}, new float[]{1.0f}, false)));
+		}
+
+		MappedModels models = MappedModels.open(file);
+		assertThat(models.getWatermark(), is(7L));
+		assertThat(models.size(), is(3));
+		assertThat(models.isComplete(), is(false)); // target 20 is behind
+		assertThat(models.indexOf(10), is(0));
+		assertThat(models.indexOf(20), is(1));
+		assertThat(models.indexOf(30), is(2));
+		assertThat(models.indexOf(25), is(-1));
+		assertThat(models.getModelWatermark(1), is(6L));
+
+		// same results as the decoded models
+		int[][] queries = {{}, {1}, {2, 3}, {1, 2, 3, 4}, {4, 5, 6}};
+		for (int[] fplist : queries) for (int n = 0; n < models.size(); n++)
+		{
+			Model model = models.getModel(n);
+			assertThat(model.target, is(models.getTarget(n)));
+			assertEquals(DataModel.predict(model, fplist, -1), models.predict(n, fplist, -1), 1E-9);
+			assertEquals(DataModel.predict(model, fplist, 2), models.predict(n, fplist, 2), 1E-9);
+		}
+		assertThat(models.predict(1, new int[]{5}, -1), notANumber());
+
+		assertThrows(IOException.class, () -> new MappedModels(ByteBuffer.allocate(30)));
+	}
+
+	@Test
+	public void testDataModel() throws IOException
+	{
+		DataStore store = FauxMongo.getInstance("/testData/db/model").getDataStore();
+		DataModel dataModel = new DataModel(store);
+		File dir = new File(folder.toFile(), "models");
+		dataModel.setModelDirectory(dir);
+
+		// the test models are all older than the watermark, so the file is written (once) but predictions come from the database
+		assertThat(dataModel.refreshMappedNLP(), is(true));
+		assertThat(dataModel.refreshMappedNLP(), is(false));
+		double expected = Math.atan(-2) / Math.PI + 0.5;
+		assertThat(dataModel.predictNLP(101, new int[]{11, 12}), closeTo(expected, 1E-6));
+
+		// once they're brought up to date, the file is used, and stays put until something changes
+		long watermark = dataModel.getWatermarkNLP();
+		for (int target : new int[]{101, 102, 103})
+		{
+			Model model = dataModel.getModelNLP(target);
+			model.watermark = watermark;
+			dataModel.submitModelNLP(model);
+		}
+		assertThat(dataModel.refreshMappedNLP(), is(true));
+		assertThat(dataModel.refreshMappedNLP(), is(false));
+		assertTrue(new File(dir, "models-nlp.bin").exists());
+		assertThat(dataModel.predictNLP(101, new int[]{11, 12}), closeTo(expected, 1E-6));
+		assertThat(dataModel.predictNLP(104, new int[]{11, 12}), notANumber());
+
+		// the file is picked up again by a new instance, without being rewritten
+		DataModel another = new DataModel(store);
+		another.setModelDirectory(dir);
+		assertThat(another.refreshMappedNLP(), is(false));
+
+		// predictions really do come from the file: quietly removing one from the database doesn't change anything
+		dataModel.deleteModelNLP(103);
+		assertThat(dataModel.predictNLP(103, new int[]{11, 12}), closeTo(expected, 1E-6));
+
+		// a model that is newer than the file comes from the database instead
+		Model model = dataModel.getModelNLP(102);
+		model.contribs = new float[]{0.0f, 0.0f, 0.0f};
+		model.watermark = dataModel.nextWatermarkNLP() + 1;
+		dataModel.submitModelNLP(model);
+		assertThat(dataModel.predictNLP(102, new int[]{11, 12}), closeTo(Math.atan(-5) / Math.PI + 0.5, 1E-6));
+		assertThat(dataModel.predictNLP(103, new int[]{11, 12}), notANumber());
+	}
+
+	// ------------ private methods ------------
+
+	private static Model makeModel(int target, int[] fplist, float[] contribs, boolean isExplicit)
+	{
+		Model model = new Model();
+		model.target = target;
+		model.fplist = fplist;
+		model.contribs = contribs;
+		model.calibLow = -1.0f;
+		model.calibHigh = 2.0f;
+		model.isExplicit = isExplicit;
+		return model;
+	}
+}
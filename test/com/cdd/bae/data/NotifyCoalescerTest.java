@@ -0,0 +1,91 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.bae.data.DataStore.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.data.NotifyCoalescer
+*/
+
+public class NotifyCoalescerTest
+{
+	@Test
+	public void testPassThrough()
+	{
+		Notifier target = mock(Notifier.class);
+		NotifyCoalescer coalescer = new NotifyCoalescer(target, 0);
+
+		coalescer.datastoreTextChanged();
+		coalescer.datastoreTextChanged();
+		coalescer.datastoreCompoundsChanged();
+		assertThat(coalescer.isPending(), is(false));
+		verify(target, times(2)).datastoreTextChanged();
+		verify(target, times(1)).datastoreCompoundsChanged();
+	}
+
+	@Test
+	public void testHeld()
+	{
+		Notifier target = mock(Notifier.class);
+		NotifyCoalescer coalescer = new NotifyCoalescer(target, -1);
+
+		for (int n = 0; n < 10; n++)
+		{
+			coalescer.datastoreAnnotationsChanged();
+			coalescer.datastoreMeasurementsChanged();
+		}
+		assertThat(coalescer.isPending(), is(true));
+		verifyNoInteractions(target);
+
+		coalescer.flush();
+		assertThat(coalescer.isPending(), is(false));
+		verify(target, times(1)).datastoreAnnotationsChanged();
+		verify(target, times(1)).datastoreMeasurementsChanged();
+		verify(target, never()).datastoreTextChanged();
+
+		// nothing left over, so flushing again does nothing
+		coalescer.flush();
+		verify(target, times(1)).datastoreAnnotationsChanged();
+	}
+
+	@Test
+	public void testDelayed()
+	{
+		Notifier target = mock(Notifier.class);
+		NotifyCoalescer coalescer = new NotifyCoalescer(target, 50);
+
+		for (int n = 0; n < 10; n++) coalescer.datastoreFingerprintsChanged();
+		coalescer.datastoreStructuresChanged();
+
+		verify(target, timeout(2000).times(1)).datastoreFingerprintsChanged();
+		verify(target, timeout(2000).times(1)).datastoreStructuresChanged();
+		assertThat(coalescer.isPending(), is(false));
+
+		// a later burst starts a new window
+		coalescer.datastoreFingerprintsChanged();
+		verify(target, timeout(2000).times(2)).datastoreFingerprintsChanged();
+	}
+}
@@ -0,0 +1,141 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.data.OntologyIndex
+*/
+
+public class OntologyIndexTest
+{
+	private FauxOntologyTree onto;
+
+	@BeforeEach
+	public void prepare() throws IOException
+	{
+		onto = new FauxOntologyTree();
+	}
+
+	@Test
+	public void testLabels()
+	{
+		OntologyIndex index = onto.getIndex();
+		assertThat(index.size(), is(23));
+
+		// exact match comes first, then the shorter labels
+		assertThat(labels(index.search("thing 1", false, 100)),
+				contains("thing 1", "thing 10", "thing 11", "thing 12", "thing 13", "thing 14", "thing 15", "thing 16", "thing 17", "thing 18", "thing 19"));
+		assertThat(labels(index.search("thing 1", false, 3)), contains("thing 1", "thing 10", "thing 11"));
+
+		// prefix matches before those within the label, and word starts before the rest
+		assertThat(labels(index.search("ROOT", false, 100)), contains("root A", "root B", "root C", "root D"));
+		assertThat(labels(index.search("ROOT", true, 100)), empty());
+		assertThat(labels(index.search("root b", false, 100)), contains("root B"));
+		assertThat(labels(index.search("ing 9", false, 100)), contains("thing 9"));
+
+		// short queries still work, just without the benefit of the index
+		assertThat(labels(index.search("B", false, 100)), hasItem("root B"));
+		assertThat(labels(index.search("5", false, 2)), contains("thing 5", "thing 15"));
+
+		assertThat(index.search("nothing like it", false, 100), empty());
+		assertThat(index.search("", false, 100), empty());
+		assertThat(index.search("thing", false, 0), empty());
+	}
+
+	@Test
+	public void testURIsAndAltLabels()
+	{
+		OntologyTree.Branch branch = onto.getRoots()[1].children.get(1); // thing 19
+		onto.uriToAltLabels.put(branch.uri, new String[]{"Gadget", "widget"});
+
+		OntologyIndex index = onto.getIndex();
+		assertThat(index.search(branch.uri, false, 100), contains(branch));
+		assertThat(index.search(branch.uri.toUpperCase(), false, 100), contains(branch));
+		assertThat(index.search(branch.uri.toUpperCase(), true, 100), empty());
+
+		assertThat(index.search("widget", false, 100), contains(branch));
+		assertThat(index.search("gadget", false, 100), contains(branch));
+		assertThat(index.search("gadget", true, 100), empty());
+		assertThat(index.search("Gadget", true, 100), contains(branch));
+	}
+
+	@Test
+	public void testRebuilt()
+	{
+		OntologyIndex index = onto.getIndex();
+		assertThat(onto.getIndex(), sameInstance(index));
+		assertThat(index.search("gizmo", false, 100), empty());
+
+		// adding to the tree is noticed, and the index is remade
+		var branch = new OntologyTree.Branch(null, "http://www.bioassayontology.org/bat#gizmo", "gizmo");
+		onto.roots.add(branch);
+		onto.uriToBranch.put(branch.uri, branch);
+		assertThat(index.isStale(), is(true));
+
+		OntologyIndex rebuilt = onto.getIndex();
+		assertThat(rebuilt, not(sameInstance(index)));
+		assertThat(rebuilt.search("gizmo", false, 100), contains(branch));
+	}
+
+	@Test
+	public void testCommonTrigrams()
+	{
+		// every URI has the same stem, which is too common to be worth indexing, but the rest narrows it down
+		var big = new OntologyTree();
+		for (int n = 0; n < 2000; n++)
+		{
+			var branch = new OntologyTree.Branch(null, "http://example.org/onto#" + n, "term " + n);
+			big.roots.add(branch);
+			big.uriToBranch.put(branch.uri, branch);
+		}
+		OntologyIndex index = big.getIndex();
+
+		assertThat(labels(index.search("http://example.org/onto#1999", false, 100)), contains("term 1999"));
+		assertThat(labels(index.search("term 1999", false, 100)), contains("term 1999"));
+		assertThat(labels(index.search("rm 199", false, 100)), hasSize(11));
+		assertThat(index.search("example.org", false, 10), hasSize(10));
+		assertThat(index.search("example.org", false, 5000), hasSize(2000));
+
+		// queries that go through everything only hold onto the best few, which come out the same as the full ranking
+		List<String> all = labels(index.search("1", false, 5000));
+		assertThat(all, hasSize(2000 - 729)); // (every number with a 1 in it: the others are 0-999 without one)
+		assertThat(labels(index.search("1", false, 5)), is(all.subList(0, 5)));
+		assertThat(labels(index.search("1", false, 5)), contains("term 1", "term 10", "term 11", "term 12", "term 13"));
+		assertThat(labels(index.search("term", false, 3)), contains("term 0", "term 1", "term 2"));
+	}
+
+	// ------------ private methods ------------
+
+	private static List<String> labels(List<OntologyTree.Branch> branches)
+	{
+		List<String> labels = new ArrayList<>();
+		for (var branch : branches) labels.add(branch.label);
+		return labels;
+	}
+}
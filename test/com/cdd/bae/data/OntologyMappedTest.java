@@ -0,0 +1,180 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.data.OntologyMapped
+*/
+
+public class OntologyMappedTest extends TestBaseClass
+{
+	private FauxOntologyTree onto;
+
+	@BeforeEach
+	public void prepare() throws IOException
+	{
+		onto = new FauxOntologyTree();
+		String uri = onto.getRoots()[1].children.get(1).uri; // thing 19
+		onto.uriToDescr.put(uri, "something about it");
+		onto.uriToAltLabels.put(uri, new String[]{"Gadget", "widget", "\u00e9l\u00e9ment"});
+		onto.uriToExternalURLs.put(uri, new String[]{"http://example.org/thing19"});
+		onto.uriToAltLabels.put(onto.getRoots()[0].uri, new String[]{"widget"});
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		OntologyMapped[] mapped = writeAndOpen(onto, new FauxOntologyTree());
+		assertThat(mapped.length, is(2));
+
+		for (OntologyMapped tree : mapped)
+		{
+			assertThat(tree.countURI(), is(23));
+			assertThat(tree.getRoots().length, is(4));
+		}
+		OntologyMapped tree = mapped[0];
+		assertThat(tree.countDescr(), is(1));
+		assertThat(tree.countAltLabels(), is(2));
+		assertThat(tree.countExternalURLs(), is(1));
+		assertThat(mapped[1].countAltLabels(), is(0));
+
+		// same structure, except that children come out sorted by label, which is what happens when deserialising
+		OntologyTree.Branch[] roots = onto.getRoots(), mroots = tree.getRoots();
+		for (int n = 0; n < roots.length; n++) assertSameBranch(mroots[n], roots[n]);
+
+		for (String uri : onto.uriToBranch.keySet())
+		{
+			assertThat(tree.getLabel(uri), is(onto.getLabel(uri)));
+			assertThat(tree.getBranch(uri).uri, is(uri));
+			assertThat(tree.getDescr(uri), is(onto.getDescr(uri)));
+			assertThat(tree.getAltLabels(uri), is(onto.getAltLabels(uri)));
+			assertThat(tree.getExternalURLs(uri), is(onto.getExternalURLs(uri)));
+		}
+		assertThat(tree.getBranch("http://www.bioassayontology.org/bat#nothing"), nullValue());
+		assertThat(tree.getLabel("http://www.bioassayontology.org/bat#nothing"), nullValue());
+		assertThat(tree.getAltLabels(null), nullValue());
+
+		assertThrows(IOException.class, () -> tree.serialise(new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void testLazy() throws IOException
+	{
+		OntologyMapped tree = writeAndOpen(onto)[0];
+		String uri = onto.getRoots()[0].children.get(6).children.get(0).children.get(0).children.get(0).uri; // thing 15
+
+		// fetching a branch brings along its ancestors, but nothing else; the same instances are handed out each time
+		OntologyTree.Branch branch = tree.getBranch(uri);
+		assertThat(branch.label, is("thing 15"));
+		assertThat(branch.parent.label, is("thing 14"));
+		assertThat(branch.parent.parent.parent.parent.label, is("root A"));
+		assertThat(tree.getBranch(uri), sameInstance(branch));
+		assertThat(tree.getRoots()[0], sameInstance(branch.parent.parent.parent.parent));
+		assertThat(branch.parent.children.get(0), sameInstance(branch));
+		assertThrows(UnsupportedOperationException.class, () -> branch.children.add(branch));
+
+		// the index works just the same off the mapped tree
+		assertThat(tree.getIndex().size(), is(23));
+		assertThat(tree.getIndex().search("widget", false, 100), contains(tree.getRoots()[0], tree.getBranch(onto.getRoots()[1].children.get(1).uri)));
+	}
+
+	@Test
+	public void testIndex() throws IOException
+	{
+		OntologyMapped tree = writeAndOpen(onto)[0];
+
+		// the index is made without turning every branch into an object: only the results (and their ancestors) are
+		OntologyIndex index = tree.getIndex();
+		assertThat(tree.countMaterialised(), is(0));
+		List<OntologyTree.Branch> results = index.search("widget", false, 100);
+		assertThat(results, hasSize(2));
+		assertThat(tree.countMaterialised(), is(3));
+
+		// same results as the index over the regular form (siblings are ordered differently, so ties may come out otherwise)
+		OntologyIndex regular = new OntologyIndex(onto);
+		for (String query : new String[]{"thing", "thing 1", "Gadget", "root", "bat#", "zz", "\u00c9L\u00c9"})
+		{
+			for (boolean caseSensitive : new boolean[]{false, true})
+			{
+				Set<String> expected = new HashSet<>(), found = new HashSet<>();
+				for (var branch : regular.search(query, caseSensitive, 100)) expected.add(branch.uri);
+				for (var branch : index.search(query, caseSensitive, 100)) found.add(branch.uri);
+				assertThat(query, found, is(expected));
+			}
+		}
+	}
+
+	@Test
+	public void testInvalid() throws IOException
+	{
+		File file = createFile("junk.bin");
+		try (var ostr = new FileOutputStream(file))
+		{
+			ostr.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+		}
+		assertThrows(IOException.class, () -> OntologyMapped.open(file));
+
+		// a regular serialised tree isn't mistaken for a mapped one
+		try (var ostr = new FileOutputStream(file))
+		{
+			onto.serialise(ostr);
+		}
+		IOException ex = assertThrows(IOException.class, () -> OntologyMapped.open(file));
+		assertThat(ex.getMessage(), containsString("Not a mapped ontology"));
+	}
+
+	// ------------ private methods ------------
+
+	private OntologyMapped[] writeAndOpen(OntologyTree... trees) throws IOException
+	{
+		File file = createFile("ontology.bin");
+		try (var ostr = new FileOutputStream(file))
+		{
+			OntologyMapped.write(ostr, trees);
+		}
+		return OntologyMapped.open(file);
+	}
+
+	private static void assertSameBranch(OntologyTree.Branch mapped, OntologyTree.Branch branch)
+	{
+		assertThat(mapped.uri, is(branch.uri));
+		assertThat(mapped.label, is(branch.label));
+		assertThat(mapped.descendents, is(branch.descendents));
+		assertThat(mapped.children, hasSize(branch.children.size()));
+
+		List<OntologyTree.Branch> children = new ArrayList<>(branch.children);
+		children.sort((b1, b2) -> b1.label.compareToIgnoreCase(b2.label));
+		for (int n = 0; n < children.size(); n++)
+		{
+			assertThat(mapped.children.get(n).parent, sameInstance(mapped));
+			assertSameBranch(mapped.children.get(n), children.get(n));
+		}
+	}
+}
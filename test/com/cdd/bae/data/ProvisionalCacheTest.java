@@ -0,0 +1,124 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.data;
+
+import com.cdd.bae.data.DataObject.*;
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.data.ProvisionalCache
+*/
+
+public class ProvisionalCacheTest
+{
+	private DataStore store;
+
+	@BeforeEach
+	public void initialize()
+	{
+		FauxMongo mongo = FauxMongo.getInstance("/testData/db/basic");
+		store = mongo.getDataStore();
+		Common.setDataStore(store);
+	}
+
+	@Test
+	public void testIncrementalUpdate()
+	{
+		ProvisionalCache cache = ProvisionalCache.loaded();
+		assertThat(cache.numTerms(), is(0));
+
+		Provisional prov1 = makeTerm("uri1", "parent", null);
+		Provisional prov2 = makeTerm("uri2", "uri1", null);
+		store.provisional().updateProvisional(prov1);
+		store.provisional().updateProvisional(prov2);
+
+		// nothing changes until the update
+		assertThat(cache.numTerms(), is(0));
+		cache.update();
+		assertThat(cache.numTerms(), is(2));
+		assertThat(cache.getTerm("uri1").provisionalID, is(prov1.provisionalID));
+		assertThat(cache.getAllTerms(), arrayWithSize(2));
+
+		// modification: picked up as a changed term
+		prov1.label = "modified";
+		store.provisional().updateProvisional(prov1);
+		cache.update();
+		assertThat(cache.getTerm("uri1").label, is("modified"));
+		assertThat(cache.numTerms(), is(2));
+
+		// chained remapping: uri1 -> uri3 -> uri4, and the parent of uri2 follows along
+		prov1.remappedTo = "uri3";
+		store.provisional().updateProvisional(prov1);
+		Provisional prov3 = makeTerm("uri3", "parent", "uri4");
+		store.provisional().updateProvisional(prov3);
+		cache.update();
+		assertThat(cache.numRemappings(), is(2));
+		assertThat(cache.remap("uri1"), is("uri4"));
+		assertThat(cache.remap("uri3"), is("uri4"));
+		assertThat(cache.remap("uri2"), nullValue());
+		assertThat(cache.remapMaybe("uri2"), is("uri2"));
+		assertThat(cache.getTerm("uri1"), nullValue());
+
+		// deletion
+		store.provisional().deleteProvisional(prov2.provisionalID);
+		cache.update();
+		assertThat(cache.getTerm("uri2"), nullValue());
+
+		// should match a full reload
+		ProvisionalCache fresh = ProvisionalCache.loaded();
+		assertThat(cache.numTerms(), is(fresh.numTerms()));
+		assertThat(cache.numRemappings(), is(fresh.numRemappings()));
+		for (Provisional prov : fresh.getAllTerms())
+		{
+			String uri = prov.remappedTo != null ? prov.remappedTo : prov.uri;
+			assertThat(cache.getTerm(uri).provisionalID, is(prov.provisionalID));
+		}
+	}
+
+	@Test
+	public void testRemapLoop()
+	{
+		store.provisional().updateProvisional(makeTerm("a", "parent", "b"));
+		store.provisional().updateProvisional(makeTerm("b", "parent", "c"));
+		store.provisional().updateProvisional(makeTerm("c", "parent", "a"));
+
+		ProvisionalCache cache = ProvisionalCache.loaded();
+		assertThat(cache.remap("a"), is("c"));
+		assertThat(cache.remap("b"), is("a"));
+		assertThat(cache.remap("c"), is("b"));
+		assertThat(cache.remap("d"), nullValue());
+		assertThat(cache.remap(null), nullValue());
+	}
+
+	// ------------ private methods ------------
+
+	private static Provisional makeTerm(String uri, String parentURI, String remappedTo)
+	{
+		Provisional prov = DataStoreSupport.makeProvisional();
+		prov.uri = uri;
+		prov.parentURI = parentURI;
+		prov.remappedTo = remappedTo;
+		return prov;
+	}
+}
@@ -29,7 +29,9 @@ import static org.hamcrest.MatcherAssert.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.zip.*;
 
 import org.junit.jupiter.api.*;
 
@@ -110,6 +112,43 @@ public class TransferCommandsTest extends TestBaseClass
 		assertThat(output, containsString("Updated assays: 0"));
 	}
 
+	@Test
+	public void testBulkImportAssays() throws IOException
+	{
+		File file = createFile("bulk.zip");
+		File fileCheckpoint = new File(file.getPath() + ".checkpoint");
+
+		String output = executeCommand(EXPORTASSAYS, file.getAbsolutePath());
+		assertThat(output, containsString("Export complete"));
+		
+		output = executeCommand(IMPORTASSAYS, "--bulk", file.getAbsolutePath());
+		assertThat(output, containsString("Parsed assays: 6"));
+		assertThat(output, containsString("Updated assays: 0"));
+		assertFalse(fileCheckpoint.exists());
+
+		output = executeCommand(IMPORTASSAYS, "--bulk", "--force", file.getAbsolutePath());
+		assertThat(output, containsString("Updated assays: 6"));
+		
+		// pretend that an earlier import was interrupted after the 4th entry
+		String path4 = null;
+		try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file)))
+		{
+			for (int n = 0; n < 4; n++) path4 = zip.getNextEntry().getName();
+		}
+		Files.writeString(fileCheckpoint.toPath(), "4\t" + path4 + "\n");
+		output = executeCommand(IMPORTASSAYS, "--bulk", "--force", file.getAbsolutePath());
+		assertThat(output, containsString("resuming after entry 4"));
+		assertThat(output, containsString("Parsed assays: 2"));
+		assertThat(output, containsString("Updated assays: 2"));
+		assertFalse(fileCheckpoint.exists());
+
+		// checkpoint from some other file is rejected
+		Files.writeString(fileCheckpoint.toPath(), "4\tnothing.json\n");
+		output = executeCommand(IMPORTASSAYS, "--bulk", file.getAbsolutePath());
+		assertThat(output, containsString("Checkpoint does not match"));
+		assertTrue(fileCheckpoint.exists());
+	}
+
 	@Test
 	public void testAugmentAssayBase()
 	{
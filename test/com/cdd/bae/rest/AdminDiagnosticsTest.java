@@ -0,0 +1,94 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.util.*;
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+
+import org.json.*;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+/*
+	Test for AdminDiagnostics REST API.
+*/
+
+public class AdminDiagnosticsTest extends EndpointEmulator
+{
+	@BeforeEach
+	public void prepare() throws ConfigurationException, IOException
+	{
+		FauxMongo mongo = FauxMongo.getInstance("/testData/db/basic");
+		Configuration configuration = TestConfiguration.getConfiguration(false);
+		Common.setConfiguration(configuration);
+		Common.setDataStore(mongo.getDataStore());
+
+		setRestService(new AdminDiagnostics());
+		restService = Mockito.spy(restService);
+	}
+
+	@Test
+	public void testPermission()
+	{
+		assertThat(restService.hasPermission(null), is(false));
+		assertThat(restService.hasPermission(TestUtilities.mockSession()), is(false));
+		assertThat(restService.hasPermission(TestUtilities.mockSessionCurator()), is(false));
+		assertThat(restService.hasPermission(TestUtilities.mockSessionAdmin()), is(true));
+	}
+
+	@Test
+	public void testDiagnostics() throws IOException
+	{
+		doReturn(TestUtilities.mockSessionAdmin()).when(restService).getSession(any());
+
+		// the request itself is timed, so shows up the second time around (the name has a suffix because of the spy)
+		doPost(new JSONObject());
+		JSONObject json = doPostJSON(new JSONObject());
+		String name = findTimer(json, "rest.AdminDiagnostics");
+		assertThat(name, notNullValue());
+		assertThat(json.getJSONObject("runtime").getInt("processors"), greaterThan(0));
+
+		json = doPostJSON(new JSONObject().put("reset", true));
+		json = doPostJSON(new JSONObject());
+		assertThat(json.getJSONObject("timers").getJSONObject(name).getLong("count"), is(1L));
+
+		// no access without being an administrator
+		doReturn(TestUtilities.mockSessionCurator()).when(restService).getSession(any());
+		json = doPostJSON(new JSONObject());
+		assertStatus(json, false, RESTBaseServlet.Status.NOLOGIN);
+		assertThat(Metrics.toJSON().has("timers"), is(true));
+	}
+
+	// ------------ private methods ------------
+
+	private static String findTimer(JSONObject json, String prefix)
+	{
+		for (String key : json.getJSONObject("timers").keySet()) if (key.startsWith(prefix)) return key;
+		return null;
+	}
+}
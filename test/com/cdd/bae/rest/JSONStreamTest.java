@@ -0,0 +1,81 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+
+import org.json.*;
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.rest.JSONStream
+*/
+
+public class JSONStreamTest
+{
+	@Test
+	public void testStream() throws IOException
+	{
+		StringWriter wtr = new StringWriter();
+		JSONStream out = new JSONStream(wtr);
+		out.beginObject();
+		out.field("name", "quote\"d");
+		out.field("count", 3);
+		out.key("list").beginArray();
+		for (int n = 0; n < 3; n++) out.value(new JSONObject().put("n", n));
+		out.value(new JSONArray().put(1).put(2));
+		out.value(null);
+		out.endArray();
+		out.key("empty").beginObject().endObject();
+		out.endObject();
+		assertThat(out.isComplete(), is(true));
+		out.close();
+
+		JSONObject json = new JSONObject(wtr.toString());
+		assertThat(json.getString("name"), is("quote\"d"));
+		assertThat(json.getInt("count"), is(3));
+		assertThat(json.getJSONArray("list").length(), is(5));
+		assertThat(json.getJSONArray("list").getJSONObject(2).getInt("n"), is(2));
+		assertThat(json.getJSONObject("empty").length(), is(0));
+		assertThat(wtr.toString(), not(containsString("\n")));
+	}
+
+	@Test
+	public void testMisuse() throws IOException
+	{
+		JSONStream out = new JSONStream(new StringWriter());
+		out.beginObject();
+		assertThrows(IllegalStateException.class, () -> out.value(1));
+		assertThrows(IllegalStateException.class, () -> out.endArray());
+		out.key("a");
+		assertThat(out.isComplete(), is(false));
+		assertThrows(IllegalStateException.class, () -> out.endObject());
+		out.value(1).endObject();
+		assertThat(out.isComplete(), is(true));
+
+		JSONStream arr = new JSONStream(new StringWriter());
+		arr.beginArray();
+		assertThrows(IllegalStateException.class, () -> arr.key("a"));
+		assertThat(arr.isComplete(), is(false));
+	}
+}
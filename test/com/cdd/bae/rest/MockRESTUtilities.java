@@ -164,6 +164,20 @@ public class MockRESTUtilities
 				return null;
 			}).when(response).setStatus(anyInt());
 			doAnswer(invocation -> status).when(response).getStatus();
+
+			doAnswer(invocation -> new ArrayList<>(headers.keySet())).when(response).getHeaderNames();
+			doAnswer(invocation ->
+			{
+				String value = headers.get(invocation.getArgument(0));
+				return value == null ? new ArrayList<>() : List.of(value);
+			}).when(response).getHeaders(anyString());
+			doAnswer(invocation ->
+			{
+				headers.clear();
+				status = 0;
+				reset();
+				return null;
+			}).when(response).reset();
 		}
 
 		public void reset()
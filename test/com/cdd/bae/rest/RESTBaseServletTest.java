@@ -19,6 +19,7 @@
 package com.cdd.bae.rest;
 
 import com.cdd.bae.config.*;
+import com.cdd.bae.config.authentication.Authentication.*;
 import com.cdd.bae.data.*;
 import com.cdd.bae.rest.MockRESTUtilities.*;
 import com.cdd.bae.util.*;
@@ -141,6 +142,34 @@ public class RESTBaseServletTest extends EndpointEmulator
 		verify(response).setStatus(RESTException.HTTPStatus.INTERNAL_SERVER_ERROR.code());
 	}
 
+	@Test
+	public void testNotReady() throws IOException
+	{
+		// while the ontology is still loading, the request is turned away without being looked at
+		var startup = new StartupStages<>(Common.Resource.class, TestUtilities.mockLogger());
+		Common.setStartup(startup);
+		try
+		{
+			MockJSONResponse mockResponse = new MockJSONResponse();
+			getAssay.doPost(MockRESTUtilities.mockedJSONRequest("{assayID: 2}"), mockResponse.getResponse());
+			assertThat(mockResponse.getResponse().getStatus(), is(RESTException.HTTPStatus.SERVICE_UNAVAILABLE.code()));
+			assertThat(mockResponse.getHeader("Retry-After"), notNullValue());
+			TestUtilities.assertErrorResponse(mockResponse.getContentAsJSON(), RESTException.HTTPStatus.SERVICE_UNAVAILABLE);
+
+			// services that don't need it carry on regardless
+			assertTrue(Common.isReady(new GetIdentifiers().getRequiredResources()));
+
+			for (Common.Resource resource : Common.Resource.values()) startup.runNow(resource, () -> {});
+			mockResponse = new MockJSONResponse();
+			getAssay.doPost(MockRESTUtilities.mockedJSONRequest("{assayID: 2}"), mockResponse.getResponse());
+			assertResponse(mockResponse.getContentAsJSON(), 2);
+		}
+		finally
+		{
+			Common.setStartup(null);
+		}
+	}
+
 	@Test
 	public void testETagSupport() throws IOException
 	{
@@ -171,6 +200,161 @@ public class RESTBaseServletTest extends EndpointEmulator
 		assertThat(response.getStatus(), is(RESTException.HTTPStatus.OK.code()));
 	}
 
+	@Test
+	public void testDependencyETag() throws IOException
+	{
+		MockJSONRequest requestWrapper = new MockJSONRequest("{assayID: 2}");
+		MockJSONResponse responseWrapper = new MockJSONResponse();
+		getAssay.doPost(requestWrapper.getJSONRequest(), responseWrapper.getResponse());
+		String etag = responseWrapper.getHeader("ETag");
+		assertThat(etag, matchesPattern("\"[0-9a-f]{40}\""));
+		assertResponse(responseWrapper.getContentAsJSON(), 2);
+
+		// different parameters, different tag
+		MockJSONResponse otherResponse = new MockJSONResponse();
+		getAssay.doPost(MockRESTUtilities.mockedJSONRequest("{assayID: 2, countCompounds: true}"), otherResponse.getResponse());
+		assertThat(otherResponse.getHeader("ETag"), not(etag));
+
+		// the client has it already, including as part of a list or weakened by a proxy
+		for (String header : new String[]{etag, "\"other\", " + etag, "W/" + etag, "*"})
+		{
+			requestWrapper.setHeader("If-None-Match", header);
+			responseWrapper = new MockJSONResponse();
+			getAssay.doPost(requestWrapper.getJSONRequest(), responseWrapper.getResponse());
+			assertThat(responseWrapper.getResponse().getStatus(), is(RESTException.HTTPStatus.NOT_MODIFIED.code()));
+			assertThat(responseWrapper.getContent(), is(""));
+		}
+
+		// once the data changes, the old tag no longer matches
+		requestWrapper.setHeader("If-None-Match", etag);
+		dataAssay.nextWatermark();
+		responseWrapper = new MockJSONResponse();
+		getAssay.doPost(requestWrapper.getJSONRequest(), responseWrapper.getResponse());
+		assertThat(responseWrapper.getResponse().getStatus(), is(RESTException.HTTPStatus.OK.code()));
+		assertThat(responseWrapper.getHeader("ETag"), not(etag));
+		assertResponse(responseWrapper.getContentAsJSON(), 2);
+	}
+
+	@Test
+	public void testResponseCache() throws IOException, RESTException
+	{
+		InitParams params = Common.getParams();
+		params.responseCache = new InitParams.ResponseCache();
+		try
+		{
+			ResponseCache cache = ResponseCache.main();
+			cache.clear();
+			getAssay = spy(new GetAssay());
+			getAssay.logger = TestUtilities.mockLogger();
+
+			MockJSONResponse response1 = new MockJSONResponse(), response2 = new MockJSONResponse();
+			getAssay.doPost(MockRESTUtilities.mockedJSONRequest("{assayID: 2}"), response1.getResponse());
+			getAssay.doPost(MockRESTUtilities.mockedJSONRequest("{assayID: 2}"), response2.getResponse());
+			assertThat(response2.getContent(), is(response1.getContent()));
+			assertThat(response2.getHeader("ETag"), is(response1.getHeader("ETag")));
+			verify(getAssay, times(1)).processRequest(any(), any());
+			assertThat(cache.size(), is(1));
+
+			// errors aren't cached
+			getAssay.doPost(MockRESTUtilities.mockedJSONRequest("{assayID: 999999}"), new MockJSONResponse().getResponse());
+			assertThat(cache.size(), is(1));
+
+			// after a change the content is made again
+			dataAssay.nextWatermark();
+			getAssay.doPost(MockRESTUtilities.mockedJSONRequest("{assayID: 2}"), new MockJSONResponse().getResponse());
+			verify(getAssay, times(3)).processRequest(any(), any());
+		}
+		finally
+		{
+			params.responseCache = null;
+		}
+		assertThat(ResponseCache.main(), nullValue());
+	}
+
+	@Test
+	public void testCompression() throws IOException
+	{
+		MockJSONRequest requestWrapper = new MockJSONRequest("{assayID: 2}");
+		MockJSONResponse plain = new MockJSONResponse();
+		getAssay.doPost(requestWrapper.getJSONRequest(), plain.getResponse());
+		String etag = plain.getHeader("ETag");
+		assertThat(plain.getHeader("Content-Encoding"), nullValue());
+
+		requestWrapper.setHeader("Accept-Encoding", "gzip, deflate");
+		MockJSONResponse zipped = new MockJSONResponse();
+		getAssay.doPost(requestWrapper.getJSONRequest(), zipped.getResponse());
+		assertThat(zipped.getHeader("Content-Encoding"), is("gzip"));
+		assertThat(zipped.getHeader("Vary"), is("Accept-Encoding"));
+		assertThat(zipped.getContentUnzipped(), is(plain.getContent()));
+		assertThat(zipped.getContentBytes().length, lessThan(plain.getContentBytes().length));
+
+		// the compressed representation has its own tag, but either one is good for a conditional request
+		assertThat(zipped.getHeader("ETag"), is(ResponseEncoding.variantETag(etag, "gzip")));
+		requestWrapper.setHeader("If-None-Match", zipped.getHeader("ETag"));
+		MockJSONResponse notModified = new MockJSONResponse();
+		getAssay.doPost(requestWrapper.getJSONRequest(), notModified.getResponse());
+		assertThat(notModified.getResponse().getStatus(), is(RESTException.HTTPStatus.NOT_MODIFIED.code()));
+		assertThat(notModified.getHeader("ETag"), is(zipped.getHeader("ETag")));
+
+		// a client that doesn't take compressed content can't use the compressed variant
+		MockJSONRequest uncompressed = new MockJSONRequest("{assayID: 2}");
+		uncompressed.setHeader("If-None-Match", zipped.getHeader("ETag"));
+		MockJSONResponse modified = new MockJSONResponse();
+		getAssay.doPost(uncompressed.getJSONRequest(), modified.getResponse());
+		assertThat(modified.getResponse().getStatus(), is(RESTException.HTTPStatus.OK.code()));
+		assertThat(modified.getHeader("ETag"), is(etag));
+		assertThat(modified.getContent(), is(plain.getContent()));
+	}
+
+	@Test
+	public void testStreamed() throws IOException
+	{
+		MockJSONRequest requestWrapper = new MockJSONRequest("{assayID: 2}");
+		MockJSONResponse plain = new MockJSONResponse();
+		getAssay.doPost(requestWrapper.getJSONRequest(), plain.getResponse());
+
+		// services that don't write the stream themselves send the regular result
+		GetAssay streamed = new GetAssay()
+		{
+			@Override
+			protected boolean isStreaming(JSONObject input)
+			{
+				return true;
+			}
+		};
+		MockJSONResponse response = new MockJSONResponse();
+		streamed.doPost(requestWrapper.getJSONRequest(), response.getResponse());
+		assertThat(response.getContentAsJSON().similar(plain.getContentAsJSON()), is(true));
+
+		// a failure before anything goes out replaces the content & its encoding, but leaves other headers alone
+		GetAssay failing = new GetAssay()
+		{
+			@Override
+			protected boolean isStreaming(JSONObject input)
+			{
+				return true;
+			}
+
+			@Override
+			protected void streamRequest(JSONObject input, Session session, JSONStream out) throws RESTException, IOException
+			{
+				out.beginArray();
+				throw new RESTException("Failed", RESTException.HTTPStatus.BAD_REQUEST);
+			}
+		};
+		failing.logger = TestUtilities.mockLogger();
+		requestWrapper.setHeader("Accept-Encoding", "gzip");
+		MockJSONResponse failed = new MockJSONResponse();
+		failed.getResponse().setHeader("X-Frame-Options", "DENY");
+		assertThrows(IOException.class, () -> failing.doPost(requestWrapper.getJSONRequest(), failed.getResponse()));
+		assertThat(failed.getResponse().getStatus(), is(RESTException.HTTPStatus.BAD_REQUEST.code()));
+		assertThat(failed.getHeader("Content-Encoding"), nullValue());
+		assertThat(failed.getHeader("ETag"), nullValue());
+		assertThat(failed.getHeader("Vary"), is("Accept-Encoding"));
+		assertThat(failed.getHeader("X-Frame-Options"), is("DENY"));
+		assertThat(failed.getContentAsJSON().has("userMessage"), is(true));
+	}
+
 	// ------------ private methods ------------
 
 	private void assertResponse(JSONObject json, long assayID)
@@ -0,0 +1,67 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.util.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.rest.ResponseCache
+*/
+
+public class ResponseCacheTest
+{
+	@Test
+	public void testBounded()
+	{
+		ResponseCache cache = new ResponseCache(1000);
+		Metrics.HitRate rate = Metrics.cache("response");
+		long hits = rate.getHits(), misses = rate.getMisses();
+		cache.put("a", new byte[250]);
+		cache.put("b", new byte[250]);
+		cache.put("c", new byte[250]);
+		assertThat(cache.totalBytes(), is(750L));
+		assertThat(cache.get("a"), notNullValue()); // now the most recently used
+		assertThat(cache.get("x"), nullValue());
+		assertThat(rate.getHits(), is(hits + 1));
+		assertThat(rate.getMisses(), is(misses + 1));
+
+		// going over the limit pushes out the least recently used
+		cache.put("d", new byte[250]);
+		cache.put("e", new byte[250]);
+		assertThat(cache.size(), is(4));
+		assertThat(cache.get("b"), nullValue());
+		assertThat(cache.get("a"), notNullValue());
+		assertThat(cache.totalBytes(), lessThanOrEqualTo(1000L));
+
+		// replacing is accounted for, and anything too large to be worthwhile is ignored
+		cache.put("a", new byte[100]);
+		assertThat(cache.totalBytes(), is(850L));
+		cache.put("huge", new byte[300]);
+		assertThat(cache.get("huge"), nullValue());
+
+		cache.clear();
+		assertThat(cache.size(), is(0));
+		assertThat(cache.totalBytes(), is(0L));
+	}
+}
@@ -0,0 +1,104 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.zip.*;
+
+import javax.servlet.http.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.rest.ResponseEncoding
+*/
+
+public class ResponseEncodingTest
+{
+	@Test
+	public void testNegotiate()
+	{
+		assertThat(ResponseEncoding.negotiate(null), nullValue());
+		assertThat(ResponseEncoding.negotiate(""), nullValue());
+		assertThat(ResponseEncoding.negotiate("identity"), nullValue());
+		assertThat(ResponseEncoding.negotiate("br"), nullValue());
+		assertThat(ResponseEncoding.negotiate("gzip, deflate, br"), is("gzip"));
+		assertThat(ResponseEncoding.negotiate("deflate, gzip"), is("gzip"));
+		assertThat(ResponseEncoding.negotiate("deflate"), is("deflate"));
+		assertThat(ResponseEncoding.negotiate("gzip;q=0.5, deflate;q=0.8"), is("deflate"));
+		assertThat(ResponseEncoding.negotiate("gzip;q=0, deflate;q=0"), nullValue());
+		assertThat(ResponseEncoding.negotiate("x-gzip"), is("gzip"));
+		assertThat(ResponseEncoding.negotiate("*"), is("gzip"));
+		assertThat(ResponseEncoding.negotiate("GZIP;q=bad, deflate;q=0.1"), is("deflate"));
+	}
+
+	@Test
+	public void testWrap()
+	{
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		assertThat(ResponseEncoding.wrap(request, response), sameInstance(response));
+		assertThat(ResponseEncoding.select(response, 10000), nullValue());
+
+		when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+		HttpServletResponse wrapped = ResponseEncoding.wrap(request, response);
+		assertThat(wrapped, not(sameInstance(response)));
+		assertThat(ResponseEncoding.wrap(request, wrapped), sameInstance(wrapped));
+		verify(response).setHeader("Vary", "Accept-Encoding");
+
+		// small content isn't worth it, but streams of unknown size are compressed
+		assertThat(ResponseEncoding.select(wrapped, 100), nullValue());
+		assertThat(ResponseEncoding.select(wrapped, 10000), is("gzip"));
+		assertThat(ResponseEncoding.select(wrapped, -1), is("gzip"));
+	}
+
+	@Test
+	public void testCompress() throws IOException
+	{
+		byte[] bytes = "{\"key\":\"value\"}".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+		byte[] gzip = ResponseEncoding.compress(bytes, ResponseEncoding.GZIP);
+		assertThat(gzip.length, lessThan(bytes.length / 10));
+		try (InputStream istr = new GZIPInputStream(new ByteArrayInputStream(gzip)))
+		{
+			assertThat(istr.readAllBytes(), is(bytes));
+		}
+
+		byte[] deflate = ResponseEncoding.compress(bytes, ResponseEncoding.DEFLATE);
+		try (InputStream istr = new InflaterInputStream(new ByteArrayInputStream(deflate)))
+		{
+			assertThat(istr.readAllBytes(), is(bytes));
+		}
+
+		assertThat(ResponseEncoding.compress(bytes, null), is(bytes));
+	}
+
+	@Test
+	public void testETagVariants()
+	{
+		assertThat(ResponseEncoding.variantETag("\"abc\"", "gzip"), is("\"abc-gzip\""));
+		assertThat(ResponseEncoding.variantETag("\"abc\"", null), is("\"abc\""));
+		assertThat(ResponseEncoding.variantETag("legacy", "gzip"), is("legacy"));
+	}
+}
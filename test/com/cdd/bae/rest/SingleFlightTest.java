@@ -0,0 +1,153 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.util.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.rest.SingleFlight
+*/
+
+public class SingleFlightTest
+{
+	@Test
+	public void testCoalesced() throws Exception
+	{
+		SingleFlight flight = new SingleFlight(0);
+		AtomicInteger computed = new AtomicInteger(0);
+		CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		SingleFlight.Computation slow = () ->
+		{
+			computed.incrementAndGet();
+			started.countDown();
+			try {release.await();}
+			catch (InterruptedException ex) {throw new IllegalStateException(ex);}
+			return new byte[]{1, 2, 3};
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<byte[]>> results = new ArrayList<>();
+			long hits = Metrics.cache("coalesce").getHits();
+			results.add(executor.submit(() -> flight.get("key", slow)));
+			assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+			for (int n = 0; n < 3; n++) results.add(executor.submit(() -> flight.get("key", slow)));
+
+			// wait until the others have joined in, then let the first one finish
+			Metrics.HitRate rate = Metrics.cache("coalesce");
+			for (int n = 0; n < 500 && rate.getHits() < hits + 3; n++) Thread.sleep(10);
+			release.countDown();
+			for (Future<byte[]> result : results) assertThat(result.get(5, TimeUnit.SECONDS), is(new byte[]{1, 2, 3}));
+			assertThat(computed.get(), is(1));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		// nothing is retained when there's no time to live, so the next one is computed afresh
+		assertThat(flight.size(), is(0));
+		flight.get("key", () -> {computed.incrementAndGet(); return new byte[0];});
+		assertThat(computed.get(), is(2));
+	}
+
+	@Test
+	public void testRetained() throws Exception
+	{
+		SingleFlight flight = new SingleFlight(60000);
+		AtomicInteger computed = new AtomicInteger(0);
+		SingleFlight.Computation quick = () -> new byte[]{(byte)computed.incrementAndGet()};
+
+		assertThat(flight.get("a", quick), is(new byte[]{1}));
+		assertThat(flight.get("a", quick), is(new byte[]{1}));
+		assertThat(flight.get("b", quick), is(new byte[]{2}));
+		assertThat(flight.size(), is(2));
+
+		flight.clear();
+		assertThat(flight.size(), is(0));
+		assertThat(flight.get("a", quick), is(new byte[]{3}));
+
+		// once it's expired, the result is recomputed
+		SingleFlight brief = new SingleFlight(1);
+		brief.get("a", quick);
+		Thread.sleep(10);
+		assertThat(brief.get("a", quick), is(new byte[]{5}));
+	}
+
+	@Test
+	public void testLeaderCancelled() throws Exception
+	{
+		SingleFlight flight = new SingleFlight(0);
+		AtomicInteger computed = new AtomicInteger(0);
+		CountDownLatch started = new CountDownLatch(1);
+		SingleFlight.Computation slow = () ->
+		{
+			if (computed.incrementAndGet() > 1) return new byte[]{4, 5, 6};
+			started.countDown();
+			try {Thread.sleep(10000);}
+			catch (InterruptedException ex) {throw new IllegalStateException(ex);}
+			return new byte[]{1, 2, 3};
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			long hits = Metrics.cache("coalesce").getHits();
+			Future<byte[]> leader = executor.submit(() -> flight.get("key", slow));
+			assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+			Future<byte[]> follower = executor.submit(() -> flight.get("key", slow));
+			Metrics.HitRate rate = Metrics.cache("coalesce");
+			for (int n = 0; n < 500 && rate.getHits() < hits + 1; n++) Thread.sleep(10);
+
+			// the request doing the work goes away, but the one waiting on it still gets its result
+			leader.cancel(true);
+			assertThat(follower.get(5, TimeUnit.SECONDS), is(new byte[]{4, 5, 6}));
+			assertThat(computed.get(), is(2));
+			assertThat(flight.size(), is(0));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception
+	{
+		SingleFlight flight = new SingleFlight(60000);
+		RESTException error = RESTException.bad("nope");
+		RESTException thrown = assertThrows(RESTException.class, () -> flight.get("key", () -> {throw error;}));
+		assertThat(thrown, sameInstance(error));
+
+		// failures aren't kept, so trying again does the work again
+		assertThat(flight.size(), is(0));
+		assertThat(flight.get("key", () -> new byte[]{9}), is(new byte[]{9}));
+	}
+}
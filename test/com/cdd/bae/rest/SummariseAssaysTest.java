@@ -78,6 +78,43 @@ public class SummariseAssaysTest
 		assertItem(json.getJSONObject(0));
 	}
 
+	@Test
+	public void testStreamed() throws IOException, RESTException
+	{
+		// the response is streamed, and compressed on request; either way it's the same as building it up in full
+		String content = "{\"assayIDList\": [2, 101, 102], \"withCompounds\": true}";
+		JSONArray expected = summariseAssays.processRequest(new JSONObject(content), null).getJSONArray(RESTBaseServlet.RETURN_JSONARRAY);
+
+		MockRESTUtilities.MockJSONRequest requestWrapper = new MockRESTUtilities.MockJSONRequest(content);
+		MockRESTUtilities.MockJSONResponse mockResponse = new MockRESTUtilities.MockJSONResponse();
+		summariseAssays.doPost(requestWrapper.getJSONRequest(), mockResponse.getResponse());
+		assertEquals(expected.toString(), mockResponse.getContent());
+
+		requestWrapper.setHeader("Accept-Encoding", "gzip");
+		mockResponse = new MockRESTUtilities.MockJSONResponse();
+		summariseAssays.doPost(requestWrapper.getJSONRequest(), mockResponse.getResponse());
+		assertEquals("gzip", mockResponse.getHeader("Content-Encoding"));
+		assertEquals(expected.toString(), mockResponse.getContentUnzipped());
+
+		// only big requests are streamed
+		assertTrue(summariseAssays.isStreaming(new JSONObject(content)));
+		assertFalse(summariseAssays.isStreaming(new JSONObject("{\"assayIDList\": [2, 101, 102]}")));
+		assertTrue(summariseAssays.isStreaming(new JSONObject().put("uniqueIDList", new JSONArray(new String[200]))));
+	}
+
+	@Test
+	public void testOnlyCompounds()
+	{
+		// the restriction has to be a list, whether or not the response is streamed
+		for (String content : new String[]{"{\"assayIDList\": [2], \"onlyCompounds\": 5}", "{\"assayIDList\": [2], \"onlyCompounds\": [\"x\"]}"})
+		{
+			RESTException ex = assertThrows(RESTException.class, () -> summariseAssays.processRequest(new JSONObject(content), null));
+			assertEquals(RESTException.HTTPStatus.BAD_REQUEST.code(), ex.getHTTPStatus());
+			ex = assertThrows(RESTException.class, () -> summariseAssays.streamRequest(new JSONObject(content), null, null));
+			assertEquals(RESTException.HTTPStatus.BAD_REQUEST.code(), ex.getHTTPStatus());
+		}
+	}
+
 	@Test
 	public void testTruncateText()
 	{
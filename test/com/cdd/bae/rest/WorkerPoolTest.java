@@ -0,0 +1,179 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.rest;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.rest.MockRESTUtilities.*;
+import com.cdd.bae.util.*;
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.rest.WorkerPool
+*/
+
+public class WorkerPoolTest
+{
+	// an asynchronous request, with a latch that is released when it's completed
+	private static final class Exchange
+	{
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		AsyncContext context = mock(AsyncContext.class);
+		MockServletResponse response;
+		CountDownLatch completed = new CountDownLatch(1);
+		List<AsyncListener> listeners = new ArrayList<>();
+
+		Exchange() throws IOException
+		{
+			response = new MockServletResponse();
+			when(request.startAsync(any(), any())).thenReturn(context);
+			when(context.getRequest()).thenReturn(request);
+			doAnswer(invocation -> {completed.countDown(); return null;}).when(context).complete();
+			doAnswer(invocation -> listeners.add(invocation.getArgument(0))).when(context).addListener(any());
+		}
+
+		boolean awaitCompletion() throws InterruptedException
+		{
+			return completed.await(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void testDispatch() throws Exception
+	{
+		WorkerPool pool = new WorkerPool("test", new InitParams.WorkerPools());
+		Exchange exchange = new Exchange();
+		pool.dispatch(exchange.request, exchange.response.getResponse(), (request, response) ->
+		{
+			response.setStatus(200);
+			response.getOutputStream().write("done".getBytes());
+		});
+		assertThat(exchange.awaitCompletion(), is(true));
+		assertThat(exchange.response.status, is(200));
+		assertThat(exchange.response.getContent(), is("done"));
+		verify(exchange.context).setTimeout(0);
+	}
+
+	@Test
+	public void testRejected() throws Exception
+	{
+		InitParams.WorkerPools config = new InitParams.WorkerPools();
+		config.threads = 1;
+		config.queue = 1;
+		config.retryAfter = 7;
+		WorkerPool pool = new WorkerPool("test", config);
+
+		CountDownLatch release = new CountDownLatch(1);
+		WorkerPool.Handler blocked = (request, response) ->
+		{
+			try {release.await();}
+			catch (InterruptedException ex) {/* finish */}
+			response.setStatus(200);
+		};
+
+		// one running, one waiting, and the third is turned away immediately
+		Exchange[] exchanges = {new Exchange(), new Exchange(), new Exchange()};
+		for (Exchange exchange : exchanges) pool.dispatch(exchange.request, exchange.response.getResponse(), blocked);
+		assertThat(exchanges[2].awaitCompletion(), is(true));
+		assertThat(exchanges[2].response.status, is(503));
+		assertThat(exchanges[2].response.getHeader("Retry-After"), is("7"));
+		assertThat(exchanges[2].response.getContent(), containsString("busy"));
+
+		release.countDown();
+		for (int n = 0; n < 2; n++)
+		{
+			assertThat(exchanges[n].awaitCompletion(), is(true));
+			assertThat(exchanges[n].response.status, is(200));
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception
+	{
+		InitParams.WorkerPools config = new InitParams.WorkerPools();
+		config.timeout = 1;
+		WorkerPool pool = new WorkerPool("test", config);
+
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Exchange exchange = new Exchange();
+		exchange.response.getResponse().setHeader("X-Frame-Options", "DENY");
+		pool.dispatch(exchange.request, exchange.response.getResponse(), (request, response) ->
+		{
+			response.setHeader("Content-Encoding", "gzip");
+			try {Thread.sleep(10000);}
+			catch (InterruptedException ex) {interrupted.countDown();}
+			response.setStatus(200); // ignored, since the request has been given up on
+		});
+		assertThat(exchange.awaitCompletion(), is(true));
+		assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(exchange.response.status, is(503));
+		assertThat(exchange.response.getHeader("Retry-After"), is(String.valueOf(config.retryAfter)));
+
+		// the error isn't compressed, whatever the worker had in mind, but headers from before are kept
+		assertThat(exchange.response.getHeader("Content-Encoding"), nullValue());
+		assertThat(exchange.response.getHeader("X-Frame-Options"), is("DENY"));
+	}
+
+	@Test
+	public void testDisconnect() throws Exception
+	{
+		WorkerPool pool = new WorkerPool("test", new InitParams.WorkerPools());
+
+		CountDownLatch started = new CountDownLatch(1), interrupted = new CountDownLatch(1);
+		Exchange exchange = new Exchange();
+		pool.dispatch(exchange.request, exchange.response.getResponse(), (request, response) ->
+		{
+			started.countDown();
+			try {Thread.sleep(10000);}
+			catch (InterruptedException ex) {interrupted.countDown();}
+		});
+		assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(exchange.listeners, hasSize(1));
+		exchange.listeners.get(0).onError(new AsyncEvent(exchange.context, new IOException("Connection reset")));
+		assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(exchange.response.status, is(0));
+	}
+
+	@Test
+	public void testForEndpoint() throws ConfigurationException
+	{
+		Common.setConfiguration(TestConfiguration.getConfiguration(false));
+		WorkerPool pool = WorkerPool.forEndpoint("testForEndpoint");
+		assertThat(WorkerPool.forEndpoint("testForEndpoint"), sameInstance(pool));
+		assertThat(pool.getName(), is("testForEndpoint"));
+		assertThat(pool.getQueueSize(), is(0));
+
+		WorkerPool.shutdownAll();
+		assertThat(WorkerPool.forEndpoint("testForEndpoint"), not(sameInstance(pool)));
+	}
+}
@@ -98,38 +98,39 @@ public class PubChemAssaysTest extends TestBaseClass
 	}
 
 	@Test
-	public void testFillMeasurements()
+	public void testFillColumn()
 	{
-		List<Row> rows = new ArrayList<>();
-		DataStore.Measurement measure = new DataStore.Measurement();
-
-		pubChemAssays.fillMeasurements(measure, rows, 1);
-		assertEquals(0, measure.compoundID.length);
-		assertEquals(0, measure.value.length);
-		assertEquals(0, measure.relation.length);
+		Map<Integer, Long> sidToCompound = new HashMap<>();
+		MeasureColumn measure = new MeasureColumn(1, "name", "units", DataMeasure.TYPE_MEASUREMENT, 0);
+		pubChemAssays.fillColumn(measure, new ArrayList<>(), 1, sidToCompound);
+		assertEquals(0, measure.size());
 
-		rows = getTestRows(true, false);
-		pubChemAssays.fillMeasurements(measure, rows, 0);
-		assertEquals(rows.size(), measure.compoundID.length);
-		assertEquals(rows.size(), measure.value.length);
-		assertEquals(rows.size(), measure.relation.length);
+		List<Row> rows = getTestRows(true, false);
+		measure = new MeasureColumn(1, "name", "units", DataMeasure.TYPE_MEASUREMENT, rows.size());
+		pubChemAssays.fillColumn(measure, rows, 0, sidToCompound);
+		assertEquals(rows.size(), measure.size());
+		assertNull(measure.relation);
 
 		assertEquals(1111, measure.compoundID[0]);
-		assertEquals(1.1, measure.value[0].doubleValue(), 0.001);
+		assertEquals(1.1, measure.value[0], 0.001);
 		assertEquals(2222, measure.compoundID[1]);
-		assertEquals(2.1, measure.value[1].doubleValue(), 0.001);
+		assertEquals(2.1, measure.value[1], 0.001);
+
+		pubChemAssays.fillColumn(measure, rows, 1, sidToCompound);
+		assertEquals(1.2, measure.value[0], 0.001);
+		assertEquals(2.2, measure.value[1], 0.001);
 
-		pubChemAssays.fillMeasurements(measure, rows, 1);
-		assertEquals(1.2, measure.value[0].doubleValue(), 0.001);
-		assertEquals(2.2, measure.value[1].doubleValue(), 0.001);
+		pubChemAssays.fillColumn(measure, rows, -2, sidToCompound);
+		assertEquals(1.0, measure.value[0], 0.001);
+		assertEquals(1.0, measure.value[1], 0.001);
 
-		pubChemAssays.fillMeasurements(measure, rows, -2);
-		assertEquals(1.0, measure.value[0].doubleValue(), 0.001);
-		assertEquals(1.0, measure.value[1].doubleValue(), 0.001);
+		pubChemAssays.fillColumn(measure, rows, -1, sidToCompound);
+		assertEquals(1.0, measure.value[0], 0.001);
+		assertEquals(0.0, measure.value[1], 0.001);
 
-		pubChemAssays.fillMeasurements(measure, rows, -1);
-		assertEquals(1.0, measure.value[0].doubleValue(), 0.001);
-		assertEquals(0.0, measure.value[1].doubleValue(), 0.001);
+		// the compound lookups are only made once per SID
+		verify(pubChemAssays.store.compound(), times(1)).reserveCompoundPubChemSID(1);
+		verify(pubChemAssays.store.compound(), times(1)).reserveCompoundPubChemSID(2);
 	}
 
 	@Test
@@ -457,6 +458,32 @@ public class PubChemAssaysTest extends TestBaseClass
 		assertNotNull("Assay text loaded", assay.text);
 	}
 
+	@Test
+	public void testParseAssayDescr() throws IOException
+	{
+		TestResourceFile pubchemJsonData = new TestResourceFile("/testData/tasks/pubchem.concise.json");
+		String content = pubchemJsonData.getContent();
+		JSONObject json = new JSONObject(content);
+		Map<String, SchemaTree.Node> sourceMap = new HashMap<>();
+		SchemaTree.Node node = new SchemaTree.Node();
+		node.uri = "Source URI";
+		sourceMap.put("GlaxoSmithKline (GSK)", node);
+
+		// streaming just the description gives the same result as parsing the whole thing
+		JSONObject descr = PubChemAssays.parseAssayDescr(new ByteArrayInputStream(content.getBytes("UTF-8")));
+		assertNotNull(descr);
+		Assay assay1 = PubChemAssays.parsePubChemAssay(json.getJSONObject("PC_AssaySubmit"), sourceMap, new HashSet<>());
+		Assay assay2 = PubChemAssays.parsePubChemDescr(descr, sourceMap, new HashSet<>());
+		assertEquals(assay1.uniqueID, assay2.uniqueID);
+		assertEquals(assay1.text, assay2.text);
+		assertArrayEquals(assay1.annotations, assay2.annotations);
+		assertArrayEquals(assay1.textLabels, assay2.textLabels);
+
+		// missing parts
+		assertNull(PubChemAssays.parseAssayDescr(new ByteArrayInputStream("{\"PC_AssaySubmit\": {\"data\": []}}".getBytes())));
+		assertNull(PubChemAssays.parseAssayDescr(new ByteArrayInputStream("[]".getBytes())));
+	}
+
 	/* deprecated
 	@Test
 	public void testGetSourceMap() throws ConfigurationException, IOException
@@ -0,0 +1,153 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.tasks;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.tasks.TaskScheduler.*;
+import com.cdd.bae.util.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.tasks.TaskScheduler
+*/
+
+public class TaskSchedulerTest
+{
+	private InitParams.BackgroundTasks params;
+	private Metrics.Histogram latency;
+	private TaskScheduler scheduler;
+
+	@BeforeEach
+	public void prepare()
+	{
+		params = new InitParams.BackgroundTasks();
+		params.maxConcurrent = 1;
+		params.latencyThreshold = 0;
+		params.maxBackoff = 1;
+		latency = new Metrics.Histogram();
+		scheduler = new TaskScheduler(() -> params, latency, 1);
+	}
+
+	@Test
+	public void testConcurrencyLimit() throws InterruptedException
+	{
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch firstRunning = new CountDownLatch(1), proceed = new CountDownLatch(1);
+
+		Task first = scheduler.start("first", Priority.LOW, () ->
+		{
+			order.add("first");
+			firstRunning.countDown();
+			await(proceed);
+			TaskScheduler.checkpoint(); // steps aside, since a task of higher priority is waiting
+			order.add("first again");
+		});
+		assertTrue(firstRunning.await(5, TimeUnit.SECONDS));
+
+		Task second = scheduler.start("second", Priority.NORMAL, () -> order.add("second"));
+		Task urgent = scheduler.start("urgent", Priority.HIGH, () -> order.add("urgent"));
+		assertTrue(waitFor(() -> urgent.getState() == State.STOPPED));
+		assertTrue(waitFor(() -> second.getState() == State.QUEUED));
+		assertThat(first.getState(), is(State.RUNNING));
+
+		proceed.countDown();
+		assertTrue(waitFor(() -> first.getState() == State.STOPPED && second.getState() == State.STOPPED));
+		assertThat(order, contains("first", "urgent", "second", "first again"));
+		assertThat(first.getRuns(), is(1L));
+		assertThat(first.getLastDuration(), greaterThanOrEqualTo(0L));
+		assertThat(scheduler.getTasks(), hasSize(3));
+		assertThat(scheduler.summary(), hasItem(startsWith("second (normal): stopped, runs 1")));
+	}
+
+	@Test
+	public void testIdle() throws InterruptedException
+	{
+		// a task that is waiting for its next turn doesn't count against the limit
+		CountDownLatch wake = new CountDownLatch(1);
+		Task sleeper = scheduler.start("sleeper", Priority.NORMAL, () -> TaskScheduler.idle(() -> await(wake)));
+		assertTrue(waitFor(() -> sleeper.getState() == State.IDLE));
+
+		Task worker = scheduler.start("worker", Priority.LOW, () -> {});
+		assertTrue(waitFor(() -> worker.getState() == State.STOPPED));
+		assertThat(sleeper.getState(), is(State.IDLE));
+
+		wake.countDown();
+		assertTrue(waitFor(() -> sleeper.getState() == State.STOPPED));
+		assertThat(sleeper.getRuns(), is(2L));
+
+		// outside of a task, the wait just happens
+		List<String> called = new ArrayList<>();
+		TaskScheduler.idle(() -> called.add("wait"));
+		TaskScheduler.checkpoint();
+		assertThat(called, contains("wait"));
+	}
+
+	@Test
+	public void testBackoff() throws InterruptedException
+	{
+		params.latencyThreshold = 100;
+		CountDownLatch wake = new CountDownLatch(1);
+		Task task = scheduler.start("task", Priority.LOW, () -> TaskScheduler.idle(() -> await(wake)));
+		assertTrue(waitFor(() -> task.getState() == State.IDLE));
+
+		// requests have been slow since the task went idle, so it has to wait a while before carrying on
+		latency.record(500000);
+		wake.countDown();
+		assertTrue(waitFor(() -> task.getState() == State.BACKOFF));
+		assertThat(scheduler.toJSON().getInt("backoffSeconds"), is(1));
+		assertTrue(waitFor(() -> task.getState() == State.STOPPED));
+
+		// being told to stop cuts the backoff short
+		latency.record(500000);
+		CountDownLatch wake2 = new CountDownLatch(1);
+		params.maxBackoff = 60;
+		Task other = scheduler.start("other", Priority.NORMAL, () -> TaskScheduler.idle(() -> await(wake2)));
+		assertTrue(waitFor(() -> other.getState() == State.BACKOFF || other.getState() == State.IDLE));
+		other.cancel();
+		wake2.countDown();
+		assertTrue(waitFor(() -> other.getState() == State.STOPPED));
+	}
+
+	// ------------ private methods ------------
+
+	private static void await(CountDownLatch latch)
+	{
+		try {latch.await(5, TimeUnit.SECONDS);}
+		catch (InterruptedException ex) {throw new IllegalStateException(ex);}
+	}
+
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException
+	{
+		for (int n = 0; n < 200; n++)
+		{
+			if (condition.getAsBoolean()) return true;
+			Thread.sleep(25);
+		}
+		return false;
+	}
+}
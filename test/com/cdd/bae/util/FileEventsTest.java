@@ -0,0 +1,146 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.util.FileEvents, and its use by FileWatcher
+*/
+
+public class FileEventsTest extends TestBaseClass
+{
+	private FileEvents events;
+
+	@BeforeEach
+	public void prepare()
+	{
+		events = FileEvents.start();
+		Assumptions.assumeTrue(events != null, "file events not available on this platform");
+	}
+
+	@AfterEach
+	public void cleanup()
+	{
+		FileEvents.stop();
+	}
+
+	@Test
+	public void testGenerations() throws IOException, InterruptedException
+	{
+		File file = createFile("file1");
+		AtomicInteger notified = new AtomicInteger(0);
+		events.addListener(notified::incrementAndGet);
+
+		long gen = events.generation(file), dirGen = events.directoryGeneration(folder.toFile());
+		assertThat(gen, greaterThanOrEqualTo(0L));
+		assertThat(events.generation(file), is(gen));
+
+		// a burst of writes comes out as one change
+		for (int n = 0; n < 5; n++) Files.write(file.toPath(), ("content " + n).getBytes());
+		assertTrue(waitFor(() -> events.generation(file) != gen));
+		assertThat(events.generation(file), is(gen + 1));
+		assertThat(notified.get(), is(1));
+		assertThat(events.directoryGeneration(folder.toFile()), is(dirGen));
+
+		// new entries move the directory on
+		createFile("file2");
+		assertTrue(waitFor(() -> events.directoryGeneration(folder.toFile()) != dirGen));
+
+		// directories that don't exist can't be watched
+		assertThat(events.directoryGeneration(new File(folder.toFile(), "nothing")), is(-1L));
+	}
+
+	@Test
+	public void testFileWatcher() throws IOException, InterruptedException
+	{
+		File file = createFile("file1");
+		Files.write(file.toPath(), "original".getBytes());
+		FileWatcher watcher = new FileWatcher(file);
+		assertFalse(watcher.hasChanged());
+
+		// writing the same content again doesn't count
+		long gen = events.generation(file);
+		Files.write(file.toPath(), "original".getBytes());
+		assertTrue(file.setLastModified(file.lastModified() + 5000));
+		assertTrue(waitFor(() -> events.generation(file) != gen));
+		assertFalse(watcher.hasChanged());
+
+		// but different content does
+		long gen2 = events.generation(file);
+		Files.write(file.toPath(), "modified".getBytes());
+		assertTrue(waitFor(() -> events.generation(file) != gen2));
+		assertTrue(watcher.hasChanged());
+		watcher.reset();
+		assertFalse(watcher.hasChanged());
+
+		// as does deletion
+		long gen3 = events.generation(file);
+		assertTrue(file.delete());
+		assertTrue(waitFor(() -> events.generation(file) != gen3));
+		assertThat(watcher.getChangedFiles(), contains(file));
+	}
+
+	@Test
+	public void testDirectoryWatcher() throws IOException, InterruptedException, ConfigurationException
+	{
+		File file = createFile("a.txt");
+		DirectoryWatcher watcher = new DirectoryWatcher(folder.toString(), false)
+		{
+			@Override
+			public boolean requireFiles()
+			{
+				return false;
+			}
+		};
+		assertThat(watcher.getFileWatcher(file), notNullValue());
+		assertFalse(watcher.hasChanged());
+
+		long dirGen = events.directoryGeneration(folder.toFile());
+		createFile("b.txt");
+		assertTrue(waitFor(() -> events.directoryGeneration(folder.toFile()) != dirGen));
+		assertTrue(watcher.hasChanged());
+		watcher.reload();
+		assertFalse(watcher.hasChanged());
+	}
+
+	// ------------ private methods ------------
+
+	// gives the event thread a chance to catch up
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException
+	{
+		for (int n = 0; n < 100; n++)
+		{
+			if (condition.getAsBoolean()) return true;
+			Thread.sleep(50);
+		}
+		return false;
+	}
+}
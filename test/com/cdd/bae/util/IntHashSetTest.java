@@ -0,0 +1,80 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Tests for IntHashSet
+*/
+
+public class IntHashSetTest
+{
+	@Test
+	public void testBasics()
+	{
+		IntHashSet set = new IntHashSet();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(0));
+		assertFalse(set.contains(42));
+
+		assertTrue(set.add(42));
+		assertFalse(set.add(42));
+		assertTrue(set.add(0));
+		assertFalse(set.add(0));
+		assertTrue(set.add(-7));
+
+		assertThat(set.size(), is(3));
+		assertTrue(set.contains(42));
+		assertTrue(set.contains(0));
+		assertTrue(set.contains(-7));
+		assertFalse(set.contains(43));
+		assertArrayEquals(new int[]{-7, 0, 42}, set.toArray());
+		assertThat(set.toString(), is("[-7, 0, 42]"));
+
+		set = new IntHashSet(new int[]{3, 1, 2, 3, 1});
+		assertThat(set.size(), is(3));
+		assertArrayEquals(new int[]{1, 2, 3}, set.toArray());
+	}
+
+	@Test
+	public void testGrowth()
+	{
+		// compare against the boxed equivalent, with enough values to force several rehashes
+		Random rnd = new Random(1234);
+		IntHashSet set = new IntHashSet();
+		Set<Integer> check = new HashSet<>();
+		for (int n = 0; n < 100000; n++)
+		{
+			int v = n % 3 == 0 ? n : rnd.nextInt(1000000) - 500000;
+			assertThat(set.add(v), is(check.add(v)));
+		}
+		assertThat(set.size(), is(check.size()));
+		for (int n = -600000; n < 600000; n += 7) assertThat(set.contains(n), is(check.contains(n)));
+
+		int[] expected = check.stream().mapToInt(Integer::intValue).sorted().toArray();
+		assertArrayEquals(expected, set.toArray());
+	}
+}
@@ -0,0 +1,118 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.json.*;
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.util.Metrics
+*/
+
+public class MetricsTest
+{
+	@BeforeEach
+	public void initialize()
+	{
+		Metrics.reset();
+	}
+
+	@Test
+	public void testBuckets()
+	{
+		// every value maps into a bucket whose upper bound is no smaller, and within the advertised resolution
+		long prevIndex = -1;
+		for (long value = 0; value < 1L << 40; value = value < 100 ? value + 1 : value + value / 7)
+		{
+			int idx = Metrics.Histogram.bucketIndex(value);
+			assertThat(idx, greaterThanOrEqualTo((int)prevIndex));
+			long upper = Metrics.Histogram.bucketUpper(idx);
+			assertThat(upper, greaterThanOrEqualTo(value));
+			assertThat((double)(upper - value), lessThanOrEqualTo(value / 16.0 + 1));
+			prevIndex = idx;
+		}
+		assertThat(Metrics.Histogram.bucketIndex(Long.MAX_VALUE), greaterThan(0));
+	}
+
+	@Test
+	public void testHistogram()
+	{
+		Metrics.Histogram hist = Metrics.timer("test.hist");
+		for (int n = 1; n <= 1000; n++) hist.record(n * 1000L); // 1..1000 ms
+		assertThat(hist.getCount(), is(1000L));
+		assertThat(hist.getMax(), is(1000000L));
+		assertThat(hist.getMean(), closeTo(500500, 1));
+		assertThat((double)hist.getPercentile(50), closeTo(500000, 500000 / 16.0));
+		assertThat((double)hist.getPercentile(99), closeTo(990000, 990000 / 16.0));
+		assertThat(hist.getPercentile(100), is(1000000L));
+		assertThat(Metrics.timer("test.hist"), sameInstance(hist));
+
+		JSONObject json = Metrics.toJSON().getJSONObject("timers").getJSONObject("test.hist");
+		assertThat(json.getLong("count"), is(1000L));
+		assertThat(json.getDouble("p50MS"), closeTo(500, 500 / 16.0));
+		assertThat(json.has("p99_9MS"), is(true));
+
+		hist.reset();
+		assertThat(hist.getCount(), is(0L));
+		assertThat(hist.getPercentile(50), is(0L));
+	}
+
+	@Test
+	public void testConcurrent() throws Exception
+	{
+		Metrics.Histogram hist = Metrics.timer("test.concurrent");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 4; t++) futures.add(pool.submit(() ->
+		{
+			for (int n = 0; n < 10000; n++) hist.record(n);
+		}));
+		for (Future<?> f : futures) f.get();
+		pool.shutdown();
+		assertThat(hist.getCount(), is(40000L));
+		assertThat(hist.getMax(), is(9999L));
+	}
+
+	@Test
+	public void testCachesAndGauges()
+	{
+		Metrics.cache("test").hit();
+		Metrics.cache("test").hit();
+		Metrics.cache("test").hit();
+		Metrics.cache("test").record(false);
+		Metrics.counter("test.count").add(7);
+		Metrics.gauge("test.gauge", () -> 42);
+
+		JSONObject json = Metrics.toJSON();
+		assertThat(json.getJSONObject("caches").getJSONObject("test").getDouble("hitRate"), is(0.75));
+		assertThat(json.getJSONObject("counters").getLong("test.count"), is(7L));
+		assertThat(json.getJSONObject("gauges").getInt("test.gauge"), is(42));
+
+		Metrics.timer("test.summary").record(1500);
+		List<String> lines = Metrics.summary(10);
+		assertThat(lines, hasItem(startsWith("test.summary: n=1")));
+		assertThat(lines, hasItem(startsWith("cache test: hits=3 misses=1")));
+	}
+}
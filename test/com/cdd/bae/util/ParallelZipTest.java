@@ -0,0 +1,161 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for ParallelZip
+*/
+
+public class ParallelZipTest extends TestBaseClass
+{
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		Map<String, String> expected = new LinkedHashMap<>();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ParallelZip zip = new ParallelZip(baos, 3))
+		{
+			for (int n = 0; n < 50; n++)
+			{
+				String name = "entry" + n + ".txt", content = makeContent(n);
+				expected.put(name, content);
+				zip.submit(name, () -> content.getBytes(StandardCharsets.UTF_8));
+			}
+			zip.putStream("streamed.txt", ostr ->
+			{
+				Writer wtr = new OutputStreamWriter(ostr, StandardCharsets.UTF_8);
+				wtr.write(makeContent(1000));
+				wtr.close();
+			});
+			expected.put("streamed.txt", makeContent(1000));
+			zip.submit("last.txt", "\u00e9l\u00e8ve".getBytes(StandardCharsets.UTF_8));
+			expected.put("last.txt", "\u00e9l\u00e8ve");
+		}
+
+		// sequential reading, which relies on the local headers & data descriptors
+		List<String> names = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(baos.toByteArray())))
+		{
+			for (ZipEntry ze = zip.getNextEntry(); ze != null; ze = zip.getNextEntry())
+			{
+				names.add(ze.getName());
+				assertThat(new String(zip.readAllBytes(), StandardCharsets.UTF_8), is(expected.get(ze.getName())));
+			}
+		}
+		assertThat(names, is(new ArrayList<>(expected.keySet())));
+
+		// random access, which relies on the central directory
+		File file = new File(folder.toFile(), "test.zip");
+		try (OutputStream ostr = new FileOutputStream(file)) {baos.writeTo(ostr);}
+		try (ZipFile zf = new ZipFile(file))
+		{
+			assertThat(zf.size(), is(expected.size()));
+			for (Map.Entry<String, String> entry : expected.entrySet())
+			{
+				ZipEntry ze = zf.getEntry(entry.getKey());
+				assertNotNull(ze);
+				assertThat(ze.getSize(), is((long)entry.getValue().getBytes(StandardCharsets.UTF_8).length));
+				try (InputStream istr = zf.getInputStream(ze))
+				{
+					assertThat(new String(istr.readAllBytes(), StandardCharsets.UTF_8), is(entry.getValue()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testManyEntries() throws IOException
+	{
+		// enough entries to need the Zip64 end of central directory
+		final int NUM = 70000;
+		File file = new File(folder.toFile(), "many.zip");
+		try (ParallelZip zip = new ParallelZip(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			for (int n = 0; n < NUM; n++) zip.submit("e" + n, String.valueOf(n).getBytes());
+			assertThat(zip.countEntries(), lessThanOrEqualTo(NUM));
+		}
+		try (ZipFile zf = new ZipFile(file))
+		{
+			assertThat(zf.size(), is(NUM));
+			ZipEntry ze = zf.getEntry("e" + (NUM - 1));
+			try (InputStream istr = zf.getInputStream(ze))
+			{
+				assertThat(new String(istr.readAllBytes()), is(String.valueOf(NUM - 1)));
+			}
+		}
+	}
+
+	@Test
+	public void testFailures() throws IOException
+	{
+		ParallelZip zip = new ParallelZip(new ByteArrayOutputStream(), 2);
+		zip.submit("a", new byte[]{1});
+		assertThrows(ZipException.class, () -> zip.submit("a", new byte[]{2}));
+
+		zip.submit("b", () -> {throw new IOException("broken");});
+		IOException ex = assertThrows(IOException.class, () -> zip.flush());
+		assertThat(ex.getMessage(), is("broken"));
+
+		zip.close();
+		assertThrows(IOException.class, () -> zip.submit("c", new byte[]{3}));
+	}
+
+	@Test
+	public void testSharedThreads() throws IOException
+	{
+		// several archives at once still only use the one set of worker threads
+		List<ParallelZip> zips = new ArrayList<>();
+		for (int n = 0; n < 5; n++)
+		{
+			ParallelZip zip = new ParallelZip(new ByteArrayOutputStream(), 4);
+			for (int i = 0; i < 20; i++) zip.submit("file" + i, makeContent(i).getBytes());
+			zips.add(zip);
+		}
+		long numThreads = Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().equals("ParallelZip")).count();
+		assertThat(numThreads, lessThanOrEqualTo((long)Runtime.getRuntime().availableProcessors()));
+		for (ParallelZip zip : zips)
+		{
+			zip.close();
+			assertThat(zip.countEntries(), is(20));
+		}
+	}
+
+	// ------------ private methods ------------
+
+	private static String makeContent(int seed)
+	{
+		StringBuilder buff = new StringBuilder();
+		Random rnd = new Random(seed);
+		for (int n = 0; n < 200 + seed * 10; n++) buff.append("line " + rnd.nextInt(100) + "\n");
+		return buff.toString();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.util;
+
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for com.cdd.bae.util.StartupStages
+*/
+
+public class StartupStagesTest
+{
+	private enum Stage {FIRST, SECOND, THIRD, FOURTH}
+
+	@Test
+	public void testOrdering() throws Exception
+	{
+		var stages = new StartupStages<>(Stage.class, TestUtilities.mockLogger());
+		List<Stage> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch independent = new CountDownLatch(1), release = new CountDownLatch(1);
+
+		// THIRD has no prerequisites, so it gets going straight away, even while FIRST is still in progress
+		stages.stage(Stage.SECOND, () -> order.add(Stage.SECOND), Stage.FIRST);
+		stages.stage(Stage.THIRD, () ->
+		{
+			independent.countDown();
+			try {release.await();}
+			catch (InterruptedException ex) {throw new IllegalStateException(ex);}
+			order.add(Stage.THIRD);
+		});
+		stages.stage(Stage.FOURTH, () -> order.add(Stage.FOURTH), Stage.SECOND, Stage.THIRD);
+		stages.start();
+
+		assertThat(independent.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(stages.isReady(Stage.SECOND), is(false));
+
+		stages.runNow(Stage.FIRST, () -> order.add(Stage.FIRST));
+		assertThat(stages.isReady(Stage.FIRST), is(true));
+		stages.await(Stage.SECOND);
+		assertThat(stages.isReady(Stage.FOURTH), is(false));
+
+		release.countDown();
+		stages.await(Stage.FOURTH);
+		assertThat(stages.isReady(Stage.values()), is(true));
+		assertThat(order, contains(Stage.FIRST, Stage.SECOND, Stage.THIRD, Stage.FOURTH));
+	}
+
+	@Test
+	public void testFailure()
+	{
+		// a stage that blows up still counts as finished, and doesn't hold up those that come after it
+		var stages = new StartupStages<>(Stage.class, TestUtilities.mockLogger());
+		List<Stage> order = Collections.synchronizedList(new ArrayList<>());
+		stages.stage(Stage.SECOND, () -> order.add(Stage.SECOND), Stage.FIRST);
+		stages.start();
+		stages.runNow(Stage.FIRST, () -> {throw new IllegalStateException("broken");});
+
+		stages.await(Stage.FIRST, Stage.SECOND);
+		assertThat(order, contains(Stage.SECOND));
+		assertTrue(stages.isReady(Stage.FIRST, Stage.SECOND));
+		assertFalse(stages.isReady(Stage.THIRD));
+
+		// once the last of them is done, everything is ready
+		stages.runNow(Stage.THIRD, () -> {});
+		assertFalse(stages.isReady(Stage.FOURTH));
+		stages.runNow(Stage.FOURTH, () -> {});
+		assertTrue(stages.isReady(Stage.values()));
+		stages.await(Stage.values());
+	}
+}
@@ -73,7 +73,7 @@ public class AdminFilterTest
 		HttpServletRequest request = mockAuthenticatedRequest();
 		HttpServletResponse response = mock(HttpServletResponse.class);
 		Authentication.Session session = getSession(DataUser.STATUS_DEFAULT);
-		when(authentication.getSession(any())).thenReturn(session);
+		when(authentication.getSession(any(), any())).thenReturn(session);
 		FilterChain chain = mock(FilterChain.class);
 		adminFilter.doFilter(request, response, chain);
 		verify(response, times(1)).sendRedirect(any());
@@ -86,7 +86,7 @@ public class AdminFilterTest
 		HttpServletRequest request = mockAuthenticatedRequest();
 		HttpServletResponse response = mock(HttpServletResponse.class);
 		Authentication.Session session = getSession(DataUser.STATUS_ADMIN);
-		when(authentication.getSession(any())).thenReturn(session);
+		when(authentication.getSession(any(), any())).thenReturn(session);
 		FilterChain chain = mock(FilterChain.class);
 		adminFilter.doFilter(request, response, chain);
 		verify(response, times(0)).sendRedirect(any());
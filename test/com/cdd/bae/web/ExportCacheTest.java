@@ -0,0 +1,247 @@
+/*
+	BioAssay Express (BAE)
+
+	Copyright 2016-2023 Collaborative Drug Discovery, Inc.
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+		http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+
+package com.cdd.bae.web;
+
+import com.cdd.bae.config.*;
+import com.cdd.bae.data.*;
+import com.cdd.bae.rest.*;
+import com.cdd.bae.rest.MockRESTUtilities.*;
+import com.cdd.testutil.*;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.servlet.http.*;
+
+import org.junit.jupiter.api.*;
+
+/*
+	Test for ExportCache
+*/
+
+public class ExportCacheTest extends TestBaseClass
+{
+	// content source that counts how often it has been asked to generate
+	private static final class CountingSource implements ExportCache.Source
+	{
+		long watermark = 1;
+		int generated = 0;
+		int size = 100;
+
+		public String getName() {return "test";}
+		public String getContentType(Map<String, String> params) {return "text/plain";}
+		public long[] getWatermarks(Map<String, String> params) {return new long[]{watermark};}
+		public void generate(Map<String, String> params, OutputStream ostr) throws IOException
+		{
+			generated++;
+			byte[] data = new byte[size];
+			Arrays.fill(data, (byte)'x');
+			ostr.write(data);
+		}
+	}
+
+	@Test
+	public void testKey()
+	{
+		CountingSource source = new CountingSource();
+		Map<String, String> params1 = new HashMap<>(), params2 = new LinkedHashMap<>();
+		params1.put("a", "1");
+		params1.put("b", "2");
+		params2.put("b", "2");
+		params2.put("a", "1");
+
+		String key = ExportCache.makeKey(source, params1);
+		assertThat(ExportCache.makeKey(source, params2), is(key));
+
+		params2.put("a", "3");
+		assertThat(ExportCache.makeKey(source, params2), not(key));
+
+		source.watermark++;
+		assertThat(ExportCache.makeKey(source, params1), not(key));
+	}
+
+	@Test
+	public void testObtain() throws IOException
+	{
+		ExportCache cache = new ExportCache(folder.toFile(), 1000, 5);
+		CountingSource source = new CountingSource();
+		Map<String, String> params = new HashMap<>();
+
+		String key = ExportCache.makeKey(source, params);
+		File file = cache.obtain(key, source, params);
+		assertThat(file.length(), is(100L));
+		assertThat(source.generated, is(1));
+
+		// second time comes from the cache
+		assertThat(cache.obtain(key, source, params), is(file));
+		assertThat(source.generated, is(1));
+		assertThat(cache.getTotalBytes(), is(100L));
+
+		// a new instance picks up the content left behind
+		cache = new ExportCache(folder.toFile(), 1000, 5);
+		assertThat(cache.contains(key), is(true));
+		cache.obtain(key, source, params);
+		assertThat(source.generated, is(1));
+
+		// changing the watermark makes a different entry
+		source.watermark++;
+		String key2 = ExportCache.makeKey(source, params);
+		cache.obtain(key2, source, params);
+		assertThat(source.generated, is(2));
+		assertThat(cache.size(), is(2));
+	}
+
+	@Test
+	public void testEviction() throws IOException
+	{
+		ExportCache cache = new ExportCache(folder.toFile(), 250, 5);
+		CountingSource source = new CountingSource();
+		Map<String, String> params = new HashMap<>();
+
+		String[] keys = new String[3];
+		for (int n = 0; n < 3; n++)
+		{
+			params.put("n", String.valueOf(n));
+			keys[n] = ExportCache.makeKey(source, params);
+			cache.obtain(keys[n], source, params);
+
+			// touch the first one so that it is the most recently used
+			if (n == 1)
+			{
+				params.put("n", "0");
+				cache.obtain(keys[0], source, params);
+			}
+		}
+
+		assertThat(cache.contains(keys[0]), is(true));
+		assertThat(cache.contains(keys[1]), is(false));
+		assertThat(cache.contains(keys[2]), is(true));
+		assertThat(cache.getTotalBytes(), is(200L));
+		assertThat(Files.list(folder).count(), is(2L));
+
+		// oversized content is kept while it is the most recent
+		source.size = 1000;
+		params.put("n", "big");
+		String bigKey = ExportCache.makeKey(source, params);
+		cache.obtain(bigKey, source, params);
+		assertThat(cache.contains(bigKey), is(true));
+		assertThat(cache.size(), is(1));
+	}
+
+	@Test
+	public void testFailureShared() throws Exception
+	{
+		ExportCache cache = new ExportCache(folder.toFile(), 1000, 5);
+		CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		AtomicInteger generated = new AtomicInteger();
+		ExportCache.Source source = new ExportCache.Source()
+		{
+			public String getName() {return "failing";}
+			public String getContentType(Map<String, String> params) {return "text/plain";}
+			public long[] getWatermarks(Map<String, String> params) {return new long[]{1};}
+			public void generate(Map<String, String> params, OutputStream ostr) throws IOException
+			{
+				generated.incrementAndGet();
+				started.countDown();
+				try {release.await();}
+				catch (InterruptedException ex) {throw new InterruptedIOException();}
+				throw new IOException("failed");
+			}
+		};
+		Map<String, String> params = new HashMap<>();
+		String key = ExportCache.makeKey(source, params);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			Future<File> first = executor.submit(() -> cache.obtain(key, source, params));
+			assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+
+			// the second request waits for the first, and gets its failure rather than trying again
+			Thread[] waiter = new Thread[1];
+			Future<File> second = executor.submit(() ->
+			{
+				waiter[0] = Thread.currentThread();
+				return cache.obtain(key, source, params);
+			});
+			for (int n = 0; n < 200 && (waiter[0] == null || waiter[0].getState() != Thread.State.WAITING); n++) Thread.sleep(10);
+			release.countDown();
+
+			ExecutionException ex1 = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+			ExecutionException ex2 = assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+			assertThat(ex1.getCause(), instanceOf(IOException.class));
+			assertThat(ex2.getCause(), instanceOf(IOException.class));
+			assertThat(generated.get(), is(1));
+			assertThat(cache.contains(key), is(false));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testMatchesETag()
+	{
+		assertThat(ExportCache.matchesETag(null, "\"abc\""), is(false));
+		assertThat(ExportCache.matchesETag("\"abc\"", "\"abc\""), is(true));
+		assertThat(ExportCache.matchesETag("\"xyz\", W/\"abc\"", "\"abc\""), is(true));
+		assertThat(ExportCache.matchesETag("*", "\"abc\""), is(true));
+		assertThat(ExportCache.matchesETag("\"xyz\", \"abcd\"", "\"abc\""), is(false));
+	}
+
+	@Test
+	public void testWarmPopular() throws IOException
+	{
+		ExportCache cache = new ExportCache(folder.toFile(), 1000, 5);
+		assertThat(cache.warmPopular(), is(0));
+	}
+
+	@Test
+	public void testServeNotModified() throws Exception
+	{
+		Common.setConfiguration(TestConfiguration.getConfiguration(false));
+
+		CountingSource source = new CountingSource();
+		Map<String, String> params = new HashMap<>();
+		String etag = "\"" + ExportCache.makeKey(source, params) + "\"";
+
+		HttpServletRequest request = MockRESTUtilities.mockedGETRequest();
+		MockServletResponse response = new MockServletResponse();
+		ExportCache.serve(source, params, request, response.getResponse());
+		assertThat(response.getHeader("ETag"), is(etag));
+		assertThat(response.getContentBytes().length, is(100));
+		assertThat(source.generated, is(1));
+
+		when(request.getHeader("If-None-Match")).thenReturn(etag);
+		response = new MockServletResponse();
+		ExportCache.serve(source, params, request, response.getResponse());
+		verify(response.getResponse()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		assertThat(response.getContentBytes().length, is(0));
+		assertThat(source.generated, is(1));
+	}
+}
@@ -72,6 +72,27 @@ public class HeaderFilterTest
 		assertThat(responseWrapper.getHeader("Set-Cookie"), is("__Host-JSESSIONID=ABCDEF; SameSite=Strict; Secure; HttpOnly"));
 	}
 
+	@Test
+	public void testAsync() throws IOException, ServletException
+	{
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.isAsyncStarted()).thenReturn(true);
+		MockServletResponse responseWrapper = new MockServletResponse();
+		HttpServletResponse response = responseWrapper.getResponse();
+		when(response.getHeader("Set-Cookie")).thenReturn("JSESSIONID=ABCDEF; Secure; HttpOnly");
+
+		// the content is written after the filter has returned, and the cookie is fixed up just before
+		ServletResponse[] passed = new ServletResponse[1];
+		FilterChain chain = (req, resp) -> passed[0] = resp;
+		HeaderFilter filter = new HeaderFilter();
+		filter.doFilter(request, response, chain);
+		assertThat(responseWrapper.getHeader("Set-Cookie"), nullValue());
+
+		passed[0].getOutputStream().write("done".getBytes());
+		assertThat(responseWrapper.getHeader("Set-Cookie"), is("__Host-JSESSIONID=ABCDEF; SameSite=Strict; Secure; HttpOnly"));
+		assertThat(responseWrapper.getContent(), is("done"));
+	}
+
 	@Test
 	public void testServletHeadersReturned() throws IOException, ServletException
 	{
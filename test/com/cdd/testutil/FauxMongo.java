@@ -125,6 +125,8 @@ public class FauxMongo
 	{
 		emptyAllCollections();
 		inloadContent();
+		store.discardSequenceBlocks();
+		store.assay().invalidateCache();
 	}
 
 	// ------------ private methods ------------